@@ -5,6 +5,8 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -13,18 +15,118 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.optimizer.JoinOptimizer;
 import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.OperatorCardinality;
+import simpledb.optimizer.QueryPlanVisualizer;
+import simpledb.optimizer.StatementCache;
 import simpledb.optimizer.TableStats;
+import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 public class Parser {
     static boolean explain = false;
 
+    /** number of workers used by parallel operators, set with -parallel */
+    static int parallelism = 1;
+
+    /**
+     * Zql does not know about LIMIT, so a trailing "LIMIT n" is cut off the
+     * statement text before it is handed to Zql and applied to the logical
+     * plan afterwards.
+     */
+    static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "(?is)^(.*\\S)\\s+LIMIT\\s+(\\d+)\\s*(;?)\\s*$");
+
+    /**
+     * A statement run with EXPLAIN ANALYZE in front of it is run to
+     * completion, and its plan printed with what each operator did.
+     */
+    static final Pattern EXPLAIN_ANALYZE = Pattern.compile(
+            "(?is)^\\s*EXPLAIN\\s+ANALYZE\\s+(.*)$");
+
+    /** LIMIT of the statement currently being processed, or -1 */
+    private int curLimit = -1;
+
+    /** number of parameters seen so far in the statement being parsed */
+    private int curParams = 0;
+
+    /** whether query plans are printed when queries are planned */
+    private boolean printPlans = true;
+
+    /**
+     * Plans of the select, insert and delete statements run lately, shared
+     * by all parsers, so that running a statement again skips parsing and
+     * join ordering.
+     */
+    static final StatementCache<Template> planCache = new StatementCache<>();
+
+    /**
+     * A planned select, insert or delete statement. Its constants may be
+     * parameters of a prepared statement, written as ?, which are given a
+     * value each time the statement is run; the joins of a query are
+     * ordered when it is first run and kept in that order afterwards.
+     */
+    static class Template {
+        /** the query, or the tuples to insert or delete */
+        final LogicalPlan plan;
+        /** the table inserted into or deleted from, or -1 for a select */
+        final int tableId;
+        final boolean insert;
+        /** the tuple of an INSERT ... VALUES; a null value is parameter
+            number valueParams[i] */
+        final Field[] values;
+        final int[] valueParams;
+        final int numParams;
+
+        Template(LogicalPlan plan, int tableId, boolean insert, Field[] values,
+                int[] valueParams, int numParams) {
+            this.plan = plan;
+            this.tableId = tableId;
+            this.insert = insert;
+            this.values = values;
+            this.valueParams = valueParams;
+            this.numParams = numParams;
+        }
+
+        /** @return false if the plan holds a subquery's physical plan, which
+            belongs to the transaction it was planned in */
+        boolean isReusable() {
+            return plan == null || !plan.hasSubqueries();
+        }
+    }
+
+    /**
+     * Strip a trailing LIMIT clause from a statement.
+     * 
+     * @param s
+     *            the statement text
+     * @param limit
+     *            receives the limit in element 0, or -1 if there is none
+     * @return the statement without its LIMIT clause
+     */
+    static String stripLimit(String s, int[] limit)
+            throws simpledb.ParsingException {
+        Matcher m = LIMIT_CLAUSE.matcher(s);
+        if (!m.matches()) {
+            limit[0] = -1;
+            return s;
+        }
+        try {
+            limit[0] = Integer.parseInt(m.group(2));
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("LIMIT " + m.group(2)
+                    + " is too large");
+        }
+        return m.group(1) + m.group(3);
+    }
+
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
             return Predicate.Op.EQUALS;
@@ -81,6 +183,17 @@ public class Parser {
             boolean op2const = ops.get(1) instanceof ZConstant; // otherwise
                                                                       // is a
                                                                       // Query
+            boolean op1param = isParameter(ops.get(0));
+            boolean op2param = isParameter(ops.get(1));
+            if (op1param || op2param) {
+                ZExp other = ops.get(op1param ? 1 : 0);
+                if (!(other instanceof ZConstant)
+                        || ((ZConstant) other).getType() != ZConstant.COLUMNNAME)
+                    throw new simpledb.ParsingException(
+                            "A parameter can only be compared with a field: " + wx);
+                lp.addParameterFilter(((ZConstant) other).getValue(), op, curParams++);
+                return;
+            }
             if (op1const && op2const) {
                 isJoin = ((ZConstant) ops.get(0)).getType() == ZConstant.COLUMNNAME
                         && ((ZConstant) ops.get(1)).getType() == ZConstant.COLUMNNAME;
@@ -137,6 +250,12 @@ public class Parser {
 
     }
 
+    /** @return true if e is a parameter of a prepared statement, a ? */
+    static boolean isParameter(ZExp e) {
+        return e instanceof ZExpression && ((ZExpression) e).getOperator().equals("?")
+                && ((ZExpression) e).nbOperands() == 0;
+    }
+
     public LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q)
             throws IOException, Zql.ParseException, simpledb.ParsingException {
         @SuppressWarnings("unchecked")
@@ -187,22 +306,18 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        List<String> groupByFields = new ArrayList<>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             List<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.get(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
+                groupByFields.add(groupByField);
                 System.out.println("GROUP BY FIELD : " + groupByField);
             }
 
@@ -212,8 +327,7 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         List<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        boolean hasAgg = false;
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.get(i);
@@ -223,20 +337,18 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                lp.addAggregate(aggFun, aggField);
+                hasAgg = true;
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                                + si.getColumn()) || groupByFields.contains(si
                                 .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -246,12 +358,12 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && !hasAgg) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+        for (String groupByField : groupByFields) {
+            lp.addGroupByField(groupByField);
         }
         // sort the data
 
@@ -281,44 +393,30 @@ public class Parser {
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws IOException,
             simpledb.ParsingException, Zql.ParseException {
-        Query query = new Query(tId);
+        return instantiate(planQueryStatement(s, tId),
+                Collections.emptyList(), tId, false);
+    }
 
+    Template planQueryStatement(ZQuery s, TransactionId tId)
+            throws IOException,
+            simpledb.ParsingException, Zql.ParseException {
+        curParams = 0;
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
-        OpIterator physicalPlan = lp.physicalPlan(tId,
-                TableStats.getStatsMap(), explain);
-        query.setPhysicalPlan(physicalPlan);
-        query.setLogicalPlan(lp);
-
-        if (physicalPlan != null) {
-            Class<?> c;
-            try {
-                c = Class.forName("simpledb.optimizer.OperatorCardinality");
-
-                Class<?> p = Operator.class;
-                Class<?> h = Map.class;
-
-                java.lang.reflect.Method m = c.getMethod(
-                        "updateOperatorCardinality", p, h, h);
-
-                System.out.println("The query plan is:");
-                m.invoke(null, physicalPlan,
-                        lp.getTableAliasToIdMapping(), TableStats.getStatsMap());
-                c = Class.forName("simpledb.optimizer.QueryPlanVisualizer");
-                m = c.getMethod(
-                        "printQueryPlanTree", OpIterator.class, System.out.getClass());
-                m.invoke(c.newInstance(), physicalPlan,System.out);
-            } catch (ClassNotFoundException | SecurityException ignored) {
-            } catch (NoSuchMethodException | InstantiationException | InvocationTargetException | IllegalAccessException | IllegalArgumentException e) {
-                e.printStackTrace();
-            }
-        }
-
-        return query;
+        if (curLimit >= 0)
+            lp.addLimit(curLimit);
+        return new Template(lp, -1, false, null, null, curParams);
     }
 
     public Query handleInsertStatement(ZInsert s, TransactionId tId)
             throws DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
+        return instantiate(planInsertStatement(s, tId),
+                Collections.emptyList(), tId, false);
+    }
+
+    Template planInsertStatement(ZInsert s, TransactionId tId)
+            throws IOException,
+            simpledb.ParsingException, Zql.ParseException {
         int tableId;
         try {
             tableId = Database.getCatalog().getTableId(s.getTable()); // will
@@ -333,10 +431,7 @@ public class Parser {
         }
 
         TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
-
-        Tuple t = new Tuple(td);
-        int i = 0;
-        OpIterator newTups;
+        curParams = 0;
 
         if (s.getValues() != null) {
             @SuppressWarnings("unchecked")
@@ -346,8 +441,15 @@ public class Parser {
                         "INSERT statement does not contain same number of fields as table "
                                 + s.getTable());
             }
+            Field[] fields = new Field[values.size()];
+            int[] params = new int[values.size()];
+            int i = 0;
             for (ZExp e : values) {
-
+                params[i] = -1;
+                if (isParameter(e)) {
+                    params[i++] = curParams++;
+                    continue;
+                }
                 if (!(e instanceof ZConstant))
                     throw new simpledb.ParsingException(
                             "Complex expressions not allowed in INSERT statements.");
@@ -358,17 +460,15 @@ public class Parser {
                                 + zc.getValue()
                                 + " is not an integer, expected a string.");
                     }
-                    IntField f = new IntField(new Integer(zc.getValue()));
-                    t.setField(i, f);
+                    fields[i] = new IntField(new Integer(zc.getValue()));
                 } else if (zc.getType() == ZConstant.STRING) {
                     if (td.getFieldType(i) != Type.STRING_TYPE) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
                                 + " is a string, expected an integer.");
                     }
-                    StringField f = new StringField(zc.getValue(),
+                    fields[i] = new StringField(zc.getValue(),
                             Type.STRING_LEN);
-                    t.setField(i, f);
                 } else {
                     throw new simpledb.ParsingException(
                             "Only string or int fields are supported.");
@@ -376,23 +476,24 @@ public class Parser {
 
                 i++;
             }
-            List<Tuple> tups = new ArrayList<>();
-            tups.add(t);
-            newTups = new TupleArrayIterator(tups);
-
+            return new Template(null, tableId, true, fields, params, curParams);
         } else {
             ZQuery zq = s.getQuery();
             LogicalPlan lp = parseQueryLogicalPlan(tId, zq);
-            newTups = lp.physicalPlan(tId, TableStats.getStatsMap(), explain);
+            return new Template(lp, tableId, true, null, null, curParams);
         }
-        Query insertQ = new Query(tId);
-        insertQ.setPhysicalPlan(new Insert(tId, newTups, tableId));
-        return insertQ;
     }
 
     public Query handleDeleteStatement(ZDelete s, TransactionId tid)
             throws
             simpledb.ParsingException, IOException, ParseException {
+        return instantiate(planDeleteStatement(s, tid),
+                Collections.emptyList(), tid, false);
+    }
+
+    Template planDeleteStatement(ZDelete s, TransactionId tid)
+            throws
+            simpledb.ParsingException, IOException, ParseException {
         int id;
         try {
             id = Database.getCatalog().getTableId(s.getTable()); // will fall
@@ -405,7 +506,7 @@ public class Parser {
                     + s.getTable());
         }
         String name = s.getTable();
-        Query sdbq = new Query(tid);
+        curParams = 0;
 
         LogicalPlan lp = new LogicalPlan();
         lp.setQuery(s.toString());
@@ -415,12 +516,135 @@ public class Parser {
             processExpression(tid, (ZExpression) s.getWhere(), lp);
         lp.addProjectField("null.*", null);
 
-        OpIterator op = new Delete(tid, lp.physicalPlan(tid,
-                TableStats.getStatsMap(), false));
-        sdbq.setPhysicalPlan(op);
+        return new Template(lp, id, false, null, null, curParams);
+    }
+
+    /**
+     * Make the Query that runs a planned statement with the specified
+     * parameter values.
+     *
+     * @param fixJoinOrder if true, the join order chosen for this run is kept
+     *        in the template for later runs
+     * @throws simpledb.ParsingException if the wrong number of parameters is
+     *         given, or one has the wrong type
+     */
+    Query instantiate(Template t, List<Field> params, TransactionId tid,
+            boolean fixJoinOrder) throws simpledb.ParsingException {
+        if (params.size() != t.numParams)
+            throw new simpledb.ParsingException("Statement has " + t.numParams
+                    + " parameters, but " + params.size() + " values were given");
+        Query query = new Query(tid);
+
+        if (t.insert) {
+            OpIterator newTups;
+            if (t.values != null) {
+                TupleDesc td = Database.getCatalog().getTupleDesc(t.tableId);
+                Tuple tup = new Tuple(td);
+                for (int i = 0; i < t.values.length; i++) {
+                    Field f = t.values[i];
+                    if (t.valueParams[i] >= 0) {
+                        f = params.get(t.valueParams[i]);
+                        if (f.getType() != td.getFieldType(i))
+                            throw new simpledb.ParsingException("Parameter "
+                                    + (t.valueParams[i] + 1) + " is a "
+                                    + f.getType() + ", expected a "
+                                    + td.getFieldType(i));
+                    }
+                    tup.setField(i, f);
+                }
+                List<Tuple> tups = new ArrayList<>();
+                tups.add(tup);
+                newTups = new TupleArrayIterator(tups);
+            } else {
+                LogicalPlan lp = t.plan.bind(params);
+                newTups = lp.physicalPlan(tid, TableStats.getStatsMap(), explain);
+                if (fixJoinOrder)
+                    t.plan.setJoinOrder(lp.getJoins());
+            }
+            try {
+                query.setPhysicalPlan(new Insert(tid, newTups, t.tableId));
+            } catch (DbException e) {
+                throw new simpledb.ParsingException(e);
+            }
+            return query;
+        }
+
+        if (t.tableId >= 0) {
+            LogicalPlan lp = t.plan.bind(params);
+            query.setPhysicalPlan(new Delete(tid, lp.physicalPlan(tid,
+                    TableStats.getStatsMap(), false)));
+            return query;
+        }
+
+        query.setParallelism(parallelism);
+        LogicalPlan lp = t.plan.bind(params);
+        lp.setParallelism(query.getParallelism());
+        OpIterator physicalPlan = lp.physicalPlan(tid,
+                TableStats.getStatsMap(), explain);
+        if (fixJoinOrder)
+            t.plan.setJoinOrder(lp.getJoins());
+        query.setPhysicalPlan(physicalPlan);
+        query.setLogicalPlan(lp);
+
+        if (physicalPlan != null && printPlans) {
+            Class<?> c;
+            try {
+                c = Class.forName("simpledb.optimizer.OperatorCardinality");
+
+                Class<?> p = Operator.class;
+                Class<?> h = Map.class;
+
+                java.lang.reflect.Method m = c.getMethod(
+                        "updateOperatorCardinality", p, h, h);
+
+                System.out.println("The query plan is:");
+                m.invoke(null, physicalPlan,
+                        lp.getTableAliasToIdMapping(), TableStats.getStatsMap());
+                c = Class.forName("simpledb.optimizer.QueryPlanVisualizer");
+                m = c.getMethod(
+                        "printQueryPlanTree", OpIterator.class, System.out.getClass());
+                m.invoke(c.newInstance(), physicalPlan,System.out);
+            } catch (ClassNotFoundException | SecurityException ignored) {
+            } catch (NoSuchMethodException | InstantiationException | InvocationTargetException | IllegalAccessException | IllegalArgumentException e) {
+                e.printStackTrace();
+            }
+        }
+
+        return query;
+    }
 
-        return sdbq;
+    /**
+     * Plan a select, insert or delete statement and make the Query that runs
+     * it, caching the plan under key unless it cannot be reused.
+     */
+    private Query planAndCache(String key, ZStatement s, List<Field> params,
+            TransactionId tid) throws simpledb.ParsingException, IOException,
+            ParseException {
+        Template t;
+        if (s instanceof ZInsert)
+            t = planInsertStatement((ZInsert) s, tid);
+        else if (s instanceof ZDelete)
+            t = planDeleteStatement((ZDelete) s, tid);
+        else
+            t = planQueryStatement((ZQuery) s, tid);
+        Query q = instantiate(t, params, tid, true);
+        if (t.isReusable())
+            planCache.put(key, t);
+        return q;
+    }
 
+    /**
+     * Strip the LIMIT off a statement, recording it in curLimit, and parse
+     * the rest with Zql.
+     */
+    private ZStatement parseStatement(String s)
+            throws simpledb.ParsingException, ParseException {
+        int[] limit = new int[1];
+        String text = stripLimit(s, limit);
+        curLimit = limit[0];
+        ZqlParser p = new ZqlParser(new ByteArrayInputStream(
+                text.getBytes(StandardCharsets.UTF_8)));
+        return p.readStatement();
     }
 
     public void handleTransactStatement(ZTransactStmt s)
@@ -465,12 +689,17 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException, IOException {
+        int[] limit = new int[1];
+        s = stripLimit(s, limit);
         ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
-                return parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                if (limit[0] >= 0)
+                    lp.addLimit(limit[0]);
+                return lp;
             }
         } catch (Zql.ParseException e) {
             throw new simpledb.ParsingException(
@@ -481,6 +710,77 @@ public class Parser {
                 "Cannot generate logical plan for expression : " + s);
     }
 
+    /**
+     * Parse a select, insert or delete statement into a Query that runs as a
+     * part of the specified transaction, without running it. Unlike
+     * {@link #processNextStatement(String)}, nothing is printed and the
+     * transaction is neither started nor completed here.
+     *
+     * @param s the statement
+     * @param tid the transaction the query will run as a part of
+     * @throws simpledb.ParsingException if the statement is invalid, or is not
+     *         a select, insert or delete statement
+     */
+    public Query parseQuery(String s, TransactionId tid)
+            throws simpledb.ParsingException, IOException {
+        return parseQuery(s, Collections.emptyList(), tid);
+    }
+
+    /**
+     * Like {@link #parseQuery(String, TransactionId)}, for a prepared
+     * statement whose constants may be parameters, written as ?. The plan of
+     * the statement is cached, so running it again, with the same or other
+     * parameter values, skips parsing and join ordering.
+     *
+     * @param params the value of each parameter, in the order they appear
+     * @throws simpledb.ParsingException if the statement is invalid, or the
+     *         wrong number of parameters is given, or one has the wrong type
+     */
+    public Query parseQuery(String s, List<Field> params, TransactionId tid)
+            throws simpledb.ParsingException, IOException {
+        String key = StatementCache.normalize(s);
+        Template cached = planCache.get(key);
+        if (cached != null)
+            return instantiate(cached, params, tid, false);
+        try {
+            ZStatement stmt = parseStatement(s);
+            if (!(stmt instanceof ZInsert || stmt instanceof ZDelete
+                    || stmt instanceof ZQuery))
+                throw new simpledb.ParsingException(
+                        "Only select, insert and delete statements can be run: " + stmt);
+            return planAndCache(key, stmt, params, tid);
+        } catch (ParseException | TokenMgrError e) {
+            throw new simpledb.ParsingException("Invalid SQL expression: \n \t " + e);
+        } finally {
+            curLimit = -1;
+        }
+    }
+
+    /**
+     * Start running a select, insert or delete statement as a part of the
+     * specified transaction, returning a cursor over its result.
+     *
+     * @see #parseQuery(String, List, TransactionId)
+     */
+    public ResultSet executeQuery(String s, List<Field> params, TransactionId tid)
+            throws simpledb.ParsingException, IOException, DbException,
+            TransactionAbortedException {
+        return new ResultSet(parseQuery(s, params, tid));
+    }
+
+    public ResultSet executeQuery(String s, TransactionId tid)
+            throws simpledb.ParsingException, IOException, DbException,
+            TransactionAbortedException {
+        return executeQuery(s, Collections.emptyList(), tid);
+    }
+
+    /**
+     * Set whether the plan of each query is printed when it is planned.
+     */
+    public void setPrintPlans(boolean printPlans) {
+        this.printPlans = printPlans;
+    }
+
     public void setTransaction(Transaction t) {
         curtrans = t;
     }
@@ -495,10 +795,19 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
-            ZStatement s = p.readStatement();
+            String text = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+            Matcher explainAnalyze = EXPLAIN_ANALYZE.matcher(text);
+            boolean analyze = explainAnalyze.matches();
+            if (analyze)
+                text = explainAnalyze.group(1);
+            String key = StatementCache.normalize(text);
+            Template cached = planCache.get(key);
+            ZStatement s = cached == null ? parseStatement(text) : null;
 
             Query query = null;
+            if (analyze && s instanceof ZTransactStmt)
+                throw new simpledb.ParsingException(
+                        "EXPLAIN ANALYZE only runs select, insert and delete statements");
             if (s instanceof ZTransactStmt)
                 handleTransactStatement((ZTransactStmt) s);
             else {
@@ -509,14 +818,12 @@ public class Parser {
                             + curtrans.getId().getId());
                 }
                 try {
-                    if (s instanceof ZInsert)
-                        query = handleInsertStatement((ZInsert) s,
-                                curtrans.getId());
-                    else if (s instanceof ZDelete)
-                        query = handleDeleteStatement((ZDelete) s,
-                                curtrans.getId());
-                    else if (s instanceof ZQuery)
-                        query = handleQueryStatement((ZQuery) s,
+                    if (cached != null)
+                        query = instantiate(cached, Collections.emptyList(),
+                                curtrans.getId(), false);
+                    else if (s instanceof ZInsert || s instanceof ZDelete
+                            || s instanceof ZQuery)
+                        query = planAndCache(key, s, Collections.emptyList(),
                                 curtrans.getId());
                     else {
                         System.out
@@ -524,7 +831,9 @@ public class Parser {
                                         + s
                                         + "\n -- parser only handles SQL transactions, insert, delete, and select statements");
                     }
-                    if (query != null)
+                    if (query != null && analyze)
+                        explainAnalyze(query);
+                    else if (query != null)
                         query.execute();
 
                     if (!inUserTrans && curtrans != null) {
@@ -551,6 +860,7 @@ public class Parser {
                 } finally {
                     if (!inUserTrans)
                         curtrans = null;
+                    curLimit = -1;
                 }
             }
 
@@ -564,10 +874,44 @@ public class Parser {
         }
     }
 
+    /**
+     * Run a query to completion, discarding its result, and print its plan
+     * with the actual number of tuples, time and page requests of each
+     * operator next to its estimated cardinality.
+     */
+    void explainAnalyze(Query query) throws DbException, TransactionAbortedException {
+        OpIterator plan = query.getPhysicalPlan();
+        LogicalPlan lp = query.getLogicalPlan();
+        if (lp != null && plan instanceof Operator) {
+            boolean haveStats = true;
+            for (int id : lp.getTableAliasToIdMapping().values())
+                haveStats &= TableStats.getTableStats(Database.getCatalog().getTableName(id)) != null;
+            if (haveStats)
+                OperatorCardinality.updateOperatorCardinality((Operator) plan,
+                        lp.getTableAliasToIdMapping(), TableStats.getStatsMap());
+        }
+
+        Profiler profiler = new Profiler(plan);
+        query.setPhysicalPlan(profiler.getRoot());
+        long start = System.nanoTime();
+        int cnt = 0;
+        try (ResultSet rs = new ResultSet(query)) {
+            while (rs.next())
+                cnt++;
+        } finally {
+            profiler.detach();
+            query.setPhysicalPlan(plan);
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(new QueryPlanVisualizer().getQueryPlanTree(plan, profiler));
+        System.out.printf("%n %d rows in %.1f ms.%n", cnt, elapsed / 1e6);
+    }
+
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
-            "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "group by", "order by", "limit", "max(", "min(", "avg(", "count",
+            "rollback", "commit", "insert", "delete", "values", "into",
+            "explain analyze" };
 
     public static void main(String[] argv) throws IOException {
 
@@ -581,10 +925,11 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-parallel n] [-greedy joins] [-sample tuples] [-f queryFile]";
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
+        TableStats.saveStatistics();
         System.out.println("Bye");
     }
 
@@ -593,7 +938,6 @@ public class Parser {
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
-        TableStats.computeStatistics();
 
         String queryFile = null;
 
@@ -602,6 +946,30 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-parallel")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected number of workers after -parallel\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    parallelism = Math.max(1, Integer.parseInt(argv[i]));
+                    System.out.println("Using " + parallelism + " workers.");
+                } else if (argv[i].equals("-greedy")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected number of joins after -greedy\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    JoinOptimizer.setGreedyThreshold(Integer.parseInt(argv[i]));
+                    System.out.println("Ordering more than " + argv[i] + " joins greedily.");
+                } else if (argv[i].equals("-sample")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected number of tuples after -sample\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    TableStats.setSampleSize(Integer.parseInt(argv[i]));
+                    System.out.println("Sampling " + argv[i] + " tuples per table.");
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
@@ -617,6 +985,7 @@ public class Parser {
                 }
             }
         }
+        TableStats.computeStatistics();
         if (!interactive) {
             try {
                 // curtrans = new Transaction();
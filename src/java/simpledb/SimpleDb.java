@@ -95,6 +95,16 @@ public class SimpleDb {
                     e.printStackTrace();
                 }
 
+                break;
+            case "server":
+                String[] serverArgs = new String[args.length - 1];
+                System.arraycopy(args, 1, serverArgs, 0, args.length - 1);
+                try {
+                    simpledb.server.QueryServer.main(serverArgs);
+                } catch (IOException | InterruptedException e) {
+                    System.out.println("Error in server.");
+                    e.printStackTrace();
+                }
                 break;
             default:
                 System.err.println("Unknown command: " + args[0]);
@@ -1,8 +1,11 @@
 package simpledb.common;
 
+import simpledb.index.BTreeFile;
+import simpledb.index.SecondaryIndex;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
 import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -25,6 +28,8 @@ public class Catalog {
         private final DbFile file;
         private final String name;
         private final String pkey;
+        private final List<int[]> columnGroups = new ArrayList<>();
+        private final List<SecondaryIndex> indexes = new ArrayList<>();
 
         public TableInfo(DbFile file, String name, String pkey) {
             this.file = file;
@@ -43,12 +48,29 @@ public class Catalog {
         public String getPkey() {
             return pkey;
         }
+
+        public List<int[]> getColumnGroups() {
+            return columnGroups;
+        }
+
+        public List<SecondaryIndex> getIndexes() {
+            return indexes;
+        }
     }
 
     private final Map<String, Integer> name2id;
 
     private final Map<Integer, TableInfo> id2info;
 
+    /** the secondary indexes of all tables, by the id of their file */
+    private final Map<Integer, SecondaryIndex> id2index;
+
+    /** bumped whenever a table is added or removed */
+    private volatile int version;
+
+    /** the file the statistics of the tables are saved in, next to the schema */
+    private volatile File statisticsFile;
+
     /**
      * Constructor.
      * Creates a new, empty catalog.
@@ -57,6 +79,7 @@ public class Catalog {
         // some code goes here
         this.name2id = new HashMap<>();
         this.id2info = new HashMap<>();
+        this.id2index = new HashMap<>();
     }
 
     /**
@@ -74,6 +97,7 @@ public class Catalog {
         TableInfo tableInfo = new TableInfo(file, name, pkeyField);
         this.name2id.put(name, id);
         this.id2info.put(id, tableInfo);
+        version++;
     }
 
     public void addTable(DbFile file, String name) {
@@ -102,26 +126,30 @@ public class Catalog {
     }
 
     /**
-     * Returns the tuple descriptor (schema) of the specified table
+     * Returns the tuple descriptor (schema) of the specified table, or of
+     * the entries of the specified secondary index
      * @param tableid The id of the table, as specified by the DbFile.getId()
      *     function passed to addTable
      * @throws NoSuchElementException if the table doesn't exist
      */
     public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
         // some code goes here
-        if(!this.id2info.containsKey(tableid)) throw new NoSuchElementException();
-        return this.id2info.get(tableid).getFile().getTupleDesc();
+        return getDatabaseFile(tableid).getTupleDesc();
     }
 
     /**
      * Returns the DbFile that can be used to read the contents of the
-     * specified table.
+     * specified table, or the file of the specified secondary index.
      * @param tableid The id of the table, as specified by the DbFile.getId()
      *     function passed to addTable
      */
     public DbFile getDatabaseFile(int tableid) throws NoSuchElementException {
         // some code goes here
-        if(!this.id2info.containsKey(tableid)) throw new NoSuchElementException();
+        if(!this.id2info.containsKey(tableid)) {
+            SecondaryIndex index = this.id2index.get(tableid);
+            if(index == null) throw new NoSuchElementException();
+            return index.getFile();
+        }
         return this.id2info.get(tableid).getFile();
     }
 
@@ -131,6 +159,115 @@ public class Catalog {
         return this.id2info.get(tableid).getPkey();
     }
 
+    /**
+     * Declare a group of columns of a table whose combined values
+     * {@link simpledb.optimizer.TableStats} should collect statistics on, for
+     * predicates on columns that are not independent of each other.
+     * @param tableid The id of the table
+     * @param fields The names of two or more fields of the table
+     * @throws NoSuchElementException if the table or a field doesn't exist
+     */
+    public void addColumnGroup(int tableid, String... fields) throws NoSuchElementException {
+        if (!this.id2info.containsKey(tableid)) throw new NoSuchElementException();
+        if (fields.length < 2)
+            throw new IllegalArgumentException("a column group needs two columns or more");
+        TableInfo info = this.id2info.get(tableid);
+        TupleDesc td = info.getFile().getTupleDesc();
+        int[] group = new int[fields.length];
+        for (int i = 0; i < fields.length; i++)
+            group[i] = td.fieldNameToIndex(fields[i]);
+        info.getColumnGroups().add(group);
+        version++;
+    }
+
+    /**
+     * @return the groups of columns of a table declared with
+     *         {@link #addColumnGroup}, as the indexes of their fields
+     */
+    public List<int[]> getColumnGroups(int tableid) throws NoSuchElementException {
+        if (!this.id2info.containsKey(tableid)) throw new NoSuchElementException();
+        List<int[]> groups = new ArrayList<>();
+        for (int[] g : this.id2info.get(tableid).getColumnGroups())
+            groups.add(g.clone());
+        return groups;
+    }
+
+    /**
+     * Add a secondary index over a field of a table stored in a heap file.
+     * The index is filled from the tuples of the table if its file is empty.
+     * @param tableid The id of the table
+     * @param field The name of the field to index
+     * @param f The file the B+ tree of the index is stored in
+     * @return the index
+     * @throws NoSuchElementException if the table or the field doesn't exist
+     * @throws IllegalArgumentException if the table is not a heap file
+     */
+    public SecondaryIndex addIndex(int tableid, String field, File f)
+            throws NoSuchElementException, DbException, IOException, TransactionAbortedException {
+        return addIndex(tableid, field, f, false);
+    }
+
+    /**
+     * Add a secondary index over a field of a table stored in a heap file,
+     * backed by a B+ tree or by a hash file, which only finds the tuples
+     * equal to a key. The index is filled from the tuples of the table if
+     * its file is empty.
+     * @param tableid The id of the table
+     * @param field The name of the field to index
+     * @param f The file the entries of the index are stored in
+     * @param hash true for a hash index, false for a B+ tree
+     * @return the index
+     * @throws NoSuchElementException if the table or the field doesn't exist
+     * @throws IllegalArgumentException if the table is not a heap file
+     */
+    public SecondaryIndex addIndex(int tableid, String field, File f, boolean hash)
+            throws NoSuchElementException, DbException, IOException, TransactionAbortedException {
+        return addIndex(tableid, field, f, hash, new String[0]);
+    }
+
+    /**
+     * Add a secondary index over a field of a table stored in a heap file,
+     * whose entries include the values of other fields of the table, so that
+     * queries reading only those fields and the indexed one are answered
+     * from the index alone.
+     * @param tableid The id of the table
+     * @param field The name of the field to index
+     * @param f The file the entries of the index are stored in
+     * @param hash true for a hash index, false for a B+ tree
+     * @param include The names of the fields whose values the entries hold
+     * @return the index
+     * @throws NoSuchElementException if the table or a field doesn't exist
+     * @throws IllegalArgumentException if the table is not a heap file
+     */
+    public SecondaryIndex addIndex(int tableid, String field, File f, boolean hash, String[] include)
+            throws NoSuchElementException, DbException, IOException, TransactionAbortedException {
+        if (!this.id2info.containsKey(tableid)) throw new NoSuchElementException();
+        TableInfo info = this.id2info.get(tableid);
+        if (!(info.getFile() instanceof HeapFile))
+            throw new IllegalArgumentException("only heap files have secondary indexes");
+        TupleDesc td = info.getFile().getTupleDesc();
+        int[] included = new int[include.length];
+        for (int i = 0; i < include.length; i++)
+            included[i] = td.fieldNameToIndex(include[i]);
+        boolean fresh = f.length() == 0;
+        SecondaryIndex index = new SecondaryIndex(f, tableid,
+                td.fieldNameToIndex(field), hash, included);
+        this.id2index.put(index.getFile().getId(), index);
+        info.getIndexes().add(index);
+        version++;
+        if (fresh && ((HeapFile) info.getFile()).numPages() > 0)
+            index.build();
+        return index;
+    }
+
+    /**
+     * @return the secondary indexes of a table added with {@link #addIndex}
+     */
+    public List<SecondaryIndex> getIndexes(int tableid) throws NoSuchElementException {
+        if (!this.id2info.containsKey(tableid)) throw new NoSuchElementException();
+        return Collections.unmodifiableList(this.id2info.get(tableid).getIndexes());
+    }
+
     public Iterator<Integer> tableIdIterator() {
         // some code goes here
         Collection<Integer> ct = this.id2info.keySet();
@@ -148,8 +285,42 @@ public class Catalog {
         // some code goes here
         this.name2id.clear();
         this.id2info.clear();
+        this.id2index.clear();
+        this.statisticsFile = null;
+        version++;
+    }
+
+    /**
+     * @return the file the statistics of the tables loaded by
+     *         {@link #loadSchema} are saved in, or null if no schema was
+     *         loaded
+     */
+    public File getStatisticsFile() {
+        return statisticsFile;
+    }
+
+    /**
+     * @return a number that changes whenever the set of tables changes, so
+     *         that plans made against an older catalog can be told apart
+     */
+    public int getVersion() {
+        return version;
     }
     
+    // the fields of an index clause of a catalog file: the indexed field,
+    // then the included fields
+    private static String[] indexFields(String clause) {
+        String[] fields = clause.split(",");
+        for (int i = 0; i < fields.length; i++)
+            fields[i] = fields[i].trim();
+        return fields;
+    }
+
+    private static String[] includedFields(String clause) {
+        String[] fields = indexFields(clause);
+        return Arrays.copyOfRange(fields, 1, fields.length);
+    }
+
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
      * @param catalogFile The name of the catalogFile on disk to be loaded.
@@ -161,7 +332,12 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(catalogFile));
             
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...),
+                //optionally followed by column groups: stats (field, field, ...) ...
+                //and by the key of a B+ tree organized table: btree (field)
+                //or secondary indexes of a heap file table: index (field) ...
+                //and hash (field) ... for hash indexes, each optionally
+                //including other fields: index (field, included, ...)
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -195,10 +371,69 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                List<String> groups = new ArrayList<>();
+                List<String> indexed = new ArrayList<>();
+                List<String> hashed = new ArrayList<>();
+                int key = -1;
+                String rest = line.substring(line.indexOf(")") + 1).trim();
+                while (!rest.isEmpty()) {
+                    String clause = rest.substring(0, rest.indexOf("(")).trim().toLowerCase();
+                    String args = rest.substring(rest.indexOf("(") + 1, rest.indexOf(")"));
+                    if (clause.equals("stats")) {
+                        groups.add(args);
+                    } else if (clause.equals("index")) {
+                        indexed.add(args.trim());
+                    } else if (clause.equals("hash")) {
+                        hashed.add(args.trim());
+                    } else if (clause.equals("btree") && key < 0) {
+                        key = names.indexOf(args.trim());
+                        if (key < 0) {
+                            System.out.println("Unknown key field " + args.trim() + " of " + name);
+                            System.exit(0);
+                        }
+                    } else {
+                        System.out.println("Unknown clause " + rest);
+                        System.exit(0);
+                    }
+                    rest = rest.substring(rest.indexOf(")") + 1).trim();
+                }
+                File data = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf = key < 0 ? new HeapFile(data, t) : new BTreeFile(data, key, t);
                 addTable(tabHf,name,primaryKey);
+                for (String group : groups) {
+                    String[] groupFields = group.split(",");
+                    for (int i = 0; i < groupFields.length; i++)
+                        groupFields[i] = groupFields[i].trim();
+                    try {
+                        addColumnGroup(tabHf.getId(), groupFields);
+                    } catch (NoSuchElementException | IllegalArgumentException e) {
+                        System.out.println("Invalid column group (" + group + ") of " + name);
+                        System.exit(0);
+                    }
+                }
+                for (String field : indexed) {
+                    try {
+                        addIndex(tabHf.getId(), indexFields(field)[0], new File(baseFolder+"/"+name + "."
+                                + String.join(".", indexFields(field)) + ".idx"), false, includedFields(field));
+                    } catch (NoSuchElementException | IllegalArgumentException | DbException
+                            | TransactionAbortedException e) {
+                        System.out.println("Invalid index (" + field + ") of " + name);
+                        System.exit(0);
+                    }
+                }
+                for (String field : hashed) {
+                    try {
+                        addIndex(tabHf.getId(), indexFields(field)[0], new File(baseFolder+"/"+name + "."
+                                + String.join(".", indexFields(field)) + ".hash"), true, includedFields(field));
+                    } catch (NoSuchElementException | IllegalArgumentException | DbException
+                            | TransactionAbortedException e) {
+                        System.out.println("Invalid hash index (" + field + ") of " + name);
+                        System.exit(0);
+                    }
+                }
                 System.out.println("Added table : " + name + " with schema " + t);
             }
+            statisticsFile = new File(catalogFile + ".stats");
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
@@ -1,34 +1,43 @@
 package simpledb.execution;
 
 import simpledb.common.DbException;
-import simpledb.common.Type;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
 import java.io.Serial;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 
 /**
- * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * The Aggregation operator that computes aggregates (e.g., sum, avg, max,
+ * min). Any number of aggregates, grouped by any number of columns, are
+ * computed together in a single pass over the child.
+ * <p>
+ * If the child is a {@link Gather}, each of its pipelines is aggregated on
+ * its own worker into its own {@link HashAggregator}, without passing the
+ * tuples through the gather. The same is done if the parallelism of the
+ * operator is greater than one and its child is a {@link SeqScan}, after
+ * splitting the scan into page ranges. The partial aggregates are then
+ * merged, so the results are the same as those of a serial aggregation.
  */
 public class Aggregate extends Operator {
 
     private OpIterator child;
 
-    private final int afield;
+    private final List<Integer> gfields;
 
-    private final int gfield;
+    private final List<AggregateSpec> aggs;
 
-    private final Aggregator.Op aop;
+    private Aggregator ag;
 
     private OpIterator it;
 
+    private int parallelism = 1;
+
     @Serial
     private static final long serialVersionUID = 1L;
 
@@ -47,20 +56,49 @@ public class Aggregate extends Operator {
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
         // some code goes here
+        this(child,
+                gfield == Aggregator.NO_GROUPING ? Collections.emptyList() : Collections.singletonList(gfield),
+                Collections.singletonList(new AggregateSpec(aop, afield)));
+    }
+
+    /**
+     * Constructor for several aggregates grouped by several columns.
+     *
+     * @param child   The OpIterator that is feeding us tuples.
+     * @param gfields The columns over which we are grouping the result; empty
+     *                if there is no grouping
+     * @param aggs    The aggregates to compute
+     */
+    public Aggregate(OpIterator child, List<Integer> gfields, List<AggregateSpec> aggs) {
+        if (aggs.isEmpty())
+            throw new IllegalArgumentException("no aggregates to compute");
         this.child = child;
-        this.afield = afield;
-        this.gfield = gfield;
-        this.aop = aop;
+        this.gfields = new ArrayList<>(gfields);
+        this.aggs = new ArrayList<>(aggs);
+    }
+
+    /**
+     * @return the group by field indexes in the <b>INPUT</b> tuples
+     */
+    public List<Integer> groupFields() {
+        return Collections.unmodifiableList(this.gfields);
     }
 
     /**
-     * @return If this aggregate is accompanied by a groupby, return the groupby
-     * field index in the <b>INPUT</b> tuples. If not, return
+     * @return the aggregates computed by this operator
+     */
+    public List<AggregateSpec> aggregates() {
+        return Collections.unmodifiableList(this.aggs);
+    }
+
+    /**
+     * @return If this aggregate is accompanied by a groupby, return the (first)
+     * groupby field index in the <b>INPUT</b> tuples. If not, return
      * {@link Aggregator#NO_GROUPING}
      */
     public int groupField() {
         // some code goes here
-        return this.gfield;
+        return gfields.isEmpty() ? Aggregator.NO_GROUPING : gfields.get(0);
     }
 
     /**
@@ -70,18 +108,18 @@ public class Aggregate extends Operator {
      */
     public String groupFieldName() {
         // some code goes here
-        if(gfield != -1) {
-            return child.getTupleDesc().getFieldName(gfield);
+        if(!gfields.isEmpty()) {
+            return child.getTupleDesc().getFieldName(gfields.get(0));
         }
         else return null;
     }
 
     /**
-     * @return the aggregate field
+     * @return the (first) aggregate field
      */
     public int aggregateField() {
         // some code goes here
-        return this.afield;
+        return aggs.get(0).getField();
     }
 
     /**
@@ -90,15 +128,31 @@ public class Aggregate extends Operator {
      */
     public String aggregateFieldName() {
         // some code goes here
-        return child.getTupleDesc().getFieldName(afield);
+        return child.getTupleDesc().getFieldName(aggregateField());
     }
 
     /**
-     * @return return the aggregate operator
+     * @return return the (first) aggregate operator
      */
     public Aggregator.Op aggregateOp() {
         // some code goes here
-        return this.aop;
+        return aggs.get(0).getOp();
+    }
+
+    /**
+     * Set the number of worker threads used to aggregate a {@link SeqScan}
+     * child. Takes effect on the next call to open().
+     *
+     * @param parallelism the number of workers; 1 aggregates serially
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive");
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return this.parallelism;
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -108,37 +162,66 @@ public class Aggregate extends Operator {
     public void open() throws NoSuchElementException, DbException,
             TransactionAbortedException {
         // some code goes here
-        child.open();
         super.open();
 
-        Aggregator ag;
+        List<SeqScan> parts = parallelism > 1 && child instanceof SeqScan
+                ? ((SeqScan) child).partition(parallelism)
+                : Collections.emptyList();
+        if (child instanceof Gather) {
+            // the gather is not opened: its pipelines feed the workers directly
+            ag = aggregateInParallel((Gather) child);
+        } else if (parts.size() > 1) {
+            ag = aggregateInParallel(new Gather(parts.toArray(new OpIterator[0])));
+        } else {
+            child.open();
+            HashAggregator serial = newAggregator();
+            while (child.hasNext()) {
+                serial.mergeTupleIntoGroup(child.next());
+            }
+            ag = serial;
+        }
 
-        Type gbfieldtype;
-        if(gfield == -1) { gbfieldtype = null; }
-        else { gbfieldtype = child.getTupleDesc().getFieldType(gfield); }
+        this.it = ag.iterator();
+        this.it.open(); // once forget to add here, use 2 hours to debug!
+    }
 
-        Type afieldtype = child.getTupleDesc().getFieldType(afield);
-        if(afieldtype == Type.INT_TYPE) {
-            ag = new IntegerAggregator(gfield, gbfieldtype, afield, aop);
-        }
-        else {
-            ag = new StringAggregator(gfield, gbfieldtype, afield, aop);
-        }
+    private HashAggregator newAggregator() {
+        return new HashAggregator(child.getTupleDesc(), groupFieldArray(),
+                aggs.toArray(new AggregateSpec[0]));
+    }
 
-        while(child.hasNext()) {
-            ag.mergeTupleIntoGroup(child.next());
+    /**
+     * Aggregate each pipeline of the gather into its own HashAggregator, then
+     * merge the partial aggregates into the first one.
+     */
+    private HashAggregator aggregateInParallel(Gather gather)
+            throws DbException, TransactionAbortedException {
+        List<HashAggregator> partials = gather.runPipelines(pipeline -> {
+            HashAggregator partial = newAggregator();
+            while (pipeline.hasNext())
+                partial.mergeTupleIntoGroup(pipeline.next());
+            return partial;
+        });
+        HashAggregator result = partials.get(0);
+        for (int i = 1; i < partials.size(); i++) {
+            result.merge(partials.get(i));
+            partials.get(i).close();
         }
+        return result;
+    }
 
-        this.it = ag.iterator();
-        this.it.open(); // once forget to add here, use 2 hours to debug!
+    private int[] groupFieldArray() {
+        int[] a = new int[gfields.size()];
+        for (int i = 0; i < a.length; i++)
+            a[i] = gfields.get(i);
+        return a;
     }
 
     /**
-     * Returns the next tuple. If there is a group by field, then the first
-     * field is the field by which we are grouping, and the second field is the
-     * result of computing the aggregate. If there is no group by field, then
-     * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * Returns the next tuple. The group by fields come first, followed by the
+     * result of each aggregate. If there is no group by field, then the result
+     * tuple contains only the aggregate results. Should return null if there
+     * are no more tuples.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
@@ -155,39 +238,28 @@ public class Aggregate extends Operator {
     }
 
     /**
-     * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
-     * <p>
-     * The name of an aggregate column should be informative. For example:
-     * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
-     * given in the constructor, and child_td is the TupleDesc of the child
-     * iterator.
+     * Returns the TupleDesc of this Aggregate: the group by fields, followed by
+     * one INT field per aggregate. The aggregate fields are named after the
+     * fields they aggregate in the child TupleDesc.
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        TupleDesc td;
-        Type afieldtype = child.getTupleDesc().getFieldType(afield);
-        if(gfield == -1) {
-            TupleDesc.TDItem td2 = new TupleDesc.TDItem(afieldtype, aggregateFieldName());
-            td = new TupleDesc(Collections.singletonList(td2));
-        }
-        else {
-            Type gbfieldtype = child.getTupleDesc().getFieldType(gfield);
-            TupleDesc.TDItem td1 = new TupleDesc.TDItem(gbfieldtype, groupFieldName());
-            TupleDesc.TDItem td2 = new TupleDesc.TDItem(afieldtype, aggregateFieldName());
-            td = new TupleDesc(Arrays.asList(td1, td2));
-        }
-        return td;
+        return HashAggregator.getTupleDesc(child.getTupleDesc(), groupFieldArray(),
+                aggs.toArray(new AggregateSpec[0]));
     }
 
     public void close() {
         // some code goes here
         child.close();
         super.close();
-        this.it.close();
-        this.it = null;
+        if (this.it != null) {
+            this.it.close();
+            this.it = null;
+        }
+        if (this.ag != null) {
+            this.ag.close();
+            this.ag = null;
+        }
     }
 
     @Override
@@ -0,0 +1,596 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.NoSuchElementException;
+
+/**
+ * A hash table of running aggregates, used by {@link IntegerAggregator},
+ * {@link StringAggregator} and {@link HashAggregator}.
+ * <p>
+ * A group key is made of zero or more columns. Each key column is stored as a
+ * primitive int: integer columns as their value, string columns as a code
+ * from a per-column dictionary. Groups are found by open addressing (linear
+ * probing) over these int keys. The count of every group, and the sum, min
+ * and max of each of its value columns, are kept in parallel long arrays
+ * indexed by group id, so merging a tuple into an existing group allocates
+ * nothing and sums do not overflow.
+ * <p>
+ * At most {@link #getMaxGroups()} groups are kept in memory. Once the table
+ * is full, tuples of groups not already in the table are spilled to one of
+ * {@link #SPILL_FANOUT} partition files according to the hash of their key.
+ * When the results are iterated, the in-memory groups are returned first and
+ * then each partition is aggregated in turn by a new table, which may spill
+ * again on a different part of the hash.
+ * <p>
+ * Every group is kept, and spilled, as a partial aggregate (count, and sum,
+ * min and max per value column) rather than as a final value, so tables
+ * built independently over disjoint parts of the input can be combined with
+ * {@link #merge(AggregateHashTable)}. The result is the same as if a single
+ * table had seen the whole input.
+ */
+public class AggregateHashTable {
+
+    /** Default maximum number of groups kept in memory. */
+    public static final int DEFAULT_MAX_GROUPS = 1 << 18;
+
+    /** Number of partitions overflowing groups are spilled to. */
+    public static final int SPILL_FANOUT = 16;
+
+    private static final int FANOUT_BITS = 4;
+
+    /** Deepest partitioning level; past it a table grows without bound. */
+    private static final int MAX_LEVEL = 32 / FANOUT_BITS - 1;
+
+    private static int maxGroups = DEFAULT_MAX_GROUPS;
+
+    private final Type[] keyTypes;
+    private final int width;
+    private final int numValues;
+    private final int level;
+
+    // open-addressing table: slot holds group id + 1, 0 if empty
+    private int[] slots;
+    // key columns of group g are keys[g * width ... g * width + width - 1]
+    private int[] keys;
+    // hash of each group's key, so rehashing does not need the key values
+    private int[] hashes;
+
+    // per string key column: string to code, and code to string
+    private final HashMap<String, Integer>[] dicts;
+    private final ArrayList<String>[] dictValues;
+
+    private long[] cnt;
+    // value column v of group g is at g * numValues + v
+    private long[] sum;
+    private long[] min;
+    private long[] max;
+    private int numGroups;
+
+    // scratch space for the key and partial aggregate being merged
+    private final int[] intKeys;
+    private final String[] strKeys;
+    private final int[] codes;
+    private long partCnt;
+    private final long[] partSum;
+    private final long[] partMin;
+    private final long[] partMax;
+
+    private File[] spillFiles;
+    private DataOutputStream[] spillOuts;
+
+    /**
+     * Create an empty table with a single value column.
+     *
+     * @param keyType
+     *            the type of the group key, or null if there is no grouping
+     */
+    public AggregateHashTable(Type keyType) {
+        this(keyType == null ? new Type[0] : new Type[] { keyType }, 1);
+    }
+
+    /**
+     * Create an empty table.
+     *
+     * @param keyTypes
+     *            the types of the group key columns; empty if there is no
+     *            grouping
+     * @param numValues
+     *            the number of value columns aggregated per group
+     */
+    public AggregateHashTable(Type[] keyTypes, int numValues) {
+        this(keyTypes, numValues, 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private AggregateHashTable(Type[] keyTypes, int numValues, int level) {
+        this.keyTypes = keyTypes;
+        this.width = keyTypes.length;
+        this.numValues = numValues;
+        this.level = level;
+        dicts = (HashMap<String, Integer>[]) new HashMap<?, ?>[width];
+        dictValues = (ArrayList<String>[]) new ArrayList<?>[width];
+        for (int c = 0; c < width; c++) {
+            if (keyTypes[c] == Type.STRING_TYPE) {
+                dicts[c] = new HashMap<>();
+                dictValues[c] = new ArrayList<>();
+            }
+        }
+        intKeys = new int[width];
+        strKeys = new String[width];
+        codes = new int[width];
+        partSum = new long[numValues];
+        partMin = new long[numValues];
+        partMax = new long[numValues];
+
+        int capacity = 16;
+        slots = new int[capacity * 2];
+        keys = new int[capacity * width];
+        hashes = new int[capacity];
+        cnt = new long[capacity];
+        sum = new long[capacity * numValues];
+        min = new long[capacity * numValues];
+        max = new long[capacity * numValues];
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void setMaxGroups(int groups) {
+        AggregateHashTable.maxGroups = groups;
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void resetMaxGroups() {
+        AggregateHashTable.maxGroups = DEFAULT_MAX_GROUPS;
+    }
+
+    public static int getMaxGroups() {
+        return maxGroups;
+    }
+
+    /**
+     * Hash of the key in intKeys/strKeys. It depends only on the key values,
+     * not on dictionary codes, so that it is the same in every table.
+     */
+    private int hashKey() {
+        int h = 0;
+        for (int c = 0; c < width; c++)
+            h = h * 31 + (keyTypes[c] == Type.INT_TYPE ? intKeys[c] : strKeys[c].hashCode());
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** the spill partition of a hash at this table's level */
+    private int partition(int h) {
+        return (h >>> (32 - FANOUT_BITS * (level + 1))) & (SPILL_FANOUT - 1);
+    }
+
+    private boolean full() {
+        return numGroups >= maxGroups && level < MAX_LEVEL;
+    }
+
+    /**
+     * Merge a value into the group of the specified key. Only for tables
+     * with a single value column and at most one key column.
+     *
+     * @param key
+     *            the group key, or null if there is no grouping
+     * @param value
+     *            the value to aggregate
+     */
+    public void add(Field key, int value) {
+        if (width > 0)
+            setKey(0, key);
+        partCnt = 1;
+        setValue(0, value);
+        add();
+    }
+
+    /**
+     * Merge a tuple into its group.
+     *
+     * @param t
+     *            the tuple
+     * @param keyFields
+     *            the indexes of the group key columns in t
+     * @param valueFields
+     *            the indexes of the value columns in t; values of string
+     *            columns are merged as 0, so only their count is meaningful
+     */
+    public void add(Tuple t, int[] keyFields, int[] valueFields) {
+        for (int c = 0; c < width; c++)
+            setKey(c, t.getField(keyFields[c]));
+        partCnt = 1;
+        for (int v = 0; v < numValues; v++) {
+            Field f = t.getField(valueFields[v]);
+            setValue(v, f.getType() == Type.INT_TYPE ? ((IntField) f).getValue() : 0);
+        }
+        add();
+    }
+
+    /**
+     * Merge every group of another table, including its spilled groups, into
+     * this one. Counts and sums are added and minimums and maximums combined,
+     * so the final aggregates of this table afterwards are those of the
+     * union of both inputs. The other table is left unchanged.
+     *
+     * @param other
+     *            a table with the same key types and number of value columns
+     * @throws IllegalArgumentException
+     *            if the tables have different layouts
+     */
+    public void merge(AggregateHashTable other) {
+        if (!Arrays.equals(keyTypes, other.keyTypes) || numValues != other.numValues)
+            throw new IllegalArgumentException("cannot merge tables with different layouts");
+        for (int g = 0; g < other.numGroups; g++) {
+            for (int c = 0; c < width; c++) {
+                int code = other.keys[g * width + c];
+                if (keyTypes[c] == Type.INT_TYPE)
+                    intKeys[c] = code;
+                else
+                    strKeys[c] = other.dictValues[c].get(code);
+            }
+            partCnt = other.cnt[g];
+            System.arraycopy(other.sum, g * numValues, partSum, 0, numValues);
+            System.arraycopy(other.min, g * numValues, partMin, 0, numValues);
+            System.arraycopy(other.max, g * numValues, partMax, 0, numValues);
+            add();
+        }
+        if (other.spillOuts == null)
+            return;
+        for (int p = 0; p < SPILL_FANOUT; p++) {
+            AggregateHashTable part;
+            try {
+                part = other.loadPartition(p);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            if (part != null) {
+                merge(part);
+                part.close();
+            }
+        }
+    }
+
+    private void setKey(int c, Field f) {
+        if (keyTypes[c] == Type.INT_TYPE)
+            intKeys[c] = ((IntField) f).getValue();
+        else
+            strKeys[c] = ((StringField) f).getValue();
+    }
+
+    private void setValue(int v, long value) {
+        partSum[v] = value;
+        partMin[v] = value;
+        partMax[v] = value;
+    }
+
+    /**
+     * Merge the partial aggregate in partCnt/partSum/partMin/partMax into the
+     * group of the key in intKeys/strKeys.
+     */
+    private void add() {
+        boolean known = true;
+        for (int c = 0; c < width; c++) {
+            if (keyTypes[c] == Type.INT_TYPE) {
+                codes[c] = intKeys[c];
+            } else {
+                Integer code = dicts[c].get(strKeys[c]);
+                if (code == null) {
+                    // a string never seen before cannot be part of a group
+                    known = false;
+                    codes[c] = -1;
+                } else {
+                    codes[c] = code;
+                }
+            }
+        }
+        int h = hashKey();
+        int mask = slots.length - 1;
+        int i = h & mask;
+        while (slots[i] != 0) {
+            int g = slots[i] - 1;
+            if (known && hashes[g] == h && sameKey(g)) {
+                update(g);
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        if (full()) {
+            spill(partition(h));
+            return;
+        }
+        for (int c = 0; c < width; c++) {
+            if (keyTypes[c] == Type.STRING_TYPE && codes[c] == -1) {
+                codes[c] = dictValues[c].size();
+                dicts[c].put(strKeys[c], codes[c]);
+                dictValues[c].add(strKeys[c]);
+            }
+        }
+        int g = newGroup(h);
+        System.arraycopy(codes, 0, keys, g * width, width);
+        slots[i] = g + 1;
+        update(g);
+        if (numGroups * 2 > slots.length)
+            rehash();
+    }
+
+    private boolean sameKey(int g) {
+        int base = g * width;
+        for (int c = 0; c < width; c++) {
+            if (keys[base + c] != codes[c])
+                return false;
+        }
+        return true;
+    }
+
+    private void update(int g) {
+        cnt[g] += partCnt;
+        int base = g * numValues;
+        for (int v = 0; v < numValues; v++) {
+            sum[base + v] += partSum[v];
+            if (partMin[v] < min[base + v])
+                min[base + v] = partMin[v];
+            if (partMax[v] > max[base + v])
+                max[base + v] = partMax[v];
+        }
+    }
+
+    private int newGroup(int h) {
+        if (numGroups == cnt.length) {
+            int capacity = cnt.length * 2;
+            cnt = Arrays.copyOf(cnt, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            keys = Arrays.copyOf(keys, capacity * width);
+            sum = Arrays.copyOf(sum, capacity * numValues);
+            min = Arrays.copyOf(min, capacity * numValues);
+            max = Arrays.copyOf(max, capacity * numValues);
+        }
+        int g = numGroups++;
+        hashes[g] = h;
+        Arrays.fill(min, g * numValues, (g + 1) * numValues, Long.MAX_VALUE);
+        Arrays.fill(max, g * numValues, (g + 1) * numValues, Long.MIN_VALUE);
+        return g;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int g = 0; g < numGroups; g++) {
+            int i = hashes[g] & mask;
+            while (slots[i] != 0)
+                i = (i + 1) & mask;
+            slots[i] = g + 1;
+        }
+    }
+
+    private void spill(int p) {
+        if (spillOuts == null) {
+            spillFiles = new File[SPILL_FANOUT];
+            spillOuts = new DataOutputStream[SPILL_FANOUT];
+        }
+        try {
+            if (spillOuts[p] == null) {
+                spillFiles[p] = File.createTempFile("aggspill", ".dat");
+                spillFiles[p].deleteOnExit();
+                spillOuts[p] = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(spillFiles[p])));
+            }
+            DataOutputStream out = spillOuts[p];
+            for (int c = 0; c < width; c++) {
+                if (keyTypes[c] == Type.INT_TYPE)
+                    out.writeInt(intKeys[c]);
+                else
+                    out.writeUTF(strKeys[c]);
+            }
+            out.writeLong(partCnt);
+            for (int v = 0; v < numValues; v++) {
+                out.writeLong(partSum[v]);
+                out.writeLong(partMin[v]);
+                out.writeLong(partMax[v]);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Aggregate the tuples spilled to partition p into a new table, one
+     * level deeper.
+     *
+     * @return the new table, or null if nothing was spilled to partition p
+     */
+    private AggregateHashTable loadPartition(int p) throws IOException {
+        if (spillOuts == null || spillOuts[p] == null)
+            return null;
+        spillOuts[p].flush();
+        AggregateHashTable t = new AggregateHashTable(keyTypes, numValues, level + 1);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(spillFiles[p])))) {
+            while (in.available() > 0) {
+                for (int c = 0; c < width; c++) {
+                    if (keyTypes[c] == Type.INT_TYPE)
+                        t.intKeys[c] = in.readInt();
+                    else
+                        t.strKeys[c] = in.readUTF();
+                }
+                t.partCnt = in.readLong();
+                for (int v = 0; v < numValues; v++) {
+                    t.partSum[v] = in.readLong();
+                    t.partMin[v] = in.readLong();
+                    t.partMax[v] = in.readLong();
+                }
+                t.add();
+            }
+        }
+        return t;
+    }
+
+    /**
+     * @return the number of groups held in memory, not counting spilled ones
+     */
+    public int numGroups() {
+        return numGroups;
+    }
+
+    /**
+     * @return true if some groups have been spilled to disk
+     */
+    public boolean hasSpilled() {
+        return spillOuts != null;
+    }
+
+    Field groupKey(int g, int c) {
+        int code = keys[g * width + c];
+        if (keyTypes[c] == Type.INT_TYPE)
+            return new IntField(code);
+        return new StringField(dictValues[c].get(code), Type.STRING_LEN);
+    }
+
+    /**
+     * Compute the final value of an aggregate for an in-memory group.
+     *
+     * @param g
+     *            the group id
+     * @param v
+     *            the value column
+     * @param what
+     *            the aggregate to compute
+     */
+    int result(int g, int v, Aggregator.Op what) {
+        int i = g * numValues + v;
+        switch (what) {
+            case COUNT: return (int) cnt[g];
+            case SUM: return (int) sum[i];
+            case AVG: return (int) (sum[i] / cnt[g]);
+            case MIN: return (int) min[i];
+            case MAX: return (int) max[i];
+            default: throw new UnsupportedOperationException("unsupported aggregate " + what);
+        }
+    }
+
+    /**
+     * Delete the spill files of this table. The table must not be used
+     * afterwards.
+     */
+    public void close() {
+        if (spillOuts == null)
+            return;
+        for (int p = 0; p < SPILL_FANOUT; p++) {
+            if (spillOuts[p] == null)
+                continue;
+            try {
+                spillOuts[p].close();
+            } catch (IOException ignored) {
+            }
+            spillFiles[p].delete();
+        }
+        spillOuts = null;
+        spillFiles = null;
+    }
+
+    /**
+     * Create a OpIterator over the groups of this table, including the
+     * spilled ones. Each result tuple holds the group key columns followed by
+     * one aggregate per value column.
+     *
+     * @param td
+     *            the TupleDesc of the result tuples
+     * @param ops
+     *            the aggregate to compute over each value column
+     */
+    public OpIterator iterator(TupleDesc td, Aggregator.Op[] ops) {
+        if (ops.length != numValues || td.numFields() != width + numValues)
+            throw new IllegalArgumentException("result TupleDesc does not match the table");
+        return new ResultIterator(td, ops);
+    }
+
+    private class ResultIterator implements OpIterator {
+
+        private static final long serialVersionUID = 1L;
+        private final TupleDesc td;
+        private final Aggregator.Op[] ops;
+        private int g = -1;
+        private int p;
+        private AggregateHashTable part;
+        private OpIterator partIt;
+
+        ResultIterator(TupleDesc td, Aggregator.Op[] ops) {
+            this.td = td;
+            this.ops = ops;
+        }
+
+        public void open() {
+            closePartition();
+            g = 0;
+            p = 0;
+        }
+
+        private void closePartition() {
+            if (partIt != null) {
+                partIt.close();
+                part.close();
+            }
+            partIt = null;
+            part = null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (g < 0)
+                throw new IllegalStateException("iterator is closed");
+            if (g < numGroups)
+                return true;
+            while (true) {
+                if (partIt != null && partIt.hasNext())
+                    return true;
+                closePartition();
+                if (spillOuts == null || p >= SPILL_FANOUT)
+                    return false;
+                try {
+                    part = loadPartition(p++);
+                } catch (IOException e) {
+                    throw new DbException("failed to read spilled groups: " + e);
+                }
+                if (part != null) {
+                    partIt = part.iterator(td, ops);
+                    partIt.open();
+                }
+            }
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            if (g < numGroups) {
+                Tuple t = new Tuple(td);
+                for (int c = 0; c < width; c++)
+                    t.setField(c, groupKey(g, c));
+                for (int v = 0; v < numValues; v++)
+                    t.setField(width + v, new IntField(result(g, v, ops[v])));
+                g++;
+                return t;
+            }
+            return partIt.next();
+        }
+
+        public void rewind() {
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            closePartition();
+            g = -1;
+        }
+    }
+
+}
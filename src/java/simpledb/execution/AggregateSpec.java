@@ -0,0 +1,50 @@
+package simpledb.execution;
+
+import java.io.Serializable;
+
+/**
+ * AggregateSpec names one aggregate computed by an {@link Aggregate}: an
+ * aggregation operator applied to a field of the child tuples.
+ */
+public class AggregateSpec implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Aggregator.Op op;
+    private final int field;
+
+    /**
+     * Constructor.
+     *
+     * @param op The aggregation operator
+     * @param field The 0-based index of the aggregated field in the child tuples
+     */
+    public AggregateSpec(Aggregator.Op op, int field) {
+        this.op = op;
+        this.field = field;
+    }
+
+    public Aggregator.Op getOp() {
+        return op;
+    }
+
+    public int getField() {
+        return field;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof AggregateSpec))
+            return false;
+        AggregateSpec s = (AggregateSpec) o;
+        return op == s.op && field == s.field;
+    }
+
+    public int hashCode() {
+        return op.hashCode() * 31 + field;
+    }
+
+    public String toString() {
+        return op + "(" + field + ")";
+    }
+
+}
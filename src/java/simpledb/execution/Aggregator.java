@@ -84,5 +84,12 @@ public interface Aggregator extends Serializable {
      * @see TupleIterator for a possible helper
      */
     OpIterator iterator();
-    
+
+    /**
+     * Release the resources (e.g., spill files) held by this aggregator. The
+     * aggregator and its iterators must not be used afterwards.
+     */
+    default void close() {
+    }
+
 }
@@ -0,0 +1,129 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.Serial;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * BlockNestedLoopJoin is a nested loops join that reads the outer relation a
+ * block of tuples at a time, and scans the inner relation once per block
+ * instead of once per outer tuple. By default a block is as many tuples as
+ * fit in all but two pages of the buffer pool, the two being left for the
+ * page of the inner relation being scanned and the output.
+ */
+public class BlockNestedLoopJoin extends Join {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final int blockSize;
+    private final List<Tuple> block = new ArrayList<>();
+    private OpIterator outer, inner;
+    private Tuple t2;
+    private int pos;
+
+    /**
+     * Constructor, with blocks that fill the buffer pool.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, defaultBlockSize(child1));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param blockSize
+     *            The number of outer tuples joined by each scan of the inner
+     *            relation
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2,
+            int blockSize) {
+        super(p, child1, child2);
+        if (blockSize < 1)
+            throw new IllegalArgumentException("block size must be positive");
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @return the number of tuples of child's that fit in all but two pages of
+     *         the buffer pool
+     */
+    public static int defaultBlockSize(OpIterator child) {
+        int pages = Math.max(1, BufferPool.getNumPages() - 2);
+        return Math.max(1, (int) ((long) pages * BufferPool.getPageSize()
+                / child.getTupleDesc().getSize()));
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        OpIterator[] children = getChildren();
+        outer = children[0];
+        inner = children[1];
+        super.open();
+        block.clear();
+        t2 = null;
+        pos = 0;
+    }
+
+    public void close() {
+        super.close();
+        block.clear();
+        t2 = null;
+    }
+
+    // read the next block of outer tuples
+    private boolean readBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        while (block.size() < blockSize && outer.hasNext())
+            block.add(outer.next());
+        return !block.isEmpty();
+    }
+
+    /**
+     * Joins each inner tuple with every tuple of the current block before
+     * moving to the next inner tuple, so the result is ordered by block,
+     * then by inner tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        JoinPredicate p = getJoinPredicate();
+        while (true) {
+            if (t2 != null) {
+                while (pos < block.size()) {
+                    Tuple t1 = block.get(pos++);
+                    if (p.filter(t1, t2))
+                        return merge(t1, t2);
+                }
+                t2 = null;
+            }
+            if (block.isEmpty()) {
+                if (!readBlock())
+                    return null;
+            } else if (!inner.hasNext()) {
+                inner.rewind();
+                if (!readBlock())
+                    return null;
+            }
+            if (!inner.hasNext())
+                continue;
+            t2 = inner.next();
+            pos = 0;
+        }
+    }
+}
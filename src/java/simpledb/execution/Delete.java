@@ -3,6 +3,7 @@ package simpledb.execution;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.optimizer.TableStats;
 import simpledb.storage.BufferPool;
 import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
@@ -83,7 +84,9 @@ public class Delete extends Operator {
         while(child.hasNext()) {
             Tuple t = child.next();
             try {
+                int tableId = t.getRecordId().getPageId().getTableId();
                 Database.getBufferPool().deleteTuple(tid, t);
+                TableStats.recordDelete(tableId, t);
                 cnt++;
             } catch (IOException e) {
                 e.printStackTrace();
@@ -0,0 +1,276 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.Serial;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Gather is the exchange operator of a parallel plan. It runs several
+ * pipelines, each on a thread of a shared worker pool, and returns the union
+ * of their tuples to its parent, which runs on the caller's thread. The
+ * pipelines are usually identical chains of operators over
+ * {@link SeqScan}s that take their pages from a shared {@link Morsels}, so
+ * together they return each tuple of the table once.
+ * <p>
+ * Workers hand their tuples over in batches through a bounded queue, so a
+ * slow parent slows the workers down rather than letting them buffer the
+ * whole table. Pipeline breakers that can consume their input in parallel,
+ * like {@link Aggregate}, do not pull tuples through the queue at all but
+ * use {@link #runPipelines} to build a partial result per pipeline.
+ */
+public class Gather extends Operator {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    /** Number of tuples handed from a worker to the parent at a time. */
+    public static final int BATCH_SIZE = 256;
+
+    /** Number of batches each worker may have waiting in the queue. */
+    private static final int QUEUE_BATCHES = 4;
+
+    private static final ExecutorService WORKERS = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "simpledb-worker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // sent by a worker when its pipeline is exhausted or failed
+    private static final List<Tuple> DONE = Collections.emptyList();
+
+    private OpIterator[] pipelines;
+    private final Morsels morsels;
+
+    private transient BlockingQueue<List<Tuple>> queue;
+    private transient volatile boolean cancelled;
+    private transient CountDownLatch running;
+    private transient AtomicReference<Throwable> error;
+    private transient int finished;
+    private transient Iterator<Tuple> batch;
+
+    /**
+     * Function run over a pipeline by {@link #runPipelines}.
+     */
+    @FunctionalInterface
+    public interface PipelineTask<T> {
+        /**
+         * @param pipeline
+         *            the pipeline, already open
+         * @return the result for this pipeline
+         */
+        T run(OpIterator pipeline) throws DbException, TransactionAbortedException;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param pipelines
+     *            the pipelines to run in parallel; they must all have the
+     *            same TupleDesc
+     * @param morsels
+     *            the Morsels the scans of the pipelines share, reset each
+     *            time the pipelines are run; null if they scan fixed ranges
+     */
+    public Gather(OpIterator[] pipelines, Morsels morsels) {
+        if (pipelines.length == 0)
+            throw new IllegalArgumentException("nothing to gather");
+        this.pipelines = pipelines;
+        this.morsels = morsels;
+    }
+
+    public Gather(OpIterator[] pipelines) {
+        this(pipelines, null);
+    }
+
+    /**
+     * @return the number of pipelines run in parallel
+     */
+    public int getParallelism() {
+        return pipelines.length;
+    }
+
+    public Morsels getMorsels() {
+        return morsels;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return pipelines[0].getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        start();
+        super.open();
+    }
+
+    private void start() {
+        if (morsels != null)
+            morsels.reset();
+        queue = new ArrayBlockingQueue<>(QUEUE_BATCHES * pipelines.length + pipelines.length);
+        cancelled = false;
+        error = new AtomicReference<>();
+        finished = 0;
+        batch = null;
+        running = new CountDownLatch(pipelines.length);
+        for (OpIterator p : pipelines)
+            WORKERS.execute(() -> produce(p));
+    }
+
+    // worker loop: runs one pipeline and queues its tuples
+    private void produce(OpIterator pipeline) {
+        try {
+            pipeline.open();
+            try {
+                List<Tuple> b = new ArrayList<>(BATCH_SIZE);
+                while (!cancelled && pipeline.hasNext()) {
+                    b.add(pipeline.next());
+                    if (b.size() == BATCH_SIZE) {
+                        deliver(b);
+                        b = new ArrayList<>(BATCH_SIZE);
+                    }
+                }
+                if (!b.isEmpty())
+                    deliver(b);
+            } finally {
+                pipeline.close();
+            }
+        } catch (Throwable e) {
+            error.compareAndSet(null, e);
+        } finally {
+            try {
+                deliver(DONE);
+            } catch (InterruptedException ignored) {
+            }
+            running.countDown();
+        }
+    }
+
+    // blocks while the queue is full, unless the gather is being closed
+    private void deliver(List<Tuple> b) throws InterruptedException {
+        while (!cancelled) {
+            if (queue.offer(b, 10, TimeUnit.MILLISECONDS))
+                return;
+        }
+    }
+
+    // stop the workers and wait until they have closed their pipelines
+    private void stop() {
+        if (running == null)
+            return;
+        cancelled = true;
+        try {
+            running.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        running = null;
+        queue = null;
+        batch = null;
+    }
+
+    public void close() {
+        stop();
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        stop();
+        start();
+    }
+
+    /**
+     * Returns the next tuple produced by any of the pipelines, in no
+     * particular order.
+     */
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || !batch.hasNext()) {
+            if (finished == pipelines.length)
+                return null;
+            List<Tuple> b;
+            try {
+                b = queue.take();
+            } catch (InterruptedException e) {
+                throw new DbException("interrupted while gathering tuples");
+            }
+            if (b == DONE) {
+                finished++;
+                rethrow(error.get());
+            } else {
+                batch = b.iterator();
+            }
+        }
+        return batch.next();
+    }
+
+    /**
+     * Run a task over each pipeline, each on its own worker, instead of
+     * gathering their tuples. Each pipeline is opened before and closed
+     * after its task. This Gather must not be open.
+     *
+     * @return the results of the task, in the order of the pipelines
+     */
+    public <T> List<T> runPipelines(PipelineTask<T> task)
+            throws DbException, TransactionAbortedException {
+        if (morsels != null)
+            morsels.reset();
+        List<Future<T>> futures = new ArrayList<>();
+        for (OpIterator p : pipelines) {
+            futures.add(WORKERS.submit(() -> {
+                p.open();
+                try {
+                    return task.run(p);
+                } finally {
+                    p.close();
+                }
+            }));
+        }
+        // wait for every worker, even after a failure, so that none of them
+        // is still using its pipeline when we return
+        List<T> results = new ArrayList<>();
+        Throwable failure = null;
+        for (Future<T> f : futures) {
+            try {
+                results.add(f.get());
+            } catch (ExecutionException e) {
+                if (failure == null)
+                    failure = e.getCause();
+            } catch (InterruptedException e) {
+                if (failure == null)
+                    failure = new DbException("interrupted while running pipelines");
+            }
+        }
+        rethrow(failure);
+        return results;
+    }
+
+    private static void rethrow(Throwable e) throws DbException, TransactionAbortedException {
+        if (e == null)
+            return;
+        if (e instanceof DbException)
+            throw (DbException) e;
+        if (e instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) e;
+        if (e instanceof RuntimeException)
+            throw (RuntimeException) e;
+        if (e instanceof Error)
+            throw (Error) e;
+        throw new RuntimeException(e);
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return pipelines;
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.pipelines = children;
+    }
+
+}
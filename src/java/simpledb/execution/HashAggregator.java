@@ -0,0 +1,115 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.Serial;
+
+/**
+ * Knows how to compute several aggregates at once, grouped by any number of
+ * columns, in a single pass over the input. Aggregates over integer fields
+ * may use any operator; aggregates over string fields only support COUNT.
+ */
+public class HashAggregator implements Aggregator {
+
+    private final TupleDesc td;
+
+    private final int[] gbfields;
+
+    private final int[] afields;
+
+    private final Op[] ops;
+
+    private final AggregateHashTable groups;
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param childTd
+     *            the TupleDesc of the tuples to aggregate
+     * @param gbfields
+     *            the 0-based indexes of the group-by fields in the tuples;
+     *            empty if there is no grouping
+     * @param aggs
+     *            the aggregates to compute
+     * @throws IllegalArgumentException
+     *            if an aggregate over a string field is not COUNT
+     */
+    public HashAggregator(TupleDesc childTd, int[] gbfields, AggregateSpec[] aggs) {
+        this.gbfields = gbfields;
+        this.afields = new int[aggs.length];
+        this.ops = new Op[aggs.length];
+        for (int i = 0; i < aggs.length; i++) {
+            afields[i] = aggs[i].getField();
+            ops[i] = aggs[i].getOp();
+            if (childTd.getFieldType(afields[i]) == Type.STRING_TYPE && ops[i] != Op.COUNT)
+                throw new IllegalArgumentException("Only Count AggregateOp For StringField!");
+        }
+        Type[] gbfieldtypes = new Type[gbfields.length];
+        for (int i = 0; i < gbfields.length; i++)
+            gbfieldtypes[i] = childTd.getFieldType(gbfields[i]);
+        this.td = getTupleDesc(childTd, gbfields, aggs);
+        this.groups = new AggregateHashTable(gbfieldtypes, aggs.length);
+    }
+
+    /**
+     * The TupleDesc of the results of a HashAggregator: the group-by fields,
+     * then one INT field per aggregate, named after the aggregated field.
+     */
+    public static TupleDesc getTupleDesc(TupleDesc childTd, int[] gbfields, AggregateSpec[] aggs) {
+        Type[] types = new Type[gbfields.length + aggs.length];
+        String[] names = new String[types.length];
+        for (int i = 0; i < gbfields.length; i++) {
+            types[i] = childTd.getFieldType(gbfields[i]);
+            names[i] = childTd.getFieldName(gbfields[i]);
+        }
+        for (int i = 0; i < aggs.length; i++) {
+            types[gbfields.length + i] = Type.INT_TYPE;
+            names[gbfields.length + i] = childTd.getFieldName(aggs[i].getField());
+        }
+        return new TupleDesc(types, names);
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param tup
+     *            the Tuple containing the aggregate and group-by fields
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        groups.add(tup, gbfields, afields);
+    }
+
+    /**
+     * Merge the groups of another aggregator, computed over a disjoint part of
+     * the same input, into this one. Afterwards this aggregator returns the
+     * same results as one that had been given both inputs.
+     *
+     * @param other
+     *            an aggregator constructed with the same arguments as this one
+     */
+    public void merge(HashAggregator other) {
+        groups.merge(other.groups);
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     *
+     * @return a OpIterator whose tuples hold the group-by values followed by
+     *         the aggregate values, in the order given to the constructor.
+     */
+    public OpIterator iterator() {
+        return groups.iterator(td, ops);
+    }
+
+    @Override
+    public void close() {
+        groups.close();
+    }
+
+}
@@ -9,6 +9,14 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * Tuples of the outer relation are hashed and the inner relation is probed
+ * against them. Once the planner has given the join the estimated
+ * cardinalities of its inputs ({@link #setInputEstimates}), it checks them
+ * when the hash table is built: if the outer relation turns out to be more
+ * than {@link #getAdaptiveThreshold} times larger than estimated, and the
+ * whole inner relation is smaller than what was read of the outer one, the
+ * inner relation is hashed instead and the outer one probed against it.
  */
 public class HashEquiJoin extends Operator {
 
@@ -19,6 +27,42 @@ public class HashEquiJoin extends Operator {
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
 
+    /**
+     * How many times larger than estimated the outer relation may be before
+     * the join checks whether the inner one is smaller, by default.
+     */
+    public static final double DEFAULT_ADAPTIVE_THRESHOLD = 2.0;
+
+    private static volatile double adaptiveThreshold = DEFAULT_ADAPTIVE_THRESHOLD;
+
+    /**
+     * Set how many times larger than estimated the outer relation may be
+     * before the join checks whether the inner one is smaller; infinity
+     * never checks.
+     */
+    public static void setAdaptiveThreshold(double threshold) {
+        if (!(threshold >= 1))
+            throw new IllegalArgumentException("threshold must be at least 1");
+        adaptiveThreshold = threshold;
+    }
+
+    public static void resetAdaptiveThreshold() {
+        adaptiveThreshold = DEFAULT_ADAPTIVE_THRESHOLD;
+    }
+
+    public static double getAdaptiveThreshold() {
+        return adaptiveThreshold;
+    }
+
+    private int estimate1 = -1, estimate2 = -1;
+
+    /** true once the inner relation is hashed, and the outer one probed */
+    private boolean swapped;
+
+    /** outer tuples read before deciding which side to hash */
+    transient private List<Tuple> pending = null;
+    transient private Iterator<Tuple> pendingIt = null;
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
@@ -41,6 +85,26 @@ public class HashEquiJoin extends Operator {
         return pred;
     }
 
+    /**
+     * Give the join the estimated cardinalities of its inputs, so that it
+     * can hash the inner relation instead if the outer one turns out larger.
+     *
+     * @param card1 the estimated cardinality of the outer relation
+     * @param card2 the estimated cardinality of the inner relation
+     */
+    public void setInputEstimates(int card1, int card2) {
+        this.estimate1 = card1;
+        this.estimate2 = card2;
+    }
+
+    /**
+     * @return true if, since it was last opened, the join found the inner
+     *         relation smaller and hashed it instead of the outer one
+     */
+    public boolean isSwapped() {
+        return swapped;
+    }
+
     public TupleDesc getTupleDesc() {
         return comboTD;
     }
@@ -61,12 +125,17 @@ public class HashEquiJoin extends Operator {
     private boolean loadMap() throws DbException, TransactionAbortedException {
         int cnt = 0;
         map.clear();
-        while (child1.hasNext()) {
+        if (pending != null) {
+            for (Tuple t : pending)
+                map.computeIfAbsent(t.getField(pred.getField1()), k -> new ArrayList<>()).add(t);
+            cnt = pending.size();
+            pending = null;
+        }
+        while (cnt <= MAP_SIZE && child1.hasNext()) {
             t1 = child1.next();
             List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
             list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+            cnt++;
         }
         return cnt > 0;
 
@@ -76,10 +145,44 @@ public class HashEquiJoin extends Operator {
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        swapped = false;
+        if (estimate1 < 0 || estimate2 < 0 || !checkBuildSide())
+            loadMap();
         super.open();
     }
 
+    // read the outer relation up to the threshold times its estimate; if it
+    // has more, hash the inner relation instead when it is smaller than what
+    // was read. Returns true if the inner relation was hashed.
+    private boolean checkBuildSide() throws DbException, TransactionAbortedException {
+        double threshold = adaptiveThreshold;
+        long checkpoint = (long) Math.min(MAP_SIZE, Math.max(1, estimate1) * threshold);
+        if (Double.isInfinite(threshold) || estimate2 >= checkpoint)
+            return false;
+        pending = new ArrayList<>();
+        while (pending.size() <= checkpoint && child1.hasNext())
+            pending.add(child1.next());
+        if (pending.size() <= checkpoint)
+            return false;
+
+        // the inner relation must end before it grows as large as the outer
+        map.clear();
+        int cnt = 0;
+        while (cnt < pending.size() && child2.hasNext()) {
+            Tuple t = child2.next();
+            map.computeIfAbsent(t.getField(pred.getField2()), k -> new ArrayList<>()).add(t);
+            cnt++;
+        }
+        if (child2.hasNext()) {
+            map.clear();
+            child2.rewind();
+            return false;
+        }
+        swapped = true;
+        pendingIt = pending.iterator();
+        return true;
+    }
+
     public void close() {
         super.close();
         child2.close();
@@ -87,12 +190,21 @@ public class HashEquiJoin extends Operator {
         this.t1=null;
         this.t2=null;
         this.listIt=null;
+        this.pending=null;
+        this.pendingIt=null;
         this.map.clear();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
-        child2.rewind();
+        listIt = null;
+        pending = null;
+        pendingIt = null;
+        // a hashed inner relation stays hashed
+        if (!swapped) {
+            child2.rewind();
+            loadMap();
+        }
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -116,7 +228,10 @@ public class HashEquiJoin extends Operator {
      * @see JoinPredicate#filter
      */
     private Tuple processList() {
-        t1 = listIt.next();
+        if (swapped)
+            t2 = listIt.next();
+        else
+            t1 = listIt.next();
 
         int td1n = t1.getTupleDesc().numFields();
         int td2n = t2.getTupleDesc().numFields();
@@ -131,7 +246,28 @@ public class HashEquiJoin extends Operator {
 
     }
 
+    // probe the hashed inner relation with the outer tuples read while
+    // checking the build side, then with the rest of the outer relation
+    private Tuple fetchSwapped() throws TransactionAbortedException, DbException {
+        while (listIt == null || !listIt.hasNext()) {
+            if (pendingIt != null && pendingIt.hasNext()) {
+                t1 = pendingIt.next();
+            } else {
+                pending = null;
+                pendingIt = null;
+                if (!child1.hasNext())
+                    return null;
+                t1 = child1.next();
+            }
+            List<Tuple> l = map.get(t1.getField(pred.getField1()));
+            listIt = l == null ? null : l.iterator();
+        }
+        return processList();
+    }
+
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (swapped)
+            return fetchSwapped();
         if (listIt != null && listIt.hasNext()) {
             return processList();
         }
@@ -0,0 +1,111 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.index.IndexFetch;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.Serial;
+import java.util.NoSuchElementException;
+
+/**
+ * IndexNestedLoopJoin is a nested loops join that does not scan the inner
+ * table for every outer tuple, but probes a secondary index on its join field
+ * for the inner tuples matching the outer one. The inner relation reads the
+ * table through an {@link IndexFetch} on that index, with the filters of the
+ * table above it; the fetch is given the join field of each outer tuple as
+ * its predicate, and the inner relation rewound.
+ */
+public class IndexNestedLoopJoin extends Join {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final IndexFetch fetch;
+    private final Predicate.Op probeOp;
+    private OpIterator outer, inner;
+    private Tuple t1;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children; must not be
+     *            NOT_EQUALS or LIKE, and must be EQUALS on a hash index
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join: fetch, or
+     *            filters over it
+     * @param fetch
+     *            The fetch the inner relation reads the table through, on
+     *            an index of the join field of the inner relation
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2,
+            IndexFetch fetch) {
+        super(p, child1, child2);
+        this.probeOp = reverse(p.getOperator());
+        if (probeOp == Predicate.Op.NOT_EQUALS || probeOp == Predicate.Op.LIKE
+                || !fetch.getIndex().supports(probeOp))
+            throw new IllegalArgumentException("Cannot probe an index on " + p.getOperator());
+        if (fetch.getIndex().getField() != p.getField2())
+            throw new IllegalArgumentException("The index is not on the join field");
+        this.fetch = fetch;
+    }
+
+    // the operator of the predicate on the inner field matching t1.f1 op t2.f2
+    private static Predicate.Op reverse(Predicate.Op op) {
+        switch (op) {
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        default:
+            return op;
+        }
+    }
+
+    /**
+     * @return the fetch the inner relation reads the table through
+     */
+    public IndexFetch getIndexFetch() {
+        return fetch;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        OpIterator[] children = getChildren();
+        outer = children[0];
+        inner = children[1];
+        super.open();
+        t1 = null;
+    }
+
+    public void close() {
+        super.close();
+        t1 = null;
+    }
+
+    /**
+     * Returns the inner tuples matching each outer tuple, in the order of the
+     * pages of the inner table, before moving to the next outer tuple. The
+     * index only returns matching tuples, so the join predicate is not
+     * applied again.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (t1 != null && inner.hasNext())
+                return merge(t1, inner.next());
+            if (!outer.hasNext())
+                return null;
+            t1 = outer.next();
+            fetch.setIndexPredicate(new IndexPredicate(probeOp,
+                    t1.getField(getJoinPredicate().getField1())));
+            inner.rewind();
+        }
+    }
+}
@@ -3,6 +3,7 @@ package simpledb.execution;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.optimizer.TableStats;
 import simpledb.storage.BufferPool;
 import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
@@ -99,6 +100,7 @@ public class Insert extends Operator {
             Tuple t = child.next();
             try {
                 Database.getBufferPool().insertTuple(tid, tableId, t);
+                TableStats.recordInsert(tableId, t);
                 cnt++;
             } catch (IOException e) {
                 e.printStackTrace();
@@ -4,10 +4,8 @@ import simpledb.common.Type;
 import simpledb.storage.*;
 
 import java.io.Serial;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
@@ -24,22 +22,7 @@ public class IntegerAggregator implements Aggregator {
 
     private TupleDesc td;
 
-    private static class Statistics {
-
-        public int cnt;
-        public int sum;
-        public int min;
-        public int max;
-
-        public Statistics() {
-            cnt = 0; sum = 0;
-            min = Integer.MAX_VALUE;
-            max = Integer.MIN_VALUE;
-        }
-
-    }
-
-    private final HashMap<Field, Statistics> GroupMap;
+    private final AggregateHashTable groups;
 
     @Serial
     private static final long serialVersionUID = 1L;
@@ -65,7 +48,7 @@ public class IntegerAggregator implements Aggregator {
         this.gbfieldtype = gbfieldtype;
         this.afield = afield;
         this.what = what;
-        this.GroupMap = new HashMap<>();
+        this.groups = new AggregateHashTable(gbfield == NO_GROUPING ? null : gbfieldtype);
     }
 
     /**
@@ -78,21 +61,15 @@ public class IntegerAggregator implements Aggregator {
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
         if(this.td == null) this.td = tup.getTupleDesc();
-        Field gbField;
-        IntegerAggregator.Statistics st;
+        int val = ((IntField)tup.getField(this.afield)).getValue();
         if(this.gbfield == NO_GROUPING) {
-            gbField = new IntField(0); // a phony field for hashmap to use
+            groups.add(null, val);
         }
         else {
-            gbField = tup.getField(this.gbfield);
+            Field gbField = tup.getField(this.gbfield);
             assert gbField.getType() == this.gbfieldtype;
+            groups.add(gbField, val);
         }
-        st = GroupMap.getOrDefault(gbField, new Statistics());
-        int val = ((IntField)tup.getField(this.afield)).getValue();
-        st.cnt++; st.sum += val;
-        st.max = Integer.max(st.max, val);
-        st.min = Integer.min(st.min, val);
-        GroupMap.put(gbField, st);
     }
 
     /**
@@ -106,39 +83,21 @@ public class IntegerAggregator implements Aggregator {
     public OpIterator iterator() {
         // some code goes here
         TupleDesc td;
-        ArrayList<Tuple> al = new ArrayList<>();
         if(this.gbfield == NO_GROUPING) {
             TupleDesc.TDItem td2 = new TupleDesc.TDItem(Type.INT_TYPE, this.td.getFieldName(afield));
             td = new TupleDesc(Collections.singletonList(td2));
-            for(Field key : GroupMap.keySet()) {
-                Tuple t = new Tuple(td);
-                t.setField(0, new IntField(getResult(GroupMap.get(key))));
-                al.add(t);
-            }
         }
         else {
             TupleDesc.TDItem td1 = new TupleDesc.TDItem(gbfieldtype, this.td.getFieldName(gbfield));
             TupleDesc.TDItem td2 = new TupleDesc.TDItem(Type.INT_TYPE, this.td.getFieldName(afield));
             td = new TupleDesc(Arrays.asList(td1, td2));
-            for(Field key : GroupMap.keySet()) {
-                Tuple t = new Tuple(td);
-                t.setField(0, key);
-                t.setField(1, new IntField(getResult(GroupMap.get(key))));
-                al.add(t);
-            }
         }
-        return new TupleIterator(td, al);
+        return groups.iterator(td, new Op[] { what });
     }
 
-    private int getResult(Statistics st) {
-        switch (what) {
-            case COUNT: return st.cnt;
-            case SUM: return st.sum;
-            case AVG: return st.sum / st.cnt;
-            case MIN: return st.min;
-            case MAX: return st.max;
-            default: return 0;
-        }
+    @Override
+    public void close() {
+        groups.close();
     }
 
 }
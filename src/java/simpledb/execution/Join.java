@@ -130,15 +130,7 @@ public class Join extends Operator {
             while(child2.hasNext()) {
                 Tuple t2 = child2.next();
                 if(this.p.filter(t1, t2)) {
-                    Tuple tuple = new Tuple(this.tupleDesc);
-                    for(int i = 0; i < t1.getTupleDesc().numFields(); i++) {
-                        tuple.setField(i, t1.getField(i));
-                    }
-                    int offset = t1.getTupleDesc().numFields();
-                    for(int i = 0; i < t2.getTupleDesc().numFields(); i++) {
-                        tuple.setField(i + offset, t2.getField(i));
-                    }
-                    return tuple;
+                    return merge(t1, t2);
                 }
             }
             child2.rewind();
@@ -148,6 +140,19 @@ public class Join extends Operator {
         return null;
     }
 
+    /**
+     * @return a new tuple with the fields of t1 followed by those of t2
+     */
+    protected Tuple merge(Tuple t1, Tuple t2) {
+        Tuple tuple = new Tuple(this.tupleDesc);
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++)
+            tuple.setField(i, t1.getField(i));
+        for (int i = 0; i < t2.getTupleDesc().numFields(); i++)
+            tuple.setField(n1 + i, t2.getField(i));
+        return tuple;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
@@ -0,0 +1,82 @@
+package simpledb.execution;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Morsels hands out the pages of a base table in small contiguous ranges
+ * ("morsels") to the worker threads of a parallel plan. Every worker scans
+ * the morsels it takes until there are none left, so workers that are
+ * given cheap morsels simply take more of them and all workers finish at
+ * about the same time.
+ *
+ * @see SeqScan#SeqScan(simpledb.transaction.TransactionId, int, String, Morsels)
+ * @see Gather
+ */
+public class Morsels implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of pages in a morsel. */
+    public static final int DEFAULT_MORSEL_PAGES = 16;
+
+    private final int numPages;
+
+    private final int morselPages;
+
+    private final AtomicInteger nextPage = new AtomicInteger();
+
+    /**
+     * @param numPages
+     *            the number of pages of the table
+     * @param morselPages
+     *            the number of pages in a morsel
+     */
+    public Morsels(int numPages, int morselPages) {
+        if (morselPages < 1)
+            throw new IllegalArgumentException("morsels must hold at least one page");
+        this.numPages = numPages;
+        this.morselPages = morselPages;
+    }
+
+    /**
+     * Choose a morsel size for a table so that each of parallelism workers
+     * gets several morsels, without making morsels larger than
+     * {@link #DEFAULT_MORSEL_PAGES}.
+     */
+    public static Morsels forTable(int numPages, int parallelism) {
+        int size = numPages / (4 * Math.max(1, parallelism));
+        return new Morsels(numPages, Math.max(1, Math.min(DEFAULT_MORSEL_PAGES, size)));
+    }
+
+    /**
+     * Take the next morsel. Safe to call from any number of threads; each
+     * page is handed out exactly once between calls to {@link #reset()}.
+     *
+     * @return the page range [start, end) of the morsel, or null if all
+     *         pages have been handed out
+     */
+    public int[] next() {
+        int start = nextPage.getAndAdd(morselPages);
+        if (start >= numPages)
+            return null;
+        return new int[] { start, Math.min(numPages, start + morselPages) };
+    }
+
+    /**
+     * Start handing out the pages again from the first one.
+     */
+    public void reset() {
+        nextPage.set(0);
+    }
+
+    public int numPages() {
+        return numPages;
+    }
+
+    public int morselPages() {
+        return morselPages;
+    }
+}
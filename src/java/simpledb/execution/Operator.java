@@ -37,6 +37,7 @@ public abstract class Operator implements OpIterator {
 
         Tuple result = next;
         next = null;
+        actualCardinality++;
         return result;
     }
 
@@ -64,9 +65,11 @@ public abstract class Operator implements OpIterator {
     private Tuple next = null;
     private boolean open = false;
     private int estimatedCardinality = 0;
+    private long actualCardinality = 0;
 
     public void open() throws DbException, TransactionAbortedException {
         this.open = true;
+        this.actualCardinality = 0;
     }
 
     /**
@@ -111,4 +114,12 @@ public abstract class Operator implements OpIterator {
         this.estimatedCardinality = card;
     }
 
+    /**
+     * @return The number of tuples this operator has returned since it was
+     *         last opened, including those returned before any rewind
+     * */
+    public long getActualCardinality() {
+        return this.actualCardinality;
+    }
+
 }
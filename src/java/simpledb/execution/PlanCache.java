@@ -1,53 +1,151 @@
 package simpledb.execution;
 import simpledb.optimizer.LogicalJoinNode;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
 
 /** A PlanCache is a helper class that can be used to store the best
- * way to order a given set of joins */
+ * way to join a given set of tables.
+ * <p>
+ * A set of tables is encoded as a bitmask, bit i standing for the i'th table
+ * of the join graph, so at most 64 tables can be joined. The best plan for a
+ * set is a join tree: the join performed last, and the subset of tables on its
+ * outer (left) side; the inner side is the rest of the set. A set of one table
+ * has no join. Plans are kept in an open addressing table of primitive arrays,
+ * as the optimizer may look up millions of them.
+ */
 public class PlanCache {
-    final Map<Set<LogicalJoinNode>,List<LogicalJoinNode>> bestOrders= new HashMap<>();
-    final Map<Set<LogicalJoinNode>,Double> bestCosts= new HashMap<>();
-    final Map<Set<LogicalJoinNode>,Integer> bestCardinalities = new HashMap<>();
-    
-    /** Add a new cost, cardinality and ordering for a particular join set.  Does not verify that the
+    private long[] keys;
+    private long[] lefts;
+    private double[] costs;
+    private int[] cards;
+    private boolean[] pkeys;
+    private LogicalJoinNode[] joins;
+    private int size = 0;
+
+    public PlanCache() {
+        allocate(64);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        lefts = new long[capacity];
+        costs = new double[capacity];
+        cards = new int[capacity];
+        pkeys = new boolean[capacity];
+        joins = new LogicalJoinNode[capacity];
+    }
+
+    // slot of s, or of the empty slot where s belongs
+    private int slot(long s) {
+        int mask = keys.length - 1;
+        long h = s * 0x9E3779B97F4A7C15L;
+        int i = (int) (h ^ (h >>> 32)) & mask;
+        while (keys[i] != 0 && keys[i] != s)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    private int find(long s) {
+        int i = slot(s);
+        if (keys[i] == 0)
+            throw new NoSuchElementException("no plan for tables " + Long.toBinaryString(s));
+        return i;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys, oldLefts = lefts;
+        double[] oldCosts = costs;
+        int[] oldCards = cards;
+        boolean[] oldPkeys = pkeys;
+        LogicalJoinNode[] oldJoins = joins;
+        allocate(keys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == 0)
+                continue;
+            int j = slot(oldKeys[i]);
+            keys[j] = oldKeys[i];
+            lefts[j] = oldLefts[i];
+            costs[j] = oldCosts[i];
+            cards[j] = oldCards[i];
+            pkeys[j] = oldPkeys[i];
+            joins[j] = oldJoins[i];
+        }
+    }
+
+    /** Add a new cost, cardinality and plan for a particular set of tables.  Does not verify that the
         new cost is less than any previously added cost -- simply adds or replaces an existing plan for the
-        specified join set
-        @param s the set of joins for which a new ordering (plan) is being added
+        specified set
+        @param s the set of tables for which a new plan is being added
         @param cost the estimated cost of the specified plan
         @param card the estimatied cardinality of the specified plan
-        @param order the ordering of the joins in the plan
-    */
-    public void addPlan(Set<LogicalJoinNode> s, double cost, int card, List<LogicalJoinNode> order) {
-        bestOrders.put(s,order);                        
-        bestCosts.put(s,cost);
-        bestCardinalities.put(s,card);
-    }
-    
-    /** Find the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best order for
-        @return the best order for s in the cache
+        @param left the tables on the outer side of j, or 0 if s is a single table
+        @param j the join of left with the rest of s, or null if s is a single table
+        @param pkey true if the plan joins on a primary key
     */
-    public List<LogicalJoinNode> getOrder(Set<LogicalJoinNode> s) {
-        return bestOrders.get(s);
+    public void addPlan(long s, double cost, int card, long left, LogicalJoinNode j, boolean pkey) {
+        if (s == 0)
+            throw new IllegalArgumentException("empty set of tables");
+        int i = slot(s);
+        if (keys[i] == 0) {
+            if (2 * (size + 1) > keys.length) {
+                grow();
+                i = slot(s);
+            }
+            keys[i] = s;
+            size++;
+        }
+        lefts[i] = left;
+        costs[i] = cost;
+        cards[i] = card;
+        pkeys[i] = pkey;
+        joins[i] = j;
+    }
+
+    /** @return true if there is a plan for the specified set of tables */
+    public boolean contains(long s) {
+        return keys[slot(s)] != 0;
     }
-    
-    /** Find the cost of the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best cost for
-        @return the cost of the best order for s in the cache
+
+    /** Find the cost of the best plan in the cache for the specified set of tables
+        @param s the set of tables to look up the best cost for
+        @return the cost of the best plan for s in the cache
     */
-    public double getCost(Set<LogicalJoinNode> s) {
-        return bestCosts.get(s);
+    public double getCost(long s) {
+        return costs[find(s)];
     }
-    
-    /** Find the cardinality of the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best cardinality for
-        @return the cardinality of the best order for s in the cache
+
+    /** Find the cardinality of the best plan in the cache for the specified set of tables
+        @param s the set of tables to look up the best cardinality for
+        @return the cardinality of the best plan for s in the cache
     */
-    public int getCard(Set<LogicalJoinNode> s) {
-        return bestCardinalities.get(s);
+    public int getCard(long s) {
+        return cards[find(s)];
+    }
+
+    /** @return the tables on the outer side of the last join of the best plan for s */
+    public long getLeft(long s) {
+        return lefts[find(s)];
+    }
+
+    /** @return the last join of the best plan for s, or null if s is a single table */
+    public LogicalJoinNode getJoin(long s) {
+        return joins[find(s)];
+    }
+
+    /** @return true if the best plan for s joins on a primary key */
+    public boolean hasPkey(long s) {
+        return pkeys[find(s)];
+    }
+
+    /** @return the number of sets of tables with a plan */
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(joins, null);
+        size = 0;
     }
 }
@@ -0,0 +1,305 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.index.BTreeScan;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.Serial;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Profiler measures a query plan as it runs, for EXPLAIN ANALYZE. Every
+ * operator of the plan is wrapped in an iterator that counts the tuples it
+ * returns and times the calls made to it, and the pages each operator asks
+ * the {@link simpledb.storage.BufferPool} for are counted as hits or misses,
+ * along with the time spent waiting for their locks.
+ * <p>
+ * Run {@link #getRoot} in place of the plan, then {@link #detach} the
+ * wrappers and read the {@link Stats} of each operator of the original plan.
+ * Operators whose parent looks at their type, like a {@link SeqScan} under
+ * an {@link Aggregate}, are not wrapped and are accounted to their parent.
+ */
+public class Profiler {
+
+    /**
+     * The measurements of one operator.
+     */
+    public static class Stats {
+        long rows;
+        long nanos;
+        long hits, misses;
+        long lockWaitNanos;
+        final List<Stats> children = new ArrayList<>();
+
+        /** @return the number of tuples the operator returned */
+        public long getRows() {
+            return rows;
+        }
+
+        /** @return the time spent in the operator and its inputs, in nanoseconds */
+        public long getInclusiveNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return the time spent in the operator itself, in nanoseconds; zero
+         *         if its inputs ran on other threads for longer
+         */
+        public long getExclusiveNanos() {
+            long excl = nanos;
+            for (Stats c : children)
+                excl -= c.nanos;
+            return Math.max(0, excl);
+        }
+
+        /** @return the number of pages the operator found in the buffer pool */
+        public long getHits() {
+            return hits;
+        }
+
+        /** @return the number of pages the operator read from disk */
+        public long getMisses() {
+            return misses;
+        }
+
+        /** @return the time the operator waited for page locks, in nanoseconds */
+        public long getLockWaitNanos() {
+            return lockWaitNanos;
+        }
+
+        private void add(Stats o) {
+            rows += o.rows;
+            nanos += o.nanos;
+            hits += o.hits;
+            misses += o.misses;
+            lockWaitNanos += o.lockWaitNanos;
+        }
+    }
+
+    /** number of profilers attached, so that unprofiled queries skip the bookkeeping */
+    private static final AtomicInteger active = new AtomicInteger();
+
+    /** the stats of the operator running on each thread */
+    private static final ThreadLocal<Stats> current = new ThreadLocal<>();
+
+    /** @return true if some query is being profiled */
+    public static boolean isActive() {
+        return active.get() > 0;
+    }
+
+    /**
+     * Account a page request to the operator running on this thread, if it
+     * is profiled.
+     *
+     * @param hit true if the page was in the buffer pool
+     * @param lockWaitNanos the time spent waiting for the lock on the page
+     */
+    public static void recordPage(boolean hit, long lockWaitNanos) {
+        Stats s = current.get();
+        if (s == null)
+            return;
+        if (hit)
+            s.hits++;
+        else
+            s.misses++;
+        s.lockWaitNanos += lockWaitNanos;
+    }
+
+    private final OpIterator root;
+    private final Map<OpIterator, Stats> stats = new IdentityHashMap<>();
+    // the pipelines of a gather after the first, each node of which is
+    // reported with the node of the first pipeline it parallels
+    private final Map<OpIterator, List<Stats>> parallels = new IdentityHashMap<>();
+    private final List<Runnable> restore = new ArrayList<>();
+    private boolean attached = true;
+
+    /**
+     * Wrap every operator of a plan.
+     *
+     * @param plan the root of the plan to profile
+     */
+    public Profiler(OpIterator plan) {
+        this.root = wrap(plan, new ArrayList<>(), true);
+        active.incrementAndGet();
+    }
+
+    /** @return the root of the profiled plan, to run in place of the plan */
+    public OpIterator getRoot() {
+        return root;
+    }
+
+    /** Remove the wrappers from the plan, leaving it as it was. */
+    public void detach() {
+        if (!attached)
+            return;
+        attached = false;
+        for (Runnable r : restore)
+            r.run();
+        active.decrementAndGet();
+    }
+
+    /**
+     * @return the measurements of an operator of the plan, summed over the
+     *         pipelines of a gather, or null if it was not measured on its own
+     */
+    public Stats getStats(OpIterator op) {
+        Stats s = stats.get(op);
+        if (s == null)
+            return null;
+        List<Stats> others = parallels.get(op);
+        if (others == null)
+            return s;
+        Stats sum = new Stats();
+        sum.add(s);
+        for (Stats o : others)
+            sum.add(o);
+        sum.children.addAll(s.children);
+        return sum;
+    }
+
+    // wrap op and the operators below it, adding the stats of the nearest
+    // wrapped operators to parent
+    private OpIterator wrap(OpIterator op, List<Stats> parent, boolean measured) {
+        Stats s = null;
+        List<Stats> below = parent;
+        if (measured) {
+            s = new Stats();
+            stats.put(op, s);
+            parent.add(s);
+            below = s.children;
+        }
+        if (op instanceof Operator) {
+            Operator o = (Operator) op;
+            OpIterator[] children = o.getChildren();
+            OpIterator[] original = children.clone();
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] != null)
+                    children[i] = wrap(children[i], below, !typed(o, children[i]));
+            }
+            o.setChildren(children);
+            restore.add(() -> o.setChildren(original));
+            if (o instanceof Gather)
+                for (int i = 1; i < original.length; i++)
+                    parallel(original[0], original[i]);
+        }
+        return s == null ? op : new Node(op, s);
+    }
+
+    // true if parent looks at the type of child, which must not be wrapped
+    private static boolean typed(Operator parent, OpIterator child) {
+        if (parent instanceof Aggregate)
+            return child instanceof SeqScan || child instanceof Gather;
+        return parent instanceof TopN && child instanceof BTreeScan;
+    }
+
+    // report the stats of the nodes of other with those of the same nodes
+    // of first
+    private void parallel(OpIterator first, OpIterator other) {
+        Stats s = stats.get(other);
+        if (s != null && stats.containsKey(first))
+            parallels.computeIfAbsent(first, k -> new ArrayList<>()).add(s);
+        if (first instanceof Operator && other instanceof Operator) {
+            OpIterator[] a = ((Operator) first).getChildren();
+            OpIterator[] b = ((Operator) other).getChildren();
+            for (int i = 0; i < Math.min(a.length, b.length); i++)
+                parallel(unwrap(a[i]), unwrap(b[i]));
+        }
+    }
+
+    private static OpIterator unwrap(OpIterator op) {
+        return op instanceof Node ? ((Node) op).op : op;
+    }
+
+    /**
+     * The iterator wrapped around an operator, which times the calls made to
+     * it and makes it the operator pages are accounted to meanwhile.
+     */
+    private static class Node implements OpIterator {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final OpIterator op;
+        private final transient Stats stats;
+
+        Node(OpIterator op, Stats stats) {
+            this.op = op;
+            this.stats = stats;
+        }
+
+        private Stats enter() {
+            Stats prev = current.get();
+            current.set(stats);
+            return prev;
+        }
+
+        private void exit(Stats prev, long start) {
+            stats.nanos += System.nanoTime() - start;
+            current.set(prev);
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            long start = System.nanoTime();
+            Stats prev = enter();
+            try {
+                op.open();
+            } finally {
+                exit(prev, start);
+            }
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            long start = System.nanoTime();
+            Stats prev = enter();
+            try {
+                return op.hasNext();
+            } finally {
+                exit(prev, start);
+            }
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            long start = System.nanoTime();
+            Stats prev = enter();
+            try {
+                Tuple t = op.next();
+                stats.rows++;
+                return t;
+            } finally {
+                exit(prev, start);
+            }
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            long start = System.nanoTime();
+            Stats prev = enter();
+            try {
+                op.rewind();
+            } finally {
+                exit(prev, start);
+            }
+        }
+
+        public TupleDesc getTupleDesc() {
+            return op.getTupleDesc();
+        }
+
+        public void close() {
+            long start = System.nanoTime();
+            Stats prev = enter();
+            try {
+                op.close();
+            } finally {
+                exit(prev, start);
+            }
+        }
+    }
+}
@@ -27,6 +27,7 @@ public class Query implements Serializable {
     transient private LogicalPlan logicalPlan;
     final TransactionId tid;
     transient private boolean started = false;
+    private int parallelism = 1;
 
     public TransactionId getTransactionId() {
         return this.tid;
@@ -48,6 +49,23 @@ public class Query implements Serializable {
         return this.op;
     }
 
+    /**
+     * Set the degree of parallelism of this query: the number of worker
+     * threads its plan may use. Must be set before the physical plan is
+     * built from the logical plan.
+     *
+     * @see LogicalPlan#setParallelism(int)
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive");
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
     public Query(TransactionId t) {
         tid = t;
     }
@@ -99,27 +117,36 @@ public class Query implements Serializable {
         started = false;
     }
 
+    /**
+     * Run the query and print its result to System.out. The output is
+     * buffered and flushed once at the end; use a {@link ResultSet} to
+     * consume the result in a program instead.
+     */
     public void execute() throws DbException, TransactionAbortedException {
         TupleDesc td = this.getOutputTupleDesc();
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out), 1 << 16));
 
         StringBuilder names = new StringBuilder();
         for (int i = 0; i < td.numFields(); i++) {
             names.append(td.getFieldName(i)).append("\t");
         }
-        System.out.println(names);
+        out.println(names);
         for (int i = 0; i < names.length() + td.numFields() * 4; i++) {
-            System.out.print("-");
+            out.print("-");
         }
-        System.out.println();
+        out.println();
 
-        this.start();
         int cnt = 0;
-        while (this.hasNext()) {
-            Tuple tup = this.next();
-            System.out.println(tup);
-            cnt++;
+        try (ResultSet rs = new ResultSet(this)) {
+            while (rs.next()) {
+                out.println(rs.getTuple());
+                cnt++;
+            }
+        } finally {
+            out.flush();
         }
-        System.out.println("\n " + cnt + " rows.");
-        this.close();
+        out.println("\n " + cnt + " rows.");
+        out.flush();
     }
 }
@@ -0,0 +1,198 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * ResultSet is a cursor over the result of a {@link Query}, for programs
+ * that consume results instead of printing them.
+ * <p>
+ * Tuples are pulled from the query's operators fetchSize at a time. The
+ * operators are closed, stopping any worker threads and releasing their
+ * buffers, as soon as the result is exhausted or the ResultSet is closed,
+ * so a ResultSet may be closed before reading all of the result.
+ * <pre>
+ *   try (ResultSet rs = new ResultSet(query)) {
+ *       while (rs.next())
+ *           use(rs.getInt(0), rs.getString("name"));
+ *   }
+ * </pre>
+ */
+public class ResultSet implements Closeable {
+
+    public static final int DEFAULT_FETCH_SIZE = 256;
+
+    private final Query query;
+    private final TupleDesc td;
+    private final List<Tuple> buffer = new ArrayList<>();
+    private int pos = 0;
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+    private Tuple current;
+    private long rowCount = 0;
+    private boolean exhausted = false;
+    private boolean open = false;
+
+    /**
+     * Start running a query.
+     *
+     * @param query the query, which must not have been started
+     */
+    public ResultSet(Query query) throws DbException, TransactionAbortedException {
+        this.query = query;
+        this.td = query.getOutputTupleDesc();
+        query.start();
+        open = true;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Set the number of tuples pulled from the operators at a time.
+     */
+    public void setFetchSize(int fetchSize) {
+        if (fetchSize < 1)
+            throw new IllegalArgumentException("fetch size must be positive");
+        this.fetchSize = fetchSize;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Move to the next tuple of the result.
+     *
+     * @return false if there are no more tuples
+     */
+    public boolean next() throws DbException, TransactionAbortedException {
+        if (pos == buffer.size()) {
+            buffer.clear();
+            pos = 0;
+            if (!exhausted)
+                fetch();
+            if (buffer.isEmpty()) {
+                current = null;
+                return false;
+            }
+        }
+        current = buffer.get(pos);
+        buffer.set(pos++, null);
+        rowCount++;
+        return true;
+    }
+
+    // pull the next fetchSize tuples, closing the query once it is exhausted
+    private void fetch() throws DbException, TransactionAbortedException {
+        try {
+            while (buffer.size() < fetchSize && query.hasNext())
+                buffer.add(query.next());
+        } catch (DbException | TransactionAbortedException | RuntimeException e) {
+            close();
+            throw e;
+        }
+        if (buffer.size() < fetchSize) {
+            exhausted = true;
+            closeQuery();
+        }
+    }
+
+    /**
+     * @return the current tuple
+     * @throws NoSuchElementException if {@link #next} did not move to a tuple
+     */
+    public Tuple getTuple() {
+        if (current == null)
+            throw new NoSuchElementException("no current tuple");
+        return current;
+    }
+
+    public Field getField(int i) {
+        return getTuple().getField(i);
+    }
+
+    public Field getField(String name) {
+        return getField(findColumn(name));
+    }
+
+    /**
+     * @return the value of INT field i of the current tuple
+     * @throws IllegalArgumentException if field i is not an INT field
+     */
+    public int getInt(int i) {
+        checkType(i, Type.INT_TYPE);
+        return ((IntField) getField(i)).getValue();
+    }
+
+    public int getInt(String name) {
+        return getInt(findColumn(name));
+    }
+
+    /**
+     * @return the value of STRING field i of the current tuple
+     * @throws IllegalArgumentException if field i is not a STRING field
+     */
+    public String getString(int i) {
+        checkType(i, Type.STRING_TYPE);
+        return ((StringField) getField(i)).getValue();
+    }
+
+    public String getString(String name) {
+        return getString(findColumn(name));
+    }
+
+    /**
+     * @return the index of the field with the specified name
+     * @throws NoSuchElementException if there is no such field
+     */
+    public int findColumn(String name) {
+        return td.fieldNameToIndex(name);
+    }
+
+    private void checkType(int i, Type t) {
+        if (td.getFieldType(i) != t)
+            throw new IllegalArgumentException("Field " + i + " is of type "
+                    + td.getFieldType(i) + ", not " + t);
+    }
+
+    /** @return the number of tuples moved to so far */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /** @return true if the query's operators are still open */
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Stop running the query. Tuples not read yet are discarded, and
+     * {@link #next} returns false from now on.
+     */
+    public void close() {
+        closeQuery();
+        exhausted = true;
+        buffer.clear();
+        pos = 0;
+        current = null;
+    }
+
+    private void closeQuery() {
+        if (open) {
+            open = false;
+            query.close();
+        }
+    }
+}
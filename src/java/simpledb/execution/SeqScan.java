@@ -2,8 +2,10 @@ package simpledb.execution;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.storage.AbstractDbFileIterator;
 import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
@@ -29,6 +31,14 @@ public class SeqScan implements OpIterator {
 
     private String tableAlias;
 
+    // the page range [startPage, endPage) to scan; endPage < 0 scans the whole file
+    private final int startPage;
+
+    private final int endPage;
+
+    // if not null, the pages to scan are taken from here one morsel at a time
+    private final Morsels morsels;
+
     @Serial
     private static final long serialVersionUID = 1L;
 
@@ -50,9 +60,68 @@ public class SeqScan implements OpIterator {
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         // some code goes here
+        this(tid, tableid, tableAlias, 0, -1);
+    }
+
+    /**
+     * Creates a sequential scan over a range of pages of the specified
+     * {@link HeapFile}.
+     *
+     * @param startPage
+     *            the first page to scan
+     * @param endPage
+     *            one past the last page to scan, or -1 to scan to the end
+     *            of the file
+     * @see #SeqScan(TransactionId, int, String)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int startPage, int endPage) {
+        this(tid, tableid, tableAlias, startPage, endPage, null);
+    }
+
+    /**
+     * Creates a sequential scan over the pages of the specified
+     * {@link HeapFile} handed out by a {@link Morsels}. Several such scans
+     * sharing the same Morsels, each running on its own thread, together
+     * return every tuple of the table exactly once.
+     *
+     * @param morsels
+     *            the source of the page ranges to scan
+     * @see #SeqScan(TransactionId, int, String)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, Morsels morsels) {
+        this(tid, tableid, tableAlias, 0, -1, morsels);
+    }
+
+    private SeqScan(TransactionId tid, int tableid, String tableAlias, int startPage, int endPage,
+                    Morsels morsels) {
         this.tid = tid;
         this.tableId = tableid;
         this.tableAlias = tableAlias;
+        this.startPage = startPage;
+        this.endPage = endPage;
+        this.morsels = morsels;
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     */
+    public TransactionId getTransactionId() {
+        return this.tid;
+    }
+
+    /**
+     * @return the id of the table this scan reads
+     */
+    public int getTableId() {
+        return this.tableId;
+    }
+
+    /**
+     * @return the Morsels this scan takes its pages from, or null if it
+     *         scans a fixed page range
+     */
+    public Morsels getMorsels() {
+        return this.morsels;
     }
 
     /**
@@ -96,10 +165,47 @@ public class SeqScan implements OpIterator {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Split this scan into scans over disjoint, contiguous page ranges that
+     * together return the same tuples as this scan. Only scans over a
+     * {@link HeapFile} that are not already taking their pages from a
+     * {@link Morsels} can be split; any other scan is returned unchanged.
+     *
+     * @param parts
+     *            the maximum number of scans to return
+     * @return at most parts scans, of roughly equal numbers of pages
+     */
+    public List<SeqScan> partition(int parts) {
+        List<SeqScan> scans = new ArrayList<>();
+        DbFile file = Database.getCatalog().getDatabaseFile(this.tableId);
+        if (!(file instanceof HeapFile) || parts <= 1 || this.morsels != null) {
+            scans.add(this);
+            return scans;
+        }
+        int start = this.startPage;
+        int end = ((HeapFile) file).numPages();
+        if (this.endPage >= 0)
+            end = Math.min(end, this.endPage);
+        int n = Math.max(1, Math.min(parts, end - start));
+        for (int i = 0; i < n; i++) {
+            int from = start + (int) ((long) (end - start) * i / n);
+            int to = start + (int) ((long) (end - start) * (i + 1) / n);
+            scans.add(new SeqScan(this.tid, this.tableId, this.tableAlias, from, to));
+        }
+        return scans;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
         DbFile file = Database.getCatalog().getDatabaseFile(this.tableId);
-        this.it = file.iterator(this.tid);
+        if (this.morsels != null) {
+            this.it = new MorselIterator((HeapFile) file);
+        } else if (this.startPage > 0 || this.endPage >= 0) {
+            int end = this.endPage >= 0 ? this.endPage : Integer.MAX_VALUE;
+            this.it = ((HeapFile) file).iterator(this.tid, this.startPage, end);
+        } else {
+            this.it = file.iterator(this.tid);
+        }
         assert it != null;
         it.open();
     }
@@ -140,13 +246,64 @@ public class SeqScan implements OpIterator {
 
     public void close() {
         // some code goes here
-        it.close();
+        if (it != null)
+            it.close();
     }
 
+    /**
+     * Start the scan over. A scan taking its pages from a {@link Morsels}
+     * resets the Morsels, as {@link Gather} does, so every scan sharing it
+     * starts over too.
+     */
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+        if (this.morsels != null && it != null) {
+            it.rewind();
+            return;
+        }
         close();
         open();
     }
+
+    // scans the page ranges handed out by morsels until there are none left
+    private class MorselIterator extends AbstractDbFileIterator {
+
+        private final HeapFile file;
+
+        private DbFileIterator cur;
+
+        MorselIterator(HeapFile file) {
+            this.file = file;
+        }
+
+        public void open() {
+            this.cur = null;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (this.cur == null || !this.cur.hasNext()) {
+                int[] morsel = morsels.next();
+                if (morsel == null)
+                    return null;
+                this.cur = this.file.iterator(tid, morsel[0], morsel[1]);
+                this.cur.open();
+            }
+            return this.cur.next();
+        }
+
+        // hand out the pages again from the first one and scan them over
+        public void rewind() {
+            close();
+            morsels.reset();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            if (this.cur != null)
+                this.cur.close();
+            this.cur = null;
+        }
+    }
 }
@@ -0,0 +1,121 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.Serial;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * SortMergeJoin reads both of its children once, sorts them in memory on
+ * their join fields and merges them. Besides equality, it evaluates the
+ * range predicates &lt;, &lt;=, &gt; and &gt;=: the inner tuples matching an
+ * outer tuple are a range of the sorted inner relation, and the ends of the
+ * range only move forward as the outer join field increases.
+ */
+public class SortMergeJoin extends Join {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final List<Tuple> outer = new ArrayList<>();
+    private final List<Tuple> inner = new ArrayList<>();
+    private int o;
+    // first inner tuple whose join field is >= that of outer tuple o, and
+    // first one whose join field is > it
+    private int ge, gt;
+    // the range of inner tuples matching outer tuple o
+    private int next, end;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children; must not be
+     *            NOT_EQUALS or LIKE
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        super(p, child1, child2);
+        if (p.getOperator() == Predicate.Op.NOT_EQUALS || p.getOperator() == Predicate.Op.LIKE)
+            throw new IllegalArgumentException("Cannot merge join on " + p.getOperator());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        OpIterator[] children = getChildren();
+        JoinPredicate p = getJoinPredicate();
+        read(children[0], outer, p.getField1());
+        read(children[1], inner, p.getField2());
+        o = -1;
+        ge = gt = next = end = 0;
+    }
+
+    private static void read(OpIterator child, List<Tuple> tuples, int field)
+            throws DbException, TransactionAbortedException {
+        tuples.clear();
+        while (child.hasNext())
+            tuples.add(child.next());
+        tuples.sort(new TupleComparator(field, true));
+    }
+
+    public void close() {
+        super.close();
+        outer.clear();
+        inner.clear();
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (next == end) {
+            if (++o >= outer.size())
+                return null;
+            seek();
+        }
+        return merge(outer.get(o), inner.get(next++));
+    }
+
+    // move the range of matching inner tuples to outer tuple o
+    private void seek() {
+        JoinPredicate p = getJoinPredicate();
+        Field f = outer.get(o).getField(p.getField1());
+        int f2 = p.getField2();
+        while (ge < inner.size() && inner.get(ge).getField(f2).compare(Predicate.Op.LESS_THAN, f))
+            ge++;
+        if (gt < ge)
+            gt = ge;
+        while (gt < inner.size() && inner.get(gt).getField(f2).compare(Predicate.Op.LESS_THAN_OR_EQ, f))
+            gt++;
+        switch (p.getOperator()) {
+        case EQUALS:
+            next = ge;
+            end = gt;
+            break;
+        case LESS_THAN:
+            next = gt;
+            end = inner.size();
+            break;
+        case LESS_THAN_OR_EQ:
+            next = ge;
+            end = inner.size();
+            break;
+        case GREATER_THAN:
+            next = 0;
+            end = ge;
+            break;
+        case GREATER_THAN_OR_EQ:
+            next = 0;
+            end = gt;
+            break;
+        default:
+            throw new IllegalStateException("Cannot merge join on " + p.getOperator());
+        }
+    }
+}
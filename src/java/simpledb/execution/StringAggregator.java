@@ -4,10 +4,8 @@ import simpledb.common.Type;
 import simpledb.storage.*;
 
 import java.io.Serial;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 
 /**
  * Knows how to compute some aggregate over a set of StringFields.
@@ -24,7 +22,7 @@ public class StringAggregator implements Aggregator {
 
     private TupleDesc td;
 
-    private final HashMap<Field, Integer> GroupMap;
+    private final AggregateHashTable groups;
 
     @Serial
     private static final long serialVersionUID = 1L;
@@ -45,7 +43,7 @@ public class StringAggregator implements Aggregator {
         this.gbfieldtype = gbfieldtype;
         this.afield = afield;
         this.what = what;
-        this.GroupMap = new HashMap<>();
+        this.groups = new AggregateHashTable(gbfield == NO_GROUPING ? null : gbfieldtype);
     }
 
     /**
@@ -55,16 +53,14 @@ public class StringAggregator implements Aggregator {
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
         if(td == null) td = tup.getTupleDesc();
-        Field gbField;
         if(this.gbfield == NO_GROUPING) {
-            gbField = new IntField(0);
+            groups.add(null, 0);
         }
         else {
-            gbField = tup.getField(this.gbfield);
+            Field gbField = tup.getField(this.gbfield);
             assert gbField.getType() == this.gbfieldtype;
+            groups.add(gbField, 0);
         }
-        int x = GroupMap.getOrDefault(gbField, 0);
-        GroupMap.put(gbField, x + 1);
     }
 
     /**
@@ -78,28 +74,21 @@ public class StringAggregator implements Aggregator {
     public OpIterator iterator() {
         // some code goes here
         TupleDesc td;
-        ArrayList<Tuple> al = new ArrayList<>();
         if(this.gbfield == NO_GROUPING) {
             TupleDesc.TDItem td2 = new TupleDesc.TDItem(Type.INT_TYPE, this.td.getFieldName(afield));
             td = new TupleDesc(Collections.singletonList(td2));
-            for(Field key : GroupMap.keySet()) {
-                Tuple t = new Tuple(td);
-                t.setField(0, new IntField(GroupMap.get(key)));
-                al.add(t);
-            }
         }
         else {
             TupleDesc.TDItem td1 = new TupleDesc.TDItem(gbfieldtype, this.td.getFieldName(gbfield));
             TupleDesc.TDItem td2 = new TupleDesc.TDItem(Type.INT_TYPE, this.td.getFieldName(afield));
             td = new TupleDesc(Arrays.asList(td1, td2));
-            for(Field key : GroupMap.keySet()) {
-                Tuple t = new Tuple(td);
-                t.setField(0, key);
-                t.setField(1, new IntField(GroupMap.get(key)));
-                al.add(t);
-            }
         }
-        return new TupleIterator(td, al);
+        return groups.iterator(td, new Op[] { what });
+    }
+
+    @Override
+    public void close() {
+        groups.close();
     }
 
 }
@@ -0,0 +1,162 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.storage.DbFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.Serial;
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY ... LIMIT n. Instead of
+ * sorting the whole input like {@link OrderBy}, it keeps a bounded heap of
+ * the best n tuples seen so far, so it runs in O(m log n) time and O(n)
+ * memory over m input tuples.
+ * <p>
+ * If the child is a {@link BTreeScan} whose key field is the sort field and
+ * the requested order is ascending, or descending for a scan in reverse,
+ * the input already arrives in order and TopN simply stops pulling from the
+ * child after n tuples.
+ */
+public class TopN extends Operator {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final TupleDesc td;
+    private final int limit;
+    private final int orderByField;
+    private final String orderByFieldName;
+    private final boolean asc;
+    private final List<Tuple> topTups = new ArrayList<>();
+    private Iterator<Tuple> it;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param limit
+     *            the maximum number of tuples to return.
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int limit, int orderbyField, boolean asc, OpIterator child) {
+        if (limit < 0)
+            throw new IllegalArgumentException("negative limit " + limit);
+        this.child = child;
+        td = child.getTupleDesc();
+        this.limit = limit;
+        this.orderByField = orderbyField;
+        this.orderByFieldName = td.getFieldName(orderbyField);
+        this.asc = asc;
+    }
+
+    public int getLimit() {
+        return this.limit;
+    }
+
+    public boolean isASC() {
+        return this.asc;
+    }
+
+    public int getOrderByField() {
+        return this.orderByField;
+    }
+
+    public String getOrderFieldName() {
+        return this.orderByFieldName;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return true if the child already returns its tuples in the order
+     *         requested by this operator, so that the first n tuples are the
+     *         answer.
+     */
+    boolean childProvidesOrder() {
+        if (!(child instanceof BTreeScan))
+            return false;
+        BTreeScan scan = (BTreeScan) child;
+        if (asc == scan.isReverse())
+            return false;
+        DbFile f = Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId(scan.getTableName()));
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == orderByField;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        topTups.clear();
+        if (childProvidesOrder()) {
+            // the index hands us tuples in key order; stop after limit
+            while (topTups.size() < limit && child.hasNext())
+                topTups.add(child.next());
+        } else if (limit > 0) {
+            // max-heap on the requested order: the root is the worst tuple
+            // kept so far, and is the one replaced by a better newcomer
+            Comparator<Tuple> cmp = new TupleComparator(orderByField, asc);
+            PriorityQueue<Tuple> heap = new PriorityQueue<>(limit, cmp.reversed());
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                if (heap.size() < limit) {
+                    heap.add(t);
+                } else if (cmp.compare(t, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(t);
+                }
+            }
+            while (!heap.isEmpty())
+                topTups.add(heap.poll());
+            Collections.reverse(topTups);
+        }
+        it = topTups.iterator();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        it = null;
+    }
+
+    public void rewind() {
+        it = topTups.iterator();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the first limit tuples of
+     * the ordering
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException {
+        if (it != null && it.hasNext()) {
+            return it.next();
+        } else
+            return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -0,0 +1,547 @@
+package simpledb.index;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.AbstractDbFileIterator;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * BTreeBulkLoader builds a {@link BTreeFile} bottom-up from a stream of tuples
+ * sorted on its key field, replacing the contents of its file. The tuples are
+ * packed into leaf pages filled to a fill factor, which are written as they
+ * fill, in key order, several pages to a write; only the first key and page
+ * number of each leaf is kept, from which the internal levels are built once
+ * the stream ends and written after the leaves. The parent pointers of the
+ * leaves are then filled in, in one more sequential pass.
+ * <p>
+ * Unsorted tuples are sorted first with bounded memory by
+ * {@link #sortAndLoad}, in sorted runs spilled to temporary files and merged.
+ * <p>
+ * The file must not be in use while it is loaded: pages of it in the buffer
+ * pool are not updated.
+ *
+ * @see BTreeFileEncoder
+ */
+public class BTreeBulkLoader {
+
+	/**
+	 * The default fraction of the slots of each page filled, leaving room for
+	 * some inserts before the pages split.
+	 */
+	public static final double DEFAULT_FILL_FACTOR = 0.9;
+
+	/** Default number of tuples {@link #sortAndLoad} sorts in memory at a time. */
+	public static final int DEFAULT_RUN_TUPLES = 100000;
+
+	/** Number of pages written to the file at a time. */
+	static final int WRITE_PAGES = 64;
+
+	private final BTreeFile bf;
+	private final TupleDesc td;
+	private final Type[] types;
+	private final int keyField;
+	private final int pageSize;
+	private final int leafTarget;
+	private final int leafMin;
+	private final int leafMax;
+	private final int entryTarget;
+	private final int entryMin;
+	private final int entryMax;
+	private final boolean variableKeys; // internal pages filled by bytes
+	private final int spaceTarget;
+
+	private Field lastKey; // the last key of the last leaf added
+
+	/**
+	 * Create a loader for a B+ tree file.
+	 *
+	 * @param bf - the B+ tree file to load
+	 * @param fillFactor - the fraction of the slots of each page to fill, at
+	 *            least one half, so that no page is less than half full
+	 * @throws IllegalArgumentException if the fill factor is not between 0.5
+	 *             and 1
+	 */
+	public BTreeBulkLoader(BTreeFile bf, double fillFactor) {
+		if(fillFactor < 0.5 || fillFactor > 1.0)
+			throw new IllegalArgumentException("fill factor must be between 0.5 and 1: " + fillFactor);
+		this.bf = bf;
+		this.td = bf.getTupleDesc();
+		this.keyField = bf.keyField();
+		this.pageSize = BufferPool.getPageSize();
+		this.types = new Type[td.numFields()];
+		for(int i = 0; i < types.length; i++)
+			types[i] = td.getFieldType(i);
+
+		// the capacities of the pages, as in BTreeLeafPage and BTreeInternalPage
+		leafMax = (pageSize * 8 - 3 * BTreeLeafPage.INDEX_SIZE * 8) / (td.getSize() * 8 + 1);
+		int entryBytes = types[keyField].getLen() + BTreeInternalPage.INDEX_SIZE;
+		entryMax = (pageSize * 8 - (2 * BTreeLeafPage.INDEX_SIZE + 1) * 8 - 1) / (entryBytes * 8 + 1);
+		leafMin = leafMax / 2;
+		entryMin = entryMax / 2;
+		leafTarget = Math.max(1, Math.max(leafMin, (int) (fillFactor * leafMax)));
+		entryTarget = Math.max(1, Math.max(entryMin, (int) (fillFactor * entryMax)));
+
+		// internal pages of string keys hold as many entries as their bytes allow
+		variableKeys = BTreeInternalPage.hasVariableKeys(types[keyField]);
+		spaceTarget = (int) (fillFactor * BTreeInternalPage.getKeyCapacity());
+	}
+
+	/**
+	 * Create a loader filling pages to {@link #DEFAULT_FILL_FACTOR}.
+	 *
+	 * @param bf - the B+ tree file to load
+	 */
+	public BTreeBulkLoader(BTreeFile bf) {
+		this(bf, DEFAULT_FILL_FACTOR);
+	}
+
+	// a page of the file being written, by page number
+	private long offset(int pgNo) {
+		return BTreeRootPtrPage.getPageSize() + (long) (pgNo - 1) * pageSize;
+	}
+
+	/**
+	 * Replace the contents of the file with the tuples of a stream sorted on
+	 * the key field.
+	 *
+	 * @param sorted - the tuples, in key order; opened and closed here
+	 * @throws DbException if the tuples are not in key order
+	 */
+	public void load(DbFileIterator sorted)
+			throws DbException, IOException, TransactionAbortedException {
+		BTreeFileEncoder.TupleComparator cmp = new BTreeFileEncoder.TupleComparator(keyField);
+		try(FileChannel ch = FileChannel.open(bf.getFile().toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buf = ByteBuffer.allocate(WRITE_PAGES * pageSize);
+			long bufStart = offset(1);
+
+			// the first key, or for string keys the shortest key separating
+			// it from the leaf before, and the page number of every leaf page
+			lastKey = null;
+			List<Field> keys = new ArrayList<>();
+			List<Integer> pages = new ArrayList<>();
+
+			// the last full page is held back until the next one fills, so that
+			// the last two can share the tuples if the last would be less than
+			// half full
+			List<Tuple> prev = null;
+			List<Tuple> cur = new ArrayList<>();
+			Tuple last = null;
+			sorted.open();
+			try {
+				while(sorted.hasNext()) {
+					Tuple t = sorted.next();
+					if(last != null && cmp.compare(last, t) > 0)
+						throw new DbException("tuples are not sorted on field " + keyField);
+					last = t;
+					cur.add(t);
+					if(cur.size() == leafTarget) {
+						if(prev != null)
+							bufStart = addLeaf(ch, buf, bufStart, prev, keys, pages, false);
+						prev = cur;
+						cur = new ArrayList<>();
+					}
+				}
+			} finally {
+				sorted.close();
+			}
+			if(prev == null) {
+				bufStart = addLeaf(ch, buf, bufStart, cur, keys, pages, true);
+			} else if(cur.isEmpty()) {
+				bufStart = addLeaf(ch, buf, bufStart, prev, keys, pages, true);
+			} else if(cur.size() >= leafMin) {
+				bufStart = addLeaf(ch, buf, bufStart, prev, keys, pages, false);
+				bufStart = addLeaf(ch, buf, bufStart, cur, keys, pages, true);
+			} else {
+				prev.addAll(cur);
+				if(prev.size() <= leafMax) {
+					bufStart = addLeaf(ch, buf, bufStart, prev, keys, pages, true);
+				} else {
+					int half = prev.size() / 2;
+					bufStart = addLeaf(ch, buf, bufStart, new ArrayList<>(prev.subList(0, half)), keys, pages, false);
+					bufStart = addLeaf(ch, buf, bufStart, new ArrayList<>(prev.subList(half, prev.size())), keys, pages, true);
+				}
+			}
+			flush(ch, buf, bufStart);
+			int numLeaves = pages.size();
+
+			// build the internal levels bottom-up from the first keys and page
+			// numbers of the pages of the level below, numbering the pages of
+			// each level after those below it
+			List<int[]> groups = new ArrayList<>(); // the number of children of each page
+			List<List<Integer>> levelPages = new ArrayList<>(); // the pages below
+			List<List<Field>> levelKeys = new ArrayList<>(); // their first keys
+			List<int[]> parentsOf = new ArrayList<>(); // and their parents
+			int nextPage = numLeaves + 1;
+			List<Integer> children = pages;
+			List<Field> childKeys = keys;
+			while(children.size() > 1) {
+				int[] sizes = variableKeys ? groupByFill(childKeys) : group(children.size());
+				List<Integer> parentPages = new ArrayList<>();
+				List<Field> parentKeys = new ArrayList<>();
+				int[] parents = new int[children.size()];
+				int c = 0;
+				for(int size : sizes) {
+					parentPages.add(nextPage);
+					parentKeys.add(childKeys.get(c));
+					for(int i = 0; i < size; i++)
+						parents[c++] = nextPage;
+					nextPage++;
+				}
+				groups.add(sizes);
+				levelPages.add(children);
+				levelKeys.add(childKeys);
+				parentsOf.add(parents);
+				children = parentPages;
+				childKeys = parentKeys;
+			}
+			int root = children.get(0);
+			int rootCategory = groups.isEmpty() ? BTreePageId.LEAF : BTreePageId.INTERNAL;
+			int[] leafParents = parentsOf.isEmpty() ? new int[numLeaves] : parentsOf.get(0);
+
+			// write out the internal pages, level by level
+			int tableid = bf.getId();
+			int childCategory = BTreePageId.LEAF;
+			bufStart = offset(numLeaves + 1);
+			for(int level = 0; level < groups.size(); level++) {
+				List<Integer> childPages = levelPages.get(level);
+				List<Field> firstKeys = levelKeys.get(level);
+				int[] sizes = groups.get(level);
+				int[] grandparents = level + 1 < parentsOf.size() ? parentsOf.get(level + 1) : null;
+				int c = 0;
+				for(int p = 0; p < sizes.length; p++) {
+					List<BTreeEntry> entries = new ArrayList<>();
+					for(int i = 1; i < sizes[p]; i++) {
+						entries.add(new BTreeEntry(firstKeys.get(c + i),
+								new BTreePageId(tableid, childPages.get(c + i - 1), childCategory),
+								new BTreePageId(tableid, childPages.get(c + i), childCategory)));
+					}
+					c += sizes[p];
+					byte[] data = BTreeFileEncoder.convertToInternalPage(entries, pageSize,
+							types[keyField], childCategory);
+					ByteBuffer.wrap(data).putInt(0, grandparents == null ? 0 : grandparents[p]);
+					bufStart = add(ch, buf, bufStart, data);
+				}
+				childCategory = BTreePageId.INTERNAL;
+			}
+			flush(ch, buf, bufStart);
+
+			// fill in the parent pointers of the leaves
+			for(int first = 1; first <= numLeaves; first += WRITE_PAGES) {
+				int n = Math.min(WRITE_PAGES, numLeaves - first + 1);
+				buf.clear().limit(n * pageSize);
+				long pos = offset(first);
+				while(buf.hasRemaining()) {
+					if(ch.read(buf, pos + buf.position()) < 0)
+						throw new EOFException("leaf page " + first + " not written");
+				}
+				for(int i = 0; i < n; i++)
+					buf.putInt(i * pageSize, leafParents[first - 1 + i]);
+				buf.flip();
+				while(buf.hasRemaining())
+					ch.write(buf, pos + buf.position());
+			}
+
+			buf.clear();
+			buf.put(BTreeFileEncoder.convertToRootPtrPage(root, rootCategory, 0)).flip();
+			while(buf.hasRemaining())
+				ch.write(buf, buf.position());
+		}
+		bf.resetFreePages();
+	}
+
+	/**
+	 * Replace the contents of the file with tuples in any order, sorted with
+	 * at most runTuples of them in memory at a time. Sorted runs of that many
+	 * tuples are spilled to temporary files and merged as they are loaded.
+	 *
+	 * @param tuples - the tuples; opened and closed here
+	 * @param runTuples - the number of tuples sorted in memory at a time
+	 */
+	public void sortAndLoad(DbFileIterator tuples, int runTuples)
+			throws DbException, IOException, TransactionAbortedException {
+		BTreeFileEncoder.TupleComparator cmp = new BTreeFileEncoder.TupleComparator(keyField);
+		List<File> runs = new ArrayList<>();
+		List<Tuple> run = new ArrayList<>();
+		try {
+			tuples.open();
+			try {
+				while(tuples.hasNext()) {
+					run.add(tuples.next());
+					if(run.size() == runTuples) {
+						runs.add(spill(run, cmp));
+						run.clear();
+					}
+				}
+			} finally {
+				tuples.close();
+			}
+			if(runs.isEmpty()) {
+				run.sort(cmp);
+				load(new MemoryRun(run));
+			} else {
+				if(!run.isEmpty()) {
+					runs.add(spill(run, cmp));
+					run.clear();
+				}
+				load(new MergeIterator(runs, cmp));
+			}
+		} finally {
+			for(File f : runs)
+				f.delete();
+		}
+	}
+
+	/**
+	 * Replace the contents of the file with tuples in any order, sorted with
+	 * at most {@link #DEFAULT_RUN_TUPLES} of them in memory at a time.
+	 *
+	 * @see #sortAndLoad(DbFileIterator, int)
+	 */
+	public void sortAndLoad(DbFileIterator tuples)
+			throws DbException, IOException, TransactionAbortedException {
+		sortAndLoad(tuples, DEFAULT_RUN_TUPLES);
+	}
+
+	// the number of children of each page of a level above pages of n pages
+	private int[] group(int n) {
+		int per = entryTarget + 1;
+		int numPages = (n + per - 1) / per;
+		int[] sizes = new int[numPages];
+		for(int p = 0; p < numPages; p++)
+			sizes[p] = Math.min(per, n - p * per);
+		// like the leaves, the last page takes children from the one before
+		// it, or all of them, if it would be less than half full
+		int last = numPages - 1;
+		if(last > 0 && sizes[last] - 1 < entryMin) {
+			int both = sizes[last - 1] + sizes[last];
+			if(both - 1 <= entryMax) {
+				sizes = Arrays.copyOf(sizes, last);
+				sizes[last - 1] = both;
+			} else {
+				sizes[last - 1] = both / 2;
+				sizes[last] = both - both / 2;
+			}
+		}
+		return sizes;
+	}
+
+	// the number of children of each page of string keys of a level above
+	// pages with the given first keys, filled to the target bytes
+	private int[] groupByFill(List<Field> firstKeys) {
+		int n = firstKeys.size();
+		List<Integer> sizes = new ArrayList<>();
+		int start = 0; // the first child of the page being filled
+		int fill = 0;
+		for(int c = 1; c < n; c++) {
+			int f = BTreeInternalPage.entryFill(firstKeys.get(c));
+			if(c > start + 1 && BTreeInternalPage.keySpace(firstKeys.get(start + 1), firstKeys.get(c),
+					c - start, fill + f) > spaceTarget) {
+				sizes.add(c - start);
+				start = c;
+				fill = 0;
+			} else {
+				fill += f;
+			}
+		}
+		sizes.add(n - start);
+
+		// the last page takes children from the one before it, or all of them,
+		// if it would be less than half full
+		int last = sizes.size() - 1;
+		if(last > 0 && fill < BTreeInternalPage.getMinFill()) {
+			int first = start - sizes.get(last - 1);
+			int both = 0;
+			for(int c = first + 1; c < n; c++)
+				both += BTreeInternalPage.entryFill(firstKeys.get(c));
+			if(BTreeInternalPage.keySpace(firstKeys.get(first + 1), firstKeys.get(n - 1), n - first - 1, both)
+					<= BTreeInternalPage.getKeyCapacity()) {
+				sizes.remove(last);
+				sizes.set(last - 1, n - first);
+			} else {
+				// split the keys by fill, the key in the middle going up
+				int c = first + 1;
+				int moved = 0;
+				while((moved + BTreeInternalPage.entryFill(firstKeys.get(c))) * 2 <= both)
+					moved += BTreeInternalPage.entryFill(firstKeys.get(c++));
+				sizes.set(last - 1, c - first);
+				sizes.set(last, n - c);
+			}
+		}
+		int[] result = new int[sizes.size()];
+		for(int p = 0; p < result.length; p++)
+			result[p] = sizes.get(p);
+		return result;
+	}
+
+	// add a leaf page of tuples after those already added
+	private long addLeaf(FileChannel ch, ByteBuffer buf, long bufStart, List<Tuple> tuples,
+			List<Field> keys, List<Integer> pages, boolean isLast) throws IOException {
+		int pgNo = pages.size() + 1;
+		byte[] data = BTreeFileEncoder.convertToLeafPage(tuples, pageSize, types.length, types, keyField);
+		ByteBuffer b = ByteBuffer.wrap(data);
+		b.putInt(4, pgNo > 1 ? pgNo - 1 : 0);
+		b.putInt(8, isLast ? 0 : pgNo + 1);
+		Field first = tuples.isEmpty() ? null : tuples.get(0).getField(keyField);
+		keys.add(lastKey == null || first == null ? first : BTreeFile.separator(lastKey, first));
+		if(!tuples.isEmpty())
+			lastKey = tuples.get(tuples.size() - 1).getField(keyField);
+		pages.add(pgNo);
+		return add(ch, buf, bufStart, data);
+	}
+
+	// add a page to the write buffer, writing the buffer out when it is full,
+	// and return the offset in the file of the start of the buffer
+	private long add(FileChannel ch, ByteBuffer buf, long bufStart, byte[] data) throws IOException {
+		if(buf.remaining() < data.length) {
+			bufStart = flush(ch, buf, bufStart);
+		}
+		buf.put(data);
+		return bufStart;
+	}
+
+	private long flush(FileChannel ch, ByteBuffer buf, long bufStart) throws IOException {
+		buf.flip();
+		long pos = bufStart;
+		while(buf.hasRemaining())
+			pos += ch.write(buf, pos);
+		buf.clear();
+		return pos;
+	}
+
+	// sort a run of tuples and write it to a temporary file
+	private File spill(List<Tuple> run, BTreeFileEncoder.TupleComparator cmp) throws IOException {
+		run.sort(cmp);
+		File f = File.createTempFile("btreerun", ".dat");
+		f.deleteOnExit();
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)))) {
+			for(Tuple t : run)
+				for(int i = 0; i < types.length; i++)
+					t.getField(i).serialize(out);
+		}
+		return f;
+	}
+
+	/** The tuples of a run sorted in memory, in order. */
+	private static class MemoryRun extends AbstractDbFileIterator {
+		private final List<Tuple> tuples;
+		private int pos;
+
+		MemoryRun(List<Tuple> tuples) {
+			this.tuples = tuples;
+		}
+
+		public void open() {
+			pos = 0;
+		}
+
+		public void rewind() {
+			open();
+		}
+
+		protected Tuple readNext() {
+			return pos < tuples.size() ? tuples.get(pos++) : null;
+		}
+	}
+
+	/** The tuples of sorted runs spilled to files, merged in order. */
+	private class MergeIterator extends AbstractDbFileIterator {
+		private final List<File> runs;
+		private final BTreeFileEncoder.TupleComparator cmp;
+		private final List<DataInputStream> ins = new ArrayList<>();
+		private PriorityQueue<Head> heads;
+
+		// the next tuple of a run
+		private class Head {
+			final Tuple t;
+			final int run;
+
+			Head(Tuple t, int run) {
+				this.t = t;
+				this.run = run;
+			}
+		}
+
+		MergeIterator(List<File> runs, BTreeFileEncoder.TupleComparator cmp) {
+			this.runs = runs;
+			this.cmp = cmp;
+		}
+
+		public void open() throws DbException {
+			heads = new PriorityQueue<>((a, b) -> {
+				int c = cmp.compare(a.t, b.t);
+				return c != 0 ? c : Integer.compare(a.run, b.run);
+			});
+			try {
+				for(int r = 0; r < runs.size(); r++) {
+					ins.add(new DataInputStream(new BufferedInputStream(new FileInputStream(runs.get(r)))));
+					Tuple t = read(r);
+					if(t != null)
+						heads.add(new Head(t, r));
+				}
+			} catch(IOException e) {
+				throw new DbException("failed to read sorted run: " + e);
+			}
+		}
+
+		private Tuple read(int r) throws IOException, DbException {
+			DataInputStream in = ins.get(r);
+			if(in.available() == 0)
+				return null;
+			Tuple t = new Tuple(td);
+			try {
+				for(int i = 0; i < types.length; i++)
+					t.setField(i, types[i].parse(in));
+			} catch(ParseException e) {
+				throw new DbException("failed to parse sorted run: " + e);
+			}
+			return t;
+		}
+
+		protected Tuple readNext() throws DbException {
+			Head h = heads.poll();
+			if(h == null)
+				return null;
+			try {
+				Tuple t = read(h.run);
+				if(t != null)
+					heads.add(new Head(t, h.run));
+			} catch(IOException e) {
+				throw new DbException("failed to read sorted run: " + e);
+			}
+			return h.t;
+		}
+
+		public void rewind() throws DbException {
+			close();
+			open();
+		}
+
+		public void close() {
+			super.close();
+			for(DataInputStream in : ins) {
+				try {
+					in.close();
+				} catch(IOException e) {
+					// the run is deleted once loaded
+				}
+			}
+			ins.clear();
+		}
+	}
+}
@@ -4,6 +4,7 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Permissions;
+import simpledb.common.Type;
 import simpledb.execution.IndexPredicate;
 import simpledb.execution.Predicate.Op;
 import simpledb.storage.*;
@@ -33,6 +34,87 @@ public class BTreeFile implements DbFile {
 	private final int tableid ;
 	private final int keyField;
 
+	/**
+	 * Whether descents to a leaf page only latch the pages above it, rather
+	 * than lock them for the rest of the transaction.
+	 * @see #findLeafPage(TransactionId, Map, BTreePageId, Permissions, Field)
+	 */
+	public static final boolean DEFAULT_LATCH_DESCENT = true;
+
+	private static boolean latchDescent = DEFAULT_LATCH_DESCENT;
+
+	/**
+	 * Set whether descents to a leaf page latch the pages above it; if not,
+	 * they stay locked until the transaction completes.
+	 */
+	public static void setLatchDescent(boolean latch) {
+		BTreeFile.latchDescent = latch;
+	}
+
+	public static void resetLatchDescent() {
+		BTreeFile.latchDescent = DEFAULT_LATCH_DESCENT;
+	}
+
+	public static boolean getLatchDescent() {
+		return latchDescent;
+	}
+
+	/**
+	 * Whether searches find the child of an internal page and the first
+	 * matching tuple of a leaf page by binary search over the keys of the
+	 * page, rather than by comparing the keys in turn.
+	 * @see BTreeInternalPage#findChild(Field)
+	 * @see BTreeLeafPage#lowerBound(Field)
+	 */
+	public static final boolean DEFAULT_BINARY_SEARCH = true;
+
+	private static boolean binarySearch = DEFAULT_BINARY_SEARCH;
+
+	public static void setBinarySearch(boolean binary) {
+		BTreeFile.binarySearch = binary;
+	}
+
+	public static void resetBinarySearch() {
+		BTreeFile.binarySearch = DEFAULT_BINARY_SEARCH;
+	}
+
+	public static boolean getBinarySearch() {
+		return binarySearch;
+	}
+
+	/**
+	 * The number of zeroed pages the file grows by when a new page is needed
+	 * and no page is free, so that the file is extended once for that many
+	 * new pages rather than for each of them.
+	 * @see #getEmptyPageNo(TransactionId, Map)
+	 */
+	public static final int DEFAULT_EXTEND_PAGES = 16;
+
+	private static int extendPages = DEFAULT_EXTEND_PAGES;
+
+	public static void setExtendPages(int pages) {
+		BTreeFile.extendPages = pages;
+	}
+
+	public static void resetExtendPages() {
+		BTreeFile.extendPages = DEFAULT_EXTEND_PAGES;
+	}
+
+	public static int getExtendPages() {
+		return extendPages;
+	}
+
+	// the pages freed by setEmptyPage and not handed out again, read from the
+	// header pages on disk when a page is first allocated or freed, and
+	// again if the file changes length under us; null until then. These are
+	// hints only: the slot of a page in its header page is checked, under a
+	// write lock, before the page is handed out.
+	private BitSet freePages = null;
+	// the number of pages handed out, out of the pages of a file of length
+	// fileLength; the rest are zeroed pages preallocated for new pages
+	private int usedPages;
+	private long fileLength;
+
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
 	 * 
@@ -156,9 +238,17 @@ public class BTreeFile implements DbFile {
 	/**
 	 * Returns the number of pages in this BTreeFile.
 	 */
-	public int numPages() {
+	public synchronized int numPages() {
+		if(freePages != null && f.length() == fileLength) {
+			return usedPages;
+		}
+		return filePages(f.length());
+	}
+
+	// the number of pages of a file of the given length
+	private static int filePages(long length) {
 		// we only ever write full pages
-		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+		return (int) (Math.max(0, length - BTreeRootPtrPage.getPageSize()) / BufferPool.getPageSize());
 	}
 
 	/**
@@ -169,54 +259,174 @@ public class BTreeFile implements DbFile {
 	}
 
 	/**
-	 * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
-	 * the left-most page possibly containing the key field f. It locks all internal
-	 * nodes along the path to the leaf node with READ_ONLY permission, and locks the 
-	 * leaf node with permission perm.
+	 * Finds and locks the leaf page in the B+ tree corresponding to the left-most
+	 * page possibly containing the key field f, starting from the page pid, which
+	 * may be the root pointer page. The leaf page is locked with permission perm
+	 * for the rest of the transaction, and serves as the lock on the range of keys
+	 * it holds: any insert into the range needs the leaf, which a reader of the
+	 * range keeps locked.
+	 * 
+	 * The root pointer page and the internal pages on the way are only latched:
+	 * each is locked with READ_ONLY permission until its child is, and released
+	 * then unless the transaction held it already, so that descents do not hold
+	 * up splits and merges of the upper levels of the tree for the length of
+	 * their transactions. A latch is never held while waiting for another
+	 * transaction. If a child is locked by another transaction, the descent
+	 * releases its latch, waits for the child and starts over, since the tree
+	 * above may change meanwhile; a leaf waited for stays locked, so that the
+	 * next descent finds it free unless the key has moved to another leaf.
 	 * 
 	 * If f is null, it finds the left-most leaf page -- used for the iterator
 	 * 
 	 * @param tid - the transaction id
 	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
-	 * @param pid - the current page being searched
+	 * @param pid - the page to start the search from
 	 * @param perm - the permissions with which to lock the leaf page
 	 * @param f - the field to search for
-	 * @return the left-most leaf page possibly containing the key field f
+	 * @return the left-most leaf page possibly containing the key field f, or
+	 * null if the tree has no root page
 	 * 
 	 */
 	private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
                                        Field f)
 					throws DbException, TransactionAbortedException {
+		return findLeafPage(tid, dirtypages, pid, perm, f, false);
+	}
+
+	// the descent of findLeafPage, to the left-most leaf possibly containing
+	// f, or to the right-most one if last is set
+	private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
+                                       Field f, boolean last)
+					throws DbException, TransactionAbortedException {
 		// some code goes here
-		if(pid.pgcateg() == BTreePageId.LEAF) {
-			return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
-		} else {
-			BTreeInternalPage bpg = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
-			Iterator<BTreeEntry> it = bpg.iterator();
-			BTreePageId bpid = null;
-			BTreeEntry bet = null;
-			while(it.hasNext()) { // m left child pointers
-				bet = it.next();
-				if(f == null || f.compare(Op.LESS_THAN_OR_EQ, bet.getKey())) {
-					bpid = bet.getLeftChild();
+		BTreePageId waited = null; // a leaf locked after waiting for it
+		boolean waitedHeld = false;
+		while(true) {
+			BTreePageId cur = pid;
+			boolean held = isLocked(tid, dirtypages, cur);
+			Page page = getPage(tid, dirtypages, cur,
+					cur.pgcateg() == BTreePageId.LEAF ? perm : Permissions.READ_ONLY);
+			boolean restart = false;
+			while(cur.pgcateg() != BTreePageId.LEAF) {
+				BTreePageId child = last ? lastChildFor(page, f) : childFor(page, f);
+				if(child == null) {
+					unlatch(tid, dirtypages, cur, held);
+					if(waited != null) unlatch(tid, dirtypages, waited, waitedHeld);
+					return null;
+				}
+				Permissions childPerm = child.pgcateg() == BTreePageId.LEAF ? perm : Permissions.READ_ONLY;
+				boolean childHeld = child.equals(waited) ? waitedHeld : isLocked(tid, dirtypages, child);
+				Page next = latchDescent ? tryGetPage(tid, dirtypages, child, childPerm)
+						: getPage(tid, dirtypages, child, childPerm);
+				unlatch(tid, dirtypages, cur, held);
+				if(next == null) {
+					getPage(tid, dirtypages, child, childPerm);
+					if(child.pgcateg() == BTreePageId.LEAF) {
+						if(waited != null) unlatch(tid, dirtypages, waited, waitedHeld);
+						waited = child;
+						waitedHeld = childHeld;
+					}
+					else {
+						unlatch(tid, dirtypages, child, childHeld);
+					}
+					restart = true;
 					break;
 				}
+				cur = child;
+				held = childHeld;
+				page = next;
 			}
-			if(bpid == null) { // the m+1 th right child pointer
-				if(bet == null) return null;
-				bpid = bet.getRightChild();
+			if(restart) continue;
+			if(waited != null && !waited.equals(cur)) unlatch(tid, dirtypages, waited, waitedHeld);
+			return (BTreeLeafPage) page;
+		}
+	}
+
+	// the child of an internal page, or the root page below the root pointer
+	// page, on the way to the left-most leaf possibly containing f
+	private static BTreePageId childFor(Page page, Field f) {
+		if(page instanceof BTreeRootPtrPage) {
+			return ((BTreeRootPtrPage) page).getRootId();
+		}
+		if(binarySearch) {
+			return ((BTreeInternalPage) page).findChild(f);
+		}
+		Iterator<BTreeEntry> it = ((BTreeInternalPage) page).iterator();
+		BTreeEntry bet = null;
+		while(it.hasNext()) { // m left child pointers
+			bet = it.next();
+			if(f == null || f.compare(Op.LESS_THAN_OR_EQ, bet.getKey())) {
+				return bet.getLeftChild();
 			}
-			return findLeafPage(tid, dirtypages, bpid, perm, f);
 		}
+		// the m+1 th right child pointer
+		return bet == null ? null : bet.getRightChild();
 	}
-	
+
+	// the child of an internal page, or the root page below the root pointer
+	// page, on the way to the right-most leaf possibly containing f
+	private static BTreePageId lastChildFor(Page page, Field f) {
+		if(page instanceof BTreeRootPtrPage) {
+			return ((BTreeRootPtrPage) page).getRootId();
+		}
+		if(binarySearch) {
+			return ((BTreeInternalPage) page).findLastChild(f);
+		}
+		Iterator<BTreeEntry> it = ((BTreeInternalPage) page).reverseIterator();
+		BTreeEntry bet = null;
+		while(it.hasNext()) { // m right child pointers
+			bet = it.next();
+			if(f == null || f.compare(Op.GREATER_THAN_OR_EQ, bet.getKey())) {
+				return bet.getRightChild();
+			}
+		}
+		// the first left child pointer
+		return bet == null ? null : bet.getLeftChild();
+	}
+
+	/**
+	 * The shortest key that separates two adjacent keys in the tree, for the
+	 * entry between their pages in the parent: a key greater than left and no
+	 * greater than right. For string keys, this is the shortest prefix of
+	 * right that is greater than left, which keeps long keys out of the
+	 * internal pages; other keys are not shortened.
+	 * 
+	 * @param left - the last key of the left page
+	 * @param right - the first key of the right page
+	 * @return the key of the entry between the pages
+	 */
+	static Field separator(Field left, Field right) {
+		if(!(right instanceof StringField) || !left.compare(Op.LESS_THAN, right))
+			return right;
+		String l = ((StringField) left).getValue();
+		String r = ((StringField) right).getValue();
+		int i = 0;
+		while(i < l.length() && l.charAt(i) == r.charAt(i))
+			i++;
+		return i + 1 >= r.length() ? right : new StringField(r.substring(0, i + 1), Type.STRING_LEN);
+	}
+
+	// true if the page is to stay locked once a descent has passed it: if the
+	// transaction holds a lock on it already, or descents do not latch
+	private static boolean isLocked(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid) {
+		return !latchDescent || dirtypages.containsKey(pid) || Database.getBufferPool().holdsLock(tid, pid);
+	}
+
+	// release the latch on a page, unless the transaction held the page before
+	private static void unlatch(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, boolean held) {
+		if(!held) {
+			dirtypages.remove(pid);
+			Database.getBufferPool().unsafeReleasePage(tid, pid);
+		}
+	}
+
 	/**
 	 * Convenience method to find a leaf page when there is no dirtypages HashMap.
 	 * Used by the BTreeFile iterator.
 	 * @see #findLeafPage(TransactionId, Map, BTreePageId, Permissions, Field)
 	 * 
 	 * @param tid - the transaction id
-	 * @param pid - the current page being searched
+	 * @param pid - the page to start the search from
 	 * @param f - the field to search for
 	 * @return the left-most leaf page possibly containing the key field f
 	 * 
@@ -227,6 +437,48 @@ public class BTreeFile implements DbFile {
 		return findLeafPage(tid, new HashMap<>(), pid, Permissions.READ_ONLY, f);
 	}
 
+	/**
+	 * Convenience method to find the right-most leaf page possibly containing
+	 * the key field f when there is no dirtypages HashMap. Used by the
+	 * BTreeFile iterators that walk the leaves in reverse.
+	 * 
+	 * @param tid - the transaction id
+	 * @param pid - the page to start the search from
+	 * @param f - the field to search for, or null for the right-most leaf
+	 * @return the right-most leaf page possibly containing the key field f,
+	 * or null if the tree has no root page
+	 */
+	BTreeLeafPage findLastLeafPage(TransactionId tid, BTreePageId pid,
+                               Field f)
+					throws DbException, TransactionAbortedException {
+		return findLeafPage(tid, new HashMap<>(), pid, Permissions.READ_ONLY, f, true);
+	}
+
+	/**
+	 * Returns the number of pages read to reach a leaf page from the root
+	 * pointer, counting the leaf page but not the root pointer page. Used by
+	 * the optimizer to cost index lookups.
+	 * 
+	 * @param tid - the transaction id
+	 * @return the depth of the tree, 1 if the root page is a leaf page
+	 */
+	public int depth(TransactionId tid) throws DbException, TransactionAbortedException {
+		Map<PageId, Page> dirtypages = new HashMap<>();
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages,
+				BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
+		BTreePageId pid = rootPtr.getRootId();
+		if(pid == null) return 1;
+		int depth = 1;
+		while(pid.pgcateg() != BTreePageId.LEAF) {
+			BTreeInternalPage page = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
+			Iterator<BTreeEntry> it = page.iterator();
+			if(!it.hasNext()) break;
+			pid = it.next().getLeftChild();
+			depth++;
+		}
+		return depth;
+	}
+
 	/**
 	 * Split a leaf page to make room for new tuples and recursively split the parent node
 	 * as needed to accommodate a new entry. The new entry should have a key matching the key field
@@ -251,15 +503,39 @@ public class BTreeFile implements DbFile {
 	public BTreeLeafPage splitLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreeLeafPage page, Field field)
 			throws DbException, IOException, TransactionAbortedException {
 		// some code goes here
-        //
-        // Split the leaf page by adding a new page on the right of the existing
-		// page and moving half of the tuples to the new page.  Copy the middle key up
-		// into the parent page, and recursively split the parent as needed to accommodate
-		// the new entry.  getParentWithEmtpySlots() will be useful here.  Don't forget to update
-		// the sibling pointers of all the affected leaf pages.  Return the page into which a 
-		// tuple with the given key field should be inserted.
-        return null;
-		
+		BTreeLeafPage newPage = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF);
+
+		// move the upper half of the tuples to the new page
+		Tuple[] moving = new Tuple[page.getNumTuples() / 2];
+		Iterator<Tuple> it = page.reverseIterator();
+		for(int i = moving.length - 1; i >= 0; i--) {
+			moving[i] = it.next();
+		}
+		for(Tuple t : moving) {
+			page.deleteTuple(t);
+			newPage.insertTuple(t);
+		}
+
+		// link the new page in to the right of the page
+		BTreePageId rightId = page.getRightSiblingId();
+		if(rightId != null) {
+			BTreeLeafPage right = (BTreeLeafPage) getPage(tid, dirtypages, rightId, Permissions.READ_WRITE);
+			right.setLeftSiblingId(newPage.getId());
+		}
+		newPage.setRightSiblingId(rightId);
+		newPage.setLeftSiblingId(page.getId());
+		page.setRightSiblingId(newPage.getId());
+
+		// copy the first key of the new page up into the parent, or for string
+		// keys, as little of it as separates the pages
+		Field key = separator(page.reverseIterator().next().getField(keyField),
+				newPage.iterator().next().getField(keyField));
+		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), key);
+		parent.insertEntry(new BTreeEntry(key, page.getId(), newPage.getId()));
+		page.setParentId(parent.getId());
+		newPage.setParentId(parent.getId());
+
+		return field.compare(Op.GREATER_THAN, key) ? newPage : page;
 	}
 	
 	/**
@@ -288,15 +564,36 @@ public class BTreeFile implements DbFile {
 			BTreeInternalPage page, Field field) 
 					throws DbException, IOException, TransactionAbortedException {
 		// some code goes here
-        //
-        // Split the internal page by adding a new page on the right of the existing
-		// page and moving half of the entries to the new page.  Push the middle key up
-		// into the parent page, and recursively split the parent as needed to accommodate
-		// the new entry.  getParentWithEmtpySlots() will be useful here.  Don't forget to update
-		// the parent pointers of all the children moving to the new page.  updateParentPointers()
-		// will be useful here.  Return the page into which an entry with the given key field
-		// should be inserted.
-		return null;
+		BTreeInternalPage newPage = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
+
+		// move the upper half of the entries, by fill, to the new page, last
+		// first so that each one shares a child with those already there
+		List<BTreeEntry> moving = new ArrayList<>();
+		Iterator<BTreeEntry> it = page.reverseIterator();
+		BTreeEntry middle = it.next();
+		int fill = page.getFill();
+		int moved = 0;
+		while((moved + page.getFill(middle.getKey())) * 2 <= fill) {
+			moved += page.getFill(middle.getKey());
+			moving.add(middle);
+			middle = it.next();
+		}
+		for(BTreeEntry e : moving) {
+			page.deleteKeyAndRightChild(e);
+			newPage.insertEntry(e);
+		}
+
+		// push the middle key up into the parent
+		page.deleteKeyAndRightChild(middle);
+		middle.setLeftChild(page.getId());
+		middle.setRightChild(newPage.getId());
+		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), middle.getKey());
+		parent.insertEntry(middle);
+		page.setParentId(parent.getId());
+		newPage.setParentId(parent.getId());
+		updateParentPointers(tid, dirtypages, newPage);
+
+		return field.compare(Op.GREATER_THAN, middle.getKey()) ? newPage : page;
 	}
 	
 	/**
@@ -309,7 +606,7 @@ public class BTreeFile implements DbFile {
 	 * @param parentId - the id of the parent. May be an internal page or the RootPtr page
 	 * @param field - the key of the entry which will be inserted. Needed in case the parent must be split
 	 * to accommodate the new entry
-	 * @return the parent page, guaranteed to have at least one empty slot
+	 * @return the parent page, guaranteed to have room for an entry with the key
 	 * @see #splitInternalPage(TransactionId, Map, BTreeInternalPage, Field)
 	 * 
 	 * @throws DbException
@@ -343,7 +640,7 @@ public class BTreeFile implements DbFile {
 		}
 
 		// split the parent if needed
-		if(parent.getNumEmptySlots() == 0) {
+		if(!parent.hasRoomFor(field)) {
 			parent = splitInternalPage(tid, dirtypages, parent, field);
 		}
 
@@ -432,6 +729,23 @@ public class BTreeFile implements DbFile {
 		}
 	}
 
+	/**
+	 * Like {@link #getPage(TransactionId, Map, BTreePageId, Permissions)}, but
+	 * returns null instead of waiting if another transaction holds a
+	 * conflicting lock on the page.
+	 */
+	private Page tryGetPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, Permissions perm)
+			throws DbException {
+		if(dirtypages.containsKey(pid)) {
+			return dirtypages.get(pid);
+		}
+		Page p = Database.getBufferPool().tryGetPage(tid, pid, perm);
+		if(p != null && perm == Permissions.READ_WRITE) {
+			dirtypages.put(pid, p);
+		}
+		return p;
+	}
+
 	/**
 	 * Insert a tuple into this BTreeFile, keeping the tuples in sorted order. 
 	 * May cause pages to split if the page where tuple t belongs is full.
@@ -446,19 +760,25 @@ public class BTreeFile implements DbFile {
 			throws DbException, IOException, TransactionAbortedException {
 		Map<PageId, Page> dirtypages = new HashMap<>();
 
-		// get a read lock on the root pointer page and use it to locate the root page
+		// latch the root pointer page to check that there is a root page
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+		boolean held = isLocked(tid, dirtypages, rootPtrId);
 		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
 		BTreePageId rootId = rootPtr.getRootId();
 
 		if(rootId == null) { // the root has just been created, so set the root pointer to point to it		
 			rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
-			rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
+			rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId, Permissions.READ_WRITE);
 			rootPtr.setRootId(rootId);
+			held = true;
 		}
+		unlatch(tid, dirtypages, rootPtrId, held);
 
 		// find and lock the left-most leaf page corresponding to the key field,
-		// and split the leaf page if there are no more slots available
-		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
+		// latching the pages above it only. Only if there are no more slots
+		// available are the pages up the tree locked for the rest of the
+		// transaction, to split the leaf page and as many of its ancestors as needed
+		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootPtrId, Permissions.READ_WRITE, t.getField(keyField));
 		if(leafPage.getNumEmptySlots() == 0) {
 			leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));	
 		}
@@ -584,10 +904,23 @@ public class BTreeFile implements DbFile {
 	public void stealFromLeafPage(BTreeLeafPage page, BTreeLeafPage sibling,
 			BTreeInternalPage parent, BTreeEntry entry, boolean isRightSibling) throws DbException {
 		// some code goes here
-        //
-        // Move some of the tuples from the sibling to the page so
-		// that the tuples are evenly distributed. Be sure to update
-		// the corresponding parent entry.
+		Tuple[] moving = new Tuple[(sibling.getNumTuples() - page.getNumTuples()) / 2];
+		Iterator<Tuple> it = isRightSibling ? sibling.iterator() : sibling.reverseIterator();
+		for(int i = 0; i < moving.length; i++) {
+			moving[i] = it.next();
+		}
+		for(Tuple t : moving) {
+			sibling.deleteTuple(t);
+			page.insertTuple(t);
+		}
+
+		// the key of the entry is the first key of the right-hand page, or as
+		// little of it as separates the pages
+		BTreeLeafPage left = isRightSibling ? page : sibling;
+		BTreeLeafPage right = isRightSibling ? sibling : page;
+		entry.setKey(separator(left.reverseIterator().next().getField(keyField),
+				right.iterator().next().getField(keyField)));
+		parent.updateEntry(entry);
 	}
 
 	/**
@@ -617,12 +950,11 @@ public class BTreeFile implements DbFile {
 		if(leftEntry != null) leftSiblingId = leftEntry.getLeftChild();
 		if(rightEntry != null) rightSiblingId = rightEntry.getRightChild();
 		
-		int maxEmptySlots = page.getMaxEntries() - page.getMaxEntries()/2; // ceiling
 		if(leftSiblingId != null) {
 			BTreeInternalPage leftSibling = (BTreeInternalPage) getPage(tid, dirtypages, leftSiblingId, Permissions.READ_WRITE);
 			// if the left sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some entries from it
-			if(leftSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if(leftSibling.canMerge(page, leftEntry.getKey())) {
 				mergeInternalPages(tid, dirtypages, leftSibling, page, parent, leftEntry);
 			}
 			else {
@@ -633,7 +965,7 @@ public class BTreeFile implements DbFile {
 			BTreeInternalPage rightSibling = (BTreeInternalPage) getPage(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE);
 			// if the right sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some entries from it
-			if(rightSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if(rightSibling.canMerge(page, rightEntry.getKey())) {
 				mergeInternalPages(tid, dirtypages, page, rightSibling, parent, rightEntry);
 			}
 			else {
@@ -663,10 +995,21 @@ public class BTreeFile implements DbFile {
 			BTreeInternalPage page, BTreeInternalPage leftSibling, BTreeInternalPage parent,
 			BTreeEntry parentEntry) throws DbException, TransactionAbortedException {
 		// some code goes here
-        // Move some of the entries from the left sibling to the page so
-		// that the entries are evenly distributed. Be sure to update
-		// the corresponding parent entry. Be sure to update the parent
-		// pointers of all children in the entries that were moved.
+		// rotate the last key of the sibling up through the parent entry while
+		// that leaves the page no fuller than the sibling
+		while(true) {
+			BTreeEntry last = leftSibling.reverseIterator().next();
+			if(page.getFill() + page.getFill(parentEntry.getKey())
+					> leftSibling.getFill() - leftSibling.getFill(last.getKey()))
+				break;
+			BTreeEntry first = page.iterator().next();
+			BTreeEntry pulled = new BTreeEntry(parentEntry.getKey(), last.getRightChild(), first.getLeftChild());
+			parentEntry.setKey(last.getKey());
+			leftSibling.deleteKeyAndRightChild(last);
+			page.insertEntry(pulled);
+		}
+		parent.updateEntry(parentEntry);
+		updateParentPointers(tid, dirtypages, page);
 	}
 	
 	/**
@@ -690,10 +1033,21 @@ public class BTreeFile implements DbFile {
 			BTreeInternalPage page, BTreeInternalPage rightSibling, BTreeInternalPage parent,
 			BTreeEntry parentEntry) throws DbException, TransactionAbortedException {
 		// some code goes here
-        // Move some of the entries from the right sibling to the page so
-		// that the entries are evenly distributed. Be sure to update
-		// the corresponding parent entry. Be sure to update the parent
-		// pointers of all children in the entries that were moved.
+		// rotate the first key of the sibling up through the parent entry while
+		// that leaves the page no fuller than the sibling
+		while(true) {
+			BTreeEntry first = rightSibling.iterator().next();
+			if(page.getFill() + page.getFill(parentEntry.getKey())
+					> rightSibling.getFill() - rightSibling.getFill(first.getKey()))
+				break;
+			BTreeEntry last = page.reverseIterator().next();
+			BTreeEntry pulled = new BTreeEntry(parentEntry.getKey(), last.getRightChild(), first.getLeftChild());
+			parentEntry.setKey(first.getKey());
+			rightSibling.deleteKeyAndLeftChild(first);
+			page.insertEntry(pulled);
+		}
+		parent.updateEntry(parentEntry);
+		updateParentPointers(tid, dirtypages, page);
 	}
 	
 	/**
@@ -719,11 +1073,25 @@ public class BTreeFile implements DbFile {
 					throws DbException, IOException, TransactionAbortedException {
 
 		// some code goes here
-        //
-		// Move all the tuples from the right page to the left page, update
-		// the sibling pointers, and make the right page available for reuse.
-		// Delete the entry in the parent corresponding to the two pages that are merging -
-		// deleteParentEntry() will be useful here
+		Tuple[] moving = new Tuple[rightPage.getNumTuples()];
+		Iterator<Tuple> it = rightPage.iterator();
+		for(int i = 0; i < moving.length; i++) {
+			moving[i] = it.next();
+		}
+		for(Tuple t : moving) {
+			rightPage.deleteTuple(t);
+			leftPage.insertTuple(t);
+		}
+
+		BTreePageId rightId = rightPage.getRightSiblingId();
+		leftPage.setRightSiblingId(rightId);
+		if(rightId != null) {
+			BTreeLeafPage right = (BTreeLeafPage) getPage(tid, dirtypages, rightId, Permissions.READ_WRITE);
+			right.setLeftSiblingId(leftPage.getId());
+		}
+
+		setEmptyPage(tid, dirtypages, rightPage.getId().getPageNumber());
+		deleteParentEntry(tid, dirtypages, leftPage, parent, parentEntry);
 	}
 
 	/**
@@ -751,12 +1119,24 @@ public class BTreeFile implements DbFile {
 					throws DbException, IOException, TransactionAbortedException {
 		
 		// some code goes here
-        //
-        // Move all the entries from the right page to the left page, update
-		// the parent pointers of the children in the entries that were moved, 
-		// and make the right page available for reuse
-		// Delete the entry in the parent corresponding to the two pages that are merging -
-		// deleteParentEntry() will be useful here
+		// pull the key of the parent entry down between the two pages
+		BTreeEntry last = leftPage.reverseIterator().next();
+		BTreeEntry first = rightPage.iterator().next();
+		leftPage.insertEntry(new BTreeEntry(parentEntry.getKey(), last.getRightChild(), first.getLeftChild()));
+
+		BTreeEntry[] moving = new BTreeEntry[rightPage.getNumEntries()];
+		Iterator<BTreeEntry> it = rightPage.iterator();
+		for(int i = 0; i < moving.length; i++) {
+			moving[i] = it.next();
+		}
+		for(BTreeEntry e : moving) {
+			rightPage.deleteKeyAndLeftChild(e);
+			leftPage.insertEntry(e);
+		}
+		updateParentPointers(tid, dirtypages, leftPage);
+
+		setEmptyPage(tid, dirtypages, rightPage.getId().getPageNumber());
+		deleteParentEntry(tid, dirtypages, leftPage, parent, parentEntry);
 	}
 	
 	/**
@@ -785,7 +1165,6 @@ public class BTreeFile implements DbFile {
 		// the parent is below minimum occupancy, get some tuples from its siblings
 		// or merge with one of the siblings
 		parent.deleteKeyAndRightChild(parentEntry);
-		int maxEmptySlots = parent.getMaxEntries() - parent.getMaxEntries()/2; // ceiling
 		if(parent.getNumEmptySlots() == parent.getMaxEntries()) {
 			// This was the last entry in the parent.
 			// In this case, the parent (root node) should be deleted, and the merged 
@@ -801,7 +1180,7 @@ public class BTreeFile implements DbFile {
 			// release the parent page for reuse
 			setEmptyPage(tid, dirtypages, parent.getId().getPageNumber());
 		}
-		else if(parent.getNumEmptySlots() > maxEmptySlots) { 
+		else if(parent.isUnderfull()) { 
 			handleMinOccupancyPage(tid, dirtypages, parent);
 		}
 	}
@@ -879,50 +1258,123 @@ public class BTreeFile implements DbFile {
 	 */
 	public int getEmptyPageNo(TransactionId tid, Map<PageId, Page> dirtypages)
 			throws DbException, IOException, TransactionAbortedException {
-		// get a read lock on the root pointer page and use it to locate the first header page
-		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
+		loadFreePages();
+		int emptyPageNo = takeFreePage(tid, dirtypages);
+		if(emptyPageNo == 0) {
+			emptyPageNo = appendPage();
+		}
+		return emptyPageNo;
+	}
+
+	/**
+	 * Read the free pages and the number of pages of this file from disk,
+	 * unless they are known and the file has not changed length since.
+	 * Pages allocated past the end of the file and not written are counted
+	 * as used when they are read again.
+	 */
+	private synchronized void loadFreePages() throws IOException {
+		if(freePages != null && f.length() == fileLength) {
+			return;
+		}
+		freePages = new BitSet();
+		fileLength = f.length();
+		usedPages = filePages(fileLength);
+		if(usedPages == 0) {
+			return;
+		}
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) readPage(BTreeRootPtrPage.getId(tableid));
 		BTreePageId headerId = rootPtr.getHeaderId();
-		int emptyPageNo = 0;
+		int headerPageCount = 0;
+		while(headerId != null && headerId.getPageNumber() <= usedPages) {
+			BTreeHeaderPage headerPage = (BTreeHeaderPage) readPage(headerId);
+			for(int i = 0; i < BTreeHeaderPage.getNumSlots(); i++) {
+				int pgNo = headerPageCount * BTreeHeaderPage.getNumSlots() + i;
+				if(pgNo >= 1 && pgNo <= usedPages && !headerPage.isSlotUsed(i)) {
+					freePages.set(pgNo);
+				}
+			}
+			headerId = headerPage.getNextPageId();
+			headerPageCount++;
+		}
+	}
 
-		if(headerId != null) {
-			BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
-			int headerPageCount = 0;
-			// try to find a header page with an empty slot
-			while(headerPage != null && headerPage.getEmptySlot() == -1) {
-				headerId = headerPage.getNextPageId();
-				if(headerId != null) {
-					headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
-					headerPageCount++;
+	/**
+	 * Forget the free pages of this file, for when it has been rewritten
+	 * other than through the buffer pool. They are read again when a page is
+	 * next allocated or freed.
+	 */
+	synchronized void resetFreePages() {
+		freePages = null;
+	}
+
+	/**
+	 * Take a free page, marking its slot used in its header page. Only the
+	 * header pages up to the one of the page are locked, and none at all if
+	 * no page is known to be free.
+	 *
+	 * @return the page number of the page, or 0 if none is free
+	 */
+	private int takeFreePage(TransactionId tid, Map<PageId, Page> dirtypages)
+			throws DbException, IOException, TransactionAbortedException {
+		while(true) {
+			int pgNo;
+			synchronized(this) {
+				pgNo = freePages.nextSetBit(1);
+				if(pgNo < 0) {
+					return 0;
+				}
+				freePages.clear(pgNo);
+			}
+			try {
+				if(markPageUsed(tid, dirtypages, pgNo)) {
+					return pgNo;
 				}
-				else {
-					headerPage = null;
+				// otherwise the page was taken, or its freeing was rolled back
+			} catch(TransactionAbortedException e) {
+				synchronized(this) {
+					freePages.set(pgNo);
 				}
+				throw e;
 			}
+		}
+	}
 
-			// if headerPage is not null, it must have an empty slot
-			if(headerPage != null) {
-				headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
-				int emptySlot = headerPage.getEmptySlot();
-				headerPage.markSlotUsed(emptySlot, true);
-				emptyPageNo = headerPageCount * BTreeHeaderPage.getNumSlots() + emptySlot;
-			}
+	// mark the slot of a page used in its header page, if it is free
+	private boolean markPageUsed(TransactionId tid, Map<PageId, Page> dirtypages, int pgNo)
+			throws DbException, IOException, TransactionAbortedException {
+		BTreePageId headerId = getRootPtrPage(tid, dirtypages).getHeaderId();
+		for(int i = 0; headerId != null && i < pgNo / BTreeHeaderPage.getNumSlots(); i++) {
+			BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
+			headerId = headerPage.getNextPageId();
+		}
+		if(headerId == null) {
+			return false;
 		}
+		BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
+		int slot = pgNo % BTreeHeaderPage.getNumSlots();
+		if(headerPage.isSlotUsed(slot)) {
+			return false;
+		}
+		headerPage.markSlotUsed(slot, true);
+		return true;
+	}
 
-		// at this point if headerId is null, either there are no header pages 
-		// or there are no free slots
-		if(headerId == null) {		
-			synchronized(this) {
-				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
-				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
-				emptyPageNo = numPages();
+	/**
+	 * Hand out the page after the last one used, first extending the file by
+	 * {@link #getExtendPages()} zeroed pages if there are none left over. A
+	 * page handed out to a transaction that aborts is not used again.
+	 *
+	 * @return the page number of the new page
+	 */
+	private synchronized int appendPage() throws IOException {
+		if(usedPages >= filePages(fileLength)) {
+			try(RandomAccessFile rf = new RandomAccessFile(f, "rw")) {
+				rf.seek(BTreeRootPtrPage.getPageSize() + (long) usedPages * BufferPool.getPageSize());
+				rf.write(new byte[Math.max(1, extendPages) * BufferPool.getPageSize()]);
 			}
+			fileLength = f.length();
 		}
-
-		return emptyPageNo; 
+		return ++usedPages;
 	}
 	
 	/**
@@ -944,15 +1396,21 @@ public class BTreeFile implements DbFile {
 	private Page getEmptyPage(TransactionId tid, Map<PageId, Page> dirtypages, int pgcateg)
 			throws DbException, IOException, TransactionAbortedException {
 		// create the new page
-		int emptyPageNo = getEmptyPageNo(tid, dirtypages);
+		loadFreePages();
+		int emptyPageNo = takeFreePage(tid, dirtypages);
+		if(emptyPageNo != 0) {
+			// write empty page to disk over the page freed
+			RandomAccessFile rf = new RandomAccessFile(f, "rw");
+			rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
+			rf.write(BTreePage.createEmptyPageData());
+			rf.close();
+		}
+		else {
+			// new pages are zeroed when the file is extended
+			emptyPageNo = appendPage();
+		}
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
-		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
-		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
 		dirtypages.remove(newPageId);
@@ -998,6 +1456,7 @@ public class BTreeFile implements DbFile {
 
 		// otherwise, get a read lock on the root pointer page and use it to locate 
 		// the first header page
+		loadFreePages();
 		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
 		BTreePageId headerId = rootPtr.getHeaderId();
 		BTreePageId prevId = null;
@@ -1016,7 +1475,7 @@ public class BTreeFile implements DbFile {
 
 		// iterate through all the existing header pages to find the one containing the slot
 		// corresponding to emptyPageNo
-		while(headerId != null && (headerPageCount + 1) * BTreeHeaderPage.getNumSlots() < emptyPageNo) {
+		while(headerId != null && (headerPageCount + 1) * BTreeHeaderPage.getNumSlots() <= emptyPageNo) {
 			BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
 			prevId = headerId;
 			headerId = headerPage.getNextPageId();
@@ -1026,7 +1485,7 @@ public class BTreeFile implements DbFile {
 		// at this point headerId should either be null or set with 
 		// the headerPage containing the slot corresponding to emptyPageNo.
 		// Add header pages until we have one with a slot corresponding to emptyPageNo
-		while((headerPageCount + 1) * BTreeHeaderPage.getNumSlots() < emptyPageNo) {
+		while((headerPageCount + 1) * BTreeHeaderPage.getNumSlots() <= emptyPageNo) {
 			BTreeHeaderPage prevPage = (BTreeHeaderPage) getPage(tid, dirtypages, prevId, Permissions.READ_WRITE);
 			
 			BTreeHeaderPage headerPage = (BTreeHeaderPage) getEmptyPage(tid, dirtypages, BTreePageId.HEADER);
@@ -1044,6 +1503,11 @@ public class BTreeFile implements DbFile {
 		BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
 		int emptySlot = emptyPageNo - headerPageCount * BTreeHeaderPage.getNumSlots();
 		headerPage.markSlotUsed(emptySlot, false);
+		synchronized(this) {
+			if(freePages != null) {
+				freePages.set(emptyPageNo);
+			}
+		}
 	}
 
 	/**
@@ -1060,6 +1524,29 @@ public class BTreeFile implements DbFile {
 		return new BTreeSearchIterator(this, tid, ipred);
 	}
 
+	/**
+	 * Get an iterator for the tuples of this file with key fields within a
+	 * range, in ascending or descending order of their keys, on behalf of the
+	 * specified transaction. The iterator descends once to the first leaf of
+	 * the range and follows the sibling pointers from there, to the right or
+	 * to the left, until the first tuple past the other end of the range.
+	 * This method will acquire a read lock on the affected pages of the file,
+	 * and may block until the lock can be acquired.
+	 * 
+	 * @param tid - the transaction id
+	 * @param lower - the lower bound of the keys, with operator GREATER_THAN,
+	 * GREATER_THAN_OR_EQ or EQUALS, or null for none
+	 * @param upper - the upper bound of the keys, with operator LESS_THAN,
+	 * LESS_THAN_OR_EQ or EQUALS, or null for none
+	 * @param reverse - true to return the tuples in descending order
+	 * @return an iterator for the tuples in the range
+	 * @see BTreeRangeIterator#seek(Field)
+	 */
+	public BTreeRangeIterator rangeIterator(TransactionId tid, IndexPredicate lower, IndexPredicate upper,
+			boolean reverse) {
+		return new BTreeRangeIterator(this, tid, lower, upper, reverse);
+	}
+
 	/**
 	 * Get an iterator for all tuples in this B+ tree file in sorted order. This method 
 	 * will acquire a read lock on the affected pages of the file, and may block until 
@@ -1099,11 +1586,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	 * Open this iterator by getting an iterator on the first leaf page
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
-		curp = f.findLeafPage(tid, root, null);
-		it = curp.iterator();
+		curp = f.findLeafPage(tid, BTreeRootPtrPage.getId(f.getId()), null);
+		it = curp == null ? null : curp.iterator();
 	}
 
 	/**
@@ -1184,17 +1668,20 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 * for the given predicate operation
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(f.getId());
 		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN 
 				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-			curp = f.findLeafPage(tid, root, ipred.getField());
+			curp = f.findLeafPage(tid, rootPtrId, ipred.getField());
+			if(curp != null && BTreeFile.getBinarySearch()) {
+				// skip the tuples with smaller keys on the first page
+				it = curp.iterator(ipred.getField());
+				return;
+			}
 		}
 		else {
-			curp = f.findLeafPage(tid, root, null);
+			curp = f.findLeafPage(tid, rootPtrId, null);
 		}
-		it = curp.iterator();
+		it = curp == null ? null : curp.iterator();
 	}
 
 	/**
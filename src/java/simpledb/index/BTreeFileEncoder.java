@@ -609,7 +609,9 @@ public class BTreeFileEncoder {
 	}
 
 	/**
-	 * Convert a set of entries to a byte array in the format of a BTreeInternalPage
+	 * Convert a set of entries to a byte array in the format of a BTreeInternalPage.
+	 * Entries with string keys are written in the format of pages of string
+	 * keys, and must all fit on the page.
 	 * 
 	 * @param entries - the set of entries
 	 * @param npagebytes - number of bytes per page
@@ -621,6 +623,18 @@ public class BTreeFileEncoder {
 	public static byte[] convertToInternalPage(List<BTreeEntry> entries, int npagebytes,
 			Type keyType, int childPageCategory)
 					throws IOException {
+		if(BTreeInternalPage.hasVariableKeys(keyType)) {
+			entries.sort(new EntryComparator());
+			List<Field> keys = new ArrayList<>();
+			List<Integer> children = new ArrayList<>();
+			if(!entries.isEmpty())
+				children.add(entries.get(0).getLeftChild().getPageNumber());
+			for(BTreeEntry e : entries) {
+				keys.add(e.getKey());
+				children.add(e.getRightChild().getPageNumber());
+			}
+			return BTreeInternalPage.variablePageData(0, childPageCategory, keys, children, npagebytes);
+		}
 		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
 		// pointerbytes: one extra child pointer, parent pointer, child page category
 		int pointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
@@ -0,0 +1,92 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.index.BTreeUtility.BTreeInserter;
+import simpledb.storage.BufferPool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * BTreeInsertBenchmark measures the throughput of concurrent inserts into a
+ * B+ tree. For 1 to {@link #MAX_THREADS} threads, it keeps that many
+ * {@link BTreeInserter} threads running for {@link #DURATION_MS}, each
+ * inserting a random tuple in a transaction of its own, and reports the
+ * inserts committed and aborted per second, with the pages above the leaves
+ * latched by each descent and with them locked for the whole transaction.
+ */
+public class BTreeInsertBenchmark {
+
+	static final String usage = "Usage: BTreeInsertBenchmark [maxThreads] [rows]";
+
+	static final int MAX_THREADS = 16;
+	static final int ROWS = 31000;
+	static final int DURATION_MS = 5000;
+	static final int PAGE_SIZE = 1024;
+	static final int BUFFER_PAGES = 500;
+
+	private static final Random r = new Random(42);
+
+	/** @return the inserts committed and aborted */
+	static long[] run(int threads, int rows) throws Exception {
+		Database.reset();
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, rows, null, null, 0);
+		Database.resetBufferPool(BUFFER_PAGES);
+		BlockingQueue<List<Integer>> inserted = new LinkedBlockingQueue<>();
+		List<BTreeInserter> running = new ArrayList<>();
+		long committed = 0, aborted = 0;
+		long end = System.currentTimeMillis() + DURATION_MS;
+		while(System.currentTimeMillis() < end) {
+			for(int i = running.size() - 1; i >= 0; i--) {
+				BTreeInserter bi = running.get(i);
+				if(!bi.isAlive()) {
+					if(bi.succeeded()) committed++;
+					else aborted++;
+					running.remove(i);
+				}
+			}
+			while(running.size() < threads) {
+				BTreeInserter bi = new BTreeInserter(bf, new int[] {
+						r.nextInt(BTreeUtility.MAX_RAND_VALUE),
+						r.nextInt(BTreeUtility.MAX_RAND_VALUE) }, inserted);
+				bi.start();
+				running.add(bi);
+			}
+			Thread.sleep(1);
+		}
+		for(BTreeInserter bi : running)
+			bi.join();
+		return new long[] { committed, aborted };
+	}
+
+	public static void main(String[] args) throws Exception {
+		int maxThreads = MAX_THREADS;
+		int rows = ROWS;
+		if(args.length > 2) {
+			System.out.println(usage);
+			System.exit(0);
+		}
+		if(args.length > 0)
+			maxThreads = Integer.parseInt(args[0]);
+		if(args.length > 1)
+			rows = Integer.parseInt(args[1]);
+
+		BufferPool.setPageSize(PAGE_SIZE);
+		System.out.printf("%7s %14s %14s %14s %14s%n", "threads", "latched (/s)",
+				"aborted (/s)", "locked (/s)", "aborted (/s)");
+		for(int threads = 1; threads <= maxThreads; threads *= 2) {
+			BTreeFile.setLatchDescent(true);
+			long[] latched = run(threads, rows);
+			BTreeFile.setLatchDescent(false);
+			long[] locked = run(threads, rows);
+			System.out.printf("%7d %14d %14d %14d %14d%n", threads,
+					latched[0] * 1000 / DURATION_MS, latched[1] * 1000 / DURATION_MS,
+					locked[0] * 1000 / DURATION_MS, locked[1] * 1000 / DURATION_MS);
+		}
+		BTreeFile.resetLatchDescent();
+		BufferPool.resetPageSize();
+	}
+}
@@ -2,6 +2,7 @@ package simpledb.index;
 
 import java.util.*;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 
 import simpledb.common.Catalog;
 import simpledb.common.Database;
@@ -13,10 +14,16 @@ import simpledb.storage.BufferPool;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.storage.RecordId;
+import simpledb.storage.StringField;
 
 /**
  * Each instance of BTreeInternalPage stores data for one page of a BTreeFile and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * Pages of string keys are stored in a format of their own, in which each key
+ * takes only the bytes of its value, less the prefix all the keys on the page
+ * share, which is stored once. How many entries such a page holds depends on
+ * its keys, so how full it is is measured in bytes, see {@link #getFill()}.
  *
  * @see BTreeFile
  * @see BufferPool
@@ -30,6 +37,20 @@ public class BTreeInternalPage extends BTreePage {
 	
 	private int childCategory; // either leaf or internal
 
+	private BTreeKeyDirectory directory; // built for searches, dropped on changes
+
+	private final boolean variableKeys; // string keys, stored prefix-compressed
+
+	/**
+	 * Bytes of a page of string keys before its child pointers: the parent
+	 * pointer, the child page category, the number of entries and the length
+	 * of the prefix the keys share.
+	 */
+	static final int VAR_HEADER_SIZE = INDEX_SIZE + 1 + 2 + 1;
+
+	/** The most bytes an entry with a string key takes: its right child pointer, the length of the key and the key. */
+	static final int MAX_VAR_ENTRY_SIZE = INDEX_SIZE + 1 + Type.STRING_LEN;
+
 	public void checkRep(Field lowerBound, Field upperBound, boolean checkOccupancy, int depth) {
 		Field prev = lowerBound;
 		assert(this.getId().pgcateg() == BTreePageId.INTERNAL);
@@ -43,7 +64,7 @@ public class BTreeInternalPage extends BTreePage {
 
         assert null == upperBound || null == prev || (prev.compare(Op.LESS_THAN_OR_EQ, upperBound));
 
-        assert !checkOccupancy || depth <= 0 || (getNumEntries() >= getMaxEntries() / 2);
+        assert !checkOccupancy || depth <= 0 || !isUnderfull();
 	}
 	
 	/**
@@ -62,6 +83,8 @@ public class BTreeInternalPage extends BTreePage {
 	 * <p>
 	 *      ceiling((no. entry slots + 1) / 8)
 	 * <p>
+	 * A page of string keys has no header bytes; see {@link #getPageData()}
+	 * for its format.
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
 	 * @see BufferPool#getPageSize()
@@ -72,6 +95,7 @@ public class BTreeInternalPage extends BTreePage {
 	 */
 	public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
 		super(id, key);
+		this.variableKeys = hasVariableKeys(td.getFieldType(keyField));
 		this.numSlots = getMaxEntries() + 1;
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -86,6 +110,16 @@ public class BTreeInternalPage extends BTreePage {
 		// read the child page category
 		childCategory = dis.readByte();
 
+		if(variableKeys) {
+			header = new byte[getHeaderSize()];
+			keys = new Field[numSlots];
+			children = new int[numSlots];
+			readVariableKeys(dis);
+			dis.close();
+			setBeforeImage();
+			return;
+		}
+
 		// allocate and read the header slots of this page
 		header = new byte[getHeaderSize()];
 		for (int i=0; i<header.length; i++)
@@ -118,8 +152,12 @@ public class BTreeInternalPage extends BTreePage {
 
 	/** 
 	 * Retrieve the maximum number of entries this page can hold. (The number of keys)
+	 * On a page of string keys, this is the number of keys that fit if all are
+	 * the same; how many fit depends on the keys, see {@link #hasRoomFor}.
  	 */
 	public int getMaxEntries() {        
+		if(variableKeys)
+			return (BufferPool.getPageSize() - VAR_HEADER_SIZE - INDEX_SIZE) / (INDEX_SIZE + 1);
 		int keySize = td.getFieldType(keyField).getLen();
 		int bitsPerEntryIncludingHeader = keySize * 8 + INDEX_SIZE * 8 + 1;
 		// extraBits are: one parent pointer, 1 byte for child page category, 
@@ -224,6 +262,27 @@ public class BTreeInternalPage extends BTreePage {
 		return child;
 	}
 
+	/**
+	 * Read the entries of a page of string keys into the first slots.
+	 */
+	private void readVariableKeys(DataInputStream dis) throws IOException {
+		int n = dis.readUnsignedShort();
+		byte[] prefix = new byte[dis.readUnsignedByte()];
+		dis.readFully(prefix);
+		if(n == 0)
+			return;
+		for(int i = 0; i <= n; i++) {
+			children[i] = dis.readInt();
+			markSlotUsed(i, true);
+		}
+		for(int i = 1; i <= n; i++) {
+			byte[] b = Arrays.copyOf(prefix, prefix.length + dis.readUnsignedByte());
+			dis.readFully(b, prefix.length, b.length - prefix.length);
+			// one byte per character, as StringField.serialize writes them
+			keys[i] = new StringField(new String(b, StandardCharsets.ISO_8859_1), Type.STRING_LEN);
+		}
+	}
+
 	/**
 	 * Generates a byte array representing the contents of this page.
 	 * Used to serialize this page to disk.
@@ -231,11 +290,30 @@ public class BTreeInternalPage extends BTreePage {
 	 * The invariant here is that it should be possible to pass the byte
 	 * array generated by getPageData to the BTreeInternalPage constructor and
 	 * have it produce an identical BTreeInternalPage object.
+	 * <p>
+	 * A page of string keys is written as the parent pointer, the child page
+	 * category, the number of entries (2 bytes), the length (1 byte) and
+	 * bytes of the prefix the keys share, the child pointers, and then the
+	 * length (1 byte) and bytes of the rest of each key after the prefix, in
+	 * order, with one byte per character.
 	 *
 	 * @see #BTreeInternalPage
 	 * @return A byte array correspond to the bytes of this page.
 	 */
 	public byte[] getPageData() {
+		if(variableKeys) {
+			List<Field> ks = new ArrayList<>();
+			List<Integer> cs = new ArrayList<>();
+			for(int i = 0; i < numSlots; i++) {
+				if(isSlotUsed(i)) {
+					if(i > 0)
+						ks.add(keys[i]);
+					cs.add(children[i]);
+				}
+			}
+			return variablePageData(parent, childCategory, ks, cs, BufferPool.getPageSize());
+		}
+
 		int len = BufferPool.getPageSize();
 		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
 		DataOutputStream dos = new DataOutputStream(baos);
@@ -337,6 +415,208 @@ public class BTreeInternalPage extends BTreePage {
 		return baos.toByteArray();
 	}
 
+	/**
+	 * Generate the data of a page of string keys, in the format of
+	 * {@link #getPageData()}.
+	 * 
+	 * @param parent - the page number of the parent page
+	 * @param childCategory - the category of the child pages
+	 * @param keys - the keys, in order
+	 * @param children - the page numbers of the children, one more than the keys
+	 * @param pageSize - the size of the page
+	 * @return the data of the page
+	 * @throws IllegalArgumentException if the entries do not fit on a page
+	 */
+	static byte[] variablePageData(int parent, int childCategory, List<Field> keys,
+			List<Integer> children, int pageSize) {
+		if(VAR_HEADER_SIZE + INDEX_SIZE + keySpace(keys) > pageSize)
+			throw new IllegalArgumentException(keys.size() + " keys do not fit on a page");
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(pageSize);
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			dos.writeInt(parent);
+			dos.writeByte((byte) childCategory);
+			dos.writeShort(keys.size());
+			String prefix = keys.isEmpty() ? "" : valueOf(keys.get(0)).substring(0,
+					commonPrefix(valueOf(keys.get(0)), valueOf(keys.get(keys.size() - 1))));
+			dos.writeByte(prefix.length());
+			dos.writeBytes(prefix);
+			if(!keys.isEmpty()) {
+				for(int child : children)
+					dos.writeInt(child);
+			}
+			for(Field k : keys) {
+				String suffix = valueOf(k).substring(prefix.length());
+				dos.writeByte(suffix.length());
+				dos.writeBytes(suffix);
+			}
+			dos.write(new byte[pageSize - dos.size()]);
+			dos.flush();
+		} catch (IOException e) {
+			// this really shouldn't happen
+			e.printStackTrace();
+		}
+		return baos.toByteArray();
+	}
+
+	/**
+	 * @return true if internal pages of keys of type t are stored in the
+	 * format of pages of string keys
+	 */
+	static boolean hasVariableKeys(Type t) {
+		return t == Type.STRING_TYPE;
+	}
+
+	// the value of a string key, as much of it as is stored
+	private static String valueOf(Field f) {
+		String s = ((StringField) f).getValue();
+		return s.length() > Type.STRING_LEN ? s.substring(0, Type.STRING_LEN) : s;
+	}
+
+	// the length of the longest prefix two strings share
+	private static int commonPrefix(String a, String b) {
+		int n = Math.min(a.length(), b.length());
+		int i = 0;
+		while(i < n && a.charAt(i) == b.charAt(i))
+			i++;
+		return i;
+	}
+
+	/**
+	 * @return the bytes the entries with the given string keys take on a
+	 * page, after its header and its first child pointer: the prefix the keys
+	 * share, and the right child pointer, length and rest of each key
+	 */
+	static int keySpace(Collection<Field> keys) {
+		if(keys.isEmpty())
+			return 0;
+		Field min = null;
+		Field max = null;
+		int fill = 0;
+		for(Field f : keys) {
+			fill += entryFill(f);
+			if(min == null || f.compare(Op.LESS_THAN, min))
+				min = f;
+			if(max == null || f.compare(Op.GREATER_THAN, max))
+				max = f;
+		}
+		return keySpace(min, max, keys.size(), fill);
+	}
+
+	/**
+	 * @param first - the least of the keys
+	 * @param last - the greatest of the keys
+	 * @param count - the number of keys
+	 * @param fill - the sum of the fills of the entries of the keys
+	 * @return the bytes the entries with the given string keys take on a
+	 * page, as {@link #keySpace(Collection)}
+	 */
+	static int keySpace(Field first, Field last, int count, int fill) {
+		int prefix = commonPrefix(valueOf(first), valueOf(last));
+		return prefix + fill - count * prefix;
+	}
+
+	/**
+	 * @return the bytes of the entries of a page of string keys that entries
+	 * added may fill. The rest of the page, room for one more entry, is left
+	 * for keys replaced by longer ones as entries are redistributed.
+	 */
+	static int getKeyCapacity() {
+		return BufferPool.getPageSize() - VAR_HEADER_SIZE - INDEX_SIZE - MAX_VAR_ENTRY_SIZE;
+	}
+
+	/**
+	 * @return the fill below which a page of string keys other than the root
+	 * is underfull. A split of a full page leaves about half the capacity on
+	 * each side, less an entry on either side of the middle.
+	 */
+	static int getMinFill() {
+		return getKeyCapacity() / 2 - 2 * MAX_VAR_ENTRY_SIZE;
+	}
+
+	/**
+	 * @return the fill of an entry with a string key on a page: its bytes
+	 * before prefix compression
+	 */
+	static int entryFill(Field key) {
+		return INDEX_SIZE + 1 + valueOf(key).length();
+	}
+
+	// the keys on this page, in order, with the key in the given slot
+	// replaced by key, or key added if the slot is not used
+	private List<Field> keysWith(int slot, Field key) {
+		List<Field> ks = new ArrayList<>();
+		for(int i = 1; i < numSlots; i++)
+			if(isSlotUsed(i) && i != slot)
+				ks.add(keys[i]);
+		if(key != null)
+			ks.add(key);
+		return ks;
+	}
+
+	/**
+	 * Returns how full this page is: the number of entries on a page of
+	 * fixed-length keys, or the bytes its entries take before prefix
+	 * compression on a page of string keys. Splits and redistributions of
+	 * entries balance the fill of the pages.
+	 */
+	public int getFill() {
+		if(!variableKeys)
+			return getNumEntries();
+		int fill = 0;
+		for(int i = 1; i < numSlots; i++)
+			if(isSlotUsed(i))
+				fill += entryFill(keys[i]);
+		return fill;
+	}
+
+	/**
+	 * Returns how much an entry with the given key adds to the fill of this
+	 * page, see {@link #getFill()}.
+	 */
+	public int getFill(Field key) {
+		return variableKeys ? entryFill(key) : 1;
+	}
+
+	/**
+	 * Returns true if an entry with the given key can be inserted into this
+	 * page: if it has an empty slot and, for string keys, the bytes for it.
+	 */
+	public boolean hasRoomFor(Field key) {
+		if(getNumEmptySlots() == 0)
+			return false;
+		return !variableKeys || keySpace(keysWith(-1, key)) <= getKeyCapacity();
+	}
+
+	/**
+	 * Returns true if this page is less than half full, in which case it has
+	 * to take entries from a sibling or merge with it unless it is the root.
+	 */
+	public boolean isUnderfull() {
+		if(variableKeys)
+			return getFill() < getMinFill();
+		return getNumEmptySlots() > getMaxEntries() - getMaxEntries() / 2;
+	}
+
+	/**
+	 * Returns true if this page and an underfull sibling page are to be
+	 * merged rather than have entries redistributed between them: if this
+	 * page is at minimum occupancy or, for string keys, if the entries of both
+	 * pages and the key between them in the parent fit on one page.
+	 * 
+	 * @param page - the underfull sibling
+	 * @param key - the key of the entry between the pages in their parent
+	 */
+	public boolean canMerge(BTreeInternalPage page, Field key) {
+		if(!variableKeys)
+			return getNumEmptySlots() >= getMaxEntries() - getMaxEntries() / 2;
+		if(getNumEntries() + page.getNumEntries() + 1 > getMaxEntries())
+			return false;
+		List<Field> ks = keysWith(-1, key);
+		ks.addAll(page.keysWith(-1, null));
+		return keySpace(ks) <= getKeyCapacity();
+	}
+
 	/**
 	 * Delete the specified entry (key + 1 child pointer) from the page. The recordId
 	 * is used to find the specified entry, so it must not be null. After deletion, the 
@@ -413,6 +693,9 @@ public class BTreeInternalPage extends BTreePage {
 			throw new DbException("tried to update entry on invalid page or table");
 		if (!isSlotUsed(rid.getTupleNumber()))
 			throw new DbException("tried to update null entry.");
+		if(variableKeys && VAR_HEADER_SIZE + INDEX_SIZE
+				+ keySpace(keysWith(rid.getTupleNumber(), e.getKey())) > BufferPool.getPageSize())
+			throw new DbException("no room on the page for the updated key " + e.getKey());
 		
 		for(int i = rid.getTupleNumber() + 1; i < numSlots; i++) {
 			if(isSlotUsed(i)) {
@@ -435,6 +718,7 @@ public class BTreeInternalPage extends BTreePage {
 		}
 		children[rid.getTupleNumber()] = e.getRightChild().getPageNumber();
 		keys[rid.getTupleNumber()] = e.getKey();
+		directory = null;
 	}
 
 	/**
@@ -460,6 +744,10 @@ public class BTreeInternalPage extends BTreePage {
 		else if(e.getLeftChild().pgcateg() != childCategory || e.getRightChild().pgcateg() != childCategory)
 			throw new DbException("child page category mismatch in insertEntry");
 
+		if(variableKeys && VAR_HEADER_SIZE + INDEX_SIZE
+				+ keySpace(keysWith(-1, e.getKey())) > BufferPool.getPageSize())
+			throw new DbException("called insertEntry on page with no room for key " + e.getKey());
+
 		// if this is the first entry, add it and return
 		if(getNumEmptySlots() == getMaxEntries()) {
 			children[0] = e.getLeftChild().getPageNumber();
@@ -599,12 +887,75 @@ public class BTreeInternalPage extends BTreePage {
 		int headerbyte = (i - headerbit) / 8;
 
 		Debug.log(1, "BTreeInternalPage.setSlot: setting slot %d to %b", i, value);
+		directory = null;
 		if(value)
 			header[headerbyte] |= 1 << headerbit;
 		else
 			header[headerbyte] &= (0xFF ^ (1 << headerbit));
 	}
 
+	/**
+	 * Find the child page to descend to in search of the left-most leaf page
+	 * possibly containing the key field f: the left child of the first entry
+	 * with a key greater than or equal to f, or the right child of the last
+	 * entry if there is none. The keys are searched by binary search.
+	 * 
+	 * @param f - the field to search for, or null for the left-most child
+	 * @return the id of the child page, or null if the page has no entries
+	 */
+	public BTreePageId findChild(Field f) {
+		BTreeKeyDirectory dir = getDirectory();
+		if(dir.size() == 0)
+			return null;
+		int i = f == null ? 0 : dir.lowerBound(f);
+		// the left child of the ith key is in the slot of the key before it
+		int slot = i == 0 ? 0 : dir.slot(i - 1);
+		return new BTreePageId(pid.getTableId(), children[slot], childCategory);
+	}
+
+	/**
+	 * Find the child page to descend to in search of the right-most leaf page
+	 * possibly containing the key field f: the right child of the last entry
+	 * with a key less than or equal to f, or the left child of the first
+	 * entry if there is none. The keys are searched by binary search.
+	 * 
+	 * @param f - the field to search for, or null for the right-most child
+	 * @return the id of the child page, or null if the page has no entries
+	 */
+	public BTreePageId findLastChild(Field f) {
+		BTreeKeyDirectory dir = getDirectory();
+		if(dir.size() == 0)
+			return null;
+		int i = f == null ? dir.size() : dir.upperBound(f);
+		// the right child of the key before the ith is in the slot of that key
+		int slot = i == 0 ? 0 : dir.slot(i - 1);
+		return new BTreePageId(pid.getTableId(), children[slot], childCategory);
+	}
+
+	/**
+	 * @return the directory of the keys on this page, built if the page has
+	 * changed since the last search
+	 */
+	private BTreeKeyDirectory getDirectory() {
+		BTreeKeyDirectory dir = directory;
+		if(dir == null) {
+			int[] slots = new int[numSlots];
+			Field[] ks = new Field[numSlots];
+			int n = 0;
+			if(isSlotUsed(0)) {
+				for(int i = 1; i < numSlots; i++) {
+					if(isSlotUsed(i)) {
+						slots[n] = i;
+						ks[n++] = keys[i];
+					}
+				}
+			}
+			dir = new BTreeKeyDirectory(td.getFieldType(keyField), slots, ks, n);
+			directory = dir;
+		}
+		return dir;
+	}
+
 	/**
 	 * @return an iterator over all entries on this page (calling remove on this iterator throws an UnsupportedOperationException)
 	 * (note that this iterator shouldn't return entries in empty slots!)
@@ -765,8 +1116,14 @@ class BTreeInternalPageReverseIterator implements Iterator<BTreeEntry> {
 			while (true) {
 				int entry = curEntry--;
 				Field key = p.getKey(entry);
-				BTreePageId childId = p.getChildId(entry - 1);
-				if(key != null && childId != null) {
+				if(key == null)
+					continue;
+				// the left child is in the next used slot down, which is not
+				// the slot right before the key if entries have been deleted
+				while(curEntry > 0 && !p.isSlotUsed(curEntry))
+					curEntry--;
+				BTreePageId childId = p.getChildId(curEntry);
+				if(childId != null) {
 					nextToReturn = new BTreeEntry(key, childId, nextChildId);
 					nextToReturn.setRecordId(new RecordId(p.pid, entry));
 					nextChildId = childId;
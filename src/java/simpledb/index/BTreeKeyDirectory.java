@@ -0,0 +1,97 @@
+package simpledb.index;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+
+/**
+ * BTreeKeyDirectory is a sorted copy of the keys on a B+ tree page with the
+ * slots they are stored in, for binary search. A page keeps its keys in slots
+ * that may have empty slots between them, so the directory is built from the
+ * used slots in order the first time the page is searched, and dropped by the
+ * page whenever a slot or key on it changes.
+ *
+ * INT keys are copied into an array of ints, so that a search compares them
+ * without calls to {@link Field#compare}. A directory does not change once
+ * built, so it may be shared by the transactions reading the page.
+ */
+class BTreeKeyDirectory {
+	private final int[] slots;
+	private final int[] ints; // the keys, if they are INT keys
+	private final Field[] fields; // the keys otherwise
+	private final int n;
+
+	/**
+	 * Build a directory of the given keys.
+	 * @param type - the type of the keys
+	 * @param slots - the slots of the keys, in key order
+	 * @param keys - the keys, in order
+	 * @param n - the number of keys
+	 */
+	BTreeKeyDirectory(Type type, int[] slots, Field[] keys, int n) {
+		this.slots = slots;
+		this.n = n;
+		if(type == Type.INT_TYPE) {
+			this.ints = new int[n];
+			for(int i = 0; i < n; i++)
+				ints[i] = ((IntField) keys[i]).getValue();
+			this.fields = null;
+		}
+		else {
+			this.ints = null;
+			this.fields = keys;
+		}
+	}
+
+	/**
+	 * @return the number of keys
+	 */
+	int size() {
+		return n;
+	}
+
+	/**
+	 * @return the slot of the ith key
+	 */
+	int slot(int i) {
+		return slots[i];
+	}
+
+	/**
+	 * @return the position of the first key greater than or equal to f, or
+	 * the number of keys if there is none
+	 */
+	int lowerBound(Field f) {
+		return search(f, false);
+	}
+
+	/**
+	 * @return the position of the first key greater than f, or the number of
+	 * keys if there is none
+	 */
+	int upperBound(Field f) {
+		return search(f, true);
+	}
+
+	private int search(Field f, boolean strict) {
+		int lo = 0, hi = n;
+		if(ints != null) {
+			int v = ((IntField) f).getValue();
+			while(lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if(ints[mid] < v || (strict && ints[mid] == v)) lo = mid + 1;
+				else hi = mid;
+			}
+		}
+		else {
+			Op op = strict ? Op.LESS_THAN_OR_EQ : Op.LESS_THAN;
+			while(lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if(fields[mid].compare(op, f)) lo = mid + 1;
+				else hi = mid;
+			}
+		}
+		return lo;
+	}
+}
@@ -27,6 +27,8 @@ public class BTreeLeafPage extends BTreePage {
 	private int leftSibling; // leaf node or 0
 	private int rightSibling; // leaf node or 0
 
+	private BTreeKeyDirectory directory; // built for searches, dropped on changes
+
 	public void checkRep(int fieldid, Field lowerBound, Field upperBound, boolean checkoccupancy, int depth) {
 		Field prev = lowerBound;
 		assert(this.getId().pgcateg() == BTreePageId.LEAF);
@@ -359,6 +361,7 @@ public class BTreeLeafPage extends BTreePage {
 		RecordId rid = new RecordId(pid, goodSlot);
 		t.setRecordId(rid);
 		tuples[goodSlot] = t;
+		directory = null;
 	}
 
 	/**
@@ -472,6 +475,7 @@ public class BTreeLeafPage extends BTreePage {
 		int headerbyte = (i - headerbit) / 8;
 
 		Debug.log(1, "BTreeLeafPage.setSlot: setting slot %d to %b", i, value);
+		directory = null;
 		if(value)
 			header[headerbyte] |= 1 << headerbit;
 		else
@@ -486,6 +490,53 @@ public class BTreeLeafPage extends BTreePage {
 		return new BTreeLeafPageIterator(this);
 	}
 
+	/**
+	 * Find the first tuple on this page with a key field greater than or equal
+	 * to f by binary search over the keys.
+	 * 
+	 * @param f - the field to search for
+	 * @return the slot of the tuple, or getMaxTuples() if there is none
+	 */
+	public int lowerBound(Field f) {
+		BTreeKeyDirectory dir = getDirectory();
+		int i = dir.lowerBound(f);
+		return i == dir.size() ? numSlots : dir.slot(i);
+	}
+
+	/**
+	 * @param f - the field to search for
+	 * @return an iterator over the tuples on this page from the first with a
+	 * key field greater than or equal to f (calling remove on this iterator
+	 * throws an UnsupportedOperationException)
+	 */
+	public Iterator<Tuple> iterator(Field f) {
+		BTreeLeafPageIterator it = new BTreeLeafPageIterator(this);
+		it.curTuple = lowerBound(f);
+		return it;
+	}
+
+	/**
+	 * @return the directory of the keys on this page, built if the page has
+	 * changed since the last search
+	 */
+	private BTreeKeyDirectory getDirectory() {
+		BTreeKeyDirectory dir = directory;
+		if(dir == null) {
+			int[] slots = new int[numSlots];
+			Field[] ks = new Field[numSlots];
+			int n = 0;
+			for(int i = 0; i < numSlots; i++) {
+				if(isSlotUsed(i)) {
+					slots[n] = i;
+					ks[n++] = tuples[i].getField(keyField);
+				}
+			}
+			dir = new BTreeKeyDirectory(td.getFieldType(keyField), slots, ks, n);
+			directory = dir;
+		}
+		return dir;
+	}
+
 	/**
 	 * @return a reverse iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
 	 * (note that this iterator shouldn't return tuples in empty slots!)
@@ -494,6 +545,20 @@ public class BTreeLeafPage extends BTreePage {
 		return new BTreeLeafPageReverseIterator(this);
 	}
 
+	/**
+	 * @param f - the field to search for
+	 * @return a reverse iterator over the tuples on this page from the last
+	 * with a key field less than or equal to f (calling remove on this
+	 * iterator throws an UnsupportedOperationException)
+	 */
+	public Iterator<Tuple> reverseIterator(Field f) {
+		BTreeKeyDirectory dir = getDirectory();
+		int i = dir.upperBound(f);
+		BTreeLeafPageReverseIterator it = new BTreeLeafPageReverseIterator(this);
+		it.curTuple = i == 0 ? -1 : dir.slot(i - 1);
+		return it;
+	}
+
 	/**
 	 * protected method used by the iterator to get the ith tuple out of this page
 	 * @param i - the index of the tuple
@@ -0,0 +1,91 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionId;
+
+import java.util.Random;
+
+/**
+ * BTreeLookupBenchmark measures the latency of equality lookups in a B+ tree
+ * for page sizes from {@link #MIN_PAGE_SIZE} to {@link #MAX_PAGE_SIZE}. For
+ * each page size, it builds a tree of random tuples that fits in the buffer
+ * pool, and reports the mean time of a lookup of a random key with the pages
+ * searched by binary search and with their keys compared in turn.
+ */
+public class BTreeLookupBenchmark {
+
+	static final String usage = "Usage: BTreeLookupBenchmark [rows] [lookups]";
+
+	static final int ROWS = 200000;
+	static final int LOOKUPS = 200000;
+	static final int MIN_PAGE_SIZE = 4096;
+	static final int MAX_PAGE_SIZE = 65536;
+	static final int BUFFER_PAGES = 1000;
+	static final int LOOKUPS_PER_TRANSACTION = 1000;
+
+	/** @return the mean time of a lookup in microseconds */
+	static double run(BTreeFile bf, int lookups) throws Exception {
+		Random r = new Random(42);
+		long matched = 0;
+		long start = System.nanoTime();
+		TransactionId tid = new TransactionId();
+		for(int i = 0; i < lookups; i++) {
+			if(i % LOOKUPS_PER_TRANSACTION == 0) {
+				Database.getBufferPool().transactionComplete(tid);
+				tid = new TransactionId();
+			}
+			DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS,
+					new IntField(r.nextInt(BTreeUtility.MAX_RAND_VALUE))));
+			it.open();
+			while(it.hasNext()) {
+				it.next();
+				matched++;
+			}
+			it.close();
+		}
+		Database.getBufferPool().transactionComplete(tid);
+		long elapsed = System.nanoTime() - start;
+		if(matched < 0) // keep the lookups from being optimized away
+			System.out.println(matched);
+		return elapsed / 1000.0 / lookups;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int rows = ROWS;
+		int lookups = LOOKUPS;
+		if(args.length > 2) {
+			System.out.println(usage);
+			System.exit(0);
+		}
+		if(args.length > 0)
+			rows = Integer.parseInt(args[0]);
+		if(args.length > 1)
+			lookups = Integer.parseInt(args[1]);
+
+		System.out.printf("%9s %7s %14s %14s%n", "page size", "depth", "binary (us)", "linear (us)");
+		for(int pageSize = MIN_PAGE_SIZE; pageSize <= MAX_PAGE_SIZE; pageSize *= 2) {
+			BufferPool.setPageSize(pageSize);
+			Database.reset();
+			BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, rows, null, null, 0);
+			Database.resetBufferPool(BUFFER_PAGES);
+			TransactionId tid = new TransactionId();
+			int depth = bf.depth(tid);
+			Database.getBufferPool().transactionComplete(tid);
+
+			// the first run reads the pages into the buffer pool
+			BTreeFile.setBinarySearch(true);
+			run(bf, lookups);
+			double binary = run(bf, lookups);
+			BTreeFile.setBinarySearch(false);
+			double linear = run(bf, lookups);
+			System.out.printf("%9d %7d %14.2f %14.2f%n", pageSize, depth, binary, linear);
+		}
+		BTreeFile.resetBinarySearch();
+		BufferPool.resetPageSize();
+	}
+}
@@ -0,0 +1,192 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.AbstractDbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.Iterator;
+
+/**
+ * Iterator over the tuples of a BTreeFile with key fields within a range,
+ * bounded on either end or both, in ascending order of their keys or, in
+ * reverse, in descending order. It descends once to the leaf page the range
+ * starts at and walks the leaf pages from there along their right sibling
+ * pointers, or their left sibling pointers in reverse, until it meets the
+ * first tuple past the other end of the range. It can also be positioned
+ * at a key within the range with {@link #seek(Field)}, which descends again.
+ *
+ * @see BTreeFile#rangeIterator(TransactionId, IndexPredicate, IndexPredicate, boolean)
+ */
+public class BTreeRangeIterator extends AbstractDbFileIterator {
+
+	private Iterator<Tuple> it = null;
+	private BTreeLeafPage curp = null;
+	private Field from = null; // the key the iteration starts at, or null
+	private boolean isOpen = false;
+
+	private final TransactionId tid;
+	private final BTreeFile f;
+	private final Op lowerOp;
+	private final Field lowerKey;
+	private final Op upperOp;
+	private final Field upperKey;
+	private final boolean reverse;
+
+	/**
+	 * Constructor for this iterator
+	 * @param f - the BTreeFile containing the tuples
+	 * @param tid - the transaction id
+	 * @param lower - the lower bound of the keys, with operator GREATER_THAN,
+	 * GREATER_THAN_OR_EQ or EQUALS, or null for none
+	 * @param upper - the upper bound of the keys, with operator LESS_THAN,
+	 * LESS_THAN_OR_EQ or EQUALS, or null for none
+	 * @param reverse - true to return the tuples in descending order
+	 * @throws IllegalArgumentException if a bound has another operator
+	 */
+	public BTreeRangeIterator(BTreeFile f, TransactionId tid, IndexPredicate lower, IndexPredicate upper,
+			boolean reverse) {
+		this.f = f;
+		this.tid = tid;
+		this.reverse = reverse;
+		if(lower != null && lower.getOp() != Op.GREATER_THAN && lower.getOp() != Op.GREATER_THAN_OR_EQ
+				&& lower.getOp() != Op.EQUALS)
+			throw new IllegalArgumentException("not a lower bound: " + lower.getOp());
+		if(upper != null && upper.getOp() != Op.LESS_THAN && upper.getOp() != Op.LESS_THAN_OR_EQ
+				&& upper.getOp() != Op.EQUALS)
+			throw new IllegalArgumentException("not an upper bound: " + upper.getOp());
+		// a key equal to the field of an EQUALS bound is on its side of it
+		this.lowerOp = lower == null ? null : lower.getOp() == Op.EQUALS ? Op.GREATER_THAN_OR_EQ : lower.getOp();
+		this.lowerKey = lower == null ? null : lower.getField();
+		this.upperOp = upper == null ? null : upper.getOp() == Op.EQUALS ? Op.LESS_THAN_OR_EQ : upper.getOp();
+		this.upperKey = upper == null ? null : upper.getField();
+	}
+
+	/**
+	 * @return true if the tuples are returned in descending order of their keys
+	 */
+	public boolean isReverse() {
+		return reverse;
+	}
+
+	/**
+	 * Open this iterator by getting an iterator on the leaf page the range
+	 * starts at: the first for an ascending iteration, the last for a
+	 * descending one
+	 */
+	public void open() throws DbException, TransactionAbortedException {
+		isOpen = true;
+		position(null);
+	}
+
+	/**
+	 * Position this iterator at a key, so that the next tuple it returns is
+	 * the first in the range with a key greater than or equal to the key, or
+	 * in reverse the last with a key less than or equal to it. A key before
+	 * the start of the range positions the iterator at the start of the
+	 * range. The iterator descends the tree again, so it may seek backwards
+	 * as well as forwards.
+	 *
+	 * @param key - the key to position the iterator at
+	 * @throws IllegalStateException if the iterator is not open
+	 */
+	public void seek(Field key) throws DbException, TransactionAbortedException {
+		if(!isOpen)
+			throw new IllegalStateException("iterator is closed");
+		super.close();
+		position(key);
+	}
+
+	// descend to the leaf page holding the start of the iteration, the
+	// start of the range or the key if it lies within the range
+	private void position(Field key) throws DbException, TransactionAbortedException {
+		Field start = reverse ? upperKey : lowerKey;
+		if(key != null && (start == null || key.compare(reverse ? Op.LESS_THAN : Op.GREATER_THAN, start)))
+			start = key;
+		from = start;
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(f.getId());
+		curp = reverse ? f.findLastLeafPage(tid, rootPtrId, start) : f.findLeafPage(tid, rootPtrId, start);
+		if(curp == null)
+			it = null;
+		else if(start != null && BTreeFile.getBinarySearch())
+			// skip the tuples before the start on the first page
+			it = reverse ? curp.reverseIterator(start) : curp.iterator(start);
+		else
+			it = reverse ? curp.reverseIterator() : curp.iterator();
+	}
+
+	// true if a key is not below the lower bound of the range
+	private boolean aboveLower(Field k) {
+		return lowerOp == null || k.compare(lowerOp, lowerKey);
+	}
+
+	// true if a key is not above the upper bound of the range
+	private boolean belowUpper(Field k) {
+		return upperOp == null || k.compare(upperOp, upperKey);
+	}
+
+	/**
+	 * Read the next tuple either from the current page if it has more tuples in
+	 * the range or from the next page by following the right sibling pointer,
+	 * or the left sibling pointer in reverse.
+	 *
+	 * @return the next tuple in the range, or null if none exists
+	 */
+	@Override
+	protected Tuple readNext() throws TransactionAbortedException, DbException {
+		while(it != null) {
+			while(it.hasNext()) {
+				Tuple t = it.next();
+				Field k = t.getField(f.keyField());
+				if(reverse ? !aboveLower(k) : !belowUpper(k)) {
+					// past the end of the range
+					it = null;
+					curp = null;
+					return null;
+				}
+				if(from != null && k.compare(reverse ? Op.GREATER_THAN : Op.LESS_THAN, from))
+					continue;
+				if(reverse ? belowUpper(k) : aboveLower(k))
+					return t;
+			}
+
+			BTreePageId nextp = reverse ? curp.getLeftSiblingId() : curp.getRightSiblingId();
+			if(nextp == null) {
+				it = null;
+				curp = null;
+			}
+			else {
+				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+						nextp, Permissions.READ_ONLY);
+				it = reverse ? curp.reverseIterator() : curp.iterator();
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * rewind this iterator back to the start of the range
+	 */
+	public void rewind() throws DbException, TransactionAbortedException {
+		close();
+		open();
+	}
+
+	/**
+	 * close the iterator
+	 */
+	public void close() {
+		super.close();
+		it = null;
+		curp = null;
+		from = null;
+		isOpen = false;
+	}
+}
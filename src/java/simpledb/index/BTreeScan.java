@@ -5,6 +5,7 @@ import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.IndexPredicate;
 import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate.Op;
 import simpledb.storage.DbFileIterator;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
@@ -15,7 +16,8 @@ import java.util.*;
 
 /**
  * BTreeScan is an operator which reads tuples in sorted order 
- * according to a predicate
+ * according to a predicate, or within a range of keys in ascending or
+ * descending order
  */
 public class BTreeScan implements OpIterator {
 
@@ -25,7 +27,11 @@ public class BTreeScan implements OpIterator {
 	private final TransactionId tid;
 	private TupleDesc myTd;
 	private IndexPredicate ipred = null;
+	private IndexPredicate lower = null;
+	private IndexPredicate upper = null;
+	private boolean reverse = false;
 	private transient DbFileIterator it;
+	private int tableid;
 	private String tablename;
 	private String alias;
 
@@ -51,6 +57,44 @@ public class BTreeScan implements OpIterator {
 	public BTreeScan(TransactionId tid, int tableid, String tableAlias, IndexPredicate ipred) {
 		this.tid = tid;
 		this.ipred = ipred;
+		if(ipred != null) {
+			Op op = ipred.getOp();
+			if(op == Op.EQUALS || op == Op.GREATER_THAN || op == Op.GREATER_THAN_OR_EQ)
+				this.lower = ipred;
+			if(op == Op.EQUALS || op == Op.LESS_THAN || op == Op.LESS_THAN_OR_EQ)
+				this.upper = ipred;
+		}
+		reset(tableid,tableAlias);
+	}
+
+	/**
+	 * Creates a B+ tree scan over the tuples of the specified table with keys
+	 * within a range, in ascending or descending order of their keys, as a
+	 * part of the specified transaction.
+	 * 
+	 * @param tid
+	 *            The transaction this scan is running as a part of.
+	 * @param tableid
+	 *            the table to scan.
+	 * @param tableAlias
+	 *            the alias of this table; the returned tupleDesc has fields
+	 *            with name tableAlias.fieldName
+	 * @param lower
+	 *            the lower bound of the keys, with operator GREATER_THAN,
+	 *            GREATER_THAN_OR_EQ or EQUALS, or null for none
+	 * @param upper
+	 *            the upper bound of the keys, with operator LESS_THAN,
+	 *            LESS_THAN_OR_EQ or EQUALS, or null for none
+	 * @param reverse
+	 *            true to return the tuples in descending order of their keys
+	 * @see BTreeFile#rangeIterator(TransactionId, IndexPredicate, IndexPredicate, boolean)
+	 */
+	public BTreeScan(TransactionId tid, int tableid, String tableAlias, IndexPredicate lower,
+			IndexPredicate upper, boolean reverse) {
+		this.tid = tid;
+		this.lower = lower;
+		this.upper = upper;
+		this.reverse = reverse;
 		reset(tableid,tableAlias);
 	}
 
@@ -63,6 +107,45 @@ public class BTreeScan implements OpIterator {
 		return this.tablename;
 	}
 
+	/**
+	 * @return the id of the table the operator scans
+	 */
+	public int getTableId() {
+		return this.tableid;
+	}
+
+	/**
+	 * @return the index predicate the scan matches, or null if it returns
+	 *         all tuples or those within a range
+	 */
+	public IndexPredicate getIndexPredicate() {
+		return this.ipred;
+	}
+
+	/**
+	 * @return the lower bound of the keys the scan returns, or null if it
+	 *         has none
+	 */
+	public IndexPredicate getLowerBound() {
+		return this.lower;
+	}
+
+	/**
+	 * @return the upper bound of the keys the scan returns, or null if it
+	 *         has none
+	 */
+	public IndexPredicate getUpperBound() {
+		return this.upper;
+	}
+
+	/**
+	 * @return true if the scan returns the tuples in descending order of
+	 *         their keys
+	 */
+	public boolean isReverse() {
+		return this.reverse;
+	}
+
 	/**
 	 * @return Return the alias of the table this operator scans. 
 	 * */
@@ -86,12 +169,17 @@ public class BTreeScan implements OpIterator {
 	public void reset(int tableid, String tableAlias) {
 		this.isOpen=false;
 		this.alias = tableAlias;
+		this.tableid = tableid;
 		this.tablename = Database.getCatalog().getTableName(tableid);
-		if(ipred == null) {
-			this.it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+		if(ipred != null) {
+			this.it = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).indexIterator(tid, ipred);
+		}
+		else if(lower != null || upper != null || reverse) {
+			this.it = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).rangeIterator(tid, lower,
+					upper, reverse);
 		}
 		else {
-			this.it = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).indexIterator(tid, ipred);
+			this.it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
 		}
 		myTd = Database.getCatalog().getTupleDesc(tableid);
 		String[] newNames = new String[myTd.numFields()];
@@ -0,0 +1,588 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashFile is an implementation of a DbFile that stores tuples in a linear
+ * hash table on one of their fields, for lookups of a key that read one
+ * bucket page besides the meta page, however many tuples the file holds.
+ * Specifically, it stores a meta page, which maps each key to its bucket,
+ * and the pages of the buckets, each the first of a chain of overflow pages
+ * holding the tuples that do not fit on it. HashFile works closely with
+ * HashMetaPage and HashPage. The format of these pages is described in their
+ * constructors.
+ * <p>
+ * Buckets are split one at a time, in order, as Litwin's linear hashing
+ * does: whenever an insert adds an overflow page to a bucket, the next bucket
+ * in order is split in two, and the tuples whose hash values have the next
+ * bit set move to the new bucket at the end of the table. The bucket that
+ * overflowed is split in its turn, so the average length of a chain stays
+ * short as the file grows, without a directory and without the file
+ * doubling at once. Many tuples with the same key still share one chain.
+ * <p>
+ * Pages past the end of the file read as empty pages, so a new file needs no
+ * initialization and pages are written only once used.
+ *
+ * @see HashMetaPage#HashMetaPage
+ * @see HashPage#HashPage
+ */
+public class HashFile implements DbFile {
+
+	/**
+	 * The fraction of the slots of its pages a bucket is filled to on
+	 * average by {@link #load}, leaving room for some inserts before the
+	 * buckets split.
+	 */
+	public static final double LOAD_FILL_FACTOR = 0.75;
+
+	/** Number of buckets {@link #load} fills in memory at a time. */
+	static final int LOAD_BUCKETS = 1024;
+
+	private final File f;
+	private final TupleDesc td;
+	private final int tableid;
+	private final int keyField;
+
+	/**
+	 * Constructs a hash file backed by the specified file.
+	 *
+	 * @param f - the file that stores the on-disk backing store for this hash
+	 *            file; empty or missing for a new file
+	 * @param key - the field the tuples are hashed on
+	 * @param td - the tuple descriptor of tuples in the file
+	 */
+	public HashFile(File f, int key, TupleDesc td) {
+		this.f = f;
+		this.tableid = f.getAbsoluteFile().hashCode();
+		this.keyField = key;
+		this.td = td;
+	}
+
+	/**
+	 * Returns the File backing this HashFile on disk.
+	 */
+	public File getFile() {
+		return f;
+	}
+
+	/**
+	 * Returns an ID uniquely identifying this HashFile, the hash of the
+	 * absolute file name of the file underlying it.
+	 *
+	 * @return an ID uniquely identifying this HashFile.
+	 */
+	public int getId() {
+		return tableid;
+	}
+
+	/**
+	 * Returns the TupleDesc of the table stored in this DbFile.
+	 *
+	 * @return TupleDesc of this DbFile.
+	 */
+	public TupleDesc getTupleDesc() {
+		return td;
+	}
+
+	/**
+	 * Returns the index of the field that the tuples are hashed on
+	 */
+	public int keyField() {
+		return keyField;
+	}
+
+	/**
+	 * Read a page from the file on disk. This should not be called directly
+	 * but should be called from the BufferPool via getPage()
+	 *
+	 * @param pid - the id of the page to read from disk
+	 * @return the page constructed from the contents on disk, or an empty
+	 *         page past the end of the file
+	 */
+	public Page readPage(PageId pid) {
+		HashPageId id = (HashPageId) pid;
+		byte[] pageBuf = new byte[BufferPool.getPageSize()];
+		long offset = (long) id.getPageNumber() * BufferPool.getPageSize();
+		try {
+			if (offset < f.length()) {
+				try (RandomAccessFile rf = new RandomAccessFile(f, "r")) {
+					rf.seek(offset);
+					rf.readFully(pageBuf);
+				}
+			}
+			if (id.getPageNumber() == 0)
+				return new HashMetaPage(id, pageBuf);
+			return new HashPage(id, pageBuf);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Write a page to disk.  This should not be called directly but should
+	 * be called from the BufferPool when pages are flushed to disk
+	 *
+	 * @param page - the page to write to disk
+	 */
+	public void writePage(Page page) throws IOException {
+		try (RandomAccessFile rf = new RandomAccessFile(f, "rw")) {
+			rf.seek((long) page.getId().getPageNumber() * BufferPool.getPageSize());
+			rf.write(page.getPageData());
+		}
+	}
+
+	/**
+	 * Returns the number of pages in this HashFile, counting the meta page.
+	 */
+	public int numPages() {
+		// we only ever write full pages
+		return (int) (f.length() / BufferPool.getPageSize());
+	}
+
+	/**
+	 * The hash value of a key, with the bits of its hash code mixed so that
+	 * the low bits, which choose the bucket, depend on all of them.
+	 *
+	 * @param key - the key
+	 * @return the hash value
+	 */
+	static int hash(Field key) {
+		int h = key.hashCode();
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	/**
+	 * Finds and locks the first page of the bucket of a key. The page is
+	 * locked with permission perm for the rest of the transaction, and serves
+	 * as the lock on the keys of the bucket: any insert into the bucket
+	 * needs the page, which a reader of the bucket keeps locked, and so does
+	 * a split of the bucket.
+	 * <p>
+	 * The meta page is only latched, as the B+ tree latches the pages above
+	 * a leaf: it is locked with READ_ONLY permission until the bucket page
+	 * is, and released then unless the transaction held it already. If the
+	 * bucket page is locked by another transaction, the latch is released
+	 * while waiting for it, and the bucket looked up again, since it may have
+	 * split meanwhile.
+	 *
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param key - the key to find the bucket of
+	 * @param perm - the permissions with which to lock the bucket page
+	 * @return the first page of the bucket
+	 */
+	HashPage findBucketPage(TransactionId tid, Map<PageId, Page> dirtypages, Field key, Permissions perm)
+			throws DbException, TransactionAbortedException {
+		HashPageId metaId = HashMetaPage.getId(tableid);
+		HashPageId waited = null; // a bucket page locked after waiting for it
+		boolean waitedHeld = false;
+		while (true) {
+			boolean held = isLocked(tid, dirtypages, metaId);
+			HashMetaPage meta = (HashMetaPage) getPage(tid, dirtypages, metaId, Permissions.READ_ONLY);
+			HashPageId pid = new HashPageId(tableid, meta.getBucketPageNo(meta.getBucket(hash(key))));
+			boolean pageHeld = pid.equals(waited) ? waitedHeld : isLocked(tid, dirtypages, pid);
+			Page page = tryGetPage(tid, dirtypages, pid, perm);
+			unlatch(tid, dirtypages, metaId, held);
+			if (page == null) {
+				getPage(tid, dirtypages, pid, perm);
+				if (waited != null) unlatch(tid, dirtypages, waited, waitedHeld);
+				waited = pid;
+				waitedHeld = pageHeld;
+				continue;
+			}
+			if (waited != null && !waited.equals(pid)) unlatch(tid, dirtypages, waited, waitedHeld);
+			return (HashPage) page;
+		}
+	}
+
+	// true if the page is to stay locked once a lookup has passed it: if the
+	// transaction holds a lock on it already
+	private static boolean isLocked(TransactionId tid, Map<PageId, Page> dirtypages, HashPageId pid) {
+		return dirtypages.containsKey(pid) || Database.getBufferPool().holdsLock(tid, pid);
+	}
+
+	// release the latch on a page, unless the transaction held the page before
+	private static void unlatch(TransactionId tid, Map<PageId, Page> dirtypages, HashPageId pid, boolean held) {
+		if (!held) {
+			dirtypages.remove(pid);
+			Database.getBufferPool().unsafeReleasePage(tid, pid);
+		}
+	}
+
+	/**
+	 * Lock and fetch a page, first from the local cache of pages dirtied by
+	 * the operation, adding pages fetched with read-write permission to it.
+	 * @see BTreeFile#getPage(TransactionId, Map, BTreePageId, Permissions)
+	 */
+	private Page getPage(TransactionId tid, Map<PageId, Page> dirtypages, HashPageId pid, Permissions perm)
+			throws DbException, TransactionAbortedException {
+		if (dirtypages.containsKey(pid))
+			return dirtypages.get(pid);
+		Page p = Database.getBufferPool().getPage(tid, pid, perm);
+		if (perm == Permissions.READ_WRITE)
+			dirtypages.put(pid, p);
+		return p;
+	}
+
+	/**
+	 * Like {@link #getPage(TransactionId, Map, HashPageId, Permissions)}, but
+	 * returns null instead of waiting if another transaction holds a
+	 * conflicting lock on the page.
+	 */
+	private Page tryGetPage(TransactionId tid, Map<PageId, Page> dirtypages, HashPageId pid, Permissions perm)
+			throws DbException {
+		if (dirtypages.containsKey(pid))
+			return dirtypages.get(pid);
+		Page p = Database.getBufferPool().tryGetPage(tid, pid, perm);
+		if (p != null && perm == Permissions.READ_WRITE)
+			dirtypages.put(pid, p);
+		return p;
+	}
+
+	/**
+	 * Insert a tuple into the bucket of its key, on the first page of the
+	 * bucket with an empty slot. If every page is full, an overflow page is
+	 * added to the bucket, and the next bucket in order is split.
+	 *
+	 * @param tid - the transaction id
+	 * @param t - the tuple to insert
+	 * @return a list of all pages that were dirtied by this operation
+	 * @see #splitBucket(TransactionId, Map, HashMetaPage)
+	 */
+	public List<Page> insertTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		Map<PageId, Page> dirtypages = new HashMap<>();
+		HashPage first = findBucketPage(tid, dirtypages, t.getField(keyField), Permissions.READ_WRITE);
+
+		// the other pages of the bucket are read only until one is chosen: a
+		// reader of the bucket holds its first page, so none holds them now
+		HashPage page = first;
+		while (page.getNumEmptySlots() == 0 && page.getNextPageNo() != 0)
+			page = (HashPage) getPage(tid, dirtypages, new HashPageId(tableid, page.getNextPageNo()),
+					Permissions.READ_ONLY);
+		if (page != first) {
+			dirtypages.remove(first.getId());
+			page = (HashPage) getPage(tid, dirtypages, page.getId(), Permissions.READ_WRITE);
+		}
+
+		if (page.getNumEmptySlots() > 0) {
+			page.insertTuple(t);
+		} else {
+			HashMetaPage meta = (HashMetaPage) getPage(tid, dirtypages, HashMetaPage.getId(tableid),
+					Permissions.READ_WRITE);
+			HashPage overflow = getOverflowPage(tid, dirtypages, meta);
+			page.setNextPageNo(overflow.getId().getPageNumber());
+			overflow.insertTuple(t);
+			splitBucket(tid, dirtypages, meta);
+		}
+		return new ArrayList<>(dirtypages.values());
+	}
+
+	/**
+	 * Take a free overflow page, or allocate one after the last.
+	 *
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param meta - the meta page, locked with read-write permission
+	 * @return the new overflow page, empty and locked with read-write permission
+	 */
+	private HashPage getOverflowPage(TransactionId tid, Map<PageId, Page> dirtypages, HashMetaPage meta)
+			throws DbException, TransactionAbortedException {
+		HashPage page;
+		if (meta.getFreeList() != 0) {
+			page = (HashPage) getPage(tid, dirtypages, new HashPageId(tableid, meta.getFreeList()),
+					Permissions.READ_WRITE);
+			meta.setFreeList(page.getNextPageNo());
+		} else {
+			page = (HashPage) getPage(tid, dirtypages, new HashPageId(tableid, meta.addOverflowPage()),
+					Permissions.READ_WRITE);
+		}
+		page.clear();
+		return page;
+	}
+
+	/**
+	 * Split the next bucket in order, adding a bucket at the end of the
+	 * table. The tuples of the bucket are redistributed between it and the
+	 * new bucket, packed onto the pages of the bucket and the first page of
+	 * the new one; the overflow pages left over are freed.
+	 * <p>
+	 * A split that would wait for a page of the bucket, which another
+	 * transaction is reading or writing, is put off to the next insert that
+	 * adds an overflow page.
+	 *
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param meta - the meta page, locked with read-write permission
+	 */
+	private void splitBucket(TransactionId tid, Map<PageId, Page> dirtypages, HashMetaPage meta)
+			throws DbException, TransactionAbortedException {
+		// lock the pages of the bucket without waiting
+		List<HashPage> pages = new ArrayList<>();
+		List<HashPageId> latched = new ArrayList<>();
+		int pgNo = meta.getBucketPageNo(meta.getSplitBucket());
+		while (pgNo != 0) {
+			HashPageId pid = new HashPageId(tableid, pgNo);
+			if (!isLocked(tid, dirtypages, pid))
+				latched.add(pid);
+			HashPage page = (HashPage) tryGetPage(tid, dirtypages, pid, Permissions.READ_WRITE);
+			if (page == null) {
+				for (HashPageId l : latched)
+					if (!l.equals(pid))
+						unlatch(tid, dirtypages, l, false);
+				return;
+			}
+			pages.add(page);
+			pgNo = page.getNextPageNo();
+		}
+
+		int newBucket = meta.getMaxBucket() + 1;
+		HashPage newPage = (HashPage) getPage(tid, dirtypages, new HashPageId(tableid, meta.addBucket()),
+				Permissions.READ_WRITE);
+		newPage.clear();
+		List<Tuple> tuples = new ArrayList<>();
+		for (HashPage page : pages) {
+			Iterator<Tuple> it = page.iterator();
+			while (it.hasNext())
+				tuples.add(it.next());
+			page.clear();
+		}
+
+		// the tuples fill no more pages than they did, plus the new one
+		Deque<HashPage> spare = new ArrayDeque<>(pages.subList(1, pages.size()));
+		HashPage[] last = { pages.get(0), newPage };
+		for (Tuple t : tuples) {
+			int b = meta.getBucket(hash(t.getField(keyField))) == newBucket ? 1 : 0;
+			if (last[b].getNumEmptySlots() == 0) {
+				HashPage next = spare.isEmpty() ? getOverflowPage(tid, dirtypages, meta) : spare.poll();
+				last[b].setNextPageNo(next.getId().getPageNumber());
+				last[b] = next;
+			}
+			last[b].insertTuple(t);
+		}
+		for (HashPage page : spare) {
+			page.setNextPageNo(meta.getFreeList());
+			meta.setFreeList(page.getId().getPageNumber());
+		}
+	}
+
+	/**
+	 * Delete a tuple from the page its record id points to. Empty overflow
+	 * pages stay in their bucket, for later inserts.
+	 *
+	 * @param tid - the transaction id
+	 * @param t - the tuple to delete
+	 * @return a list of all pages that were dirtied by this operation
+	 * @throws DbException if the tuple is not on the page of its record id,
+	 *         which may be the case if its bucket has split since it was read
+	 */
+	public List<Page> deleteTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		Map<PageId, Page> dirtypages = new HashMap<>();
+		PageId pid = t.getRecordId() == null ? null : t.getRecordId().getPageId();
+		if (pid == null || pid.getTableId() != tableid || pid.getPageNumber() == 0)
+			throw new DbException("tried to delete tuple not in this file");
+		HashPage page = (HashPage) getPage(tid, dirtypages, new HashPageId(tableid, pid.getPageNumber()),
+				Permissions.READ_WRITE);
+		page.deleteTuple(t);
+		return new ArrayList<>(dirtypages.values());
+	}
+
+	/**
+	 * Fill an empty hash file from a stream of tuples, writing its pages
+	 * directly rather than through the buffer pool. The stream is counted
+	 * first, to create as many buckets as fill their pages to
+	 * {@link #LOAD_FILL_FACTOR} on average, then read once for every
+	 * {@link #LOAD_BUCKETS} buckets, whose pages are filled in memory.
+	 * <p>
+	 * The file must be registered with the catalog, and not in use while it
+	 * is loaded: pages of it in the buffer pool are not updated.
+	 *
+	 * @param tuples - the tuples, in any order; opened and closed here
+	 */
+	public void load(DbFileIterator tuples)
+			throws DbException, IOException, TransactionAbortedException {
+		long n = 0;
+		tuples.open();
+		while (tuples.hasNext()) {
+			tuples.next();
+			n++;
+		}
+
+		HashMetaPage meta = new HashMetaPage(HashMetaPage.getId(tableid), HashMetaPage.createEmptyPageData());
+		long target = Math.max(1, (long) (LOAD_FILL_FACTOR * HashPage.getMaxTuples(td)));
+		while ((meta.getMaxBucket() + 1L) * target < n)
+			meta.addBucket();
+
+		new FileOutputStream(f).close();
+		int buckets = meta.getMaxBucket() + 1;
+		for (int lo = 0; lo < buckets; lo += LOAD_BUCKETS) {
+			int hi = Math.min(buckets, lo + LOAD_BUCKETS);
+			HashPage[] last = new HashPage[hi - lo];
+			for (int b = lo; b < hi; b++)
+				last[b - lo] = new HashPage(new HashPageId(tableid, meta.getBucketPageNo(b)),
+						HashPage.createEmptyPageData());
+			tuples.rewind();
+			while (tuples.hasNext()) {
+				Tuple t = tuples.next();
+				int b = meta.getBucket(hash(t.getField(keyField)));
+				if (b < lo || b >= hi)
+					continue;
+				HashPage page = last[b - lo];
+				if (page.getNumEmptySlots() == 0) {
+					HashPage next = new HashPage(new HashPageId(tableid, meta.addOverflowPage()),
+							HashPage.createEmptyPageData());
+					page.setNextPageNo(next.getId().getPageNumber());
+					writePage(page);
+					page = last[b - lo] = next;
+				}
+				Tuple copy = new Tuple(td);
+				for (int i = 0; i < td.numFields(); i++)
+					copy.setField(i, t.getField(i));
+				page.insertTuple(copy);
+			}
+			for (HashPage page : last)
+				writePage(page);
+		}
+		tuples.close();
+		writePage(meta);
+	}
+
+	/**
+	 * Get the tuples of the file matching a predicate on the key field. An
+	 * equality predicate reads the bucket of its key only; others read the
+	 * whole file, as {@link #iterator} does.
+	 *
+	 * @param tid - the transaction id
+	 * @param ipred - the index predicate value to filter on
+	 * @return an iterator for the filtered tuples
+	 */
+	public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+		return new HashFileIterator(this, tid, ipred);
+	}
+
+	/**
+	 * Get an iterator for all tuples in this hash file, bucket by bucket.
+	 * The meta page stays locked until the transaction ends, so that no
+	 * bucket splits under the iterator.
+	 *
+	 * @param tid - the transaction id
+	 * @return an iterator for all the tuples in this file
+	 */
+	public DbFileIterator iterator(TransactionId tid) {
+		return new HashFileIterator(this, tid, null);
+	}
+
+}
+
+/**
+ * Helper class that implements the DbFileIterator for the tuples of a
+ * HashFile, all of them or those matching a predicate on the key field
+ */
+class HashFileIterator extends AbstractDbFileIterator {
+
+	Iterator<Tuple> it = null;
+	HashPage curp = null;
+	HashMetaPage meta = null; // null if only one bucket is read
+	int bucket;
+
+	final TransactionId tid;
+	final HashFile f;
+	final IndexPredicate ipred;
+
+	/**
+	 * Constructor for this iterator
+	 * @param f - the HashFile containing the tuples
+	 * @param tid - the transaction id
+	 * @param ipred - the predicate to filter on, or null for all tuples
+	 */
+	public HashFileIterator(HashFile f, TransactionId tid, IndexPredicate ipred) {
+		this.f = f;
+		this.tid = tid;
+		this.ipred = ipred;
+	}
+
+	/**
+	 * Open this iterator on the first page of the bucket of the key of an
+	 * equality predicate, or of the first bucket
+	 */
+	public void open() throws DbException, TransactionAbortedException {
+		if (ipred != null && ipred.getOp() == Op.EQUALS) {
+			meta = null;
+			curp = f.findBucketPage(tid, new HashMap<>(), ipred.getField(), Permissions.READ_ONLY);
+		} else {
+			meta = (HashMetaPage) Database.getBufferPool().getPage(tid, HashMetaPage.getId(f.getId()),
+					Permissions.READ_ONLY);
+			bucket = 0;
+			curp = page(meta.getBucketPageNo(0));
+		}
+		it = curp.iterator();
+	}
+
+	private HashPage page(int pgNo) throws DbException, TransactionAbortedException {
+		return (HashPage) Database.getBufferPool().getPage(tid, new HashPageId(f.getId(), pgNo),
+				Permissions.READ_ONLY);
+	}
+
+	/**
+	 * Read the next tuple matching the predicate, following the chain of
+	 * pages of the bucket, then moving on to the next bucket if the whole
+	 * file is read.
+	 *
+	 * @return the next tuple, or null if none exists
+	 */
+	@Override
+	protected Tuple readNext() throws TransactionAbortedException, DbException {
+		while (it != null) {
+			while (it.hasNext()) {
+				Tuple t = it.next();
+				if (ipred == null || t.getField(f.keyField()).compare(ipred.getOp(), ipred.getField()))
+					return t;
+			}
+			if (curp.getNextPageNo() != 0) {
+				curp = page(curp.getNextPageNo());
+			} else if (meta != null && bucket < meta.getMaxBucket()) {
+				curp = page(meta.getBucketPageNo(++bucket));
+			} else {
+				curp = null;
+				it = null;
+				return null;
+			}
+			it = curp.iterator();
+		}
+		return null;
+	}
+
+	/**
+	 * rewind this iterator back to the beginning of the tuples
+	 */
+	public void rewind() throws DbException, TransactionAbortedException {
+		close();
+		open();
+	}
+
+	/**
+	 * close the iterator
+	 */
+	public void close() {
+		super.close();
+		it = null;
+		curp = null;
+		meta = null;
+	}
+}
@@ -0,0 +1,227 @@
+package simpledb.index;
+
+import simpledb.storage.BufferPool;
+import simpledb.storage.Page;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+
+/**
+ * HashMetaPage is the first page of a {@link HashFile}. It stores the number
+ * of buckets of the linear hash table, which bucket a hash value falls in,
+ * and where the pages of the buckets and their overflow pages are in the
+ * file. It implements the Page interface that is used by BufferPool.
+ * <p>
+ * Buckets are added one at a time, and the pages of the buckets whose
+ * numbers have the same highest bit -- a split point -- are reserved together
+ * when the first of them is added, after the overflow pages allocated so
+ * far. The number of overflow pages allocated before each split point is
+ * kept, so that the page of a bucket is found without reading any other:
+ * bucket b is on page 1 + b + spares[splitPoint(b)].
+ *
+ * @see HashFile
+ * @see BufferPool
+ */
+public class HashMetaPage implements Page {
+	// the most split points of a file, one for each bit of a bucket number
+	private static final int SPLIT_POINTS = 32;
+
+	private boolean dirty = false;
+	private TransactionId dirtier = null;
+
+	private final HashPageId pid;
+
+	private int maxBucket;
+	private int overflowCount;
+	private int freeList;
+	private final int[] spares = new int[SPLIT_POINTS];
+
+	private byte[] oldData;
+
+	/**
+	 * Constructor.
+	 * Construct the HashMetaPage from a set of bytes of data read from disk.
+	 * The format of a HashMetaPage is an integer for the number of the last
+	 * bucket, an integer for the number of overflow pages allocated, an
+	 * integer for the page number of the first free overflow page, then an
+	 * integer for each split point: the number of overflow pages allocated
+	 * before its buckets were. A page of zeroes is the meta page of an empty
+	 * file, with a single bucket on page 1.
+	 */
+	public HashMetaPage(HashPageId id, byte[] data) throws IOException {
+		this.pid = id;
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+
+		maxBucket = dis.readInt();
+		overflowCount = dis.readInt();
+		freeList = dis.readInt();
+		for (int i = 0; i < spares.length; i++)
+			spares[i] = dis.readInt();
+
+		setBeforeImage();
+	}
+
+	public void setBeforeImage() {
+		oldData = getPageData().clone();
+	}
+
+	/**
+	 * @return the PageId associated with this page.
+	 */
+	public HashPageId getId() {
+		return pid;
+	}
+
+	/**
+	 * There is only one instance of a HashMetaPage per table. This static
+	 * method is separate from getId() in order to maintain the Page interface
+	 * @param tableid - the tableid of this table
+	 * @return the meta page id for the given table
+	 */
+	public static HashPageId getId(int tableid) {
+		return new HashPageId(tableid, 0);
+	}
+
+	/**
+	 * Generates a byte array representing the contents of this meta page.
+	 * Used to serialize this meta page to disk.
+	 * The invariant here is that it should be possible to pass the byte array
+	 * generated by getPageData to the HashMetaPage constructor and have it
+	 * produce an identical HashMetaPage object.
+	 *
+	 * @return A byte array corresponding to the bytes of this meta page.
+	 */
+	public byte[] getPageData() {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			dos.writeInt(maxBucket);
+			dos.writeInt(overflowCount);
+			dos.writeInt(freeList);
+			for (int spare : spares)
+				dos.writeInt(spare);
+			dos.write(new byte[BufferPool.getPageSize() - 4 * (3 + spares.length)]);
+			dos.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Static method to generate a byte array corresponding to an empty
+	 * HashMetaPage, the meta page of a file with a single empty bucket.
+	 *
+	 * @return The returned ByteArray.
+	 */
+	public static byte[] createEmptyPageData() {
+		return new byte[BufferPool.getPageSize()]; //all 0
+	}
+
+	public void markDirty(boolean dirty, TransactionId tid) {
+		this.dirty = dirty;
+		if (dirty) this.dirtier = tid;
+	}
+
+	public TransactionId isDirty() {
+		if (this.dirty)
+			return this.dirtier;
+		else
+			return null;
+	}
+
+	/** Return a view of this page before it was modified
+        -- used by recovery */
+	public HashMetaPage getBeforeImage() {
+		try {
+			return new HashMetaPage(pid, oldData);
+		} catch (IOException e) {
+			e.printStackTrace();
+			//should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+
+	// the split point of a bucket: the number of bits of its number
+	private static int splitPoint(int bucket) {
+		return Integer.SIZE - Integer.numberOfLeadingZeros(bucket);
+	}
+
+	/**
+	 * @return the number of the last bucket; the buckets are numbered from 0
+	 */
+	public int getMaxBucket() {
+		return maxBucket;
+	}
+
+	/**
+	 * The bucket of a hash value: its low bits, as many as the number of the
+	 * last bucket has, or one bit fewer if that is past the last bucket, for
+	 * a bucket not split yet at this level.
+	 * @param hash - the hash value of a key
+	 * @return the number of the bucket keys with that hash value are in
+	 */
+	public int getBucket(int hash) {
+		int highMask = maxBucket == 0 ? 0 : (Integer.highestOneBit(maxBucket) << 1) - 1;
+		int bucket = hash & highMask;
+		return bucket <= maxBucket ? bucket : bucket & (highMask >>> 1);
+	}
+
+	/**
+	 * @param bucket - the number of a bucket
+	 * @return the page number of the first page of the bucket
+	 */
+	public int getBucketPageNo(int bucket) {
+		return 1 + bucket + spares[splitPoint(bucket)];
+	}
+
+	/**
+	 * Add a bucket after the last one, reserving the pages of the buckets
+	 * of its split point if it is the first of them. The caller moves the
+	 * tuples the new bucket takes from the bucket it splits,
+	 * {@link #getSplitBucket} before the call.
+	 * @return the page number of the first page of the new bucket
+	 */
+	public int addBucket() {
+		int bucket = ++maxBucket;
+		if (Integer.bitCount(bucket) == 1)
+			spares[splitPoint(bucket)] = overflowCount;
+		return getBucketPageNo(bucket);
+	}
+
+	/**
+	 * @return the number of the bucket split to add the next bucket: the
+	 * next bucket without its highest bit
+	 */
+	public int getSplitBucket() {
+		int bucket = maxBucket + 1;
+		return bucket & (Integer.highestOneBit(bucket) - 1);
+	}
+
+	/**
+	 * Allocate an overflow page after the pages reserved for buckets so far.
+	 * The page may be past the end of the file until it is written.
+	 * @return the page number of the new overflow page
+	 */
+	public int addOverflowPage() {
+		int reserved = maxBucket == 0 ? 1 : Integer.highestOneBit(maxBucket) << 1;
+		return 1 + reserved + overflowCount++;
+	}
+
+	/**
+	 * @return the page number of the first free overflow page, or 0 if none
+	 * is free; the free pages are chained through their next page pointers
+	 */
+	public int getFreeList() {
+		return freeList;
+	}
+
+	/**
+	 * Set the page number of the first free overflow page
+	 * @param pgNo - the page number, or 0 if none is free
+	 */
+	public void setFreeList(int pgNo) {
+		this.freeList = pgNo;
+	}
+}
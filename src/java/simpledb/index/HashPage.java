@@ -0,0 +1,292 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+
+/**
+ * Each instance of HashPage stores data for one page of a bucket of a
+ * {@link HashFile}: the first page of the bucket, or one of the overflow
+ * pages chained after it. It implements the Page interface that is used by
+ * BufferPool.
+ *
+ * @see HashFile
+ * @see BufferPool
+ */
+public class HashPage implements Page {
+
+	private boolean dirty = false;
+	private TransactionId dirtier = null;
+
+	private final HashPageId pid;
+	private final TupleDesc td;
+	private final int numSlots;
+
+	private int next;
+	private final byte[] header;
+	private final Tuple[] tuples;
+	private int numUsed;
+
+	private byte[] oldData;
+
+	/**
+	 * Create a HashPage from a set of bytes of data read from disk.
+	 * The format of a HashPage is an integer for the page number of the next
+	 * page of its bucket, or 0 for the last page, followed by a set of header
+	 * bytes indicating the slots of the page that are in use and the tuple
+	 * slots, as in a {@link HeapPage}. A page of zeroes is an empty page.
+	 *
+	 * @see Database#getCatalog
+	 * @see BufferPool#getPageSize()
+	 */
+	public HashPage(HashPageId id, byte[] data) throws IOException {
+		this.pid = id;
+		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+		this.numSlots = getMaxTuples(td);
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+
+		next = dis.readInt();
+		header = new byte[(numSlots + 7) / 8];
+		dis.readFully(header);
+		tuples = new Tuple[numSlots];
+		for (int i = 0; i < numSlots; i++) {
+			if (!isSlotUsed(i)) {
+				dis.skipBytes(td.getSize());
+				continue;
+			}
+			Tuple t = new Tuple(td);
+			try {
+				for (int j = 0; j < td.numFields(); j++)
+					t.setField(j, td.getFieldType(j).parse(dis));
+			} catch (ParseException e) {
+				throw new IOException("parsing error", e);
+			}
+			t.setRecordId(new RecordId(pid, i));
+			tuples[i] = t;
+			numUsed++;
+		}
+		dis.close();
+
+		setBeforeImage();
+	}
+
+	/**
+	 * @param td - the tuple descriptor of the tuples of the page
+	 * @return the number of tuples a page holds
+	 */
+	public static int getMaxTuples(TupleDesc td) {
+		return ((BufferPool.getPageSize() - 4) * 8) / (td.getSize() * 8 + 1);
+	}
+
+	public void setBeforeImage() {
+		oldData = getPageData().clone();
+	}
+
+	/**
+	 * @return the PageId associated with this page.
+	 */
+	public HashPageId getId() {
+		return pid;
+	}
+
+	/**
+	 * Generates a byte array representing the contents of this page.
+	 * Used to serialize this page to disk.
+	 * The invariant here is that it should be possible to pass the byte array
+	 * generated by getPageData to the HashPage constructor and have it
+	 * produce an identical HashPage object.
+	 *
+	 * @return A byte array corresponding to the bytes of this page.
+	 */
+	public byte[] getPageData() {
+		int len = BufferPool.getPageSize();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			dos.writeInt(next);
+			dos.write(header);
+			byte[] empty = new byte[td.getSize()];
+			for (int i = 0; i < numSlots; i++) {
+				if (!isSlotUsed(i)) {
+					dos.write(empty);
+					continue;
+				}
+				for (int j = 0; j < td.numFields(); j++)
+					tuples[i].getField(j).serialize(dos);
+			}
+			dos.write(new byte[len - 4 - header.length - numSlots * td.getSize()]);
+			dos.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Static method to generate a byte array corresponding to an empty
+	 * HashPage, the last page of its bucket.
+	 *
+	 * @return The returned ByteArray.
+	 */
+	public static byte[] createEmptyPageData() {
+		return new byte[BufferPool.getPageSize()]; //all 0
+	}
+
+	public void markDirty(boolean dirty, TransactionId tid) {
+		this.dirty = dirty;
+		if (dirty) this.dirtier = tid;
+	}
+
+	public TransactionId isDirty() {
+		if (this.dirty)
+			return this.dirtier;
+		else
+			return null;
+	}
+
+	/** Return a view of this page before it was modified
+        -- used by recovery */
+	public HashPage getBeforeImage() {
+		try {
+			return new HashPage(pid, oldData);
+		} catch (IOException e) {
+			e.printStackTrace();
+			//should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+
+	/**
+	 * @return the page number of the next page of the bucket, or 0 if this
+	 * is the last
+	 */
+	public int getNextPageNo() {
+		return next;
+	}
+
+	/**
+	 * Set the page number of the next page of the bucket
+	 * @param pgNo - the page number, or 0 if this is the last page
+	 */
+	public void setNextPageNo(int pgNo) {
+		this.next = pgNo;
+	}
+
+	/**
+	 * Remove all the tuples from the page and make it the last of its bucket,
+	 * for a page taken for a new bucket or overflow page.
+	 */
+	public void clear() {
+		next = 0;
+		for (int i = 0; i < numSlots; i++)
+			tuples[i] = null;
+		Arrays.fill(header, (byte) 0);
+		numUsed = 0;
+	}
+
+	/**
+	 * Adds the specified tuple to the page; the tuple is updated to reflect
+	 * that it is now stored on this page.
+	 * @throws DbException if the page is full or the tupledesc is mismatched.
+	 * @param t The tuple to add.
+	 */
+	public void insertTuple(Tuple t) throws DbException {
+		if (numUsed == numSlots)
+			throw new DbException("called insertTuple on page with no empty slots.");
+		if (!t.getTupleDesc().equals(td))
+			throw new DbException("type mismatch, in addTuple");
+		int i = 0;
+		while (isSlotUsed(i))
+			i++;
+		markSlotUsed(i, true);
+		tuples[i] = t;
+		numUsed++;
+		t.setRecordId(new RecordId(pid, i));
+	}
+
+	/**
+	 * Delete the specified tuple from the page.
+	 * @throws DbException if this tuple is not on this page: its record id is
+	 *         for another page or an empty slot, or the slot holds another
+	 *         tuple, since tuples move when their bucket splits.
+	 * @param t The tuple to delete
+	 */
+	public void deleteTuple(Tuple t) throws DbException {
+		RecordId rid = t.getRecordId();
+		if (rid == null || !pid.equals(rid.getPageId()))
+			throw new DbException("tried to delete tuple on invalid page or table");
+		int i = rid.getTupleNumber();
+		if (i < 0 || i >= numSlots || !isSlotUsed(i) || !sameFields(tuples[i], t))
+			throw new DbException("tried to delete a tuple not on this page");
+		markSlotUsed(i, false);
+		tuples[i] = null;
+		numUsed--;
+	}
+
+	// true if two tuples have equal fields
+	private boolean sameFields(Tuple a, Tuple b) {
+		for (int j = 0; j < td.numFields(); j++)
+			if (!a.getField(j).equals(b.getField(j)))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Returns the tuple in the specified slot, or null if the slot is empty.
+	 * @param i The slot of the tuple, as in its RecordId
+	 */
+	public Tuple getTuple(int i) {
+		if (i < 0 || i >= numSlots || !isSlotUsed(i)) return null;
+		return tuples[i];
+	}
+
+	/**
+	 * Returns the number of empty slots on this page.
+	 */
+	public int getNumEmptySlots() {
+		return numSlots - numUsed;
+	}
+
+	/**
+	 * Returns the number of tuples on this page.
+	 */
+	public int getNumTuples() {
+		return numUsed;
+	}
+
+	/**
+	 * Returns true if associated slot on this page is filled.
+	 */
+	public boolean isSlotUsed(int i) {
+		return (header[i / 8] & (1 << (i % 8))) != 0;
+	}
+
+	// fill or clear a slot on this page
+	private void markSlotUsed(int i, boolean value) {
+		if (value)
+			header[i / 8] |= (byte) (1 << (i % 8));
+		else
+			header[i / 8] &= (byte) ~(1 << (i % 8));
+	}
+
+	/**
+	 * @return an iterator over all tuples on this page (calling remove on this
+	 * iterator throws an UnsupportedOperationException)
+	 */
+	public Iterator<Tuple> iterator() {
+		ArrayList<Tuple> al = new ArrayList<>(numUsed);
+		for (int i = 0; i < numSlots; i++)
+			if (isSlotUsed(i))
+				al.add(tuples[i]);
+		return Collections.unmodifiableList(al).iterator();
+	}
+}
@@ -0,0 +1,212 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * IndexFetch is an operator which reads the tuples of a heap file matching a
+ * predicate on a field with a {@link SecondaryIndex}. The record ids of the
+ * matching entries are read from the index first and sorted by page, so that
+ * each page of the table is read once, in file order, however the matching
+ * tuples are spread over the table. The record ids are read when the first
+ * tuple is asked for, and read again after the predicate is changed with
+ * {@link #setIndexPredicate}, which is how an index nested loops join probes
+ * the index once per outer tuple.
+ */
+public class IndexFetch implements OpIterator {
+
+	private static final long serialVersionUID = 1L;
+
+	private final TransactionId tid;
+	private final SecondaryIndex index;
+	private IndexPredicate ipred;
+	private final String tablename;
+	private final String alias;
+	private final TupleDesc myTd;
+	private boolean isOpen = false;
+
+	// the record ids of the matching tuples in file order, each as its page
+	// number in the upper half of a long and its slot in the lower half
+	private long[] rids;
+	private int pos;
+	private transient HeapPage page;
+	private Tuple next;
+
+	/**
+	 * Creates an index fetch over the table of the specified index as a part
+	 * of the specified transaction.
+	 *
+	 * @param tid
+	 *            The transaction this fetch is running as a part of.
+	 * @param index
+	 *            the index to read the record ids of the matching tuples from
+	 * @param tableAlias
+	 *            the alias of the table; the returned tupleDesc has fields
+	 *            with name tableAlias.fieldName
+	 * @param ipred
+	 *            The predicate on the indexed field to match, or null to
+	 *            read every tuple of the table
+	 */
+	public IndexFetch(TransactionId tid, SecondaryIndex index, String tableAlias, IndexPredicate ipred) {
+		this.tid = tid;
+		this.index = index;
+		this.ipred = ipred;
+		this.alias = tableAlias;
+		this.tablename = Database.getCatalog().getTableName(index.getTableId());
+		TupleDesc td = Database.getCatalog().getTupleDesc(index.getTableId());
+		String[] newNames = new String[td.numFields()];
+		Type[] newTypes = new Type[td.numFields()];
+		for (int i = 0; i < td.numFields(); i++) {
+			newNames[i] = tableAlias + "." + td.getFieldName(i);
+			newTypes[i] = td.getFieldType(i);
+		}
+		this.myTd = new TupleDesc(newTypes, newNames);
+	}
+
+	/**
+	 * @return the name of the table the operator reads
+	 */
+	public String getTableName() {
+		return this.tablename;
+	}
+
+	/**
+	 * @return the alias of the table the operator reads
+	 */
+	public String getAlias() {
+		return this.alias;
+	}
+
+	/**
+	 * @return the index the record ids are read from
+	 */
+	public SecondaryIndex getIndex() {
+		return this.index;
+	}
+
+	/**
+	 * @return the predicate on the indexed field the tuples match, or null
+	 */
+	public IndexPredicate getIndexPredicate() {
+		return this.ipred;
+	}
+
+	/**
+	 * Match a different predicate on the indexed field. The record ids of the
+	 * tuples matching it are read when the next tuple is asked for, after the
+	 * operator, and those above it, are rewound.
+	 *
+	 * @param ipred
+	 *            The predicate on the indexed field to match
+	 */
+	public void setIndexPredicate(IndexPredicate ipred) {
+		this.ipred = ipred;
+		rids = null;
+	}
+
+	public void open() throws DbException, TransactionAbortedException {
+		if (isOpen)
+			throw new DbException("double open on one OpIterator.");
+		rids = null;
+		pos = 0;
+		isOpen = true;
+	}
+
+	// read the record ids of the tuples matching the predicate, in file order
+	private void readRids() throws DbException, TransactionAbortedException {
+		long[] buf = new long[64];
+		int n = 0;
+		DbFileIterator it = index.indexIterator(tid, ipred);
+		it.open();
+		while (it.hasNext()) {
+			Tuple e = it.next();
+			if (n == buf.length)
+				buf = Arrays.copyOf(buf, 2 * n);
+			buf[n++] = ((long) ((IntField) e.getField(1)).getValue() << 32)
+					| ((IntField) e.getField(2)).getValue();
+		}
+		it.close();
+		rids = Arrays.copyOf(buf, n);
+		Arrays.sort(rids);
+		pos = 0;
+	}
+
+	// the next tuple of the table still matching the predicate: a slot may
+	// have been emptied or reused by this transaction since it was indexed
+	private Tuple fetchNext() throws DbException, TransactionAbortedException {
+		if (rids == null)
+			readRids();
+		while (pos < rids.length) {
+			int pgNo = (int) (rids[pos] >>> 32);
+			int slot = (int) rids[pos];
+			pos++;
+			if (page == null || page.getId().getPageNumber() != pgNo)
+				page = (HeapPage) Database.getBufferPool().getPage(tid,
+						new HeapPageId(index.getTableId(), pgNo), Permissions.READ_ONLY);
+			Tuple t = page.getTuple(slot);
+			if (t != null && (ipred == null
+					|| t.getField(index.getField()).compare(ipred.getOp(), ipred.getField())))
+				return t;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the TupleDesc of the table, with field names prefixed with the
+	 * tableAlias string from the constructor.
+	 */
+	public TupleDesc getTupleDesc() {
+		return myTd;
+	}
+
+	public boolean hasNext() throws TransactionAbortedException, DbException {
+		if (!isOpen)
+			throw new IllegalStateException("iterator is closed");
+		if (next == null)
+			next = fetchNext();
+		return next != null;
+	}
+
+	public Tuple next() throws NoSuchElementException,
+	TransactionAbortedException, DbException {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		Tuple t = next;
+		next = null;
+		return t;
+	}
+
+	public void close() {
+		rids = null;
+		page = null;
+		next = null;
+		isOpen = false;
+	}
+
+	/**
+	 * Start over from the first of the record ids read for the predicate.
+	 */
+	public void rewind() throws DbException, NoSuchElementException,
+	TransactionAbortedException {
+		if (!isOpen)
+			throw new IllegalStateException("iterator is closed");
+		pos = 0;
+		page = null;
+		next = null;
+	}
+}
@@ -0,0 +1,160 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.NoSuchElementException;
+
+/**
+ * IndexOnlyScan is an operator which reads the indexed field and the
+ * included fields of the tuples of a heap file from the entries of a
+ * {@link SecondaryIndex} alone, without reading any page of the table: all
+ * the entries, or those matching a predicate on the indexed field. Its
+ * tuples hold those fields only, the indexed field first, and have no
+ * record id.
+ *
+ * @see SecondaryIndex#getIncluded()
+ */
+public class IndexOnlyScan implements OpIterator {
+
+	private static final long serialVersionUID = 1L;
+
+	private final TransactionId tid;
+	private final SecondaryIndex index;
+	private final IndexPredicate ipred;
+	private final String tablename;
+	private final String alias;
+	private final TupleDesc myTd;
+	private transient DbFileIterator it;
+	private boolean isOpen = false;
+
+	/**
+	 * Creates an index-only scan over the entries of the specified index as
+	 * a part of the specified transaction.
+	 *
+	 * @param tid
+	 *            The transaction this scan is running as a part of.
+	 * @param index
+	 *            the index to read the entries of
+	 * @param tableAlias
+	 *            the alias of the table; the returned tupleDesc has fields
+	 *            with name tableAlias.fieldName
+	 * @param ipred
+	 *            The predicate on the indexed field to match, or null to
+	 *            read all the entries
+	 */
+	public IndexOnlyScan(TransactionId tid, SecondaryIndex index, String tableAlias, IndexPredicate ipred) {
+		this.tid = tid;
+		this.index = index;
+		this.ipred = ipred;
+		this.alias = tableAlias;
+		this.tablename = Database.getCatalog().getTableName(index.getTableId());
+		TupleDesc td = Database.getCatalog().getTupleDesc(index.getTableId());
+		int[] included = index.getIncluded();
+		String[] newNames = new String[1 + included.length];
+		Type[] newTypes = new Type[1 + included.length];
+		newNames[0] = tableAlias + "." + td.getFieldName(index.getField());
+		newTypes[0] = td.getFieldType(index.getField());
+		for (int i = 0; i < included.length; i++) {
+			newNames[1 + i] = tableAlias + "." + td.getFieldName(included[i]);
+			newTypes[1 + i] = td.getFieldType(included[i]);
+		}
+		this.myTd = new TupleDesc(newTypes, newNames);
+	}
+
+	/**
+	 * @return the name of the table the operator reads
+	 */
+	public String getTableName() {
+		return this.tablename;
+	}
+
+	/**
+	 * @return the alias of the table the operator reads
+	 */
+	public String getAlias() {
+		return this.alias;
+	}
+
+	/**
+	 * @return the index the entries are read from
+	 */
+	public SecondaryIndex getIndex() {
+		return this.index;
+	}
+
+	/**
+	 * @param field - the index of a field of the table
+	 * @return the position of the field in the tuples of the scan, or -1 if
+	 *         the index does not hold it
+	 */
+	public int fieldOf(int field) {
+		int e = index.entryField(field);
+		return e <= 0 ? e : e - 2;
+	}
+
+	/**
+	 * @return the predicate on the indexed field the tuples match, or null
+	 *         if the scan returns all of them
+	 */
+	public IndexPredicate getIndexPredicate() {
+		return this.ipred;
+	}
+
+	public void open() throws DbException, TransactionAbortedException {
+		if (isOpen)
+			throw new DbException("double open on one OpIterator.");
+		it = index.indexIterator(tid, ipred);
+		it.open();
+		isOpen = true;
+	}
+
+	/**
+	 * Returns the TupleDesc of the indexed field followed by the included
+	 * fields, with field names prefixed with the tableAlias string from the
+	 * constructor.
+	 */
+	public TupleDesc getTupleDesc() {
+		return myTd;
+	}
+
+	public boolean hasNext() throws TransactionAbortedException, DbException {
+		if (!isOpen)
+			throw new IllegalStateException("iterator is closed");
+		return it.hasNext();
+	}
+
+	public Tuple next() throws NoSuchElementException,
+	TransactionAbortedException, DbException {
+		if (!isOpen)
+			throw new IllegalStateException("iterator is closed");
+		Tuple e = it.next();
+		Tuple t = new Tuple(myTd);
+		t.setField(0, e.getField(0));
+		for (int i = 1; i < myTd.numFields(); i++)
+			t.setField(i, e.getField(2 + i));
+		return t;
+	}
+
+	public void close() {
+		if (it != null)
+			it.close();
+		it = null;
+		isOpen = false;
+	}
+
+	public void rewind() throws DbException, NoSuchElementException,
+	TransactionAbortedException {
+		if (!isOpen)
+			throw new IllegalStateException("iterator is closed");
+		it.rewind();
+	}
+}
@@ -0,0 +1,287 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A secondary index over one field of a {@link HeapFile}: a B+ tree whose
+ * leaves hold a (key, page number, slot) entry for every tuple of the table,
+ * pointing at the tuple by its {@link RecordId}, or a {@link HashFile} of the
+ * same entries, which finds the entries of one key faster but can not read a
+ * range of keys. A table can have any number of them, which
+ * {@link BufferPool#insertTuple} and {@link BufferPool#deleteTuple} keep up
+ * to date.
+ * <p>
+ * An index may include the values of other fields of the table in its
+ * entries, after the record id, so that a query reading only the indexed
+ * and included fields is answered from the index alone.
+ * <p>
+ * The file of the entries is registered with the
+ * {@link simpledb.common.Catalog} along with its table so that its pages can
+ * be read through the buffer pool, but it is not a table of its own.
+ *
+ * @see IndexFetch
+ * @see IndexOnlyScan
+ */
+public class SecondaryIndex {
+
+	private final int tableid;
+	private final int field;
+	private final int[] included;
+	private final DbFile file;
+
+	/**
+	 * Create a secondary index backed by a B+ tree file, which is empty or
+	 * missing for a new index.
+	 *
+	 * @param f - the file that stores the B+ tree of the index
+	 * @param tableid - the id of the heap file indexed
+	 * @param field - the index of the field indexed
+	 * @throws IOException if a new file can not be written
+	 */
+	public SecondaryIndex(File f, int tableid, int field) throws IOException {
+		this(f, tableid, field, false);
+	}
+
+	/**
+	 * Create a secondary index backed by a file, which is empty or missing
+	 * for a new index.
+	 *
+	 * @param f - the file that stores the entries of the index
+	 * @param tableid - the id of the heap file indexed
+	 * @param field - the index of the field indexed
+	 * @param hash - true for a hash file of the entries, false for a B+ tree
+	 * @throws IOException if a new file can not be written
+	 */
+	public SecondaryIndex(File f, int tableid, int field, boolean hash) throws IOException {
+		this(f, tableid, field, hash, new int[0]);
+	}
+
+	/**
+	 * Create a secondary index backed by a file, which is empty or missing
+	 * for a new index, with entries that include the values of other fields.
+	 *
+	 * @param f - the file that stores the entries of the index
+	 * @param tableid - the id of the heap file indexed
+	 * @param field - the index of the field indexed
+	 * @param hash - true for a hash file of the entries, false for a B+ tree
+	 * @param included - the indexes of the other fields whose values the
+	 *            entries hold, in order
+	 * @throws IOException if a new file can not be written
+	 */
+	public SecondaryIndex(File f, int tableid, int field, boolean hash, int[] included) throws IOException {
+		this.tableid = tableid;
+		this.field = field;
+		this.included = included.clone();
+		TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+		Type[] types = new Type[3 + included.length];
+		String[] names = new String[3 + included.length];
+		types[0] = td.getFieldType(field);
+		names[0] = td.getFieldName(field);
+		types[1] = types[2] = Type.INT_TYPE;
+		names[1] = "page";
+		names[2] = "slot";
+		for(int i = 0; i < included.length; i++) {
+			types[3 + i] = td.getFieldType(included[i]);
+			names[3 + i] = td.getFieldName(included[i]);
+		}
+		TupleDesc entryTd = new TupleDesc(types, names);
+		if(hash) {
+			// a new hash file needs no pages written
+			this.file = new HashFile(f, 0, entryTd);
+			return;
+		}
+		this.file = new BTreeFile(f, 0, entryTd);
+		if(f.length() == 0) {
+			// a tree of one empty leaf, which can be searched before any
+			// entry is inserted
+			try(FileOutputStream out = new FileOutputStream(f)) {
+				out.write(BTreeFileEncoder.convertToRootPtrPage(1, BTreePageId.LEAF, 0));
+				out.write(BTreeLeafPage.createEmptyPageData());
+			}
+		}
+	}
+
+	/**
+	 * @return the id of the table indexed
+	 */
+	public int getTableId() {
+		return tableid;
+	}
+
+	/**
+	 * @return the index of the field indexed
+	 */
+	public int getField() {
+		return field;
+	}
+
+	/**
+	 * @return the indexes of the fields whose values the entries include
+	 */
+	public int[] getIncluded() {
+		return included.clone();
+	}
+
+	/**
+	 * @param f - the index of a field of the table
+	 * @return the position of the value of the field in the entries: 0 for
+	 *         the indexed field, after the record id for an included field,
+	 *         or -1 if the entries do not hold it
+	 */
+	public int entryField(int f) {
+		if(f == field)
+			return 0;
+		for(int i = 0; i < included.length; i++)
+			if(included[i] == f)
+				return 3 + i;
+		return -1;
+	}
+
+	/**
+	 * @return the B+ tree or hash file of (key, page number, slot) entries,
+	 *         followed by the values of the included fields
+	 */
+	public DbFile getFile() {
+		return file;
+	}
+
+	/**
+	 * @return true if the entries are in a hash file rather than a B+ tree
+	 */
+	public boolean isHash() {
+		return file instanceof HashFile;
+	}
+
+	/**
+	 * @param op - the operator of a predicate on the indexed field
+	 * @return true if the index finds the entries matching the predicate
+	 *         without reading all of them: any predicate but inequality for a
+	 *         B+ tree, equality only for a hash file
+	 */
+	public boolean supports(Op op) {
+		if(isHash())
+			return op == Op.EQUALS;
+		return op != Op.NOT_EQUALS && op != Op.LIKE;
+	}
+
+	/**
+	 * Get the entries matching a predicate on their key.
+	 *
+	 * @param tid - the transaction id
+	 * @param ipred - the predicate on the key, or null for all the entries
+	 * @return an iterator over the matching (key, page number, slot) entries
+	 */
+	public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+		if(ipred == null)
+			return file.iterator(tid);
+		if(isHash())
+			return ((HashFile) file).indexIterator(tid, ipred);
+		return ((BTreeFile) file).indexIterator(tid, ipred);
+	}
+
+	// the entry pointing at a tuple of the table
+	private Tuple entry(Tuple t) {
+		RecordId rid = t.getRecordId();
+		Tuple e = new Tuple(file.getTupleDesc());
+		e.setField(0, t.getField(field));
+		e.setField(1, new IntField(rid.getPageId().getPageNumber()));
+		e.setField(2, new IntField(rid.getTupleNumber()));
+		for(int i = 0; i < included.length; i++)
+			e.setField(3 + i, t.getField(included[i]));
+		return e;
+	}
+
+	/**
+	 * Add the entry of a tuple just inserted into the table.
+	 *
+	 * @param tid - the transaction id
+	 * @param t - the tuple, with the record id it was given
+	 * @return the pages of the index dirtied
+	 */
+	public List<Page> insertTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		return file.insertTuple(tid, entry(t));
+	}
+
+	/**
+	 * Remove the entry of a tuple about to be deleted from the table.
+	 *
+	 * @param tid - the transaction id
+	 * @param t - the tuple, with its record id
+	 * @return the pages of the index dirtied
+	 * @throws DbException if the index has no entry for the tuple
+	 */
+	public List<Page> deleteTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		RecordId rid = t.getRecordId();
+		int pgNo = rid.getPageId().getPageNumber();
+		int slot = rid.getTupleNumber();
+		Tuple found = null;
+		DbFileIterator it = indexIterator(tid, new IndexPredicate(Op.EQUALS, t.getField(field)));
+		it.open();
+		while(found == null && it.hasNext()) {
+			Tuple e = it.next();
+			if(((IntField) e.getField(1)).getValue() == pgNo && ((IntField) e.getField(2)).getValue() == slot)
+				found = e;
+		}
+		it.close();
+		if(found == null)
+			throw new DbException("no index entry for tuple " + rid);
+		return file.deleteTuple(tid, found);
+	}
+
+	/**
+	 * Fill the index from the tuples of its table, for an index added to a
+	 * table that already has some. The entries are sorted with bounded memory
+	 * and bulk loaded into the B+ tree, or loaded into the hash file as they
+	 * come; the file must not be in use yet.
+	 *
+	 * @see BTreeBulkLoader#sortAndLoad(DbFileIterator)
+	 * @see HashFile#load(DbFileIterator)
+	 */
+	public void build() throws DbException, IOException, TransactionAbortedException {
+		HeapFile table = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+		TransactionId tid = new TransactionId();
+		try {
+			DbFileIterator it = table.iterator(tid);
+			DbFileIterator entries = new AbstractDbFileIterator() {
+				public void open() throws DbException, TransactionAbortedException {
+					it.open();
+				}
+
+				public void rewind() throws DbException, TransactionAbortedException {
+					it.rewind();
+				}
+
+				protected Tuple readNext() throws DbException, TransactionAbortedException {
+					if(!it.hasNext())
+						return null;
+					return entry(it.next());
+				}
+
+				public void close() {
+					super.close();
+					it.close();
+				}
+			};
+			if(isHash())
+				((HashFile) file).load(entries);
+			else
+				new BTreeBulkLoader((BTreeFile) file).sortAndLoad(entries);
+		} finally {
+			Database.getBufferPool().transactionComplete(tid);
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package simpledb.optimizer;
+
+import simpledb.execution.Predicate;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * ColumnGroupStats summarizes the combined values of a group of columns of a
+ * table, so that equality predicates on all of them together can be
+ * estimated without assuming the columns are independent: the list of most
+ * common combinations and the number of distinct combinations of a
+ * {@link ColumnStats} over the tuples of values.
+ * <p>
+ * Where <tt>city</tt> determines <tt>zip</tt>, for instance, the selectivity
+ * of <tt>city = X AND zip = Y</tt> is about that of <tt>zip = Y</tt> alone,
+ * not the product of the two.
+ */
+public class ColumnGroupStats implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The values of the columns of a group in one tuple, ordered column by
+     * column.
+     */
+    static final class Key implements Comparable<Key>, Serializable {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final Object[] values;
+
+        Key(Object[] values) {
+            this.values = values;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public int compareTo(Key o) {
+            for (int i = 0; i < values.length; i++) {
+                int c = ((Comparable<Object>) values[i]).compareTo(o.values[i]);
+                if (c != 0)
+                    return c;
+            }
+            return 0;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(values, ((Key) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+
+        /** @return a well mixed 64-bit hash of all the values */
+        long hash() {
+            long h = 0;
+            for (Object v : values)
+                h = HyperLogLog.hash(h * 31 + (v instanceof String
+                        ? HyperLogLog.hash((String) v) : ((Number) v).longValue()));
+            return h;
+        }
+    }
+
+    private final int[] fields;
+    private final ColumnStats<Key> stats;
+
+    /**
+     * Create a new ColumnGroupStats.
+     *
+     * @param fields
+     *            The indexes of the columns of the group
+     * @param buckets
+     *            The number of buckets of the histogram of the combinations
+     * @param reservoirSize
+     *            The largest number of combinations kept to build it from
+     */
+    public ColumnGroupStats(int[] fields, int buckets, int reservoirSize) {
+        if (fields.length < 2)
+            throw new IllegalArgumentException("a column group needs two columns or more");
+        this.fields = fields.clone();
+        this.stats = new ColumnStats<>(buckets, reservoirSize);
+    }
+
+    /** @return the indexes of the columns of the group */
+    public int[] getFields() {
+        return fields.clone();
+    }
+
+    private Key key(Tuple t) {
+        Object[] values = new Object[fields.length];
+        for (int i = 0; i < fields.length; i++)
+            values[i] = value(t.getField(fields[i]));
+        return new Key(values);
+    }
+
+    private static Object value(Field f) {
+        if (f instanceof IntField)
+            return ((IntField) f).getValue();
+        return ((StringField) f).getValue();
+    }
+
+    /** See {@link ColumnStats#addValue}. */
+    public void addTuple(Tuple t) {
+        stats.addValue(key(t));
+    }
+
+    /** See {@link ColumnStats#removeValue}. */
+    public void removeTuple(Tuple t) {
+        stats.removeValue(key(t));
+    }
+
+    /** See {@link ColumnStats#addDistinct}. */
+    public void addDistinct(Tuple t) {
+        stats.addDistinct(key(t));
+    }
+
+    /** See {@link ColumnStats#build}. */
+    public void build(long rows) {
+        stats.build(rows);
+    }
+
+    /** @return the estimated number of distinct combinations of the group */
+    public double distinct() {
+        return stats.distinct();
+    }
+
+    /**
+     * Estimate the selectivity of equality predicates on every column of the
+     * group.
+     *
+     * @param constants
+     *            The values the columns are equal to, in the order of
+     *            {@link #getFields}
+     */
+    public double estimateEquality(Field[] constants) {
+        if (constants.length != fields.length)
+            throw new IllegalArgumentException("expected " + fields.length + " values");
+        Object[] values = new Object[constants.length];
+        for (int i = 0; i < constants.length; i++)
+            values[i] = value(constants[i]);
+        return stats.estimateSelectivity(Predicate.Op.EQUALS, new Key(values));
+    }
+}
@@ -0,0 +1,455 @@
+package simpledb.optimizer;
+
+import simpledb.execution.Predicate;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * ColumnStats summarizes the values of one column of a table for selectivity
+ * estimation, as
+ * <ul>
+ * <li>a list of its most common values (MCVs), with their frequencies,</li>
+ * <li>an equi-depth histogram of the other values, each bucket holding about
+ * as many values, and the number of distinct values in each, and</li>
+ * <li>an estimate of the number of distinct values of the column, from a
+ * {@link HyperLogLog} sketch of all the values read or, if only a sample of
+ * the table was read, from the sample.</li>
+ * </ul>
+ * Values are compared whole, so strings sharing a long prefix are told
+ * apart.
+ * <p>
+ * The statistics are built in two phases. While the table is read, values
+ * added with {@link #addValue} are sketched and kept in a reservoir sample of
+ * bounded size; {@link #build} then summarizes the sample. Values added or
+ * removed after that update the frequencies of the MCVs and buckets in
+ * place.
+ */
+public class ColumnStats<T extends Comparable<T>> implements Histogram<T>, Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    /** The largest number of most common values kept. */
+    static final int MAX_MCVS = 32;
+
+    private final int buckets;
+    private final int reservoirSize;
+
+    // while reading the table
+    private List<T> reservoir = new ArrayList<>();
+    private transient Random random;
+    private long seen;
+
+    private final HyperLogLog sketch = new HyperLogLog();
+    private double sketchEstimate;
+    private boolean sketchDirty = true;
+
+    // once built; the MCVs are in increasing order, and so are the buckets,
+    // which hold values lo[b] to hi[b]
+    private boolean built;
+    private T[] mcvs;
+    private int[] mcvCounts;
+    private T[] lo, hi;
+    private int[] counts;
+    private int[] distincts;
+    private int nbuckets;
+    private int total;
+    private int sampleDistinct;
+    private double distinctBase;
+    private double sketchBase;
+
+    /**
+     * Create a new ColumnStats.
+     *
+     * @param buckets
+     *            The number of buckets of the histogram
+     * @param reservoirSize
+     *            The largest number of values kept to build it from
+     */
+    public ColumnStats(int buckets, int reservoirSize) {
+        this.buckets = Math.max(1, buckets);
+        this.reservoirSize = Math.max(1, reservoirSize);
+    }
+
+    /**
+     * Add a value of the column. Before {@link #build}, every value read
+     * from the table; after, a value inserted into the table.
+     */
+    public void addValue(T v) {
+        if (!built) {
+            addDistinct(v);
+            seen++;
+            if (reservoir.size() < reservoirSize) {
+                reservoir.add(v);
+            } else {
+                if (random == null)
+                    random = new Random(reservoirSize);
+                long i = (long) (random.nextDouble() * seen);
+                if (i < reservoirSize)
+                    reservoir.set((int) i, v);
+            }
+            return;
+        }
+        total++;
+        int m = Arrays.binarySearch(mcvs, v);
+        if (m >= 0) {
+            mcvCounts[m]++;
+            return;
+        }
+        int b = bucket(v);
+        if ((b == nbuckets || (b == 0 && v.compareTo(lo[0]) < 0)) && nbuckets < 2 * buckets) {
+            // a new bucket for a value beyond the histogram, up to twice the
+            // buckets it was built with
+            newBucket(b, v);
+        } else if (b == nbuckets) {
+            b--;
+            hi[b] = v;
+            distincts[b]++;
+        } else if (v.compareTo(lo[b]) < 0) {
+            lo[b] = v;
+            distincts[b]++;
+        }
+        counts[b]++;
+    }
+
+    private void newBucket(int b, T v) {
+        if (nbuckets == lo.length) {
+            int capacity = Math.max(1, 2 * nbuckets);
+            lo = Arrays.copyOf(lo, capacity);
+            hi = Arrays.copyOf(hi, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            distincts = Arrays.copyOf(distincts, capacity);
+        }
+        System.arraycopy(lo, b, lo, b + 1, nbuckets - b);
+        System.arraycopy(hi, b, hi, b + 1, nbuckets - b);
+        System.arraycopy(counts, b, counts, b + 1, nbuckets - b);
+        System.arraycopy(distincts, b, distincts, b + 1, nbuckets - b);
+        lo[b] = hi[b] = v;
+        counts[b] = 0;
+        distincts[b] = 1;
+        nbuckets++;
+    }
+
+    /**
+     * Remove a value deleted from the table after {@link #build}.
+     */
+    public void removeValue(T v) {
+        if (!built)
+            throw new IllegalStateException("statistics not built yet");
+        int m = Arrays.binarySearch(mcvs, v);
+        if (m >= 0) {
+            if (mcvCounts[m] > 0) {
+                mcvCounts[m]--;
+                total--;
+            }
+            return;
+        }
+        int b = bucket(v);
+        if (b < nbuckets && v.compareTo(lo[b]) >= 0 && counts[b] > 0) {
+            counts[b]--;
+            total--;
+        }
+    }
+
+    /**
+     * Account for a value of the column in the number of distinct values,
+     * without adding it to the frequencies. Every value inserted into the
+     * table is passed here, while only a sample of them may be added.
+     */
+    public void addDistinct(T v) {
+        if (v instanceof ColumnGroupStats.Key)
+            sketch.add(((ColumnGroupStats.Key) v).hash());
+        else
+            sketch.add(v instanceof String ? HyperLogLog.hash((String) v)
+                    : HyperLogLog.hash(((Number) v).longValue()));
+        sketchDirty = true;
+    }
+
+    private double sketchEstimate() {
+        if (sketchDirty) {
+            sketchEstimate = sketch.estimate();
+            sketchDirty = false;
+        }
+        return sketchEstimate;
+    }
+
+    // the first bucket whose highest value is at least v, or nbuckets
+    private int bucket(T v) {
+        int l = 0, h = nbuckets;
+        while (l < h) {
+            int mid = (l + h) >>> 1;
+            if (hi[mid].compareTo(v) < 0)
+                l = mid + 1;
+            else
+                h = mid;
+        }
+        return l;
+    }
+
+    /**
+     * Summarize the values added so far.
+     *
+     * @param rows
+     *            The estimated number of rows of the table, of which the
+     *            values added may be a sample
+     */
+    @SuppressWarnings("unchecked")
+    public void build(long rows) {
+        List<T> sample = reservoir;
+        sample.sort(null);
+        int n = sample.size();
+
+        // the runs of equal values
+        List<T> values = new ArrayList<>();
+        List<Integer> runs = new ArrayList<>();
+        int singletons = 0;
+        for (int i = 0; i < n;) {
+            int j = i + 1;
+            while (j < n && sample.get(j).compareTo(sample.get(i)) == 0)
+                j++;
+            values.add(sample.get(i));
+            runs.add(j - i);
+            if (j - i == 1)
+                singletons++;
+            i = j;
+        }
+        int d = values.size();
+
+        // the most common values are those repeated and more than a quarter
+        // more frequent than the average value
+        Integer[] order = new Integer[d];
+        for (int i = 0; i < d; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> runs.get(b) - runs.get(a));
+        boolean[] common = new boolean[d];
+        int k = 0;
+        for (int i = 0; i < d && k < MAX_MCVS; i++) {
+            int c = runs.get(order[i]);
+            if (c < 2 || c * (double) d <= 1.25 * n)
+                break;
+            common[order[i]] = true;
+            k++;
+        }
+        mcvs = (T[]) new Comparable<?>[k];
+        mcvCounts = new int[k];
+        List<Integer> rest = new ArrayList<>();
+        int restValues = 0;
+        for (int i = 0, m = 0; i < d; i++) {
+            if (common[i]) {
+                mcvs[m] = values.get(i);
+                mcvCounts[m++] = runs.get(i);
+            } else {
+                rest.add(i);
+                restValues += runs.get(i);
+            }
+        }
+
+        // equi-depth buckets of the other values, never splitting a value
+        int nb = Math.min(buckets, rest.size());
+        lo = (T[]) new Comparable<?>[nb];
+        hi = (T[]) new Comparable<?>[nb];
+        counts = new int[nb];
+        distincts = new int[nb];
+        nbuckets = 0;
+        int r = 0, filled = 0;
+        for (int b = 0; b < nb && r < rest.size(); b++) {
+            long target = (long) restValues * (b + 1) / nb;
+            lo[nbuckets] = values.get(rest.get(r));
+            do {
+                counts[nbuckets] += runs.get(rest.get(r));
+                distincts[nbuckets]++;
+                filled += runs.get(rest.get(r));
+                r++;
+            } while (r < rest.size() && filled < target);
+            hi[nbuckets] = values.get(rest.get(r - 1));
+            nbuckets++;
+        }
+        total = n;
+
+        // the number of distinct values: exact if every row is in the
+        // reservoir, up to the sketch's error if every row was read, else
+        // scaled up from the sample with the Duj1 estimator of Haas and Stokes
+        sampleDistinct = d;
+        if (n == seen && seen >= rows) {
+            distinctBase = d;
+        } else if (seen >= rows || n == 0) {
+            distinctBase = Math.max(d, sketchEstimate());
+        } else {
+            double est = (double) n * d / (n - singletons + singletons * (double) n / rows);
+            distinctBase = Math.max(d, Math.min(rows, est));
+        }
+        sketchBase = sketchEstimate();
+        reservoir = null;
+        built = true;
+    }
+
+    /** @return the estimated number of distinct values of the column */
+    public double distinct() {
+        // values new to the sketch since the statistics were built
+        return distinctBase + Math.max(0, sketchEstimate() - sketchBase);
+    }
+
+    // the fraction of the values equal to v
+    private double equal(T v) {
+        int m = Arrays.binarySearch(mcvs, v);
+        if (m >= 0)
+            return (double) mcvCounts[m] / total;
+        int b = bucket(v);
+        if (b == nbuckets || v.compareTo(lo[b]) < 0 || distincts[b] == 0)
+            return 0;
+        // the sample misses values of a sampled table; spread the bucket
+        // over as many more as there are overall
+        double scale = Math.max(1, distinct() / Math.max(1, sampleDistinct));
+        return counts[b] / (distincts[b] * scale) / total;
+    }
+
+    // the fraction of the values less than v
+    private double less(T v) {
+        int less = 0;
+        for (int m = 0; m < mcvs.length && mcvs[m].compareTo(v) < 0; m++)
+            less += mcvCounts[m];
+        int b = bucket(v);
+        for (int i = 0; i < b; i++)
+            less += counts[i];
+        double f = less;
+        if (b < nbuckets)
+            f += counts[b] * position(lo[b], hi[b], v);
+        return f / total;
+    }
+
+    // the fraction of the values of a bucket from lo to hi that are less
+    // than v, assuming they are spread evenly
+    private double position(T lo, T hi, T v) {
+        if (v.compareTo(lo) <= 0)
+            return 0;
+        if (v.compareTo(hi) > 0)
+            return 1;
+        if (v instanceof Integer) {
+            long l = (Integer) lo, h = (Integer) hi;
+            return ((Integer) v - l) / (double) (h - l + 1);
+        }
+        if (!(v instanceof String))
+            return 0.5;
+        String l = (String) lo, h = (String) hi, s = (String) v;
+        int prefix = 0;
+        while (prefix < l.length() && prefix < h.length() && l.charAt(prefix) == h.charAt(prefix))
+            prefix++;
+        double dl = fraction(l, prefix), dh = fraction(h, prefix), ds = fraction(s, prefix);
+        return dh > dl ? Math.max(0, Math.min(1, (ds - dl) / (dh - dl))) : 0.5;
+    }
+
+    // the three characters of s from offset on, as a fraction
+    private static double fraction(String s, int offset) {
+        double f = 0, scale = 1;
+        for (int i = offset; i < offset + 3; i++) {
+            scale /= 65536;
+            if (i < s.length())
+                f += s.charAt(i) * scale;
+        }
+        return f;
+    }
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on the
+     * column.
+     */
+    public double estimateSelectivity(Predicate.Op op, T v) {
+        if (!built)
+            throw new IllegalStateException("statistics not built yet");
+        if (total <= 0)
+            return 0;
+        double result;
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            result = equal(v);
+            break;
+        case NOT_EQUALS:
+            result = 1 - equal(v);
+            break;
+        case LESS_THAN:
+            result = less(v);
+            break;
+        case LESS_THAN_OR_EQ:
+            result = less(v) + equal(v);
+            break;
+        case GREATER_THAN:
+            result = 1 - less(v) - equal(v);
+            break;
+        case GREATER_THAN_OR_EQ:
+            result = 1 - less(v);
+            break;
+        default:
+            return -1.0;
+        }
+        return Math.max(0, Math.min(1, result));
+    }
+
+    /**
+     * @return the average selectivity of an equality predicate on the column
+     */
+    public double avgSelectivity() {
+        return 1.0 / Math.max(1, distinct());
+    }
+
+    /**
+     * Estimate the selectivity of an equi-join of two columns, the fraction
+     * of the pairs of their rows that join, matching their most common values
+     * with each other and spreading the rest evenly over their other
+     * distinct values, as PostgreSQL does.
+     *
+     * @return the selectivity, or NaN if the columns hold values of
+     *         different types
+     */
+    public static double equiJoinSelectivity(ColumnStats<?> a, ColumnStats<?> b) {
+        if (!a.built || !b.built)
+            throw new IllegalStateException("statistics not built yet");
+        if (a.total <= 0 || b.total <= 0)
+            return 0;
+        if (a.mcvs.length > 0 && b.mcvs.length > 0
+                && a.mcvs[0].getClass() != b.mcvs[0].getClass())
+            return Double.NaN;
+        double matchProduct = 0, matchA = 0, matchB = 0, mcvA = 0, mcvB = 0;
+        int matches = 0;
+        for (int i = 0; i < a.mcvs.length; i++)
+            mcvA += (double) a.mcvCounts[i] / a.total;
+        for (int j = 0; j < b.mcvs.length; j++)
+            mcvB += (double) b.mcvCounts[j] / b.total;
+        for (int i = 0, j = 0; i < a.mcvs.length && j < b.mcvs.length;) {
+            @SuppressWarnings("unchecked")
+            int c = ((Comparable<Object>) a.mcvs[i]).compareTo(b.mcvs[j]);
+            if (c < 0) {
+                i++;
+            } else if (c > 0) {
+                j++;
+            } else {
+                double fa = (double) a.mcvCounts[i] / a.total;
+                double fb = (double) b.mcvCounts[j] / b.total;
+                matchProduct += fa * fb;
+                matchA += fa;
+                matchB += fb;
+                matches++;
+                i++;
+                j++;
+            }
+        }
+        double otherA = Math.max(0, 1 - mcvA), otherB = Math.max(0, 1 - mcvB);
+        double unmatchedA = mcvA - matchA, unmatchedB = mcvB - matchB;
+        double da = a.distinct(), db = b.distinct();
+        double selA = matchProduct, selB = matchProduct;
+        if (db > b.mcvs.length)
+            selA += unmatchedA * otherB / (db - b.mcvs.length);
+        if (db > matches)
+            selA += otherA * (otherB + unmatchedB) / (db - matches);
+        if (da > a.mcvs.length)
+            selB += unmatchedB * otherA / (da - a.mcvs.length);
+        if (da > matches)
+            selB += otherB * (otherA + unmatchedA) / (da - matches);
+        return Math.min(selA, selB);
+    }
+}
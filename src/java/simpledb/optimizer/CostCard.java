@@ -4,7 +4,7 @@ import simpledb.optimizer.LogicalJoinNode;
 
 import java.util.List;
 
-/** Class returned by {@link JoinOptimizer#computeCostAndCardOfSubplan} specifying the
+/** Class specifying the
     cost and cardinality of the optimal plan represented by plan.
 */
 public class CostCard {
@@ -0,0 +1,43 @@
+package simpledb.optimizer;
+
+/**
+ * A CostModel estimates the cost of evaluating a join with each of the
+ * {@link JoinAlgorithm}s, so that the optimizer can choose an algorithm for
+ * each join as it orders them. Costs are in the units of
+ * {@link TableStats#estimateScanCost}, where applying a predicate to a pair
+ * of tuples costs about 1. Install one with
+ * {@link JoinOptimizer#setCostModel}.
+ */
+public interface CostModel {
+
+    /**
+     * Estimate the cost of a join.
+     *
+     * @param a
+     *            The algorithm the join is evaluated with
+     * @param j
+     *            The join being performed
+     * @param card1
+     *            Estimated cardinality of the outer input
+     * @param card2
+     *            Estimated cardinality of the inner input
+     * @param cost1
+     *            Estimated cost of producing the outer input once
+     * @param cost2
+     *            Estimated cost of producing the inner input once
+     * @param pages1
+     *            Estimated size of the outer input, in pages
+     * @param pages2
+     *            Estimated size of the inner input, in pages
+     * @param probe
+     *            Estimated cost of fetching the inner tuples matching one
+     *            outer tuple through the cheapest secondary index on the join
+     *            field of the inner input, or {@link Double#POSITIVE_INFINITY}
+     *            if the inner input is not a table with such an index
+     * @return the estimated cost, or {@link Double#POSITIVE_INFINITY} if a
+     *         cannot evaluate the predicate of j
+     */
+    double estimateJoinCost(JoinAlgorithm a, LogicalJoinNode j, int card1,
+            int card2, double cost1, double cost2, int pages1, int pages2,
+            double probe);
+}
@@ -0,0 +1,64 @@
+package simpledb.optimizer;
+
+import simpledb.execution.BlockNestedLoopJoin;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.Predicate;
+import simpledb.storage.BufferPool;
+
+/**
+ * The cost model of the join operators in simpledb.execution. An input that
+ * is scanned again costs as much as the first time, since the operators
+ * do not materialize their inputs:
+ * <ul>
+ * <li>a nested loops join produces the inner input once per outer tuple;</li>
+ * <li>a block nested loops join produces it once per block of outer tuples,
+ * where a block fills all but two pages of the buffer pool;</li>
+ * <li>a hash join builds hash tables of {@link HashEquiJoin#MAP_SIZE} outer
+ * tuples, and produces the inner input once per hash table to probe it;</li>
+ * <li>a sort-merge join produces both inputs once, sorts them in memory and
+ * merges them; a range predicate outputs about a third of all pairs.</li>
+ * <li>an index nested loops join probes the index of the inner table once
+ * per outer tuple, and never produces the inner input.</li>
+ * </ul>
+ */
+public class DefaultCostModel implements CostModel {
+
+    public double estimateJoinCost(JoinAlgorithm a, LogicalJoinNode j, int card1,
+            int card2, double cost1, double cost2, int pages1, int pages2,
+            double probe) {
+        if (!a.supports(j.p))
+            return Double.POSITIVE_INFINITY;
+        double pairs = (double) card1 * card2;
+        switch (a) {
+        case NESTED_LOOPS:
+            return cost1 + card1 * cost2 + pairs;
+        case BLOCK_NESTED_LOOPS:
+            return cost1 + blocks(pages1) * cost2 + pairs;
+        case HASH: {
+            double tables = Math.max(1, Math.ceil(card1 / (double) HashEquiJoin.MAP_SIZE));
+            return cost1 + tables * cost2 + card1 + tables * card2;
+        }
+        case SORT_MERGE: {
+            double merge = j.p == Predicate.Op.EQUALS ? card1 + card2 : pairs / 3;
+            return cost1 + cost2 + sort(card1) + sort(card2) + merge;
+        }
+        case INDEX_NESTED_LOOPS:
+            return probe == Double.POSITIVE_INFINITY ? probe : cost1 + card1 * probe;
+        default:
+            throw new IllegalArgumentException("Unknown join algorithm " + a);
+        }
+    }
+
+    /**
+     * @return the number of blocks a {@link BlockNestedLoopJoin} reads an
+     *         outer input of the specified number of pages in
+     */
+    private static double blocks(int pages) {
+        int blockPages = Math.max(1, BufferPool.getNumPages() - 2);
+        return Math.max(1, Math.ceil(pages / (double) blockPages));
+    }
+
+    private static double sort(int card) {
+        return card < 2 ? card : card * (Math.log(card) / Math.log(2));
+    }
+}
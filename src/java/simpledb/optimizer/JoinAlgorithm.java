@@ -0,0 +1,42 @@
+package simpledb.optimizer;
+
+import simpledb.execution.Predicate;
+
+/**
+ * The physical algorithms a join may be evaluated with. The optimizer picks
+ * one for each join, see {@link JoinOptimizer#orderJoins}, and
+ * {@link JoinOptimizer#instantiateJoin} builds the operator for it.
+ */
+public enum JoinAlgorithm {
+    /** {@link simpledb.execution.Join}: the inner input is rescanned for every outer tuple */
+    NESTED_LOOPS,
+    /** {@link simpledb.execution.BlockNestedLoopJoin}: the inner input is rescanned for every block of outer tuples */
+    BLOCK_NESTED_LOOPS,
+    /** {@link simpledb.execution.HashEquiJoin}: the inner input is rescanned for every hash table of outer tuples */
+    HASH,
+    /** {@link simpledb.execution.SortMergeJoin}: both inputs are read once and sorted */
+    SORT_MERGE,
+    /** {@link simpledb.execution.IndexNestedLoopJoin}: a secondary index on the join field of the inner table is probed for every outer tuple */
+    INDEX_NESTED_LOOPS;
+
+    /** @return true if this algorithm can evaluate a join predicate using op */
+    public boolean supports(Predicate.Op op) {
+        switch (this) {
+        case HASH:
+            return op == Predicate.Op.EQUALS;
+        case SORT_MERGE:
+        case INDEX_NESTED_LOOPS:
+            return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * @return the algorithm used for a join whose algorithm was not chosen by
+     *         the optimizer
+     */
+    public static JoinAlgorithm getDefault(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS ? HASH : NESTED_LOOPS;
+    }
+}
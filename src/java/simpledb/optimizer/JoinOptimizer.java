@@ -1,8 +1,11 @@
 package simpledb.optimizer;
 
 import simpledb.ParsingException;
+import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.execution.*;
+import simpledb.index.SecondaryIndex;
+import simpledb.storage.BufferPool;
 
 import javax.swing.*;
 import javax.swing.tree.DefaultMutableTreeNode;
@@ -45,6 +48,9 @@ public class JoinOptimizer {
      *            The left join node's child
      * @param plan2
      *            The right join node's child
+     * @return the join; an index nested loops join needs the index of the
+     *         inner table, which {@link LogicalPlan} builds it with, and is
+     *         evaluated as a nested loops join here
      */
     public static OpIterator instantiateJoin(LogicalJoinNode lj,
                                              OpIterator plan1, OpIterator plan2) throws ParsingException {
@@ -72,19 +78,22 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        if (lj.p == Predicate.Op.EQUALS) {
-
-            try {
-                // dynamically load HashEquiJoin -- if it doesn't exist, just
-                // fall back on regular join
-                Class<?> c = Class.forName("simpledb.execution.HashEquiJoin");
-                java.lang.reflect.Constructor<?> ct = c.getConstructors()[0];
-                j = (OpIterator) ct
-                        .newInstance(new Object[] { p, plan1, plan2 });
-            } catch (Exception e) {
-                j = new Join(p, plan1, plan2);
-            }
-        } else {
+        JoinAlgorithm a = lj.algorithm != null ? lj.algorithm
+                : JoinAlgorithm.getDefault(lj.p);
+        if (!a.supports(lj.p))
+            throw new ParsingException("Cannot evaluate " + lj.p + " with a "
+                    + a + " join");
+        switch (a) {
+        case BLOCK_NESTED_LOOPS:
+            j = new BlockNestedLoopJoin(p, plan1, plan2);
+            break;
+        case HASH:
+            j = new HashEquiJoin(p, plan1, plan2);
+            break;
+        case SORT_MERGE:
+            j = new SortMergeJoin(p, plan1, plan2);
+            break;
+        default:
             j = new Join(p, plan1, plan2);
         }
 
@@ -93,14 +102,11 @@ public class JoinOptimizer {
     }
 
     /**
-     * Estimate the cost of a join.
-     * 
-     * The cost of the join should be calculated based on the join algorithm (or
-     * algorithms) that you implemented for Lab 2. It should be a function of
-     * the amount of data that must be read over the course of the query, as
-     * well as the number of CPU operations performed by your join. Assume that
-     * the cost of a single predicate application is roughly 1.
-     * 
+     * Estimate the cost of a join, with the algorithm chosen for it or the
+     * default one for its predicate, using the installed {@link CostModel}.
+     * The sizes of the inputs in pages are estimated from the widths of the
+     * tables j joins, and an index nested loops join probes the indexes of
+     * the inner table with the statistics of {@link TableStats#getStatsMap}.
      * 
      * @param j
      *            A LogicalJoinNode representing the join operation being
@@ -125,16 +131,83 @@ public class JoinOptimizer {
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            double IOCost = cost1 + card1*cost2; // first have bug here, now fix, use 2hours
-            double CPUCost = card1*card2;
-            return IOCost + CPUCost;
+            JoinAlgorithm a = j.algorithm != null ? j.algorithm
+                    : JoinAlgorithm.getDefault(j.p);
+            double probe = Double.POSITIVE_INFINITY;
+            if (a == JoinAlgorithm.INDEX_NESTED_LOOPS) {
+                Map<String, TableStats> stats = TableStats.getStatsMap();
+                int card = estimateJoinCardinality(j, card1, card2,
+                        isPkey(j.t1Alias, j.f1PureName), isPkey(j.t2Alias, j.f2PureName), stats);
+                probe = estimateProbeCost(j, stats, probeSelectivity(card, card1, card2));
+            }
+            return costModel.estimateJoinCost(a, j, card1, card2, cost1, cost2,
+                    estimatePages(card1, tupleSize(j.t1Alias)),
+                    estimatePages(card2, tupleSize(j.t2Alias)), probe);
         }
     }
 
+    /**
+     * Estimate the cost of fetching the tuples of the inner table of a join
+     * matching one outer tuple, through the cheapest secondary index on its
+     * join field able to evaluate the predicate, with
+     * {@link TableStats#estimateIndexFetchCost} or
+     * {@link TableStats#estimateHashFetchCost}.
+     * 
+     * @param j
+     *            The join, whose inner table is probed
+     * @param stats
+     *            The table stats, referenced by table names, not alias
+     * @param selectivity
+     *            The share of the inner table matching an outer tuple
+     * @return the estimated cost, or {@link Double#POSITIVE_INFINITY} if the
+     *         inner table has no such index
+     */
+    private double estimateProbeCost(LogicalJoinNode j, Map<String, TableStats> stats,
+            double selectivity) {
+        Integer id = j instanceof LogicalSubplanJoinNode || j.t2Alias == null ? null
+                : p.getTableId(j.t2Alias);
+        TableStats s = id == null ? null : stats.get(Database.getCatalog().getTableName(id));
+        if (s == null)
+            return Double.POSITIVE_INFINITY;
+        int field;
+        try {
+            field = Database.getCatalog().getTupleDesc(id).fieldNameToIndex(j.f2PureName);
+        } catch (NoSuchElementException e) {
+            return Double.POSITIVE_INFINITY;
+        }
+        // the index is probed with the predicate the other way around
+        Predicate.Op op = j.swapInnerOuter().p;
+        double best = Double.POSITIVE_INFINITY;
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(id)) {
+            if (index.getField() != field || !index.supports(op))
+                continue;
+            best = Math.min(best, index.isHash() ? s.estimateHashFetchCost(field, selectivity)
+                    : s.estimateIndexFetchCost(field, selectivity));
+        }
+        return best;
+    }
+
+    // the share of the inner input a join of the specified cardinality
+    // matches per outer tuple
+    private static double probeSelectivity(int card, int card1, int card2) {
+        if (card1 == 0 || card2 == 0)
+            return 0;
+        return Math.min(1, card / ((double) card1 * card2));
+    }
+
+    /** @return the number of pages card tuples of the specified size fill */
+    public static int estimatePages(int card, int tupleSize) {
+        long bytes = (long) card * tupleSize;
+        return (int) Math.max(1, (bytes + BufferPool.getPageSize() - 1)
+                / BufferPool.getPageSize());
+    }
+
+    // size of the tuples of a table in the query, 0 if it is unknown
+    private int tupleSize(String alias) {
+        Integer id = alias == null ? null : p.getTableId(alias);
+        return id == null ? 0 : Database.getCatalog().getTupleDesc(id).getSize();
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -168,13 +241,54 @@ public class JoinOptimizer {
     }
 
     /**
-     * Estimate the join cardinality of two tables.
+     * Estimate the join cardinality of two tables. Equi-joins on primary
+     * keys are exact; other equi-joins use the most common values and
+     * distinct counts of the joined fields, if their statistics are known.
      * */
     public static int estimateTableJoinCardinality(Predicate.Op joinOp,
                                                    String table1Alias, String table2Alias, String field1PureName,
                                                    String field2PureName, int card1, int card2, boolean t1pkey,
                                                    boolean t2pkey, Map<String, TableStats> stats,
                                                    Map<String, Integer> tableAliasToId) {
+        double selectivity = joinOp == Predicate.Op.EQUALS
+                ? estimateJoinSelectivity(table1Alias, table2Alias, field1PureName,
+                        field2PureName, stats, tableAliasToId)
+                : Double.NaN;
+        return joinCardinality(joinOp, card1, card2, t1pkey, t2pkey, selectivity);
+    }
+
+    /**
+     * @return the selectivity of an equi-join of two fields estimated from the
+     *         statistics of their tables, or NaN if they are unknown
+     */
+    private static double estimateJoinSelectivity(String table1Alias, String table2Alias,
+            String field1PureName, String field2PureName, Map<String, TableStats> stats,
+            Map<String, Integer> tableAliasToId) {
+        Integer id1 = tableAliasToId.get(table1Alias), id2 = tableAliasToId.get(table2Alias);
+        if (id1 == null || id2 == null)
+            return Double.NaN;
+        try {
+            Catalog catalog = Database.getCatalog();
+            TableStats s1 = stats.get(catalog.getTableName(id1));
+            TableStats s2 = stats.get(catalog.getTableName(id2));
+            if (s1 == null || s2 == null)
+                return Double.NaN;
+            return s1.estimateJoinSelectivity(
+                    catalog.getTupleDesc(id1).fieldNameToIndex(field1PureName), s2,
+                    catalog.getTupleDesc(id2).fieldNameToIndex(field2PureName));
+        } catch (NoSuchElementException e) {
+            return Double.NaN;
+        }
+    }
+
+    // the cardinality of a join, given the selectivity of an equi-join
+    // estimated from statistics, or NaN
+    private static int joinCardinality(Predicate.Op joinOp, int card1, int card2,
+            boolean t1pkey, boolean t2pkey, double selectivity) {
+        if (joinOp == Predicate.Op.EQUALS && !t1pkey && !t2pkey && !Double.isNaN(selectivity)) {
+            double card = selectivity * card1 * card2;
+            return (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.round(card)));
+        }
         int card = 1;
         int equalCard = 1;
         if(t1pkey && t2pkey) equalCard = Math.min(card1, card2);
@@ -235,8 +349,60 @@ public class JoinOptimizer {
     }
 
     /**
-     * Compute a logical, reasonably efficient join on the specified tables. See
-     * PS4 for hints on how this should be implemented.
+     * Joins of more than this many join predicates are ordered greedily by
+     * {@link #orderJoins}.
+     */
+    public static final int DEFAULT_GREEDY_THRESHOLD = 16;
+
+    private static int greedyThreshold = DEFAULT_GREEDY_THRESHOLD;
+
+    private static CostModel costModel = new DefaultCostModel();
+
+    /**
+     * Set the model used to cost joins, and choose their algorithms.
+     */
+    public static void setCostModel(CostModel model) {
+        JoinOptimizer.costModel = model;
+    }
+
+    public static void resetCostModel() {
+        JoinOptimizer.costModel = new DefaultCostModel();
+    }
+
+    public static CostModel getCostModel() {
+        return costModel;
+    }
+
+    /**
+     * Set the number of join predicates above which {@link #orderJoins}
+     * orders joins greedily instead of searching for the cheapest plan.
+     */
+    public static void setGreedyThreshold(int joins) {
+        JoinOptimizer.greedyThreshold = joins;
+    }
+
+    public static void resetGreedyThreshold() {
+        JoinOptimizer.greedyThreshold = DEFAULT_GREEDY_THRESHOLD;
+    }
+
+    public static int getGreedyThreshold() {
+        return greedyThreshold;
+    }
+
+    /**
+     * Compute a logical, reasonably efficient join on the specified tables.
+     * <p>
+     * The tables and join predicates form a join graph. If there are at most
+     * {@link #getGreedyThreshold} predicates, the cheapest plan is found by
+     * dynamic programming over the connected subgraphs of the join graph
+     * (DPccp, Moerkotte and Neumann, "Analysis of Two Existing and One New
+     * Dynamic Programming Algorithm for the Generation of Optimal Bushy Join
+     * Trees without Cross Products", VLDB 2006), which costs each pair of
+     * disjoint connected subgraphs joined by a predicate exactly once. Beyond
+     * that, greedy operator ordering (GOO) repeatedly joins the two subplans
+     * whose join has the smallest estimated cardinality. Neither considers
+     * cross products; tables in different components of the join graph are
+     * left unjoined.
      * 
      * @param stats
      *            Statistics for each table involved in the join, referenced by
@@ -248,8 +414,11 @@ public class JoinOptimizer {
      * @param explain
      *            Indicates whether your code should explain its query plan or
      *            simply execute it
-     * @return A List<LogicalJoinNode> that stores joins in the left-deep
-     *         order in which they should be executed.
+     * @return A List<LogicalJoinNode> that stores joins in the order in which
+     *         they should be executed. Subquery joins come first; every other
+     *         join joins the two subplans containing its tables, built from
+     *         base tables by earlier joins, so the plan may be bushy. The
+     *         subplan containing t1 is the outer one.
      * @throws ParsingException
      *             when stats or filter selectivities is missing a table in the
      *             join, or or when another internal error occurs
@@ -259,188 +428,420 @@ public class JoinOptimizer {
             Map<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
 
-        // some code goes here
-        // Replace the following
-        PlanCache planCache = new PlanCache();
-        for(int i = 1; i <= this.joins.size(); i++) {
-            Set<Set<LogicalJoinNode>> subSets = enumerateSubsets(this.joins, i); // set of all i-size subset
-            for(Set<LogicalJoinNode> subSet : subSets) { // think about every subSet
-                double minCost = Double.MAX_VALUE;
-                CostCard costCard = new CostCard();
-                for(LogicalJoinNode removeNode : subSet) { // try remove a node
-                    CostCard plan = computeCostAndCardOfSubplan(stats, filterSelectivities, removeNode, subSet, minCost, planCache);
-                    if(plan != null) { // find a more cost-less plan
-                        minCost = plan.cost;
-                        costCard = plan;
-                    }
-                }
-                planCache.addPlan(subSet, costCard.cost, costCard.card, costCard.plan);
-            }
+        if (this.joins.isEmpty()) // single-table query, nothing to order
+            return this.joins;
+        long start = System.nanoTime();
+        JoinGraph g = new JoinGraph(stats, filterSelectivities);
+        boolean greedy = g.edges.length > greedyThreshold;
+        List<LogicalJoinNode> order = g.order(greedy ? g.greedy() : g.dpccp());
+        if (explain) {
+            System.out.println((greedy ? "Greedy" : "DPccp") + " join order for "
+                    + g.aliases.length + " tables: " + g.pc.size() + " subplans, "
+                    + g.joinsCosted + " joins costed in "
+                    + (System.nanoTime() - start) / 1000 + " us");
         }
-        return planCache.getOrder(new HashSet<>(this.joins));
+        return order;
     }
 
     // ===================== Private Methods =================================
 
     /**
-     * This is a helper method that computes the cost and cardinality of joining
-     * joinToRemove to joinSet (joinSet should contain joinToRemove), given that
-     * all of the subsets of size joinSet.size() - 1 have already been computed
-     * and stored in PlanCache pc.
-     * 
-     * @param stats
-     *            table stats for all of the tables, referenced by table names
-     *            rather than alias (see {@link #orderJoins})
-     * @param filterSelectivities
-     *            the selectivities of the filters over each of the tables
-     *            (where tables are indentified by their alias or name if no
-     *            alias is given)
-     * @param joinToRemove
-     *            the join to remove from joinSet
-     * @param joinSet
-     *            the set of joins being considered
-     * @param bestCostSoFar
-     *            the best way to join joinSet so far (minimum of previous
-     *            invocations of computeCostAndCardOfSubplan for this joinSet,
-     *            from returned CostCard)
-     * @param pc
-     *            the PlanCache for this join; should have subplans for all
-     *            plans of size joinSet.size()-1
-     * @return A {@link CostCard} objects desribing the cost, cardinality,
-     *         optimal subplan
-     * @throws ParsingException
-     *             when stats, filterSelectivities, or pc object is missing
-     *             tables involved in join
+     * The join graph of a query, with the best plans found so far for its
+     * connected subgraphs. Tables are numbered so that each connected component
+     * is numbered breadth first, as DPccp requires, and sets of tables are
+     * bitmasks of their numbers.
      */
-    @SuppressWarnings("unchecked")
-    private CostCard computeCostAndCardOfSubplan(
-            Map<String, TableStats> stats,
-            Map<String, Double> filterSelectivities,
-            LogicalJoinNode joinToRemove, Set<LogicalJoinNode> joinSet,
-            double bestCostSoFar, PlanCache pc) throws ParsingException {
-
-        LogicalJoinNode j = joinToRemove;
-
-        List<LogicalJoinNode> prevBest;
-
-        if (this.p.getTableId(j.t1Alias) == null)
-            throw new ParsingException("Unknown table " + j.t1Alias);
-        if (this.p.getTableId(j.t2Alias) == null)
-            throw new ParsingException("Unknown table " + j.t2Alias);
-
-        String table1Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t1Alias));
-        String table2Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t2Alias));
-        String table1Alias = j.t1Alias;
-        String table2Alias = j.t2Alias;
-
-        Set<LogicalJoinNode> news = new HashSet<>(joinSet);
-        news.remove(j);
-
-        double t1cost, t2cost;
-        int t1card, t2card;
-        boolean leftPkey, rightPkey;
-
-        if (news.isEmpty()) { // base case -- both are base relations
-            prevBest = new ArrayList<>();
-            t1cost = stats.get(table1Name).estimateScanCost();
-            t1card = stats.get(table1Name).estimateTableCardinality(
-                    filterSelectivities.get(j.t1Alias));
-            leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
-            t2card = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateTableCardinality(
-                            filterSelectivities.get(j.t2Alias));
-            rightPkey = table2Alias != null && isPkey(table2Alias,
-                    j.f2PureName);
-        } else {
-            // news is not empty -- figure best way to join j to news
-            prevBest = pc.getOrder(news);
+    private class JoinGraph {
+        final Map<String, TableStats> stats;
+        final String[] aliases;
+        final Map<String, Integer> index = new HashMap<>();
+        /** the tables adjacent to each table, and the predicates joining them */
+        final long[] adj;
+        final int[][] incident;
+        /** the join predicates, as given and with inner and outer swapped */
+        final LogicalJoinNode[] edges, swapped;
+        /** the same, with each algorithm that may evaluate them */
+        final LogicalJoinNode[][] edgesBy, swappedBy;
+        final Map<LogicalJoinNode, Integer> edgeOf = new IdentityHashMap<>();
+        /** the size of the tuples of each table */
+        final int[] widths;
+        /** the tables each predicate joins, and whether each side is a primary key */
+        final long[] t1, t2;
+        final boolean[] pkey1, pkey2;
+        /** the selectivity of each equi-join predicate from statistics, or NaN */
+        final double[] selectivities;
+        final List<LogicalJoinNode> subqueries = new ArrayList<>();
+        /** the tables joined with subqueries before any other join */
+        long subqueried = 0;
+        final List<Long> components = new ArrayList<>();
+        final PlanCache pc = new PlanCache();
+        long joinsCosted = 0;
+
+        // the cheapest join found by costJoins
+        double bestCost;
+        int bestCard;
+        long bestLeft;
+        LogicalJoinNode bestJoin;
+        boolean bestPkey;
+
+        JoinGraph(Map<String, TableStats> stats,
+                Map<String, Double> filterSelectivities) throws ParsingException {
+            this.stats = stats;
+            Map<String, List<String>> neighbours = new LinkedHashMap<>();
+            List<LogicalJoinNode> preds = new ArrayList<>();
+            for (LogicalJoinNode j : joins) {
+                checkTable(j.t1Alias);
+                neighbours.computeIfAbsent(j.t1Alias, a -> new ArrayList<>());
+                if (j instanceof LogicalSubplanJoinNode) {
+                    subqueries.add(j);
+                    continue;
+                }
+                checkTable(j.t2Alias);
+                neighbours.computeIfAbsent(j.t2Alias, a -> new ArrayList<>());
+                neighbours.get(j.t1Alias).add(j.t2Alias);
+                neighbours.get(j.t2Alias).add(j.t1Alias);
+                preds.add(j);
+            }
+            if (neighbours.size() > Long.SIZE)
+                throw new ParsingException("Cannot join more than " + Long.SIZE + " tables");
+
+            int n = neighbours.size();
+            aliases = new String[n];
+            int next = 0;
+            for (String a : neighbours.keySet()) {
+                if (index.containsKey(a))
+                    continue;
+                int first = next;
+                index.put(a, next);
+                aliases[next++] = a;
+                for (int i = first; i < next; i++) {
+                    for (String b : neighbours.get(aliases[i])) {
+                        if (!index.containsKey(b)) {
+                            index.put(b, next);
+                            aliases[next++] = b;
+                        }
+                    }
+                }
+                // tables first to next - 1
+                components.add(upTo(next - 1) & ~(upTo(first) >>> 1));
+            }
 
-            // possible that we have not cached an answer, if subset
-            // includes a cross product
-            if (prevBest == null) {
-                return null;
+            int m = preds.size();
+            adj = new long[n];
+            int[] degree = new int[n];
+            edges = preds.toArray(new LogicalJoinNode[0]);
+            swapped = new LogicalJoinNode[m];
+            edgesBy = new LogicalJoinNode[m][];
+            swappedBy = new LogicalJoinNode[m][];
+            t1 = new long[m];
+            t2 = new long[m];
+            pkey1 = new boolean[m];
+            pkey2 = new boolean[m];
+            selectivities = new double[m];
+            for (int k = 0; k < m; k++) {
+                LogicalJoinNode j = edges[k];
+                swapped[k] = j.swapInnerOuter();
+                edgesBy[k] = algorithms(j);
+                swappedBy[k] = algorithms(swapped[k]);
+                for (LogicalJoinNode e : edgesBy[k])
+                    edgeOf.put(e, k);
+                for (LogicalJoinNode e : swappedBy[k])
+                    edgeOf.put(e, k);
+                int i1 = index.get(j.t1Alias), i2 = index.get(j.t2Alias);
+                t1[k] = 1L << i1;
+                t2[k] = 1L << i2;
+                adj[i1] |= t2[k];
+                adj[i2] |= t1[k];
+                degree[i1]++;
+                degree[i2]++;
+                pkey1[k] = isPkey(j.t1Alias, j.f1PureName);
+                pkey2[k] = isPkey(j.t2Alias, j.f2PureName);
+                selectivities[k] = j.p == Predicate.Op.EQUALS
+                        ? estimateJoinSelectivity(j.t1Alias, j.t2Alias, j.f1PureName,
+                                j.f2PureName, stats, p.getTableAliasToIdMapping())
+                        : Double.NaN;
+            }
+            incident = new int[n][];
+            for (int i = 0; i < n; i++)
+                incident[i] = new int[degree[i]];
+            for (int k = m - 1; k >= 0; k--) {
+                int i1 = index.get(edges[k].t1Alias), i2 = index.get(edges[k].t2Alias);
+                incident[i1][--degree[i1]] = k;
+                incident[i2][--degree[i2]] = k;
             }
 
-            double prevBestCost = pc.getCost(news);
-            int bestCard = pc.getCard(news);
-
-            // estimate cost of right subtree
-            if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
-                t1cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t1card = bestCard;
-                leftPkey = hasPkey(prevBest);
-
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
-                t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateTableCardinality(
-                                filterSelectivities.get(j.t2Alias));
-                rightPkey = j.t2Alias != null && isPkey(j.t2Alias,
-                        j.f2PureName);
-            } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
-                                                        // (both
-                // shouldn't be)
-                t2cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t2card = bestCard;
-                rightPkey = hasPkey(prevBest);
-                t1cost = stats.get(table1Name).estimateScanCost();
-                t1card = stats.get(table1Name).estimateTableCardinality(
-                        filterSelectivities.get(j.t1Alias));
-                leftPkey = isPkey(j.t1Alias, j.f1PureName);
+            widths = new int[n];
+            for (int i = 0; i < n; i++)
+                widths[i] = tupleSize(aliases[i]);
+
+            // scans of the base tables, followed by their subquery joins
+            for (int i = 0; i < n; i++) {
+                String name = Database.getCatalog().getTableName(
+                        p.getTableId(aliases[i]));
+                TableStats s = stats.get(name);
+                Double sel = filterSelectivities.get(aliases[i]);
+                if (s == null || sel == null)
+                    throw new ParsingException("Missing statistics for table " + aliases[i]);
+                double cost = s.estimateScanCost();
+                int card = s.estimateTableCardinality(sel);
+                for (LogicalJoinNode j : subqueries) {
+                    if (j.t1Alias.equals(aliases[i])) {
+                        subqueried |= 1L << i;
+                        cost = estimateJoinCost(j, card, 0, cost, 0);
+                        card = estimateJoinCardinality(j, card, 0,
+                                isPkey(j.t1Alias, j.f1PureName), false, stats);
+                    }
+                }
+                pc.addPlan(1L << i, cost, card, 0, null, false);
+            }
+        }
 
-            } else {
-                // don't consider this plan if one of j.t1 or j.t2
-                // isn't a table joined in prevBest (cross product)
-                return null;
+        // j with each algorithm able to evaluate it, or just j if it has one
+        private LogicalJoinNode[] algorithms(LogicalJoinNode j) {
+            if (j.algorithm != null)
+                return new LogicalJoinNode[] { j };
+            List<LogicalJoinNode> js = new ArrayList<>();
+            for (JoinAlgorithm a : JoinAlgorithm.values()) {
+                if (a.supports(j.p))
+                    js.add(j.withAlgorithm(a));
             }
+            return js.toArray(new LogicalJoinNode[0]);
         }
 
-        // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
-
-        LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
-        if (cost2 < cost1) {
-            boolean tmp;
-            j = j2;
-            cost1 = cost2;
-            tmp = rightPkey;
-            rightPkey = leftPkey;
-            leftPkey = tmp;
+        private void checkTable(String alias) throws ParsingException {
+            if (p.getTableId(alias) == null)
+                throw new ParsingException("Unknown table " + alias);
         }
-        if (cost1 >= bestCostSoFar)
-            return null;
 
-        CostCard cc = new CostCard();
+        /**
+         * Find the cheapest plan for every connected subgraph with DPccp.
+         *
+         * @return the tables of each connected component
+         */
+        List<Long> dpccp() {
+            for (int i = aliases.length - 1; i >= 0; i--) {
+                long v = 1L << i;
+                enumerateCmp(v);
+                enumerateCsgRec(v, upTo(i));
+            }
+            return components;
+        }
 
-        cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
-                rightPkey, stats);
-        cc.cost = cost1;
-        cc.plan = new ArrayList<>(prevBest);
-        cc.plan.add(j); // prevbest is left -- add new join to end
-        return cc;
-    }
+        // every connected superset of s that adds tables adjacent to s but not in x
+        private void enumerateCsgRec(long s, long x) {
+            long n = neighbours(s) & ~x;
+            if (n == 0)
+                return;
+            // subsets in increasing order, so that the plans for the subsets
+            // of a set are complete before it is joined to anything
+            for (long sub = n & -n; sub != 0; sub = (sub - n) & n)
+                enumerateCmp(s | sub);
+            for (long sub = n & -n; sub != 0; sub = (sub - n) & n)
+                enumerateCsgRec(s | sub, x | n);
+        }
 
-    /**
-     * Return true if the specified table is in the list of joins, false
-     * otherwise
-     */
-    private boolean doesJoin(List<LogicalJoinNode> joinlist, String table) {
-        for (LogicalJoinNode j : joinlist) {
-            if (j.t1Alias.equals(table)
-                    || (j.t2Alias != null && j.t2Alias.equals(table)))
-                return true;
+        // every connected complement of s1 that does not contain a table
+        // numbered below s1's lowest table, so each pair is found once
+        private void enumerateCmp(long s1) {
+            long x = upTo(Long.numberOfTrailingZeros(s1)) | s1;
+            long n = neighbours(s1) & ~x;
+            for (long r = n; r != 0; r &= ~Long.highestOneBit(r)) {
+                long v = Long.highestOneBit(r);
+                join(s1, v);
+                enumerateCmpRec(s1, v, x | (upTo(Long.numberOfTrailingZeros(v)) & n));
+            }
+        }
+
+        private void enumerateCmpRec(long s1, long s2, long x) {
+            long n = neighbours(s2) & ~x;
+            if (n == 0)
+                return;
+            for (long sub = n & -n; sub != 0; sub = (sub - n) & n)
+                join(s1, s2 | sub);
+            for (long sub = n & -n; sub != 0; sub = (sub - n) & n)
+                enumerateCmpRec(s1, s2 | sub, x | n);
+        }
+
+        // keep the join of s1 and s2 if it is the cheapest plan for s1 | s2
+        private void join(long s1, long s2) {
+            if (!costJoins(s1, s2))
+                return;
+            long s = s1 | s2;
+            if (!pc.contains(s) || bestCost < pc.getCost(s))
+                pc.addPlan(s, bestCost, bestCard, bestLeft, bestJoin, bestPkey);
+        }
+
+        /**
+         * Join subplans greedily, always joining the two whose join has the
+         * smallest estimated cardinality.
+         *
+         * @return the tables of each plan left when no two can be joined
+         */
+        List<Long> greedy() {
+            List<Long> plans = new ArrayList<>();
+            for (int i = 0; i < aliases.length; i++)
+                plans.add(1L << i);
+            while (true) {
+                int bi = -1, bj = -1;
+                double cost = 0;
+                int card = 0;
+                long left = 0;
+                LogicalJoinNode join = null;
+                boolean pkey = false;
+                for (int i = 0; i < plans.size(); i++) {
+                    long a = plans.get(i);
+                    long n = neighbours(a);
+                    for (int j = i + 1; j < plans.size(); j++) {
+                        long b = plans.get(j);
+                        if ((n & b) == 0 || !costJoins(a, b))
+                            continue;
+                        if (bi < 0 || bestCard < card || (bestCard == card && bestCost < cost)) {
+                            bi = i;
+                            bj = j;
+                            cost = bestCost;
+                            card = bestCard;
+                            left = bestLeft;
+                            join = bestJoin;
+                            pkey = bestPkey;
+                        }
+                    }
+                }
+                if (bi < 0)
+                    return plans;
+                long s = plans.get(bi) | plans.get(bj);
+                pc.addPlan(s, cost, card, left, join, pkey);
+                plans.set(bi, s);
+                plans.remove(bj);
+            }
+        }
+
+        /**
+         * Cost the joins of the best plans for a and b on each predicate
+         * between them, with either one as the outer and each algorithm able
+         * to evaluate the predicate, and leave the cheapest in the best*
+         * fields.
+         *
+         * @return false if no predicate joins a and b
+         */
+        private boolean costJoins(long a, long b) {
+            double costA = pc.getCost(a), costB = pc.getCost(b);
+            int cardA = pc.getCard(a), cardB = pc.getCard(b);
+            int pagesA = estimatePages(cardA, width(a)), pagesB = estimatePages(cardB, width(b));
+            bestJoin = null;
+            // each predicate between a and b has one table in the smaller one
+            long small = Long.bitCount(a) <= Long.bitCount(b) ? a : b;
+            for (long r = small; r != 0; r &= r - 1) {
+                for (int k : incident[Long.numberOfTrailingZeros(r)]) {
+                    LogicalJoinNode[] ab, ba;
+                    boolean pkeyA, pkeyB;
+                    if ((t1[k] & a) != 0 && (t2[k] & b) != 0) {
+                        ab = edgesBy[k];
+                        ba = swappedBy[k];
+                        pkeyA = hasPkey(a, pkey1[k]);
+                        pkeyB = hasPkey(b, pkey2[k]);
+                    } else if ((t2[k] & a) != 0 && (t1[k] & b) != 0) {
+                        ab = swappedBy[k];
+                        ba = edgesBy[k];
+                        pkeyA = hasPkey(a, pkey2[k]);
+                        pkeyB = hasPkey(b, pkey1[k]);
+                    } else {
+                        continue;
+                    }
+                    boolean pkey = pkey1[k] || pkey2[k] || pc.hasPkey(a) || pc.hasPkey(b);
+                    costJoin(ab, k, a, b, cardA, cardB, costA, costB, pagesA, pagesB,
+                            pkeyA, pkeyB, pkey);
+                    costJoin(ba, k, b, a, cardB, cardA, costB, costA, pagesB, pagesA,
+                            pkeyB, pkeyA, pkey);
+                }
+            }
+            return bestJoin != null;
+        }
+
+        // js is one predicate with each algorithm; they differ only in cost
+        private void costJoin(LogicalJoinNode[] js, int k, long left, long right,
+                int card1, int card2, double cost1, double cost2, int pages1, int pages2,
+                boolean pkey1, boolean pkey2, boolean pkey) {
+            int card = -1;
+            // only a base table can be probed through its indexes
+            double probe = Double.POSITIVE_INFINITY;
+            if (Long.bitCount(right) == 1 && (right & subqueried) == 0) {
+                card = joinCardinality(js[0].p, card1, card2, pkey1, pkey2, selectivities[k]);
+                probe = estimateProbeCost(js[0], stats, probeSelectivity(card, card1, card2));
+            }
+            for (LogicalJoinNode j : js) {
+                joinsCosted++;
+                double cost = costModel.estimateJoinCost(j.algorithm, j, card1, card2,
+                        cost1, cost2, pages1, pages2, probe);
+                if (cost == Double.POSITIVE_INFINITY || (bestJoin != null && cost > bestCost))
+                    continue;
+                if (card < 0)
+                    card = joinCardinality(j.p, card1, card2, pkey1, pkey2, selectivities[k]);
+                if (bestJoin != null && cost == bestCost && card >= bestCard)
+                    continue;
+                bestCost = cost;
+                bestCard = card;
+                bestLeft = left;
+                bestJoin = j;
+                bestPkey = pkey;
+            }
+        }
+
+        private int width(long s) {
+            int w = 0;
+            for (long r = s; r != 0; r &= r - 1)
+                w += widths[Long.numberOfTrailingZeros(r)];
+            return w;
+        }
+
+        // a base table is joined on a primary key if the join field is its
+        // key, a subplan if any of its joins is on a primary key
+        private boolean hasPkey(long s, boolean field) {
+            return Long.bitCount(s) == 1 ? field : pc.hasPkey(s);
+        }
+
+        private long neighbours(long s) {
+            long n = 0;
+            for (long r = s; r != 0; r &= r - 1)
+                n |= adj[Long.numberOfTrailingZeros(r)];
+            return n & ~s;
+        }
+
+        /**
+         * @return the joins of the best plans for each set of tables, with the
+         *         subquery joins first and each join after the joins building
+         *         its outer and inner subplans
+         */
+        List<LogicalJoinNode> order(List<Long> plans) {
+            List<LogicalJoinNode> order = new ArrayList<>(subqueries);
+            for (long s : plans)
+                addJoins(s, order);
+            return order;
+        }
+
+        private void addJoins(long s, List<LogicalJoinNode> order) {
+            LogicalJoinNode j = pc.getJoin(s);
+            if (j == null)
+                return;
+            long left = pc.getLeft(s), right = s & ~left;
+            addJoins(left, order);
+            addJoins(right, order);
+            order.add(j);
+            // the other predicates between left and right, which close cycles
+            // in the join graph
+            for (int k = 0; k < edges.length; k++) {
+                if (edgeOf.get(j) == k)
+                    continue;
+                if ((t1[k] & left) != 0 && (t2[k] & right) != 0)
+                    order.add(edges[k]);
+                else if ((t2[k] & left) != 0 && (t1[k] & right) != 0)
+                    order.add(swapped[k]);
+            }
         }
-        return false;
+    }
+
+    // the tables numbered up to and including i
+    private static long upTo(int i) {
+        return i >= Long.SIZE - 1 ? -1L : (1L << (i + 1)) - 1;
     }
 
     /**
@@ -459,20 +860,6 @@ public class JoinOptimizer {
         return pkey1.equals(field);
     }
 
-    /**
-     * Return true if a primary key field is joined by one of the joins in
-     * joinlist
-     */
-    private boolean hasPkey(List<LogicalJoinNode> joinlist) {
-        for (LogicalJoinNode j : joinlist) {
-            if (isPkey(j.t1Alias, j.f1PureName)
-                    || (j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName)))
-                return true;
-        }
-        return false;
-
-    }
-
     /**
      * Helper function to display a Swing window with a tree representation of
      * the specified list of joins. See {@link #orderJoins}, which may want to
@@ -480,18 +867,11 @@ public class JoinOptimizer {
      * 
      * @param js
      *            the join plan to visualize
-     * @param pc
-     *            the PlanCache accumulated whild building the optimal plan
-     * @param stats
-     *            table statistics for base tables
-     * @param selectivities
-     *            the selectivities of the filters over each of the tables
-     *            (where tables are indentified by their alias or name if no
-     *            alias is given)
+     * @param g
+     *            the join graph, with the PlanCache accumulated while building
+     *            the optimal plan
      */
-    private void printJoins(List<LogicalJoinNode> js, PlanCache pc,
-            Map<String, TableStats> stats,
-            Map<String, Double> selectivities) {
+    private void printJoins(List<LogicalJoinNode> js, JoinGraph g) {
 
         JFrame f = new JFrame("Join Plan for " + p.getQuery());
 
@@ -503,77 +883,38 @@ public class JoinOptimizer {
 
         f.setSize(300, 500);
 
+        // the root of the subplan containing each table, and its tables
         Map<String, DefaultMutableTreeNode> m = new HashMap<>();
+        Map<String, Long> tables = new HashMap<>();
 
-        // int numTabs = 0;
-
-        // int k;
-        DefaultMutableTreeNode root = null, treetop = null;
-        HashSet<LogicalJoinNode> pathSoFar = new HashSet<>();
-        boolean neither;
+        DefaultMutableTreeNode treetop = null;
 
         System.out.println(js);
         for (LogicalJoinNode j : js) {
-            pathSoFar.add(j);
-            System.out.println("PATH SO FAR = " + pathSoFar);
-
-            String table1Name = Database.getCatalog().getTableName(
-                    this.p.getTableId(j.t1Alias));
-            String table2Name = Database.getCatalog().getTableName(
-                    this.p.getTableId(j.t2Alias));
-
-            // Double c = pc.getCost(pathSoFar);
-            neither = true;
-
-            root = new DefaultMutableTreeNode("Join " + j + " (Cost ="
-                    + pc.getCost(pathSoFar) + ", card = "
-                    + pc.getCard(pathSoFar) + ")");
-            DefaultMutableTreeNode n = m.get(j.t1Alias);
-            if (n == null) { // never seen this table before
-                n = new DefaultMutableTreeNode(j.t1Alias
-                        + " (Cost = "
-                        + stats.get(table1Name).estimateScanCost()
-                        + ", card = "
-                        + stats.get(table1Name).estimateTableCardinality(
-                                selectivities.get(j.t1Alias)) + ")");
-                root.add(n);
-            } else {
-                // make left child root n
-                root.add(n);
-                neither = false;
-            }
-            m.put(j.t1Alias, root);
-
-            n = m.get(j.t2Alias);
-            if (n == null) { // never seen this table before
-
-                n = new DefaultMutableTreeNode(
-                        j.t2Alias == null ? "Subplan"
-                                : (j.t2Alias
-                                        + " (Cost = "
-                                        + stats.get(table2Name)
-                                                .estimateScanCost()
-                                        + ", card = "
-                                        + stats.get(table2Name)
-                                                .estimateTableCardinality(
-                                                        selectivities
-                                                                .get(j.t2Alias)) + ")"));
-                root.add(n);
+            long s = tables.getOrDefault(j.t1Alias, 1L << g.index.get(j.t1Alias));
+            if (j.t2Alias != null)
+                s |= tables.getOrDefault(j.t2Alias, 1L << g.index.get(j.t2Alias));
+
+            String label = "Join " + j;
+            if (g.pc.contains(s))
+                label += " (Cost =" + g.pc.getCost(s) + ", card = " + g.pc.getCard(s) + ")";
+            DefaultMutableTreeNode root = new DefaultMutableTreeNode(label);
+            DefaultMutableTreeNode n1 = subplanNode(j.t1Alias, m, g);
+            root.add(n1);
+            if (j.t2Alias == null) {
+                root.add(new DefaultMutableTreeNode("Subplan"));
             } else {
-                // make right child root n
-                root.add(n);
-                neither = false;
+                DefaultMutableTreeNode n2 = subplanNode(j.t2Alias, m, g);
+                if (n2 != n1)
+                    root.add(n2);
             }
-            m.put(j.t2Alias, root);
 
-            // unless this table doesn't join with other tables,
-            // all tables are accessed from root
-            if (!neither) {
-                for (String key : m.keySet()) {
-                    m.put(key, root);
+            for (String alias : g.aliases) {
+                if ((s & (1L << g.index.get(alias))) != 0) {
+                    m.put(alias, root);
+                    tables.put(alias, s);
                 }
             }
-
             treetop = root;
         }
 
@@ -605,4 +946,15 @@ public class JoinOptimizer {
 
     }
 
+    // the tree node of the subplan containing a table, or a new leaf for it
+    private DefaultMutableTreeNode subplanNode(String alias,
+            Map<String, DefaultMutableTreeNode> m, JoinGraph g) {
+        DefaultMutableTreeNode n = m.get(alias);
+        if (n != null)
+            return n;
+        long s = 1L << g.index.get(alias);
+        return new DefaultMutableTreeNode(alias + " (Cost = " + g.pc.getCost(s)
+                + ", card = " + g.pc.getCard(s) + ")");
+    }
+
 }
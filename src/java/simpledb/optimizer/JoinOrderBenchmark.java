@@ -0,0 +1,138 @@
+package simpledb.optimizer;
+
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.TupleDesc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * JoinOrderBenchmark measures how long {@link JoinOptimizer#orderJoins}
+ * takes to order the joins of chain, cycle, star and clique join graphs of 2
+ * to {@link #MAX_TABLES} tables, with dynamic programming and with the greedy
+ * fallback. The tables are small random tables of different sizes; only
+ * their statistics are used. Once planning a shape takes longer than
+ * {@link #LIMIT_MS}, larger graphs of that shape are skipped.
+ */
+public class JoinOrderBenchmark {
+
+    static final String usage = "Usage: JoinOrderBenchmark [maxTables]";
+
+    static final int MAX_TABLES = 20;
+    static final int LIMIT_MS = 10000;
+    static final int IO_COST = 100;
+
+    enum Shape { CHAIN, CYCLE, STAR, CLIQUE }
+
+    private final LogicalPlan plan = new LogicalPlan();
+    private final Map<String, TableStats> stats = new HashMap<>();
+    private final Map<String, Double> selectivities = new HashMap<>();
+
+    JoinOrderBenchmark(int tables) throws IOException {
+        Random r = new Random(42);
+        for (int i = 0; i < tables; i++) {
+            List<List<Integer>> tuples = new ArrayList<>();
+            int rows = 10 + r.nextInt(1000);
+            for (int j = 0; j < rows; j++)
+                tuples.add(Arrays.asList(j, r.nextInt(1 + r.nextInt(rows))));
+            File f = File.createTempFile("joinorder", ".dat");
+            f.deleteOnExit();
+            HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+            HeapFile hf = new HeapFile(f, new TupleDesc(
+                    new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                    new String[] { "c0", "c1" }));
+            String name = "t" + i;
+            Database.getCatalog().addTable(hf, name, "c0");
+            plan.addScan(hf.getId(), name);
+            stats.put(name, new TableStats(hf.getId(), IO_COST));
+            selectivities.put(name, 1.0);
+        }
+    }
+
+    static List<LogicalJoinNode> joins(Shape shape, int n) {
+        List<LogicalJoinNode> joins = new ArrayList<>();
+        switch (shape) {
+        case CHAIN:
+        case CYCLE:
+            for (int i = 1; i < n; i++)
+                joins.add(join(i - 1, i));
+            if (shape == Shape.CYCLE && n > 2)
+                joins.add(join(n - 1, 0));
+            break;
+        case STAR:
+            for (int i = 1; i < n; i++)
+                joins.add(join(0, i));
+            break;
+        case CLIQUE:
+            for (int i = 0; i < n; i++)
+                for (int j = i + 1; j < n; j++)
+                    joins.add(join(i, j));
+            break;
+        }
+        return joins;
+    }
+
+    private static LogicalJoinNode join(int i, int j) {
+        return new LogicalJoinNode("t" + i, "t" + j, "c1", "c0", Predicate.Op.EQUALS);
+    }
+
+    /** @return the median time in microseconds to order the joins */
+    long time(List<LogicalJoinNode> joins, int threshold) throws ParsingException {
+        JoinOptimizer.setGreedyThreshold(threshold);
+        long[] times = new long[5];
+        for (int i = 0; i < times.length; i++) {
+            long start = System.nanoTime();
+            new JoinOptimizer(plan, joins).orderJoins(stats, selectivities, false);
+            times[i] = (System.nanoTime() - start) / 1000;
+            if (times[i] > LIMIT_MS * 1000L)
+                return times[i];
+        }
+        Arrays.sort(times);
+        return times[times.length / 2];
+    }
+
+    public static void main(String[] args) throws Exception {
+        int max = MAX_TABLES;
+        if (args.length > 1) {
+            System.out.println(usage);
+            System.exit(0);
+        }
+        if (args.length == 1)
+            max = Integer.parseInt(args[0]);
+
+        JoinOrderBenchmark b = new JoinOrderBenchmark(max);
+        System.out.printf("%-7s %6s %6s %12s %12s%n", "shape", "tables", "joins",
+                "dpccp (us)", "greedy (us)");
+        for (Shape shape : Shape.values()) {
+            boolean dp = true, greedy = true;
+            for (int n = 2; n <= max; n++) {
+                List<LogicalJoinNode> joins = joins(shape, n);
+                long dpTime = -1, greedyTime = -1;
+                if (dp) {
+                    dpTime = b.time(joins, Integer.MAX_VALUE);
+                    dp = dpTime <= LIMIT_MS * 1000L;
+                }
+                if (greedy) {
+                    greedyTime = b.time(joins, -1);
+                    greedy = greedyTime <= LIMIT_MS * 1000L;
+                }
+                System.out.printf("%-7s %6d %6d %12s %12s%n", shape.name().toLowerCase(),
+                        n, joins.size(), dpTime < 0 ? "-" : dpTime,
+                        greedyTime < 0 ? "-" : greedyTime);
+            }
+        }
+        JoinOptimizer.resetGreedyThreshold();
+    }
+}
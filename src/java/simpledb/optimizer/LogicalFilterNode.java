@@ -17,6 +17,10 @@ public class LogicalFilterNode {
     
     /* The constant on the right side of the filter */
     public final String c;
+
+    /** The number of the parameter of a prepared statement that gives the
+        constant, or -1 if the constant is given */
+    public final int param;
     
     /** The field from t which is in the filter. The pure name, without alias or tablename*/
     public final String fieldPureName;
@@ -24,9 +28,19 @@ public class LogicalFilterNode {
     public final String fieldQuantifiedName;
     
     public LogicalFilterNode(String table, String field, Predicate.Op pred, String constant) {
+        this(table, field, pred, constant, -1);
+    }
+
+    /** A filter whose constant is the value of parameter number param */
+    public LogicalFilterNode(String table, String field, Predicate.Op pred, int param) {
+        this(table, field, pred, null, param);
+    }
+
+    private LogicalFilterNode(String table, String field, Predicate.Op pred, String constant, int param) {
         tableAlias = table;
         p = pred;
         c = constant;
+        this.param = param;
         String[] tmps = field.split("[.]");
         if (tmps.length>1)
             fieldPureName = tmps[tmps.length-1];
@@ -34,4 +48,9 @@ public class LogicalFilterNode {
             fieldPureName=field;
         this.fieldQuantifiedName = tableAlias+"."+fieldPureName;
     }
+
+    /** Return a copy of this filter comparing against the constant c */
+    public LogicalFilterNode bind(String c) {
+        return new LogicalFilterNode(tableAlias, fieldPureName, p, c, -1);
+    }
 }
@@ -25,6 +25,10 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** The algorithm chosen for the join by the optimizer, or null for the
+     * default one for the predicate (see {@link JoinAlgorithm#getDefault}) */
+    public JoinAlgorithm algorithm;
+
     public LogicalJoinNode() {
     }
 
@@ -61,7 +65,17 @@ public class LogicalJoinNode {
         else 
             newp = p;
 
-        return new LogicalJoinNode(t2Alias,t1Alias,f2PureName,f1PureName, newp);
+        LogicalJoinNode j = new LogicalJoinNode(t2Alias,t1Alias,f2PureName,f1PureName, newp);
+        j.algorithm = algorithm;
+        return j;
+    }
+
+    /** Return a copy of this LogicalJoinNode evaluated with the specified
+     * algorithm. */
+    public LogicalJoinNode withAlgorithm(JoinAlgorithm a) {
+        LogicalJoinNode j = new LogicalJoinNode(t1Alias,t2Alias,f1PureName,f2PureName, p);
+        j.algorithm = a;
+        return j;
     }
     
     @Override public boolean equals(Object o) {
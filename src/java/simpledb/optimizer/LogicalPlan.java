@@ -4,6 +4,11 @@ import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.IndexFetch;
+import simpledb.index.IndexOnlyScan;
+import simpledb.index.SecondaryIndex;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionId;
 
@@ -15,9 +20,8 @@ import java.io.File;
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, a list of aggregates and a list of
+ * group by fields.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -32,12 +36,14 @@ public class LogicalPlan {
     private final Map<String,Integer> tableMap;
 
     private final List<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private final List<String> groupByFields;
+    private final List<LogicalSelectListNode> aggregates;
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private int limit = -1;
+    private int parallelism = 1;
+    private boolean joinOrderFixed = false;
     private String query;
 //    private Query owner;
 
@@ -50,9 +56,32 @@ public class LogicalPlan {
         tableMap = new HashMap<>();
 
         selectList = new ArrayList<>();
+        groupByFields = new ArrayList<>();
+        aggregates = new ArrayList<>();
         this.query = "";
     }
 
+    /** A copy of plan sharing everything but its filters, joins and subplans */
+    private LogicalPlan(LogicalPlan plan, List<LogicalFilterNode> filters) {
+        joins = new ArrayList<>(plan.joins);
+        this.filters = filters;
+        tables = plan.tables;
+        subplanMap = new HashMap<>();
+        tableMap = plan.tableMap;
+
+        selectList = plan.selectList;
+        groupByFields = plan.groupByFields;
+        aggregates = plan.aggregates;
+        hasAgg = plan.hasAgg;
+        oByAsc = plan.oByAsc;
+        hasOrderBy = plan.hasOrderBy;
+        oByField = plan.oByField;
+        limit = plan.limit;
+        parallelism = plan.parallelism;
+        joinOrderFixed = plan.joinOrderFixed;
+        query = plan.query;
+    }
+
     /** Set the text of the query representing this logical plan.  Does NOT parse the
         specified query -- this method is just used so that the object can print the
         SQL it represents.
@@ -108,6 +137,82 @@ public class LogicalPlan {
         filters.add(lf);
     }
 
+    /** Add a new filter whose constant is a parameter of a prepared
+     *  statement, to be given a value with {@link #bind}.
+     *   @param field the name of the field the filter applies to, as in
+     *   {@link #addFilter}
+     *   @param p The predicate for the filter
+     *   @param param the number of the parameter, starting at 0
+     *   @throws ParsingException if field is not in one of the tables
+     *   added via {@link #addScan} or is ambiguous
+     */
+    public void addParameterFilter(String field, Predicate.Op p, int param) throws ParsingException {
+        field = disambiguateName(field);
+        String table = field.split("[.]")[0];
+
+        filters.add(new LogicalFilterNode(table, field.split("[.]")[1], p, param));
+    }
+
+    /** Return a copy of this plan with the parameters of its filters
+     *  replaced by values.  The copy keeps the join order of this plan if it
+     *  was fixed with {@link #setJoinOrder}, so a plan can be optimized once
+     *  and then run with many parameter values.
+     *  @param params the value of each parameter, in order
+     *  @throws ParsingException if a value is missing or has the wrong type
+     */
+    public LogicalPlan bind(List<Field> params) throws ParsingException {
+        List<LogicalFilterNode> bound = new ArrayList<>(filters.size());
+        for (LogicalFilterNode lf : filters) {
+            if (lf.param < 0) {
+                bound.add(lf);
+                continue;
+            }
+            if (lf.param >= params.size())
+                throw new ParsingException("No value given for parameter " + (lf.param + 1));
+            Field f = params.get(lf.param);
+            TupleDesc td = Database.getCatalog().getTupleDesc(tableMap.get(lf.tableAlias));
+            Type ftyp;
+            try {
+                ftyp = td.getFieldType(td.fieldNameToIndex(lf.fieldPureName));
+            } catch (NoSuchElementException e) {
+                throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
+            }
+            if (f.getType() != ftyp)
+                throw new ParsingException("Parameter " + (lf.param + 1) + " of type " + f.getType()
+                        + " is compared with " + lf.fieldQuantifiedName + " of type " + ftyp);
+            if (f instanceof IntField)
+                bound.add(lf.bind(Integer.toString(((IntField) f).getValue())));
+            else
+                bound.add(lf.bind(((StringField) f).getValue()));
+        }
+        return new LogicalPlan(this, bound);
+    }
+
+    /** @return the joins of this plan; after {@link #physicalPlan}, in the
+        order chosen by the optimizer */
+    public List<LogicalJoinNode> getJoins() {
+        return joins;
+    }
+
+    /** Fix the order of the joins of this plan, so that {@link #physicalPlan}
+        uses it instead of running the {@link JoinOptimizer}.
+        @param order the joins of this plan, in the order to run them
+     */
+    public void setJoinOrder(List<LogicalJoinNode> order) {
+        joins = new ArrayList<>(order);
+        joinOrderFixed = true;
+    }
+
+    /** @return true if a join of this plan is with a subquery, whose
+        physical plan was made when the join was added */
+    public boolean hasSubqueries() {
+        for (LogicalJoinNode lj : joins) {
+            if (lj instanceof LogicalSubplanJoinNode)
+                return true;
+        }
+        return false;
+    }
+
     /** Add a join between two fields of two different tables.  
      *  @param joinField1 The name of the first join field; this can
      *  be a fully qualified name (e.g., tableName.field or
@@ -189,23 +294,57 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield the field to group by, or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
+        addAggregate(op, afield);
+        if (gfield != null)
+            addGroupByField(gfield);
+    }
+
+    /** Add an aggregate over the field to the query.  All aggregates of a
+        query are computed by a single Aggregate operator; adding the same
+        aggregate twice has no effect.
+        @param op the aggregation operator
+        @param afield the field to aggregate over, or * to count tuples
+     * @throws ParsingException 
+    */
+    public void addAggregate(String op, String afield) throws ParsingException {
         afield=disambiguateName(afield);
-        if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+        if (afield.equals("*")) {
+            if (getAggOp(op) != Aggregator.Op.COUNT)
+                throw new ParsingException("Only COUNT may be applied to *");
+            afield = "null.*";
+        }
+        if (aggregateIndex(op, afield) < 0)
+            aggregates.add(new LogicalSelectListNode(op, afield));
         hasAgg = true;
     }
 
+    /** Add a field to the GROUP BY list of the query.
+        @param field the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupByField(String field) throws ParsingException {
+        field=disambiguateName(field);
+        if (!groupByFields.contains(field))
+            groupByFields.add(field);
+    }
+
+    /** @return the position of an aggregate in the aggregate list, or -1 */
+    private int aggregateIndex(String op, String fname) {
+        for (int i = 0; i < aggregates.size(); i++) {
+            LogicalSelectListNode a = aggregates.get(i);
+            if (a.aggOp.equalsIgnoreCase(op) && a.fname.equals(fname))
+                return i;
+        }
+        return -1;
+    }
+
     /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
         a single ORDER BY field.
         @param field the field to order by
@@ -219,6 +358,40 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Limit the query result to the first n tuples.  Combined with an ORDER BY,
+        the plan uses a {@link TopN} operator instead of a full sort, or just
+        stops after n tuples if the table is read in order from its B+ tree.
+        @param n the maximum number of tuples to return
+     * @throws ParsingException if n is negative
+    */
+    public void addLimit(int n) throws ParsingException {
+        if (n < 0)
+            throw new ParsingException("LIMIT must not be negative: " + n);
+        limit = n;
+    }
+
+    /** @return the LIMIT of this plan, or -1 if it has none */
+    public int getLimit() {
+        return limit;
+    }
+
+    /** Set the number of worker threads the operators of this plan may use.
+        With more than one, the scans of base tables and the filters over
+        them run as pipelines over morsels of the table under a
+        {@link Gather}, and aggregates over them are computed per pipeline.
+
+        @param parallelism the number of workers; 1 runs the plan serially
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive");
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -274,6 +447,243 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Choose the access path of a table.  A table is read through an
+        index when its filters bound the key of its B+ tree, or one of them
+        is on a field with a secondary index that supports its operator --
+        only equality for a hash index -- and reading the tuples matching
+        those filters costs less than scanning the whole table; of several
+        such paths, the one cheapest to read is used.  The B+ tree is read
+        between the tightest lower and upper bounds the filters put on its
+        key.  A secondary index whose entries hold every field of the table
+        the query reads answers it on its own, without reading the table: for
+        a filter on its field, or scanned in full if that is cheaper than
+        scanning the table.  A table the query is ordered by the key of is
+        read through its B+ tree, in the order asked for.
+
+        @param t the transaction the scan runs as a part of
+        @param alias the alias of the table
+        @param preds the filters of the table, in the order they are applied
+        @param s the statistics of the table
+        @param ordered true if the table is to be read in the order of the
+        ORDER BY clause, which is on the key of its B+ tree
+        @return a {@link BTreeScan}, {@link IndexFetch} or
+        {@link IndexOnlyScan} matching the chosen filters, with the other
+        filters above it, or null if the table is best scanned
+     */
+    private OpIterator indexScan(TransactionId t, String alias, List<Predicate> preds, TableStats s,
+            boolean ordered) {
+        int tableId = getTableId(alias);
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        int key = f instanceof BTreeFile ? ((BTreeFile) f).keyField() : -1;
+        // the most selective bounds on the key
+        Predicate lower = null, upper = null;
+        for (Predicate p : preds) {
+            if (p.getField() != key)
+                continue;
+            Predicate.Op op = p.getOp();
+            double sel = s.estimateSelectivity(key, op, p.getOperand());
+            if ((op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN
+                    || op == Predicate.Op.GREATER_THAN_OR_EQ) && (lower == null
+                    || sel < s.estimateSelectivity(key, lower.getOp(), lower.getOperand())))
+                lower = p;
+            if ((op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN
+                    || op == Predicate.Op.LESS_THAN_OR_EQ) && (upper == null
+                    || sel < s.estimateSelectivity(key, upper.getOp(), upper.getOperand())))
+                upper = p;
+        }
+        if (ordered)
+            return keyScan(t, alias, preds, lower, upper, !oByAsc);
+
+        List<SecondaryIndex> indexes = Database.getCatalog().getIndexes(tableId);
+        Set<Integer> read = readFields(alias);
+        Predicate best = null;
+        SecondaryIndex bestIndex = null;
+        boolean indexOnly = false;
+        boolean byKey = false;
+        double bestCost = s.estimateScanCost();
+        for (SecondaryIndex index : indexes) {
+            if (covers(index, read) && s.estimateIndexOnlyCost(index, 1.0) < bestCost) {
+                bestIndex = index;
+                indexOnly = true;
+                bestCost = s.estimateIndexOnlyCost(index, 1.0);
+            }
+        }
+        if (lower != null || upper != null) {
+            double sel = s.estimateRangeSelectivity(key, indexPredicate(lower), indexPredicate(upper));
+            if (s.estimateIndexScanCost(sel) < bestCost) {
+                bestIndex = null;
+                indexOnly = false;
+                byKey = true;
+                bestCost = s.estimateIndexScanCost(sel);
+            }
+        }
+        for (Predicate p : preds) {
+            if (p.getOp() == Predicate.Op.NOT_EQUALS || p.getOp() == Predicate.Op.LIKE)
+                continue;
+            double sel = s.estimateSelectivity(p.getField(), p.getOp(), p.getOperand());
+            for (SecondaryIndex index : indexes) {
+                if (index.getField() != p.getField() || !index.supports(p.getOp()))
+                    continue;
+                boolean covering = covers(index, read);
+                double cost = covering ? s.estimateIndexOnlyCost(index, sel)
+                        : index.isHash() ? s.estimateHashFetchCost(p.getField(), sel)
+                        : s.estimateIndexFetchCost(p.getField(), sel);
+                if (cost < bestCost) {
+                    best = p;
+                    bestIndex = index;
+                    indexOnly = covering;
+                    byKey = false;
+                    bestCost = cost;
+                }
+            }
+        }
+        if (byKey)
+            return keyScan(t, alias, preds, lower, upper, false);
+        if (best == null && bestIndex == null)
+            return null;
+        IndexPredicate ipred = indexPredicate(best);
+        if (indexOnly) {
+            // the fields of the filters are where the scan puts them
+            IndexOnlyScan scan = new IndexOnlyScan(t, bestIndex, alias, ipred);
+            OpIterator plan = scan;
+            for (Predicate p : preds)
+                if (p != best)
+                    plan = new Filter(new Predicate(scan.fieldOf(p.getField()), p.getOp(), p.getOperand()), plan);
+            return plan;
+        }
+        OpIterator plan = new IndexFetch(t, bestIndex, alias, ipred);
+        for (Predicate p : preds)
+            if (p != best)
+                plan = new Filter(p, plan);
+        return plan;
+    }
+
+    /** Build an index nested loops join, which probes a secondary index on
+        the join field of its inner table for every outer tuple, with the
+        filters of the table over the tuples it fetches.  A hash index is
+        probed rather than a B+ tree one if it can evaluate the predicate.
+
+        @param t the transaction the join runs as a part of
+        @param lj the join, whose inner table is not joined with anything yet
+        @param plan1 the outer input
+        @param plan2 the plan of the inner table
+        @param preds the filters of the inner table
+        @return the join, or the one {@link JoinOptimizer#instantiateJoin}
+        builds if the inner table has no index able to evaluate its predicate
+        @throws ParsingException if a join field is unknown
+     */
+    private OpIterator indexJoin(TransactionId t, LogicalJoinNode lj, OpIterator plan1,
+            OpIterator plan2, List<Predicate> preds) throws ParsingException {
+        int tableId = getTableId(lj.t2Alias);
+        int t1id, field;
+        try {
+            t1id = plan1.getTupleDesc().fieldNameToIndex(lj.f1QuantifiedName);
+            field = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(lj.f2PureName);
+        } catch (NoSuchElementException e) {
+            throw new ParsingException("Unknown field in join " + lj.f1QuantifiedName
+                    + " " + lj.p + " " + lj.f2QuantifiedName);
+        }
+        // the index is probed with the predicate the other way around
+        Predicate.Op op = lj.swapInnerOuter().p;
+        SecondaryIndex probed = null;
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId))
+            if (index.getField() == field && index.supports(op) && (probed == null || index.isHash()))
+                probed = index;
+        if (probed == null)
+            return JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+        IndexFetch fetch = new IndexFetch(t, probed, lj.t2Alias, null);
+        OpIterator inner = fetch;
+        for (Predicate p : preds)
+            inner = new Filter(p, inner);
+        return new IndexNestedLoopJoin(new JoinPredicate(t1id, lj.p, field), plan1, inner, fetch);
+    }
+
+    /** @return a {@link BTreeScan} of a table between bounds on its key, in
+        ascending or descending order, with the other filters of the table
+        above it */
+    private OpIterator keyScan(TransactionId t, String alias, List<Predicate> preds,
+            Predicate lower, Predicate upper, boolean reverse) {
+        OpIterator plan = new BTreeScan(t, getTableId(alias), alias, indexPredicate(lower),
+                indexPredicate(upper), reverse);
+        for (Predicate p : preds)
+            if (p != lower && p != upper)
+                plan = new Filter(p, plan);
+        return plan;
+    }
+
+    /** @return the predicate on the indexed field of a filter, or null */
+    private static IndexPredicate indexPredicate(Predicate p) {
+        return p == null ? null : new IndexPredicate(p.getOp(), p.getOperand());
+    }
+
+    /** @return the alias of the table whose B+ tree returns its tuples in the
+        order of the ORDER BY clause, so that they need no sort: the only table
+        of a query without joins or aggregates, organized as a B+ tree on the
+        field ordered by; or null if there is none */
+    private String keyOrderedAlias() {
+        if (!hasOrderBy || hasAgg || !joins.isEmpty() || tables.size() != 1)
+            return null;
+        LogicalScanNode table = tables.get(0);
+        DbFile f = Database.getCatalog().getDatabaseFile(table.t);
+        if (!(f instanceof BTreeFile))
+            return null;
+        String key = f.getTupleDesc().getFieldName(((BTreeFile) f).keyField());
+        return oByField.equals(table.alias + "." + key) ? table.alias : null;
+    }
+
+    /** @return true if the entries of an index hold every one of a set of
+        fields of its table */
+    private static boolean covers(SecondaryIndex index, Set<Integer> fields) {
+        if (fields == null)
+            return false;
+        for (int field : fields)
+            if (index.entryField(field) < 0)
+                return false;
+        return true;
+    }
+
+    /** The fields of a table the query reads: those it selects, aggregates,
+        groups or orders by, filters on or joins on.
+
+        @param alias the alias of the table
+        @return the indexes of the fields in the table, or null if the query
+        reads all of them, with SELECT *
+     */
+    private Set<Integer> readFields(String alias) {
+        TupleDesc td = Database.getCatalog().getTupleDesc(getTableId(alias));
+        List<String> names = new ArrayList<>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.aggOp == null && si.fname.equals("null.*"))
+                return null;
+            names.add(si.fname);
+        }
+        for (LogicalSelectListNode a : aggregates)
+            names.add(a.fname);
+        names.addAll(groupByFields);
+        if (hasOrderBy)
+            names.add(oByField);
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.t1Alias + "." + lj.f1PureName);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                names.add(lj.t2Alias + "." + lj.f2PureName);
+        }
+        Set<Integer> fields = new HashSet<>();
+        for (String name : names) {
+            // COUNT(*) reads no field
+            int dot = name.indexOf('.');
+            if (dot < 0 || !name.substring(0, dot).equals(alias))
+                continue;
+            try {
+                fields.add(td.fieldNameToIndex(name.substring(dot + 1)));
+            } catch (NoSuchElementException e) {
+                return null;
+            }
+        }
+        return fields;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned OpIterator will run as a part of
@@ -291,6 +701,7 @@ public class LogicalPlan {
         Iterator<LogicalScanNode> tableIt = tables.iterator();
         Map<String,String> equivMap = new HashMap<>();
         Map<String,Double> filterSelectivities = new HashMap<>();
+        Map<String,List<Predicate>> filterPredicates = new HashMap<>();
         Map<String,TableStats> statsMap = new HashMap<>();
 
         while (tableIt.hasNext()) {
@@ -306,6 +717,7 @@ public class LogicalPlan {
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
+            filterPredicates.put(table.alias, new ArrayList<>());
 
         }
 
@@ -324,6 +736,8 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
+            if (lf.param >= 0)
+                throw new ParsingException("No value given for parameter " + (lf.param + 1));
             if (ftyp == Type.INT_TYPE)
                 f = new IntField(new Integer(lf.c));
             else
@@ -336,19 +750,36 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
             subplanMap.put(lf.tableAlias, new Filter(p, subplan));
-
-            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
-
-            double sel = s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
-            filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
+            filterPredicates.get(lf.tableAlias).add(p);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        // a query ordered by the key of the B+ tree of its only table reads the
+        // table in that order, and needs no sort
+        String ordered = keyOrderedAlias();
+
+        for (Map.Entry<String,List<Predicate>> e : filterPredicates.entrySet()) {
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(e.getKey())));
+            if (e.getValue().isEmpty() && s == null && !e.getKey().equals(ordered))
+                continue;
+            // the filters of a table are estimated together, so that those on
+            // correlated columns are not simply multiplied
+            if (!e.getValue().isEmpty())
+                filterSelectivities.put(e.getKey(), s.estimateSelectivity(e.getValue()));
+            OpIterator index = indexScan(t, e.getKey(), e.getValue(), s, e.getKey().equals(ordered));
+            if (index != null)
+                subplanMap.put(e.getKey(), index);
+        }
         
-        JoinOptimizer jo = new JoinOptimizer(this,joins);
+        if (!joinOrderFixed) {
+            JoinOptimizer jo = new JoinOptimizer(this,joins);
 
-        joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+            joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+        }
 
+        // the tables whose subplans already include a join
+        Set<String> joined = new HashSet<>();
         for (LogicalJoinNode lj : joins) {
             OpIterator plan1;
             OpIterator plan2;
@@ -381,8 +812,13 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
 
             OpIterator j;
-            j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+            if (lj.algorithm == JoinAlgorithm.INDEX_NESTED_LOOPS && !isSubqueryJoin
+                    && !joined.contains(t2name))
+                j = indexJoin(t, lj, plan1, plan2, filterPredicates.get(t2name));
+            else
+                j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
             subplanMap.put(t1name, j);
+            joined.add(t1name);
 
             if (!isSubqueryJoin) {
                 subplanMap.remove(t2name);
@@ -407,34 +843,41 @@ public class LogicalPlan {
         
         OpIterator node = subplanMap.entrySet().iterator().next().getValue();
 
+        // estimate the cardinalities of the joins, which hash joins check
+        // against the actual ones as they run
+        boolean hasSubqueries = false;
+        for (LogicalJoinNode lj : joins)
+            hasSubqueries |= lj instanceof LogicalSubplanJoinNode;
+        if (node instanceof Operator && !hasSubqueries && !statsMap.containsValue(null))
+            OperatorCardinality.updateOperatorCardinality((Operator) node, getTableAliasToIdMapping(), statsMap);
+
+        if (parallelism > 1)
+            node = parallelize(node, t);
+
         //walk the select list, to determine order in which to project output fields
         List<Integer> outFields = new ArrayList<>();
         List<Type> outTypes = new ArrayList<>();
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.get(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
-                TupleDesc td = node.getTupleDesc();
-//                int  id;
-                try {
-//                    id = 
-                    td.fieldNameToIndex(si.fname);
-                } catch (NoSuchElementException e) {
-                    throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
-                }
+                int aggIdx = aggregateIndex(si.aggOp, si.fname);
+                if (aggIdx < 0)
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") was not added to the plan");
+                outFields.add(groupByFields.size() + aggIdx);
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int gbIdx = groupByFields.indexOf(si.fname);
+                    if (gbIdx < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(gbIdx);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -459,25 +902,94 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
+            List<Integer> gfields = new ArrayList<>();
+            List<AggregateSpec> specs = new ArrayList<>();
             Aggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                for (String gb : groupByFields)
+                    gfields.add(td.fieldNameToIndex(gb));
+                for (LogicalSelectListNode a : aggregates) {
+                    // COUNT(*) counts tuples, so any field will do
+                    int afield = a.fname.equals("null.*") ? 0 : td.fieldNameToIndex(a.fname);
+                    specs.add(new AggregateSpec(getAggOp(a.aggOp), afield));
+                }
+                aggNode = new Aggregate(node, gfields, specs);
+                aggNode.setParallelism(parallelism);
             } catch (NoSuchElementException | IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
             node = aggNode;
         }
 
-        if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        if (hasOrderBy && ordered == null) {
+            int oByIdx = node.getTupleDesc().fieldNameToIndex(oByField);
+            if (limit >= 0)
+                node = new TopN(limit, oByIdx, oByAsc, node);
+            else
+                node = new OrderBy(oByIdx, oByAsc, node);
+        } else if (limit >= 0) {
+            node = new Limit(limit, node);
         }
 
         return new Project(outFields, outTypes, node);
     }
 
+    /** Replace every scan of a base table in a plan, together with the
+        filters right above it, by {@link #parallelism} copies of it that take
+        their pages from a shared {@link Morsels}, gathered by a {@link Gather}.
+        The inner input of a nested loops join is left serial, as it is rewound
+        once per outer tuple or block of outer tuples.
+
+        @param node the root of the plan
+        @param t the transaction the plan runs as a part of
+        @return the new root of the plan
+     */
+    private OpIterator parallelize(OpIterator node, TransactionId t) {
+        if (node instanceof SeqScan || node instanceof Filter) {
+            OpIterator gather = gatherScan(node, t);
+            if (gather != null)
+                return gather;
+        }
+        if (node instanceof Operator) {
+            Operator o = (Operator) node;
+            OpIterator[] children = o.getChildren();
+            for (int i = 0; i < children.length; i++) {
+                if (!(o instanceof Join && !(o instanceof SortMergeJoin) && i == 1))
+                    children[i] = parallelize(children[i], t);
+            }
+            o.setChildren(children);
+        }
+        return node;
+    }
+
+    /** @return a Gather over parallel copies of a chain of filters over a
+        scan of a HeapFile, or null if node is not such a chain or the file has
+        a single page
+     */
+    private OpIterator gatherScan(OpIterator node, TransactionId t) {
+        List<Predicate> preds = new ArrayList<>();
+        while (node instanceof Filter) {
+            preds.add(0, ((Filter) node).getPredicate());
+            node = ((Filter) node).getChildren()[0];
+        }
+        if (!(node instanceof SeqScan))
+            return null;
+        SeqScan scan = (SeqScan) node;
+        DbFile f = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        if (!(f instanceof HeapFile) || ((HeapFile) f).numPages() < 2)
+            return null;
+
+        Morsels morsels = Morsels.forTable(((HeapFile) f).numPages(), parallelism);
+        OpIterator[] pipelines = new OpIterator[parallelism];
+        for (int i = 0; i < parallelism; i++) {
+            OpIterator p = new SeqScan(t, scan.getTableId(), scan.getAlias(), morsels);
+            for (Predicate pred : preds)
+                p = new Filter(pred, p);
+            pipelines[i] = p;
+        }
+        return new Gather(pipelines, morsels);
+    }
+
     public static void main(String[] argv) {
         // construct a 3-column table schema
         Type[] types = new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
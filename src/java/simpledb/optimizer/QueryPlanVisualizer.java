@@ -4,7 +4,12 @@ import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.Iterator;
 
+import simpledb.common.Database;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.IndexFetch;
+import simpledb.index.IndexOnlyScan;
 import simpledb.storage.TupleDesc;
 import simpledb.storage.TupleDesc.TDItem;
 
@@ -12,14 +17,36 @@ public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String BLOCK_JOIN = "⨝(block)";
+    static final String MERGE_JOIN = "⨝(merge)";
+    static final String INDEX_JOIN = "⨝(index)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
+    static final String INDEX_SCAN = "btree";
+    static final String INDEX_FETCH = "index";
+    static final String INDEX_ONLY = "index only";
     static final String ORDERBY = "o";
     static final String GROUPBY = "g";
+    static final String LIMIT = "limit";
+    static final String GATHER = "gather";
     static final String SPACE = "  ";
 
+    /** the measurements of the plan drawn, for EXPLAIN ANALYZE, or null */
+    private Profiler profiler;
+
+    // the text of a node, followed by what the operator actually did if the
+    // plan was profiled
+    private String label(OpIterator op, String text) {
+        Profiler.Stats s = profiler == null ? null : profiler.getStats(op);
+        if (s == null)
+            return text;
+        return text + String.format(",rows:%d,ms:%.1f(self %.1f),hits:%d,misses:%d,lockms:%.1f",
+                s.getRows(), s.getInclusiveNanos() / 1e6, s.getExclusiveNanos() / 1e6,
+                s.getHits(), s.getMisses(), s.getLockWaitNanos() / 1e6);
+    }
+
     private int calculateQueryPlanTreeDepth(OpIterator root) {
         if (root == null)
             return 0;
@@ -67,24 +94,66 @@ public class QueryPlanVisualizer {
         int adjustDepth = currentDepth == 0 ? -1 : 0;
         SubTreeDescriptor thisNode = new SubTreeDescriptor(null);
 
-        if (queryPlan instanceof SeqScan) {
-            SeqScan s = (SeqScan) queryPlan;
-            String tableName = s.getTableName();
-            String alias = s.getAlias();
+        if (queryPlan instanceof SeqScan || queryPlan instanceof BTreeScan
+                || queryPlan instanceof IndexFetch || queryPlan instanceof IndexOnlyScan) {
+            String scan = SCAN;
+            String tableName, alias, cond = "";
+            if (queryPlan instanceof SeqScan) {
+                SeqScan s = (SeqScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+            } else if (queryPlan instanceof IndexFetch) {
+                IndexFetch s = (IndexFetch) queryPlan;
+                scan = INDEX_FETCH;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                IndexPredicate ipred = s.getIndexPredicate();
+                if (ipred != null)
+                    cond = "," + s.getTupleDesc().getFieldName(s.getIndex().getField())
+                            + ipred.getOp() + ipred.getField();
+            } else if (queryPlan instanceof IndexOnlyScan) {
+                IndexOnlyScan s = (IndexOnlyScan) queryPlan;
+                scan = INDEX_ONLY;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                IndexPredicate ipred = s.getIndexPredicate();
+                if (ipred != null)
+                    cond = "," + s.getTupleDesc().getFieldName(0) + ipred.getOp() + ipred.getField();
+            } else {
+                BTreeScan s = (BTreeScan) queryPlan;
+                scan = INDEX_SCAN;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                IndexPredicate ipred = s.getIndexPredicate();
+                TupleDesc td = s.getTupleDesc();
+                BTreeFile f = (BTreeFile) Database.getCatalog().getDatabaseFile(s.getTableId());
+                String key = td.getFieldName(f.keyField());
+                if (ipred != null) {
+                    cond = "," + key + ipred.getOp() + ipred.getField();
+                } else {
+                    IndexPredicate lower = s.getLowerBound(), upper = s.getUpperBound();
+                    if (lower != null)
+                        cond += "," + key + lower.getOp() + lower.getField();
+                    if (upper != null && upper != lower)
+                        cond += "," + key + upper.getOp() + upper.getField();
+                }
+                if (s.isReverse())
+                    cond += ",desc";
+            }
 //            TupleDesc td = s.getTupleDesc();
             if (!tableName.equals(alias))
                 alias = " " + alias;
             else
                 alias = "";
-            thisNode.text = String
-                    .format("%1$s(%2$s)", SCAN, tableName + alias);
-            if (SCAN.length() / 2 < parentUpperBarStartShift) {
+            thisNode.text = label(queryPlan, String
+                    .format("%1$s(%2$s)", scan, tableName + alias + cond));
+            if (scan.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - SCAN.length() / 2;
+                        - scan.length() / 2;
             } else {
-                thisNode.upBarPosition = currentStartPosition + SCAN.length()
+                thisNode.upBarPosition = currentStartPosition + scan.length()
                         / 2;
                 thisNode.textStartPosition = currentStartPosition;
             }
@@ -111,16 +180,19 @@ public class QueryPlanVisualizer {
 
             if (plan instanceof Join) {
                 Join j = (Join) plan;
+                String join = plan instanceof BlockNestedLoopJoin ? BLOCK_JOIN
+                        : plan instanceof SortMergeJoin ? MERGE_JOIN
+                        : plan instanceof IndexNestedLoopJoin ? INDEX_JOIN : JOIN;
                 TupleDesc td = j.getTupleDesc();
                 JoinPredicate jp = j.getJoinPredicate();
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", JOIN,
-                        field1 + jp.getOperator() + field2,j.getEstimatedCardinality());
+                thisNode.text = label(queryPlan, String.format("%1$s(%2$s),card:%3$d", join,
+                        field1 + jp.getOperator() + field2,j.getEstimatedCardinality()));
                 int upBarShift = parentUpperBarStartShift;
-                if (JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = JOIN.length() / 2;
+                if (join.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = join.length() / 2;
 
                 SubTreeDescriptor left = this.buildTree(queryPlanDepth,
                         currentDepth + adjustDepth + 3, children[0],
@@ -130,7 +202,7 @@ public class QueryPlanVisualizer {
                         currentStartPosition + left.width + SPACE.length(), 0);
                 thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - JOIN.length() / 2;
+                        - join.length() / 2;
                 thisNode.width = Math.max(
                         left.width + right.width + SPACE.length(),
                         thisNode.textStartPosition + thisNode.text.length()
@@ -145,8 +217,8 @@ public class QueryPlanVisualizer {
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
-                        + jp.getOperator() + field2,j.getEstimatedCardinality());
+                thisNode.text = label(queryPlan, String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
+                        + jp.getOperator() + field2,j.getEstimatedCardinality()));
                 int upBarShift = parentUpperBarStartShift;
                 if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
                     upBarShift = HASH_JOIN.length() / 2;
@@ -172,16 +244,28 @@ public class QueryPlanVisualizer {
                 int upBarShift = parentUpperBarStartShift;
                 String alignTxt;
                 TupleDesc td = a.getTupleDesc();
-                int gfield = a.groupField();
+                TupleDesc childTd = children[0].getTupleDesc();
+                StringBuilder aggs = new StringBuilder();
+                for (AggregateSpec spec : a.aggregates()) {
+                    if (aggs.length() > 0)
+                        aggs.append(", ");
+                    aggs.append(spec.getOp()).append("(")
+                            .append(childTd.getFieldName(spec.getField())).append(")");
+                }
 
-                if (gfield == Aggregator.NO_GROUPING) {
-                    thisNode.text = String.format("%1$s(%2$s),card:%3$d",
-                            a.aggregateOp(), a.aggregateFieldName(),a.getEstimatedCardinality());
+                if (a.groupFields().isEmpty()) {
+                    thisNode.text = label(queryPlan, String.format("%1$s,card:%2$d",
+                            aggs, a.getEstimatedCardinality()));
                     alignTxt = td.getFieldName(0);
                 } else {
-                    thisNode.text = String.format("%1$s(%2$s), %3$s(%4$s),card:%5$d",
-                            GROUPBY, a.groupFieldName(), a.aggregateOp(),
-                            a.aggregateFieldName(),a.getEstimatedCardinality());
+                    StringBuilder groups = new StringBuilder();
+                    for (int gfield : a.groupFields()) {
+                        if (groups.length() > 0)
+                            groups.append(",");
+                        groups.append(childTd.getFieldName(gfield));
+                    }
+                    thisNode.text = label(queryPlan, String.format("%1$s(%2$s), %3$s,card:%4$d",
+                            GROUPBY, groups, aggs, a.getEstimatedCardinality()));
                     alignTxt = GROUPBY;
                 }
                 if (alignTxt.length() / 2 > parentUpperBarStartShift)
@@ -201,10 +285,10 @@ public class QueryPlanVisualizer {
             } else if (plan instanceof Filter) {
                 Filter f = (Filter) plan;
                 Predicate p = f.getPredicate();
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT, children[0]
+                thisNode.text = label(queryPlan, String.format("%1$s(%2$s),card:%3$d", SELECT, children[0]
                         .getTupleDesc().getFieldName(p.getField())
                         + p.getOp()
-                        + p.getOperand(),f.getEstimatedCardinality());
+                        + p.getOperand(),f.getEstimatedCardinality()));
                 int upBarShift = parentUpperBarStartShift;
                 if (SELECT.length() / 2 > parentUpperBarStartShift)
                     upBarShift = SELECT.length() / 2;
@@ -221,11 +305,11 @@ public class QueryPlanVisualizer {
                 thisNode.height = currentDepth;
             } else if (plan instanceof OrderBy) {
                 OrderBy o = (OrderBy) plan;
-                thisNode.text = String.format(
+                thisNode.text = label(queryPlan, String.format(
                         "%1$s(%2$s),card:%3$d",
                         ORDERBY,
                         children[0].getTupleDesc().getFieldName(
-                                o.getOrderByField()),o.getEstimatedCardinality());
+                                o.getOrderByField()),o.getEstimatedCardinality()));
                 int upBarShift = parentUpperBarStartShift;
                 if (ORDERBY.length() / 2 > parentUpperBarStartShift)
                     upBarShift = ORDERBY.length() / 2;
@@ -240,6 +324,36 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof TopN || plan instanceof Limit) {
+                String alignTxt;
+                if (plan instanceof TopN) {
+                    TopN t = (TopN) plan;
+                    thisNode.text = label(queryPlan, String.format(
+                            "%1$s(%2$s),%3$s:%4$d,card:%5$d", ORDERBY,
+                            children[0].getTupleDesc().getFieldName(
+                                    t.getOrderByField()), LIMIT, t.getLimit(),
+                            t.getEstimatedCardinality()));
+                    alignTxt = ORDERBY;
+                } else {
+                    Limit l = (Limit) plan;
+                    thisNode.text = label(queryPlan, String.format("%1$s(%2$d),card:%3$d",
+                            LIMIT, l.getLimit(), l.getEstimatedCardinality()));
+                    alignTxt = LIMIT;
+                }
+                int upBarShift = parentUpperBarStartShift;
+                if (alignTxt.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = alignTxt.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - alignTxt.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
             } else if (plan instanceof Project) {
                 Project p = (Project) plan;
                 StringBuilder fields = new StringBuilder();
@@ -247,7 +361,7 @@ public class QueryPlanVisualizer {
                 while (it.hasNext())
                     fields.append(it.next().fieldName).append(",");
                 fields = new StringBuilder(fields.substring(0, fields.length() - 1));
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", PROJECT, fields.toString(),p.getEstimatedCardinality());
+                thisNode.text = label(queryPlan, String.format("%1$s(%2$s),card:%3$d", PROJECT, fields.toString(),p.getEstimatedCardinality()));
                 int upBarShift = parentUpperBarStartShift;
                 if (PROJECT.length() / 2 > parentUpperBarStartShift)
                     upBarShift = PROJECT.length() / 2;
@@ -263,6 +377,27 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
             }
+            else if (plan instanceof Gather) {
+                // the pipelines of a gather are identical, so only the first
+                // one is drawn
+                Gather g = (Gather) plan;
+                thisNode.text = label(queryPlan, String.format("%1$s(x%2$d),card:%3$d", GATHER,
+                        g.getParallelism(), g.getEstimatedCardinality()));
+                int upBarShift = parentUpperBarStartShift;
+                if (GATHER.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = GATHER.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - GATHER.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
+            }
             else if (plan.getClass().getSuperclass().getSuperclass().getSimpleName().equals("Exchange")) {
                 String name="Exchange";
                 int card=0;
@@ -273,7 +408,7 @@ public class QueryPlanVisualizer {
                     e.printStackTrace();
                 } 
 
-                thisNode.text = String.format("%1$s,card:%2$d", name,card);
+                thisNode.text = label(queryPlan, String.format("%1$s,card:%2$d", name,card));
                 int upBarShift = parentUpperBarStartShift;
                 if (name.length() / 2 > parentUpperBarStartShift)
                     upBarShift = name.length() / 2;
@@ -308,7 +443,7 @@ public class QueryPlanVisualizer {
                     e.printStackTrace();
                 } 
                 String oldName = plan.getChildren()[0].getTupleDesc().getFieldName(fieldIdx);
-                thisNode.text = String.format("%1$s,%2$s->%3$s,card:%4$d", RENAME,oldName,newName,plan.getEstimatedCardinality());
+                thisNode.text = label(queryPlan, String.format("%1$s,%2$s->%3$s,card:%4$d", RENAME,oldName,newName,plan.getEstimatedCardinality()));
                 int upBarShift = parentUpperBarStartShift;
                 if (RENAME.length() / 2 > parentUpperBarStartShift)
                     upBarShift = RENAME.length() / 2;
@@ -392,6 +527,20 @@ public class QueryPlanVisualizer {
         return sb.reverse().toString();
     }
 
+    /**
+     * Draw a plan that has been run under a {@link Profiler}, with the
+     * actual number of tuples, time and page requests of each operator next
+     * to its estimated cardinality.
+     */
+    public String getQueryPlanTree(OpIterator physicalPlan, Profiler profiler) {
+        this.profiler = profiler;
+        try {
+            return getQueryPlanTree(physicalPlan);
+        } finally {
+            this.profiler = null;
+        }
+    }
+
     public void printQueryPlanTree(OpIterator physicalPlan, PrintStream out) {
         if (out == null)
             out = System.out;
@@ -0,0 +1,142 @@
+package simpledb.optimizer;
+
+import simpledb.common.Catalog;
+import simpledb.common.Database;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * StatementCache is an LRU cache of planned statements, keyed by their
+ * normalized SQL text (see {@link #normalize}).
+ * <p>
+ * A cached plan is only valid for the catalog and the table statistics it
+ * was made with: every entry remembers the {@link Catalog} and the versions
+ * of the catalog and of {@link TableStats} current when it was added, and is
+ * dropped when it is looked up after any of them changed.
+ *
+ * @param <T> the type of the cached plans
+ */
+public class StatementCache<T> {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private static class Entry<T> {
+        final T plan;
+        final Catalog catalog;
+        final int catalogVersion;
+        final int statsVersion;
+
+        Entry(T plan) {
+            this.plan = plan;
+            this.catalog = Database.getCatalog();
+            this.catalogVersion = catalog.getVersion();
+            this.statsVersion = TableStats.getVersion();
+        }
+
+        boolean isCurrent() {
+            Catalog c = Database.getCatalog();
+            return c == catalog && c.getVersion() == catalogVersion
+                    && TableStats.getVersion() == statsVersion;
+        }
+    }
+
+    private final Map<String, Entry<T>> entries;
+    private int hits, misses;
+
+    public StatementCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the largest number of plans kept; the least recently
+     *                 used one is evicted to make room for more
+     */
+    public StatementCache(final int capacity) {
+        this.entries = new LinkedHashMap<String, Entry<T>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry<T>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Normalize the text of a statement, so that statements differing only
+     * in white space or a trailing semicolon share a cache entry. White
+     * space inside quoted strings is kept.
+     */
+    public static String normalize(String sql) {
+        StringBuilder sb = new StringBuilder(sql.length());
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (quote != 0) {
+                sb.append(c);
+                if (c == quote)
+                    quote = 0;
+            } else if (Character.isWhitespace(c)) {
+                space = true;
+            } else {
+                if (space && sb.length() > 0)
+                    sb.append(' ');
+                space = false;
+                if (c == '\'' || c == '"')
+                    quote = c;
+                sb.append(c);
+            }
+        }
+        int end = sb.length();
+        while (end > 0 && (sb.charAt(end - 1) == ';' || sb.charAt(end - 1) == ' '))
+            end--;
+        sb.setLength(end);
+        return sb.toString();
+    }
+
+    /**
+     * @param key the normalized text of a statement
+     * @return the plan cached for key, or null if there is none or it is
+     *         out of date
+     */
+    public synchronized T get(String key) {
+        Entry<T> e = entries.get(key);
+        if (e != null && !e.isCurrent()) {
+            entries.remove(key);
+            e = null;
+        }
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return e.plan;
+    }
+
+    /**
+     * Cache a plan made with the current catalog and statistics.
+     *
+     * @param key the normalized text of the statement
+     */
+    public synchronized void put(String key, T plan) {
+        entries.put(key, new Entry<>(plan));
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        hits = 0;
+        misses = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+}
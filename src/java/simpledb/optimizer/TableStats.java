@@ -1,35 +1,57 @@
 package simpledb.optimizer;
 
 import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
 import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
 import simpledb.execution.Predicate;
-import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.HashFile;
+import simpledb.index.SecondaryIndex;
 import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
+import java.io.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * TableStats represents statistics (e.g., histograms) about base tables in a
- * query. 
+ * query: for each column, a {@link ColumnStats} of its most common values,
+ * an equi-depth histogram and the number of its distinct values, and for
+ * each group of columns declared with
+ * {@link simpledb.common.Catalog#addColumnGroup}, a {@link ColumnGroupStats}
+ * of their combined values.
  * 
  * This class is not needed in implementing lab1 and lab2.
  */
-public class TableStats {
+public class TableStats implements Serializable {
 
     private static final ConcurrentMap<String, TableStats> statsMap = new ConcurrentHashMap<>();
 
     static final int IOCOSTPERPAGE = 1000;
 
+    /** bumped whenever the statistics of a table are replaced */
+    private static final AtomicInteger version = new AtomicInteger();
+
     public static TableStats getTableStats(String tablename) {
         return statsMap.get(tablename);
     }
 
     public static void setTableStats(String tablename, TableStats stats) {
         statsMap.put(tablename, stats);
+        version.incrementAndGet();
     }
     
     public static void setStatsMap(Map<String,TableStats> s)
@@ -38,6 +60,7 @@ public class TableStats {
             java.lang.reflect.Field statsMapF = TableStats.class.getDeclaredField("statsMap");
             statsMapF.setAccessible(true);
             statsMapF.set(null, s);
+            version.incrementAndGet();
         } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException | SecurityException e) {
             e.printStackTrace();
         }
@@ -48,18 +71,81 @@ public class TableStats {
         return statsMap;
     }
 
+    /**
+     * @return a number that changes whenever the statistics of any table
+     *         are replaced, so that plans made with older statistics can be
+     *         told apart
+     */
+    public static int getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Load the statistics saved by {@link #saveStatistics}, compute those of
+     * the tables that have none or whose files changed since, and save them
+     * all.
+     */
     public static void computeStatistics() {
+        Map<String, TableStats> saved = loadStatistics(Database.getCatalog().getStatisticsFile());
         Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
 
         System.out.println("Computing table stats.");
         while (tableIt.hasNext()) {
             int tableid = tableIt.next();
-            TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
-            setTableStats(Database.getCatalog().getTableName(tableid), s);
+            String name = Database.getCatalog().getTableName(tableid);
+            TableStats s = saved.get(name);
+            if (s == null || !s.isCurrent(tableid))
+                s = new TableStats(tableid, IOCOSTPERPAGE);
+            setTableStats(name, s);
         }
+        saveStatistics();
         System.out.println("Done.");
     }
 
+    @SuppressWarnings("unchecked")
+    private static Map<String, TableStats> loadStatistics(File f) {
+        if (f == null || !f.exists())
+            return new HashMap<>();
+        try (ObjectInputStream in = new ObjectInputStream(
+                new BufferedInputStream(new FileInputStream(f)))) {
+            return (Map<String, TableStats>) in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            System.out.println("Ignoring unreadable table stats " + f + ": " + e);
+            return new HashMap<>();
+        }
+    }
+
+    /**
+     * Save the statistics of the tables in the catalog next to the schema it
+     * was loaded from, if any, so that they need not be computed again.
+     */
+    public static void saveStatistics() {
+        File f = Database.getCatalog().getStatisticsFile();
+        if (f == null)
+            return;
+        HashMap<String, TableStats> stats = new HashMap<>();
+        Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
+        while (tableIt.hasNext()) {
+            String name = Database.getCatalog().getTableName(tableIt.next());
+            TableStats s = statsMap.get(name);
+            if (s != null)
+                stats.put(name, s);
+        }
+        File tmp = new File(f.getPath() + ".tmp");
+        try (ObjectOutputStream out = new ObjectOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeObject(stats);
+        } catch (IOException e) {
+            System.out.println("Cannot save table stats to " + f + ": " + e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(f)) {
+            System.out.println("Cannot save table stats to " + f);
+            tmp.delete();
+        }
+    }
+
     /**
      * Number of bins for the histogram. Feel free to increase this value over
      * 100, though our tests assume that you have at least 100 bins in your
@@ -67,23 +153,80 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    /**
+     * The number of tuples read to compute the statistics of a table, by
+     * default. The pages of larger heap files are sampled.
+     */
+    public static final int DEFAULT_SAMPLE_SIZE = 100000;
+
+    private static volatile int sampleSize = DEFAULT_SAMPLE_SIZE;
+
+    /**
+     * Set the number of tuples read to compute the statistics of a table.
+     */
+    public static void setSampleSize(int tuples) {
+        if (tuples < 1)
+            throw new IllegalArgumentException("sample size must be positive");
+        sampleSize = tuples;
+    }
+
+    public static void resetSampleSize() {
+        sampleSize = DEFAULT_SAMPLE_SIZE;
+    }
+
+    public static int getSampleSize() {
+        return sampleSize;
+    }
+
+    @Serial
+    private static final long serialVersionUID = 5L;
+
+    private final int tableid;
+
     private int totalPages;
 
     private int totalTuples;
 
-    private TupleDesc td;
+    private final TupleDesc td;
 
-    private int ioCostPerPage;
+    private final int ioCostPerPage;
 
-    private Histogram[] histograms;
+    private final ColumnStats<?>[] columns;
 
-    private int[] minValues;
+    private final ColumnGroupStats[] groups;
 
-    private int[] maxValues;
+    /** the number of pages read to reach a leaf of a B+ tree, or 0 */
+    private int indexDepth;
+
+    /** the depth and number of pages of the secondary index of each field, or 0 */
+    private final int[] secondaryDepth, secondaryPages;
+
+    /** whether each field has a hash index, and its number of pages */
+    private final boolean[] hashed;
+    private final int[] hashPages;
+
+    /** the pages read to reach the entries of each secondary index -- the
+        depth of a B+ tree, the meta page of a hash file -- and its number of
+        pages, by the id of the index file, which is the same each time the
+        catalog is loaded */
+    private final Map<Integer, int[]> indexPages = new HashMap<>();
+
+    /**
+     * The fraction of the pages of the table read to fill the histograms.
+     * The same fraction of the tuples inserted into or deleted from the
+     * table later is added to or removed from them.
+     */
+    private double sampleRate = 1.0;
+
+    private double insertCredit, deleteCredit;
 
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
+     * <p>
+     * The statistics are computed in a single pass over at most
+     * {@link #getSampleSize} tuples: a heap file with more is sampled, whole
+     * pages at a time, and other files are scanned in full.
      * 
      * @param tableid
      *            The table over which to compute statistics
@@ -92,71 +235,236 @@ public class TableStats {
      *            sequential-scan IO and disk seeks.
      */
     public TableStats(int tableid, int ioCostPerPage) {
-        // For this function, you'll have to get the
-        // DbFile for the table in question,
-        // then scan through its tuples and calculate
-        // the values that you need.
-        // You should try to do this reasonably efficiently, but you don't
-        // necessarily have to (for example) do everything
-        // in a single scan of the table.
-        // some code goes here
-        HeapFile table = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
-        this.totalPages = table.numPages();
+        DbFile table = Database.getCatalog().getDatabaseFile(tableid);
+        this.tableid = tableid;
+        this.totalPages = numPages(table);
         this.totalTuples = 0;
         this.td = table.getTupleDesc();
-        this.histograms = new Histogram[td.numFields()];
-        this.minValues = new int[td.numFields()];
-        this.maxValues = new int[td.numFields()];
+        this.columns = new ColumnStats<?>[td.numFields()];
         this.ioCostPerPage = ioCostPerPage;
+        this.secondaryDepth = new int[td.numFields()];
+        this.secondaryPages = new int[td.numFields()];
+        this.hashed = new boolean[td.numFields()];
+        this.hashPages = new int[td.numFields()];
 
-        for(int i = 0; i < td.numFields(); i++) {
-            minValues[i] = Integer.MAX_VALUE;
-            maxValues[i] = Integer.MIN_VALUE;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                columns[i] = new ColumnStats<Integer>(NUM_HIST_BINS, sampleSize);
+            else
+                columns[i] = new ColumnStats<String>(NUM_HIST_BINS, sampleSize);
         }
-        // SeqScan1 get max and min
-        SeqScan ss1 = new SeqScan(new TransactionId(), tableid);
+        List<int[]> declared = Database.getCatalog().getColumnGroups(tableid);
+        this.groups = new ColumnGroupStats[declared.size()];
+        for (int i = 0; i < groups.length; i++)
+            groups[i] = new ColumnGroupStats(declared.get(i), NUM_HIST_BINS, sampleSize);
+        // the scan only reads, but must release its locks when done
+        TransactionId tid = new TransactionId();
         try {
-            ss1.open();
-            while(ss1.hasNext()) {
-                this.totalTuples++;
-                Tuple t = ss1.next();
-                for(int j = 0; j < t.getTupleDesc().numFields(); j++) {
-                    if(t.getTupleDesc().getFieldType(j) == Type.INT_TYPE) {
-                        minValues[j] = Math.min(minValues[j], ((IntField) t.getField(j)).getValue());
-                        maxValues[j] = Math.max(maxValues[j], ((IntField) t.getField(j)).getValue());
-                    }
+            if (table instanceof HeapFile)
+                samplePages(tid);
+            else
+                scan(table.iterator(tid));
+            if (table instanceof BTreeFile)
+                indexDepth = ((BTreeFile) table).depth(tid);
+            for (SecondaryIndex index : Database.getCatalog().getIndexes(tableid)) {
+                if (index.isHash()) {
+                    hashed[index.getField()] = true;
+                    hashPages[index.getField()] = ((HashFile) index.getFile()).numPages();
+                    indexPages.put(index.getFile().getId(), new int[] { 1, hashPages[index.getField()] });
+                } else {
+                    BTreeFile bf = (BTreeFile) index.getFile();
+                    secondaryDepth[index.getField()] = bf.depth(tid);
+                    secondaryPages[index.getField()] = bf.numPages();
+                    indexPages.put(index.getFile().getId(), new int[] { secondaryDepth[index.getField()],
+                            secondaryPages[index.getField()] });
                 }
             }
-            ss1.close();
-        } catch (Exception e) {
-            System.out.println("TableStats can not scan1 Table:" + tableid + "!");
+        } catch (DbException | TransactionAbortedException e) {
+            System.out.println("TableStats can not scan Table:" + tableid + "!");
+        } finally {
+            Database.getBufferPool().transactionComplete(tid);
         }
+        for (ColumnStats<?> c : columns)
+            c.build(totalTuples);
+        for (ColumnGroupStats g : groups)
+            g.build(totalTuples);
+    }
 
-        for(int i = 0; i < td.numFields(); i++) {
-            if(td.getFieldType(i) == Type.INT_TYPE) {
-                histograms[i] = new IntHistogram(NUM_HIST_BINS, minValues[i], maxValues[i]);
+    // fill the histograms from a random sample of whole pages of a heap file
+    private void samplePages(TransactionId tid)
+            throws DbException, TransactionAbortedException {
+        int perPage = BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+        int pages = (int) Math.min(totalPages, ((long) sampleSize + perPage - 1) / perPage);
+        int[] sample = choosePages(pages);
+        int sampled = 0;
+        for (int pgNo : sample) {
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(tableid, pgNo), Permissions.READ_ONLY);
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext()) {
+                add(it.next());
+                sampled++;
             }
-            else histograms[i] = new StringHistogram(NUM_HIST_BINS);
         }
-        // SeqScan2 build histogram
-        SeqScan ss2 = new SeqScan(new TransactionId(), tableid);
-        try {
-            ss2.open();
-            while(ss2.hasNext()) {
-                Tuple t = ss2.next();
-                for(int j = 0; j < t.getTupleDesc().numFields(); j++) {
-                    if(t.getTupleDesc().getFieldType(j) == Type.INT_TYPE) {
-                        ((IntHistogram) histograms[j]).addValue(((IntField) t.getField(j)).getValue());
-                    }
-                    else {
-                        ((StringHistogram) histograms[j]).addValue(((StringField) t.getField(j)).getValue());
-                    }
-                }
+        if (pages < totalPages) {
+            sampleRate = (double) pages / totalPages;
+            totalTuples = (int) Math.round(sampled / sampleRate);
+        } else {
+            totalTuples = sampled;
+        }
+    }
+
+    // k distinct page numbers chosen at random, in file order; the same ones
+    // each time, so that statistics are reproducible
+    private int[] choosePages(int k) {
+        if (k == totalPages) {
+            int[] all = new int[k];
+            for (int i = 0; i < k; i++)
+                all[i] = i;
+            return all;
+        }
+        // Floyd's algorithm
+        Random r = new Random(tableid);
+        Set<Integer> chosen = new HashSet<>();
+        for (int i = totalPages - k; i < totalPages; i++) {
+            int p = r.nextInt(i + 1);
+            chosen.add(chosen.contains(p) ? i : p);
+        }
+        int[] pages = chosen.stream().mapToInt(Integer::intValue).toArray();
+        Arrays.sort(pages);
+        return pages;
+    }
+
+    private void scan(DbFileIterator it) throws DbException, TransactionAbortedException {
+        it.open();
+        while (it.hasNext()) {
+            add(it.next());
+            totalTuples++;
+        }
+        it.close();
+    }
+
+    private void add(Tuple t) {
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE)
+                intColumn(j).addValue(((IntField) t.getField(j)).getValue());
+            else
+                stringColumn(j).addValue(((StringField) t.getField(j)).getValue());
+        }
+        for (ColumnGroupStats g : groups)
+            g.addTuple(t);
+    }
+
+    private void remove(Tuple t) {
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE)
+                intColumn(j).removeValue(((IntField) t.getField(j)).getValue());
+            else
+                stringColumn(j).removeValue(((StringField) t.getField(j)).getValue());
+        }
+        for (ColumnGroupStats g : groups)
+            g.removeTuple(t);
+    }
+
+    private void addDistinct(Tuple t) {
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE)
+                intColumn(j).addDistinct(((IntField) t.getField(j)).getValue());
+            else
+                stringColumn(j).addDistinct(((StringField) t.getField(j)).getValue());
+        }
+        for (ColumnGroupStats g : groups)
+            g.addDistinct(t);
+    }
+
+    @SuppressWarnings("unchecked")
+    private ColumnStats<Integer> intColumn(int field) {
+        return (ColumnStats<Integer>) columns[field];
+    }
+
+    @SuppressWarnings("unchecked")
+    private ColumnStats<String> stringColumn(int field) {
+        return (ColumnStats<String>) columns[field];
+    }
+
+    private static int numPages(DbFile f) {
+        if (f instanceof HeapFile)
+            return ((HeapFile) f).numPages();
+        if (f instanceof BTreeFile)
+            return ((BTreeFile) f).numPages();
+        return 0;
+    }
+
+    // true if these statistics were computed over the current file of
+    // tableid, and for the column groups declared now
+    private boolean isCurrent(int tableid) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (this.tableid != tableid || !td.equals(f.getTupleDesc())
+                || totalPages != numPages(f))
+            return false;
+        List<int[]> declared = Database.getCatalog().getColumnGroups(tableid);
+        if (declared.size() != groups.length)
+            return false;
+        for (int i = 0; i < groups.length; i++)
+            if (!Arrays.equals(declared.get(i), groups[i].getFields()))
+                return false;
+        List<SecondaryIndex> indexes = Database.getCatalog().getIndexes(tableid);
+        if (indexPages.size() != indexes.size())
+            return false;
+        for (SecondaryIndex index : indexes)
+            if (!indexPages.containsKey(index.getFile().getId()))
+                return false;
+        return true;
+    }
+
+    /**
+     * Account for a tuple inserted into a table, without scanning it again.
+     *
+     * @param tableid the table the tuple was inserted into
+     * @param t the tuple
+     */
+    public static void recordInsert(int tableid, Tuple t) {
+        TableStats s = statsMap.get(Database.getCatalog().getTableName(tableid));
+        if (s != null)
+            s.update(t, true);
+    }
+
+    /**
+     * Account for a tuple deleted from a table, without scanning it again.
+     *
+     * @param tableid the table the tuple was deleted from
+     * @param t the tuple
+     */
+    public static void recordDelete(int tableid, Tuple t) {
+        TableStats s = statsMap.get(Database.getCatalog().getTableName(tableid));
+        if (s != null)
+            s.update(t, false);
+    }
+
+    @Serial
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+    }
+
+    private synchronized void update(Tuple t, boolean insert) {
+        if (insert) {
+            totalTuples++;
+            addDistinct(t);
+            insertCredit += sampleRate;
+            if (insertCredit >= 1) {
+                insertCredit--;
+                add(t);
+            }
+        } else {
+            totalTuples = Math.max(0, totalTuples - 1);
+            deleteCredit += sampleRate;
+            if (deleteCredit >= 1) {
+                deleteCredit--;
+                remove(t);
             }
-            ss2.close();
-        } catch (Exception e) {
-            System.out.println("TableStats can not scan2 Table:" + tableid + "!");
         }
+        totalPages = Math.max(totalPages,
+                numPages(Database.getCatalog().getDatabaseFile(tableid)));
     }
 
     /**
@@ -176,6 +484,94 @@ public class TableStats {
         return this.totalPages*this.ioCostPerPage;
     }
 
+    /**
+     * Estimates the cost of reading the tuples of a B+ tree organized table
+     * that match a predicate on its key: a descent from the root to the
+     * first matching leaf, then the share of the pages of the table those
+     * tuples fill.
+     * 
+     * @param selectivityFactor
+     *            The selectivity of the predicate on the key
+     * @return The estimated cost of the index scan, or infinity if the
+     *         table is not a B+ tree
+     */
+    public double estimateIndexScanCost(double selectivityFactor) {
+        if (indexDepth == 0)
+            return Double.POSITIVE_INFINITY;
+        return (indexDepth + Math.ceil(selectivityFactor * totalPages)) * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of reading the tuples that match a predicate on a
+     * field with a secondary index: a descent from the root of the index, the
+     * share of its pages the matching entries fill, then the pages of the
+     * table holding the matching tuples. The record ids are sorted before the
+     * tuples are fetched, so each of those pages is read once, and a page is
+     * expected to hold one of n tuples spread at random over p pages with
+     * probability 1 - (1 - 1/p)^n.
+     * 
+     * @param field
+     *            The index of the field of the predicate
+     * @param selectivityFactor
+     *            The selectivity of the predicate
+     * @return The estimated cost of the index fetch, or infinity if the
+     *         field has no secondary index
+     */
+    public double estimateIndexFetchCost(int field, double selectivityFactor) {
+        if (secondaryDepth[field] == 0)
+            return Double.POSITIVE_INFINITY;
+        double matches = selectivityFactor * totalTuples;
+        double pages = totalPages == 0 ? 0
+                : totalPages * (1 - Math.pow(1 - 1.0 / totalPages, matches));
+        return (secondaryDepth[field] + Math.ceil(selectivityFactor * secondaryPages[field])
+                + Math.ceil(pages)) * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of reading the tuples that match an equality
+     * predicate on a field with a hash index: the meta page of the index,
+     * the pages of the bucket of the key, at least one, then the pages of
+     * the table holding the matching tuples, as for
+     * {@link #estimateIndexFetchCost}.
+     * 
+     * @param field
+     *            The index of the field of the predicate
+     * @param selectivityFactor
+     *            The selectivity of the predicate
+     * @return The estimated cost of the hash fetch, or infinity if the
+     *         field has no hash index
+     */
+    public double estimateHashFetchCost(int field, double selectivityFactor) {
+        if (!hashed[field])
+            return Double.POSITIVE_INFINITY;
+        double matches = selectivityFactor * totalTuples;
+        double pages = totalPages == 0 ? 0
+                : totalPages * (1 - Math.pow(1 - 1.0 / totalPages, matches));
+        return (1 + Math.max(1, Math.ceil(selectivityFactor * hashPages[field]))
+                + Math.ceil(pages)) * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of reading the matching tuples from the entries of a
+     * secondary index alone, when they include every field the query reads:
+     * the pages read to reach the entries, then the share of the pages of
+     * the index they fill. No page of the table is read.
+     * 
+     * @param index
+     *            The index
+     * @param selectivityFactor
+     *            The selectivity of the predicate on the indexed field, or 1
+     *            to read all the entries
+     * @return The estimated cost of the index-only scan, or infinity if the
+     *         index is not one of the table
+     */
+    public double estimateIndexOnlyCost(SecondaryIndex index, double selectivityFactor) {
+        int[] pages = indexPages.get(index.getFile().getId());
+        if (pages == null)
+            return Double.POSITIVE_INFINITY;
+        return (pages[0] + Math.max(1, Math.ceil(selectivityFactor * pages[1]))) * ioCostPerPage;
+    }
+
     /**
      * This method returns the number of tuples in the relation, given that a
      * predicate with selectivity selectivityFactor is applied.
@@ -200,9 +596,43 @@ public class TableStats {
      * tuple, of which we do not know the value of the field, return the
      * expected selectivity. You may estimate this value from the histograms.
      * */
-    public double avgSelectivity(int field, Predicate.Op op) {
+    public synchronized double avgSelectivity(int field, Predicate.Op op) {
         // some code goes here
-        return 1.0;
+        switch (op) {
+        case EQUALS:
+            return columns[field].avgSelectivity();
+        case NOT_EQUALS:
+            return 1 - columns[field].avgSelectivity();
+        default:
+            return 1.0;
+        }
+    }
+
+    /**
+     * @return the estimated number of distinct values of a field
+     */
+    public synchronized double estimateDistinct(int field) {
+        return columns[field].distinct();
+    }
+
+    /**
+     * Estimate the selectivity of the equi-join of a field of this table with
+     * a field of another, the fraction of the pairs of their tuples that
+     * join.
+     *
+     * @return the selectivity, or NaN if the fields have different types
+     */
+    public double estimateJoinSelectivity(int field, TableStats other, int otherField) {
+        if (td.getFieldType(field) != other.td.getFieldType(otherField))
+            return Double.NaN;
+        // lock both in a fixed order
+        TableStats first = System.identityHashCode(this) <= System.identityHashCode(other) ? this : other;
+        TableStats second = first == this ? other : this;
+        synchronized (first) {
+            synchronized (second) {
+                return ColumnStats.equiJoinSelectivity(columns[field], other.columns[otherField]);
+            }
+        }
     }
 
     /**
@@ -218,14 +648,88 @@ public class TableStats {
      * @return The estimated selectivity (fraction of tuples that satisfy) the
      *         predicate
      */
-    public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
+    public synchronized double estimateSelectivity(int field, Predicate.Op op, Field constant) {
         // some code goes here
         if(td.getFieldType(field) == Type.INT_TYPE) {
-            return ((IntHistogram) histograms[field]).estimateSelectivity(op, ((IntField) constant).getValue());
+            return intColumn(field).estimateSelectivity(op, ((IntField) constant).getValue());
         }
         else{
-            return ((StringHistogram) histograms[field]).estimateSelectivity(op, ((StringField) constant).getValue());
+            return stringColumn(field).estimateSelectivity(op, ((StringField) constant).getValue());
+        }
+    }
+
+    /**
+     * Estimate the selectivity of a range of values of a field, bounded below,
+     * above or on both ends. The tuples within a range bounded on both ends
+     * are those not below the lower bound less those above the upper one, so
+     * the two bounds are not assumed independent.
+     *
+     * @param field
+     *            The field over which the range ranges
+     * @param lower
+     *            The lower bound, with operator GREATER_THAN,
+     *            GREATER_THAN_OR_EQ or EQUALS, or null for none
+     * @param upper
+     *            The upper bound, with operator LESS_THAN, LESS_THAN_OR_EQ
+     *            or EQUALS, or null for none
+     * @return The estimated selectivity of the range
+     */
+    public double estimateRangeSelectivity(int field, IndexPredicate lower, IndexPredicate upper) {
+        double lowerSel = lower == null ? 1.0 : estimateSelectivity(field, lower.getOp(), lower.getField());
+        double upperSel = upper == null ? 1.0 : estimateSelectivity(field, upper.getOp(), upper.getField());
+        if (lower == null || upper == null || lower.getOp() == Predicate.Op.EQUALS
+                || upper.getOp() == Predicate.Op.EQUALS)
+            return Math.min(lowerSel, upperSel);
+        return Math.max(0.0, lowerSel + upperSel - 1.0);
+    }
+
+    /**
+     * Estimate the selectivity of the conjunction of several predicates
+     * <tt>field op constant</tt> on the table. Equality predicates on every
+     * column of a declared column group are estimated together from the
+     * statistics of the group, the largest groups first; the other
+     * predicates are assumed independent of each other and of the groups.
+     *
+     * @param predicates
+     *            The predicates, all of which tuples must satisfy
+     * @return The estimated selectivity of the conjunction
+     */
+    public synchronized double estimateSelectivity(List<Predicate> predicates) {
+        // the first equality predicate on each field
+        Predicate[] equal = new Predicate[td.numFields()];
+        for (Predicate p : predicates)
+            if (p.getOp() == Predicate.Op.EQUALS && equal[p.getField()] == null)
+                equal[p.getField()] = p;
+
+        ColumnGroupStats[] byWidth = groups.clone();
+        Arrays.sort(byWidth, (a, b) -> b.getFields().length - a.getFields().length);
+        Set<Predicate> covered = new HashSet<>();
+        double sel = 1.0;
+        for (ColumnGroupStats g : byWidth) {
+            int[] fields = g.getFields();
+            Field[] constants = new Field[fields.length];
+            boolean applies = true;
+            for (int i = 0; i < fields.length && applies; i++) {
+                Predicate p = equal[fields[i]];
+                applies = p != null && !covered.contains(p);
+                if (applies)
+                    constants[i] = p.getOperand();
+            }
+            if (!applies)
+                continue;
+            // the group cannot match more tuples than any of its columns
+            double groupSel = g.estimateEquality(constants);
+            for (int i = 0; i < fields.length; i++) {
+                groupSel = Math.min(groupSel,
+                        estimateSelectivity(fields[i], Predicate.Op.EQUALS, constants[i]));
+                covered.add(equal[fields[i]]);
+            }
+            sel *= groupSel;
         }
+        for (Predicate p : predicates)
+            if (!covered.contains(p))
+                sel *= estimateSelectivity(p.getField(), p.getOp(), p.getOperand());
+        return sel;
     }
 
     /**
@@ -0,0 +1,149 @@
+package simpledb.server;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * LoadGenerator runs a fixed set of statements against a {@link QueryServer}
+ * from many concurrent clients for a while, then prints the throughput and
+ * the latency distribution of the statements. A statement may be prepared
+ * with parameters, written as ?, which are given random integers in
+ * [0, {@link #PARAM_RANGE}) each time it is run.
+ */
+public class LoadGenerator {
+
+    static final String usage = "Usage: LoadGenerator host port clients seconds statement...";
+
+    static final int PARAM_RANGE = 1000;
+
+    /** @return the number of ? outside of quoted strings in sql */
+    static int countParameters(String sql) {
+        int n = 0;
+        char quote = 0;
+        for (char c : sql.toCharArray()) {
+            if (quote != 0) {
+                if (c == quote)
+                    quote = 0;
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '?') {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /** The results of one client thread. */
+    private static class Worker extends Thread {
+
+        private final String host;
+        private final int port;
+        private final String[] statements;
+        private final long deadline;
+        private final int first;
+        private long[] latencies = new long[1024];
+        private int done;
+        private int errors;
+        private Exception failure;
+
+        Worker(String host, int port, String[] statements, long deadline, int n) {
+            super("load-" + n);
+            this.host = host;
+            this.port = port;
+            this.statements = statements;
+            this.deadline = deadline;
+            this.first = n % statements.length;
+        }
+
+        public void run() {
+            Random rand = new Random();
+            int[] numParams = new int[statements.length];
+            for (int i = 0; i < statements.length; i++)
+                numParams[i] = countParameters(statements[i]);
+            try (QueryClient client = new QueryClient(host, port)) {
+                int next = first;
+                while (System.nanoTime() < deadline) {
+                    String sql = statements[next];
+                    Field[] params = new Field[numParams[next]];
+                    for (int i = 0; i < params.length; i++)
+                        params[i] = new IntField(rand.nextInt(PARAM_RANGE));
+                    next = (next + 1) % statements.length;
+                    long start = System.nanoTime();
+                    try {
+                        client.query(sql, params);
+                    } catch (DbException e) {
+                        // e.g. a deadlock; make sure the transaction is over
+                        errors++;
+                        try {
+                            client.abort();
+                        } catch (DbException ignored) {
+                        }
+                        continue;
+                    }
+                    if (done == latencies.length)
+                        latencies = Arrays.copyOf(latencies, done * 2);
+                    latencies[done++] = System.nanoTime() - start;
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
+
+    private static double percentileMs(long[] sorted, double p) {
+        if (sorted.length == 0)
+            return 0;
+        int i = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(0, i)] / 1e6;
+    }
+
+    public static void main(String[] argv) throws InterruptedException {
+        if (argv.length < 5) {
+            System.out.println(usage);
+            System.exit(0);
+        }
+        String host = argv[0];
+        int port = Integer.parseInt(argv[1]);
+        int clients = Integer.parseInt(argv[2]);
+        int seconds = Integer.parseInt(argv[3]);
+        String[] statements = Arrays.copyOfRange(argv, 4, argv.length);
+
+        long start = System.nanoTime();
+        long deadline = start + seconds * 1_000_000_000L;
+        List<Worker> workers = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            Worker w = new Worker(host, port, statements, deadline, i);
+            workers.add(w);
+            w.start();
+        }
+        int total = 0, errors = 0;
+        for (Worker w : workers) {
+            w.join();
+            if (w.failure != null)
+                System.out.println(w.getName() + " failed: " + w.failure);
+            total += w.done;
+            errors += w.errors;
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        long[] all = new long[total];
+        int pos = 0;
+        for (Worker w : workers) {
+            System.arraycopy(w.latencies, 0, all, pos, w.done);
+            pos += w.done;
+        }
+        Arrays.sort(all);
+        System.out.printf("%d clients, %.1f s: %d statements (%.1f/s), %d aborted%n",
+                clients, elapsed, total, total / elapsed, errors);
+        System.out.printf("latency ms: p50 %.2f  p95 %.2f  p99 %.2f  max %.2f%n",
+                percentileMs(all, 0.50), percentileMs(all, 0.95),
+                percentileMs(all, 0.99), percentileMs(all, 1.0));
+    }
+}
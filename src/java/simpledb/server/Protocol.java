@@ -0,0 +1,161 @@
+package simpledb.server;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.*;
+
+/**
+ * The binary wire protocol spoken between {@link QueryServer} and
+ * {@link QueryClient}.
+ * <p>
+ * Every message is a frame: a 4 byte big-endian length, followed by that
+ * many bytes holding a one byte message type and the message body. The
+ * client sends one request at a time per connection and reads its
+ * response before sending the next:
+ * <pre>
+ *   PREPARE  sql:utf                  PREPARED  statementId:int
+ *   EXECUTE  statementId:int,         RESULT    tupleDesc
+ *            n:int, n values
+ *   FETCH    maxRows:int              BATCH     n:int, n tuples, done:boolean
+ *   COMMIT                            OK
+ *   ABORT                             OK
+ *   (any request that fails)          ERROR     message:utf
+ * </pre>
+ * A tupleDesc is its number of fields followed by the type (0 for INT, 1 for
+ * STRING) and name of each field. A tuple is its fields in order: an int for
+ * an INT field, a utf string for a STRING field. The values of the
+ * parameters of a statement are each a type followed by a field.
+ */
+public class Protocol {
+
+    /** Largest frame accepted, in bytes. */
+    public static final int MAX_FRAME = 16 << 20;
+
+    // requests
+    public static final byte PREPARE = 1;
+    public static final byte EXECUTE = 2;
+    public static final byte FETCH = 3;
+    public static final byte COMMIT = 4;
+    public static final byte ABORT = 5;
+
+    // responses
+    public static final byte PREPARED = 11;
+    public static final byte RESULT = 12;
+    public static final byte BATCH = 13;
+    public static final byte OK = 14;
+    public static final byte ERROR = 15;
+
+    private static final byte INT_FIELD = 0;
+    private static final byte STRING_FIELD = 1;
+
+    /**
+     * Accumulates the body of a message and turns it into a frame.
+     */
+    public static class FrameBuilder extends DataOutputStream {
+
+        public FrameBuilder(byte type) {
+            super(new ByteArrayOutputStream());
+            try {
+                writeInt(0); // length, filled in by toFrame
+                writeByte(type);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /** @return the frame, length prefix included */
+        public byte[] toFrame() {
+            byte[] frame = ((ByteArrayOutputStream) out).toByteArray();
+            int len = frame.length - 4;
+            frame[0] = (byte) (len >>> 24);
+            frame[1] = (byte) (len >>> 16);
+            frame[2] = (byte) (len >>> 8);
+            frame[3] = (byte) len;
+            return frame;
+        }
+    }
+
+    /**
+     * @param message a frame without its length prefix
+     * @return a reader over the message, starting at its type
+     */
+    public static DataInputStream reader(byte[] message) {
+        return new DataInputStream(new ByteArrayInputStream(message));
+    }
+
+    public static void writeTupleDesc(DataOutput out, TupleDesc td) throws IOException {
+        out.writeInt(td.numFields());
+        for (int i = 0; i < td.numFields(); i++) {
+            out.writeByte(td.getFieldType(i) == Type.INT_TYPE ? INT_FIELD : STRING_FIELD);
+            String name = td.getFieldName(i);
+            out.writeUTF(name == null ? "" : name);
+        }
+    }
+
+    public static TupleDesc readTupleDesc(DataInput in) throws IOException {
+        int n = in.readInt();
+        Type[] types = new Type[n];
+        String[] names = new String[n];
+        for (int i = 0; i < n; i++) {
+            types[i] = in.readByte() == INT_FIELD ? Type.INT_TYPE : Type.STRING_TYPE;
+            names[i] = in.readUTF();
+        }
+        return new TupleDesc(types, names);
+    }
+
+    public static void writeTuple(DataOutput out, Tuple t) throws IOException {
+        TupleDesc td = t.getTupleDesc();
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                out.writeInt(((IntField) f).getValue());
+            else
+                out.writeUTF(((StringField) f).getValue());
+        }
+    }
+
+    public static Tuple readTuple(DataInput in, TupleDesc td) throws IOException {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                t.setField(i, new IntField(in.readInt()));
+            else
+                t.setField(i, new StringField(in.readUTF(), Type.STRING_LEN));
+        }
+        return t;
+    }
+
+    /** Write a field preceded by its type. */
+    public static void writeValue(DataOutput out, Field f) throws IOException {
+        if (f.getType() == Type.INT_TYPE) {
+            out.writeByte(INT_FIELD);
+            out.writeInt(((IntField) f).getValue());
+        } else {
+            out.writeByte(STRING_FIELD);
+            out.writeUTF(((StringField) f).getValue());
+        }
+    }
+
+    public static Field readValue(DataInput in) throws IOException {
+        if (in.readByte() == INT_FIELD)
+            return new IntField(in.readInt());
+        return new StringField(in.readUTF(), Type.STRING_LEN);
+    }
+
+    /** @return an ERROR frame carrying the message of e */
+    public static byte[] error(Throwable e) {
+        FrameBuilder f = new FrameBuilder(ERROR);
+        try {
+            String msg = e.getMessage() == null ? e.toString() : e.getMessage();
+            f.writeUTF(msg.length() > 8192 ? msg.substring(0, 8192) : msg);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        return f.toFrame();
+    }
+}
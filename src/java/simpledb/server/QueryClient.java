@@ -0,0 +1,159 @@
+package simpledb.server;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A blocking client for {@link QueryServer}. Each client is one connection,
+ * and so one session, and must not be shared between threads.
+ * <p>
+ * Errors reported by the server are thrown as {@link DbException}s; if the
+ * statement failed while running, the server has already aborted the
+ * transaction.
+ */
+public class QueryClient implements Closeable {
+
+    /** Number of tuples fetched at a time by {@link #query}. */
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private TupleDesc resultTd;
+    private final Map<String, Integer> prepared = new HashMap<>();
+
+    /** A batch of result tuples. */
+    public static class Batch {
+        public final List<Tuple> tuples;
+        /** true if these are the last tuples of the result */
+        public final boolean done;
+
+        Batch(List<Tuple> tuples, boolean done) {
+            this.tuples = tuples;
+            this.done = done;
+        }
+    }
+
+    public QueryClient(String host, int port) throws IOException {
+        this.socket = new Socket(host, port);
+        this.socket.setTcpNoDelay(true);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    // send a request and read the response, failing on an ERROR response
+    private DataInputStream call(Protocol.FrameBuilder request, byte expected)
+            throws IOException, DbException {
+        out.write(request.toFrame());
+        out.flush();
+        int len = in.readInt();
+        if (len <= 0 || len > Protocol.MAX_FRAME)
+            throw new IOException("bad frame length " + len);
+        byte[] message = new byte[len];
+        in.readFully(message);
+        DataInputStream response = Protocol.reader(message);
+        byte type = response.readByte();
+        if (type == Protocol.ERROR)
+            throw new DbException(response.readUTF());
+        if (type != expected)
+            throw new IOException("unexpected response type " + type);
+        return response;
+    }
+
+    /**
+     * Prepare a statement, whose constants may be parameters written as ?.
+     * A statement is only sent to the server the first time it is prepared.
+     *
+     * @return the id to execute the statement with
+     */
+    public int prepare(String sql) throws IOException, DbException {
+        Integer id = prepared.get(sql);
+        if (id == null) {
+            Protocol.FrameBuilder req = new Protocol.FrameBuilder(Protocol.PREPARE);
+            req.writeUTF(sql);
+            id = call(req, Protocol.PREPARED).readInt();
+            prepared.put(sql, id);
+        }
+        return id;
+    }
+
+    /**
+     * Start running a prepared statement; its tuples are read with
+     * {@link #fetch}.
+     *
+     * @param params the values of the parameters of the statement, in order
+     * @return the TupleDesc of the result
+     */
+    public TupleDesc execute(int statementId, Field... params)
+            throws IOException, DbException {
+        Protocol.FrameBuilder req = new Protocol.FrameBuilder(Protocol.EXECUTE);
+        req.writeInt(statementId);
+        req.writeInt(params.length);
+        for (Field f : params)
+            Protocol.writeValue(req, f);
+        resultTd = Protocol.readTupleDesc(call(req, Protocol.RESULT));
+        return resultTd;
+    }
+
+    /**
+     * Read the next tuples of the result of the statement executed last.
+     */
+    public Batch fetch(int maxRows) throws IOException, DbException {
+        if (resultTd == null)
+            throw new DbException("No statement is being executed");
+        Protocol.FrameBuilder req = new Protocol.FrameBuilder(Protocol.FETCH);
+        req.writeInt(maxRows);
+        DataInputStream response = call(req, Protocol.BATCH);
+        int n = response.readInt();
+        List<Tuple> tuples = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            tuples.add(Protocol.readTuple(response, resultTd));
+        boolean done = response.readBoolean();
+        if (done)
+            resultTd = null;
+        return new Batch(tuples, done);
+    }
+
+    public void commit() throws IOException, DbException {
+        resultTd = null;
+        call(new Protocol.FrameBuilder(Protocol.COMMIT), Protocol.OK);
+    }
+
+    public void abort() throws IOException, DbException {
+        resultTd = null;
+        call(new Protocol.FrameBuilder(Protocol.ABORT), Protocol.OK);
+    }
+
+    /**
+     * Run a statement in a transaction of its own and return all of its
+     * result tuples.
+     *
+     * @param params the values of the parameters of the statement, in order
+     */
+    public List<Tuple> query(String sql, Field... params)
+            throws IOException, DbException {
+        int id = prepare(sql);
+        execute(id, params);
+        List<Tuple> result = new ArrayList<>();
+        Batch b;
+        do {
+            b = fetch(DEFAULT_FETCH_SIZE);
+            result.addAll(b.tuples);
+        } while (!b.done);
+        commit();
+        return result;
+    }
+
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,299 @@
+package simpledb.server;
+
+import simpledb.common.Database;
+import simpledb.optimizer.TableStats;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * QueryServer serves SQL over TCP, speaking the {@link Protocol}. Each
+ * connection gets its own {@link Session}.
+ * <p>
+ * A single selector thread accepts connections, reads request frames and
+ * writes responses without blocking. Complete requests are handed to a
+ * fixed pool of worker threads, which run them one at a time per
+ * connection, so many sessions can be served by a few threads and a
+ * session blocked on a lock does not hold up the others' I/O.
+ */
+public class QueryServer implements Closeable {
+
+    public static final int DEFAULT_PORT = 8765;
+
+    public static final int DEFAULT_WORKERS = 8;
+
+    static final String usage = "Usage: server catalogFile [port] [workers]";
+
+    // queued in place of a request when the connection is closed
+    private static final byte[] CLOSED = new byte[0];
+
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final Queue<Connection> interestChanges = new ConcurrentLinkedQueue<>();
+    private final Thread selectorThread;
+    private volatile boolean running = true;
+
+    /**
+     * Create a server listening on a port. The server does not accept
+     * connections until it is started.
+     *
+     * @param port the port to listen on, or 0 for any free port
+     * @param numWorkers the number of threads running requests
+     */
+    public QueryServer(int port, int numWorkers) throws IOException {
+        this.server = ServerSocketChannel.open();
+        this.server.bind(new InetSocketAddress(port));
+        this.server.configureBlocking(false);
+        this.selector = Selector.open();
+        this.server.register(selector, SelectionKey.OP_ACCEPT);
+        this.workers = Executors.newFixedThreadPool(numWorkers, r -> {
+            Thread t = new Thread(r, "simpledb-session");
+            t.setDaemon(true);
+            return t;
+        });
+        this.selectorThread = new Thread(this::loop, "simpledb-selector");
+    }
+
+    /** @return the port the server listens on */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    public void start() {
+        selectorThread.start();
+    }
+
+    /** Wait until the server is closed. */
+    public void join() throws InterruptedException {
+        selectorThread.join();
+    }
+
+    /**
+     * Stop accepting requests and close every connection, aborting the
+     * transactions of their sessions.
+     */
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            if (selectorThread.isAlive())
+                selectorThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection)
+                ((Connection) key.attachment()).shutdown();
+        }
+        workers.shutdown();
+        try {
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+            selector.close();
+            server.close();
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void loop() {
+        while (running) {
+            try {
+                selector.select();
+                Connection c;
+                while ((c = interestChanges.poll()) != null)
+                    c.updateInterest();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection conn = (Connection) key.attachment();
+                    if (key.isReadable())
+                        conn.read();
+                    if (key.isValid() && key.isWritable())
+                        conn.write();
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (running)
+                    e.printStackTrace();
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel ch = server.accept();
+        if (ch == null)
+            return;
+        ch.configureBlocking(false);
+        ch.socket().setTcpNoDelay(true);
+        Connection conn = new Connection(ch);
+        conn.key = ch.register(selector, SelectionKey.OP_READ, conn);
+    }
+
+    /**
+     * A client connection. Its channel is only read and written by the
+     * selector thread; its session only used by one worker at a time.
+     */
+    private class Connection {
+
+        private final SocketChannel ch;
+        private SelectionKey key;
+        private ByteBuffer in = ByteBuffer.allocate(8192);
+        private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        private final Queue<byte[]> requests = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final Session session = new Session();
+        private boolean closed;
+
+        Connection(SocketChannel ch) {
+            this.ch = ch;
+        }
+
+        void read() {
+            try {
+                if (ch.read(in) < 0) {
+                    shutdown();
+                    return;
+                }
+            } catch (IOException e) {
+                shutdown();
+                return;
+            }
+            in.flip();
+            while (in.remaining() >= 4) {
+                int len = in.getInt(in.position());
+                if (len <= 0 || len > Protocol.MAX_FRAME) {
+                    shutdown();
+                    return;
+                }
+                if (in.remaining() < 4 + len) {
+                    if (in.capacity() < 4 + len) {
+                        ByteBuffer bigger = ByteBuffer.allocate(4 + len);
+                        bigger.put(in);
+                        in = bigger;
+                        schedule();
+                        return;
+                    }
+                    break;
+                }
+                in.getInt();
+                byte[] message = new byte[len];
+                in.get(message);
+                requests.add(message);
+            }
+            in.compact();
+            schedule();
+        }
+
+        void write() {
+            try {
+                synchronized (out) {
+                    while (!out.isEmpty()) {
+                        ByteBuffer b = out.peek();
+                        ch.write(b);
+                        if (b.hasRemaining())
+                            break;
+                        out.poll();
+                    }
+                }
+            } catch (IOException e) {
+                shutdown();
+                return;
+            }
+            updateInterest();
+        }
+
+        // only called by the selector thread
+        void updateInterest() {
+            if (!key.isValid())
+                return;
+            synchronized (out) {
+                key.interestOps(out.isEmpty() ? SelectionKey.OP_READ
+                        : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        // called by workers: queue a response for the selector thread to write
+        private void send(byte[] frame) {
+            synchronized (out) {
+                out.add(ByteBuffer.wrap(frame));
+            }
+            interestChanges.add(this);
+            selector.wakeup();
+        }
+
+        private void schedule() {
+            if (!requests.isEmpty() && scheduled.compareAndSet(false, true))
+                workers.execute(this::drain);
+        }
+
+        // run queued requests in order, on a worker
+        private void drain() {
+            byte[] message;
+            while ((message = requests.poll()) != null) {
+                if (message == CLOSED) {
+                    session.close();
+                    requests.clear();
+                    break;
+                }
+                send(session.handle(message));
+            }
+            scheduled.set(false);
+            schedule();
+        }
+
+        void shutdown() {
+            if (closed)
+                return;
+            closed = true;
+            key.cancel();
+            try {
+                ch.close();
+            } catch (IOException ignored) {
+            }
+            requests.add(CLOSED);
+            if (!workers.isShutdown())
+                schedule();
+            else
+                session.close();
+        }
+    }
+
+    public static void main(String[] argv) throws IOException, InterruptedException {
+        if (argv.length < 1 || argv.length > 3) {
+            System.out.println("Invalid number of arguments.\n" + usage);
+            System.exit(0);
+        }
+        Database.getCatalog().loadSchema(argv[0]);
+        TableStats.computeStatistics();
+        int port = argv.length > 1 ? Integer.parseInt(argv[1]) : DEFAULT_PORT;
+        int numWorkers = argv.length > 2 ? Integer.parseInt(argv[2]) : DEFAULT_WORKERS;
+
+        QueryServer server = new QueryServer(port, numWorkers);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            TableStats.saveStatistics();
+        }));
+        server.start();
+        System.out.println("Listening on port " + server.getPort() + " with "
+                + numWorkers + " workers.");
+        server.join();
+    }
+}
@@ -0,0 +1,212 @@
+package simpledb.server;
+
+import simpledb.Parser;
+import simpledb.ParsingException;
+import simpledb.common.DbException;
+import simpledb.execution.ResultSet;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The state of one client connection to a {@link QueryServer}: its own
+ * {@link Parser}, its prepared statements, its current transaction and the
+ * cursor over the result of the statement it executed last.
+ * <p>
+ * A transaction is started by the first statement executed after the
+ * previous one was committed or aborted, and lasts until the client commits
+ * or aborts it. If a statement fails while running, its transaction is
+ * aborted. A Session is used by one thread at a time.
+ */
+public class Session {
+
+    private final Parser parser = new Parser();
+
+    private final Map<Integer, String> statements = new HashMap<>();
+
+    private final Map<String, Integer> statementIds = new HashMap<>();
+
+    private int nextStatementId = 1;
+
+    private Transaction txn;
+
+    private ResultSet cursor;
+
+    public Session() {
+        parser.setPrintPlans(false);
+    }
+
+    /**
+     * Remember a statement so that it can be executed later. Its constants
+     * may be parameters, written as ?, which are given values when it is
+     * executed. Preparing the same statement again returns the same id.
+     *
+     * @return the id of the statement
+     */
+    public int prepare(String sql) {
+        Integer known = statementIds.get(sql);
+        if (known != null)
+            return known;
+        int id = nextStatementId++;
+        statements.put(id, sql);
+        statementIds.put(sql, id);
+        return id;
+    }
+
+    /**
+     * Start running a prepared statement, closing the cursor of the previous
+     * one. Its plan is taken from the plan cache if it was run before, by
+     * any session.
+     *
+     * @param params the values of the parameters of the statement
+     * @return the TupleDesc of the tuples of the statement's result
+     */
+    public TupleDesc execute(int statementId, List<Field> params)
+            throws ParsingException, IOException, DbException, TransactionAbortedException {
+        String sql = statements.get(statementId);
+        if (sql == null)
+            throw new ParsingException("Unknown statement " + statementId);
+        closeCursor();
+        if (txn == null) {
+            txn = new Transaction();
+            txn.start();
+        }
+        try {
+            cursor = parser.executeQuery(sql, params, txn.getId());
+        } catch (DbException | TransactionAbortedException | RuntimeException e) {
+            abortAfter(e);
+            throw e;
+        }
+        return cursor.getTupleDesc();
+    }
+
+    /**
+     * Read the next tuples of the result of the statement executed last.
+     * The cursor is closed once it is exhausted.
+     *
+     * @param maxRows the largest number of tuples to return
+     * @return the tuples; fewer than maxRows only if the result is exhausted
+     */
+    public List<Tuple> fetch(int maxRows) throws DbException, TransactionAbortedException {
+        if (cursor == null)
+            throw new DbException("No statement is being executed");
+        List<Tuple> batch = new ArrayList<>();
+        cursor.setFetchSize(Math.max(1, maxRows));
+        try {
+            while (batch.size() < maxRows && cursor.next())
+                batch.add(cursor.getTuple());
+            if (batch.size() < maxRows)
+                closeCursor();
+        } catch (DbException | TransactionAbortedException | RuntimeException e) {
+            abortAfter(e);
+            throw e;
+        }
+        return batch;
+    }
+
+    /** @return true if the result of the last statement has more tuples */
+    public boolean hasCursor() {
+        return cursor != null;
+    }
+
+    public void commit() throws IOException {
+        closeCursor();
+        if (txn != null) {
+            Transaction t = txn;
+            txn = null;
+            t.commit();
+        }
+    }
+
+    public void abort() throws IOException {
+        closeCursor();
+        if (txn != null) {
+            Transaction t = txn;
+            txn = null;
+            t.abort();
+        }
+    }
+
+    /**
+     * End the session, aborting its transaction if it has one.
+     */
+    public void close() {
+        try {
+            abort();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void closeCursor() {
+        if (cursor != null) {
+            ResultSet rs = cursor;
+            cursor = null;
+            rs.close();
+        }
+    }
+
+    private void abortAfter(Exception cause) {
+        try {
+            abort();
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Decode a request, run it and encode the response.
+     *
+     * @param message a request frame without its length prefix
+     * @return the response frame
+     */
+    public byte[] handle(byte[] message) {
+        try {
+            DataInputStream in = Protocol.reader(message);
+            byte type = in.readByte();
+            Protocol.FrameBuilder out;
+            switch (type) {
+                case Protocol.PREPARE:
+                    out = new Protocol.FrameBuilder(Protocol.PREPARED);
+                    out.writeInt(prepare(in.readUTF()));
+                    break;
+                case Protocol.EXECUTE:
+                    int id = in.readInt();
+                    int n = in.readInt();
+                    List<Field> params = new ArrayList<>(n);
+                    for (int i = 0; i < n; i++)
+                        params.add(Protocol.readValue(in));
+                    out = new Protocol.FrameBuilder(Protocol.RESULT);
+                    Protocol.writeTupleDesc(out, execute(id, params));
+                    break;
+                case Protocol.FETCH:
+                    List<Tuple> batch = fetch(in.readInt());
+                    out = new Protocol.FrameBuilder(Protocol.BATCH);
+                    out.writeInt(batch.size());
+                    for (Tuple t : batch)
+                        Protocol.writeTuple(out, t);
+                    out.writeBoolean(!hasCursor());
+                    break;
+                case Protocol.COMMIT:
+                    commit();
+                    out = new Protocol.FrameBuilder(Protocol.OK);
+                    break;
+                case Protocol.ABORT:
+                    abort();
+                    out = new Protocol.FrameBuilder(Protocol.OK);
+                    break;
+                default:
+                    throw new DbException("Unknown request type " + type);
+            }
+            return out.toFrame();
+        } catch (Exception e) {
+            return Protocol.error(e);
+        }
+    }
+}
@@ -4,11 +4,14 @@ import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Permissions;
+import simpledb.execution.Profiler;
+import simpledb.index.SecondaryIndex;
 import simpledb.transaction.LockManager;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 
@@ -55,6 +58,11 @@ public class BufferPool {
     public static int getPageSize() {
       return pageSize;
     }
+
+    /** @return the maximum number of pages in the buffer pool */
+    public static int getNumPages() {
+      return numPages;
+    }
     
     // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
     public static void setPageSize(int pageSize) {
@@ -86,18 +94,54 @@ public class BufferPool {
         // some code goes here
         int type = (perm == Permissions.READ_ONLY) ? 0 : 1;
         int timeout = new Random().nextInt(2000) + 1000;
+        boolean profiled = Profiler.isActive();
+        long start = profiled ? System.nanoTime() : 0;
         if(!lockManager.tryAcquireLock(pid, tid, type, timeout))
             throw new TransactionAbortedException();
 //            transactionComplete(tid, false);
-        Page pg = pageCache.get(pid);
-        if(pg != null) return pg;
-        else {
-            if(pageCache.getSize() >= numPages) evictPage();
-            Catalog cg = Database.getCatalog();
-            DbFile file = cg.getDatabaseFile(pid.getTableId());
-            Page dbPage = file.readPage(pid);
-            this.pageCache.put(pid, dbPage);
-            return dbPage;
+        long lockWait = profiled ? System.nanoTime() - start : 0;
+        return fetchPage(pid, profiled, lockWait);
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions if its lock
+     * can be acquired without waiting. Used by the B+ tree to latch a page
+     * while it still holds the latch on the parent of the page, which it must
+     * release before it waits for a lock held by another transaction.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @return the page, or null if another transaction holds a conflicting
+     *         lock on it
+     * @see #getPage
+     */
+    public Page tryGetPage(TransactionId tid, PageId pid, Permissions perm)
+        throws DbException {
+        int type = (perm == Permissions.READ_ONLY) ? 0 : 1;
+        if(!lockManager.acquireLock(pid, tid, type))
+            return null;
+        return fetchPage(pid, Profiler.isActive(), 0);
+    }
+
+    // the page, read into the cache if it is not there, once its lock is held
+    private Page fetchPage(PageId pid, boolean profiled, long lockWait)
+        throws DbException {
+        // the lock is acquired first, so that waiting for it does not block
+        // other threads; the cache itself is not thread-safe
+        synchronized (this) {
+            Page pg = pageCache.get(pid);
+            if (profiled)
+                Profiler.recordPage(pg != null, lockWait);
+            if(pg != null) return pg;
+            else {
+                if(pageCache.getSize() >= numPages) evictPage();
+                Catalog cg = Database.getCatalog();
+                DbFile file = cg.getDatabaseFile(pid.getTableId());
+                Page dbPage = file.readPage(pid);
+                this.pageCache.put(pid, dbPage);
+                return dbPage;
+            }
         }
     }
 
@@ -142,7 +186,7 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
      */
-    public void transactionComplete(TransactionId tid, boolean commit) {
+    public synchronized void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
         if(commit) {
@@ -155,7 +199,9 @@ public class BufferPool {
         else {
             for(PageId pid: pageCache.keySet()) {
                 TransactionId dirtyTid = pageCache.get(pid).isDirty();
-                if(dirtyTid != null && dirtyTid.equals(tid)) discardPage(pid);
+                // an operation aborted half way, like a B+ tree split, leaves
+                // pages it changed under its write locks without marking them dirty
+                if((dirtyTid != null && dirtyTid.equals(tid)) || lockManager.holdsWriteLock(pid, tid)) discardPage(pid);
                 // after discard, the modified data is lost and next time will get from disk again
             }
         }
@@ -182,10 +228,16 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         DbFile f = Database.getCatalog().getDatabaseFile(tableId);
-        List<Page> list = f.insertTuple(tid, t);
-        for (Page p : list) {
-            p.markDirty(true, tid);
-            this.pageCache.put(p.getId(), p);
+        List<Page> list = new ArrayList<>(f.insertTuple(tid, t));
+        // the tuple has its record id now, for the entries of the indexes
+        if (f instanceof HeapFile)
+            for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId))
+                list.addAll(index.insertTuple(tid, t));
+        synchronized (this) {
+            for (Page p : list) {
+                p.markDirty(true, tid);
+                this.pageCache.put(p.getId(), p);
+            }
         }
     }
 
@@ -208,10 +260,16 @@ public class BufferPool {
         // not necessary for lab1
         int tableId = t.getRecordId().getPageId().getTableId();
         DbFile f = Database.getCatalog().getDatabaseFile(tableId);
-        List<Page> list = f.deleteTuple(tid, t);
-        for (Page p : list) {
-            p.markDirty(true, tid);
-            this.pageCache.put(p.getId(), p);
+        List<Page> list = new ArrayList<>();
+        if (f instanceof HeapFile)
+            for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId))
+                list.addAll(index.deleteTuple(tid, t));
+        list.addAll(f.deleteTuple(tid, t));
+        synchronized (this) {
+            for (Page p : list) {
+                p.markDirty(true, tid);
+                this.pageCache.put(p.getId(), p);
+            }
         }
     }
 
@@ -168,6 +168,8 @@ public class HeapFile implements DbFile {
 
         private final int tableId;
 
+        private final int startPage;
+
         private final int pageNum;
 
         private int pgCursor;
@@ -175,9 +177,15 @@ public class HeapFile implements DbFile {
         Iterator<Tuple> tupleIt;
 
         public HeapFileIterator(HeapFile file, TransactionId tid) {
+            this(file, tid, 0, file.numPages());
+        }
+
+        // iterate through pages [startPage, endPage) only
+        public HeapFileIterator(HeapFile file, TransactionId tid, int startPage, int endPage) {
             this.tid = tid;
             this.tableId = file.getId();
-            this.pageNum = file.numPages();
+            this.startPage = startPage;
+            this.pageNum = Math.min(endPage, file.numPages());
             this.tupleIt = null;
             this.pgCursor = -1;
         }
@@ -189,8 +197,8 @@ public class HeapFile implements DbFile {
          */
         @Override
         public void open() throws DbException, TransactionAbortedException {
-            this.pgCursor = 0;
-            this.tupleIt = getTupleIt(0);
+            this.pgCursor = this.startPage;
+            this.tupleIt = this.pgCursor < this.pageNum ? getTupleIt(this.pgCursor) : null;
         }
 
         /**
@@ -258,5 +266,20 @@ public class HeapFile implements DbFile {
         return new HeapFileIterator(this, tid);
     }
 
+    /**
+     * Returns an iterator over the tuples stored on a range of pages of this
+     * HeapFile. Disjoint ranges may be scanned concurrently.
+     *
+     * @param tid
+     *            the transaction reading the pages
+     * @param startPage
+     *            the first page to read
+     * @param endPage
+     *            one past the last page to read
+     */
+    public DbFileIterator iterator(TransactionId tid, int startPage, int endPage) {
+        return new HeapFileIterator(this, tid, startPage, endPage);
+    }
+
 }
 
@@ -0,0 +1,188 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * HeapFileExporter writes the tuples of a {@link HeapFile} to a channel,
+ * the reverse of {@link HeapFileEncoder}. Tuples are written straight from
+ * the bytes of each page, without making a Tuple or Field object for them.
+ * <p>
+ * Text output is one line per tuple with its fields separated by a
+ * separator character, as read by {@link HeapFileEncoder#convert}; strings
+ * are written as they are, without quoting. Binary output is the tuples in
+ * their on-disk format, {@link TupleDesc#getSize} bytes each: an INT field
+ * is a 4 byte big-endian int, a STRING field a 4 byte length followed by
+ * {@link Type#STRING_LEN} bytes.
+ * <p>
+ * Pages are read through the buffer pool with read locks held by the
+ * specified transaction, so the output is consistent with what the
+ * transaction would see.
+ */
+public class HeapFileExporter {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Write the tuples of a file to a channel as comma separated text.
+     *
+     * @return the number of tuples written
+     */
+    public static long exportText(TransactionId tid, HeapFile f, WritableByteChannel out)
+            throws DbException, TransactionAbortedException, IOException {
+        return exportText(tid, f, out, ',');
+    }
+
+    /**
+     * Write the tuples of a file to a channel as text, one tuple per line.
+     *
+     * @param fieldSeparator the character written between fields
+     * @return the number of tuples written
+     */
+    public static long exportText(TransactionId tid, HeapFile f, WritableByteChannel out,
+            char fieldSeparator) throws DbException, TransactionAbortedException, IOException {
+        TupleDesc td = f.getTupleDesc();
+        int n = td.numFields();
+        int[] offsets = fieldOffsets(td);
+        boolean[] isInt = new boolean[n];
+        int maxLine = 0;
+        for (int i = 0; i < n; i++) {
+            isInt[i] = td.getFieldType(i) == Type.INT_TYPE;
+            maxLine += (isInt[i] ? 11 : Type.STRING_LEN) + 1;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(Math.max(BUFFER_SIZE, maxLine));
+        byte[] digits = new byte[11];
+        long count = 0;
+        for (int pgNo = 0; pgNo < f.numPages(); pgNo++) {
+            HeapPage page = getPage(tid, f, pgNo);
+            byte[] data = page.getPageData();
+            for (int slot = 0; slot < page.getNumSlots(); slot++) {
+                if (!page.isSlotUsed(slot))
+                    continue;
+                if (buf.remaining() < maxLine)
+                    drain(buf, out);
+                int base = page.getSlotOffset(slot);
+                for (int i = 0; i < n; i++) {
+                    if (i > 0)
+                        buf.put((byte) fieldSeparator);
+                    int off = base + offsets[i];
+                    if (isInt[i]) {
+                        putInt(buf, readInt(data, off), digits);
+                    } else {
+                        int len = Math.min(readInt(data, off), Type.STRING_LEN);
+                        buf.put(data, off + 4, Math.max(len, 0));
+                    }
+                }
+                buf.put((byte) '\n');
+                count++;
+            }
+        }
+        drain(buf, out);
+        return count;
+    }
+
+    /**
+     * Write the tuples of a file to a channel in their on-disk format. Runs
+     * of used slots are written as slices of the page data, gathered into one
+     * write per page when the channel supports it.
+     *
+     * @return the number of tuples written
+     */
+    public static long exportBinary(TransactionId tid, HeapFile f, WritableByteChannel out)
+            throws DbException, TransactionAbortedException, IOException {
+        int tupleSize = f.getTupleDesc().getSize();
+        long count = 0;
+        List<ByteBuffer> slices = new ArrayList<>();
+        for (int pgNo = 0; pgNo < f.numPages(); pgNo++) {
+            HeapPage page = getPage(tid, f, pgNo);
+            byte[] data = page.getPageData();
+            slices.clear();
+            int slot = 0;
+            while (slot < page.getNumSlots()) {
+                if (!page.isSlotUsed(slot)) {
+                    slot++;
+                    continue;
+                }
+                int start = slot;
+                while (slot < page.getNumSlots() && page.isSlotUsed(slot))
+                    slot++;
+                slices.add(ByteBuffer.wrap(data, page.getSlotOffset(start),
+                        (slot - start) * tupleSize));
+                count += slot - start;
+            }
+            write(slices.toArray(new ByteBuffer[0]), out);
+        }
+        return count;
+    }
+
+    private static HeapPage getPage(TransactionId tid, HeapFile f, int pgNo)
+            throws DbException, TransactionAbortedException {
+        return (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(f.getId(), pgNo), Permissions.READ_ONLY);
+    }
+
+    // offset of each field within a tuple
+    private static int[] fieldOffsets(TupleDesc td) {
+        int[] offsets = new int[td.numFields()];
+        int off = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            offsets[i] = off;
+            off += td.getFieldType(i).getLen();
+        }
+        return offsets;
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16)
+                | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    // write v in decimal, using digits as scratch space
+    private static void putInt(ByteBuffer buf, int v, byte[] digits) {
+        long x = v;
+        if (x < 0) {
+            buf.put((byte) '-');
+            x = -x;
+        }
+        int i = digits.length;
+        do {
+            digits[--i] = (byte) ('0' + x % 10);
+            x /= 10;
+        } while (x > 0);
+        buf.put(digits, i, digits.length - i);
+    }
+
+    private static void drain(ByteBuffer buf, WritableByteChannel out) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining())
+            out.write(buf);
+        buf.clear();
+    }
+
+    private static void write(ByteBuffer[] bufs, WritableByteChannel out) throws IOException {
+        if (out instanceof GatheringByteChannel) {
+            GatheringByteChannel g = (GatheringByteChannel) out;
+            for (ByteBuffer last : bufs) {
+                while (last.hasRemaining())
+                    g.write(bufs);
+            }
+        } else {
+            for (ByteBuffer b : bufs) {
+                while (b.hasRemaining())
+                    out.write(b);
+            }
+        }
+    }
+}
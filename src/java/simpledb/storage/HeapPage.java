@@ -284,6 +284,15 @@ public class HeapPage implements Page {
         t.setRecordId(rid);
     }
 
+    /**
+     * Returns the tuple in the specified slot, or null if the slot is empty.
+     * @param i The slot of the tuple, as in its RecordId
+     */
+    public Tuple getTuple(int i) {
+        if(i < 0 || i >= this.tuples.length || !isSlotUsed(i)) return null;
+        return this.tuples[i];
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -315,6 +324,21 @@ public class HeapPage implements Page {
         return emptyNum;
     }
 
+    /**
+     * Returns the number of tuple slots on this page.
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Returns the offset of the tuple in slot i within the page data
+     * returned by {@link #getPageData}.
+     */
+    public int getSlotOffset(int i) {
+        return header.length + i * td.getSize();
+    }
+
     /**
      * Returns true if associated slot on this page is filled.
      */
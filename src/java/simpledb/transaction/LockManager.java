@@ -113,6 +113,19 @@ public class LockManager {
         lockMap.remove(pid);
     }
 
+    /**
+     * @return True if tid holds the read_write lock on the page, which it may
+     *         have changed in place without marking it dirty yet.
+     */
+    public synchronized boolean holdsWriteLock(PageId pid, TransactionId tid) {
+        List<Lock> locks = lockMap.get(pid);
+        if(locks == null) return false;
+        for(Lock l: locks) {
+            if(l.getTid().equals(tid) && l.getLockType() == 1) return true;
+        }
+        return false;
+    }
+
     public synchronized boolean holdsLock(PageId pid, TransactionId tid) {
         if(!lockMap.containsKey(pid)) return false;
         List<Lock> locks = lockMap.get(pid);
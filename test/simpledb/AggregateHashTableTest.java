@@ -0,0 +1,148 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.AggregateHashTable;
+import simpledb.execution.Aggregator;
+import simpledb.execution.IntegerAggregator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.StringAggregator;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class AggregateHashTableTest extends SimpleDbTestBase {
+
+  @After public void resetMaxGroups() {
+    AggregateHashTable.resetMaxGroups();
+  }
+
+  private Map<Field, Integer> drain(OpIterator it) throws Exception {
+    Map<Field, Integer> result = new HashMap<>();
+    it.open();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      // every group must be returned exactly once
+      assertEquals(null, result.put(t.getField(0),
+          ((IntField) t.getField(1)).getValue()));
+    }
+    it.close();
+    return result;
+  }
+
+  /**
+   * More int groups than fit in memory are spilled and still aggregated
+   * correctly
+   */
+  @Test public void spillIntGroups() throws Exception {
+    AggregateHashTable.setMaxGroups(8);
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1,
+        Aggregator.Op.SUM);
+    for (int round = 0; round < 3; round++) {
+      for (int g = 0; g < 1000; g++)
+        agg.mergeTupleIntoGroup(Utility.getHeapTuple(new int[] { g, g + round }));
+    }
+    Map<Field, Integer> result = drain(agg.iterator());
+    assertEquals(1000, result.size());
+    for (int g = 0; g < 1000; g++)
+      assertEquals(3 * g + 3, (int) result.get(new IntField(g)));
+
+    // the iterator sees groups merged after a previous iteration, too
+    agg.mergeTupleIntoGroup(Utility.getHeapTuple(new int[] { 999, 1 }));
+    agg.mergeTupleIntoGroup(Utility.getHeapTuple(new int[] { 1000, 5 }));
+    result = drain(agg.iterator());
+    assertEquals(1001, result.size());
+    assertEquals(3 * 999 + 4, (int) result.get(new IntField(999)));
+    assertEquals(5, (int) result.get(new IntField(1000)));
+    agg.close();
+  }
+
+  /**
+   * More string groups than fit in memory are spilled and still counted
+   * correctly
+   */
+  @Test public void spillStringGroups() throws Exception {
+    AggregateHashTable.setMaxGroups(4);
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.STRING_TYPE });
+    StringAggregator agg = new StringAggregator(0, Type.STRING_TYPE, 1,
+        Aggregator.Op.COUNT);
+    for (int i = 0; i < 500; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new StringField("group" + (i % 100), Type.STRING_LEN));
+      t.setField(1, new StringField("v", Type.STRING_LEN));
+      agg.mergeTupleIntoGroup(t);
+    }
+    Map<Field, Integer> result = drain(agg.iterator());
+    assertEquals(100, result.size());
+    for (int g = 0; g < 100; g++)
+      assertEquals(5, (int) result.get(new StringField("group" + g, Type.STRING_LEN)));
+    agg.close();
+  }
+
+  /**
+   * SUM and AVG accumulate in 64 bits, so AVG over large values does not
+   * overflow
+   */
+  @Test public void avgDoesNotOverflow() throws Exception {
+    IntegerAggregator agg = new IntegerAggregator(Aggregator.NO_GROUPING, null,
+        0, Aggregator.Op.AVG);
+    for (int i = 0; i < 10; i++)
+      agg.mergeTupleIntoGroup(Utility.getHeapTuple(new int[] { Integer.MAX_VALUE - i }));
+    OpIterator it = agg.iterator();
+    it.open();
+    assertTrue(it.hasNext());
+    assertEquals(new IntField(Integer.MAX_VALUE - 5), it.next().getField(0));
+    assertFalse(it.hasNext());
+    it.close();
+  }
+
+  /**
+   * Tables built over disjoint inputs, some of whose groups were spilled,
+   * merge into the same groups as a single table over the whole input
+   */
+  @Test public void mergeSpilledTables() throws Exception {
+    AggregateHashTable.setMaxGroups(8);
+    TupleDesc td = Utility.getTupleDesc(2);
+    Type[] keyTypes = { Type.INT_TYPE };
+    AggregateHashTable[] parts = new AggregateHashTable[3];
+    for (int i = 0; i < parts.length; i++)
+      parts[i] = new AggregateHashTable(keyTypes, 1);
+    for (int v = 0; v < 3000; v++)
+      parts[v % 3].add(Utility.getHeapTuple(new int[] { v % 100, v }),
+          new int[] { 0 }, new int[] { 1 });
+    assertTrue(parts[0].hasSpilled());
+    parts[0].merge(parts[1]);
+    parts[0].merge(parts[2]);
+
+    Aggregator.Op[] ops = { Aggregator.Op.AVG };
+    Map<Field, Integer> result = drain(parts[0].iterator(td, ops));
+    assertEquals(100, result.size());
+    // group g holds g, g + 100, ..., g + 2900
+    for (int g = 0; g < 100; g++)
+      assertEquals(g + 1450, (int) result.get(new IntField(g)));
+    for (AggregateHashTable part : parts)
+      part.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(AggregateHashTableTest.class);
+  }
+}
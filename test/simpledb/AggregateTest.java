@@ -3,6 +3,9 @@ package simpledb;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
@@ -11,6 +14,7 @@ import org.junit.Test;
 import simpledb.common.Type;
 import simpledb.common.Utility;
 import simpledb.execution.Aggregate;
+import simpledb.execution.AggregateSpec;
 import simpledb.execution.Aggregator;
 import simpledb.execution.OpIterator;
 import simpledb.storage.TupleDesc;
@@ -191,6 +195,40 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test for Aggregate.getNext() computing several aggregates grouped
+   * by several fields
+   */
+  @Test public void multiAggregateMultiGroup() throws Exception {
+    OpIterator scan = TestUtil.createTupleList(3,
+        new int[] { 1, 1, 2,
+                    1, 1, 4,
+                    1, 2, 6,
+                    3, 1, 2,
+                    3, 1, 5,
+                    1, 2, 1 });
+    Aggregate op = new Aggregate(scan, Arrays.asList(0, 1),
+        Arrays.asList(new AggregateSpec(Aggregator.Op.SUM, 2),
+                      new AggregateSpec(Aggregator.Op.COUNT, 2),
+                      new AggregateSpec(Aggregator.Op.MAX, 2)));
+    assertEquals(Utility.getTupleDesc(5), op.getTupleDesc());
+    OpIterator expected = TestUtil.createTupleList(5,
+        new int[] { 1, 1, 6, 2, 4,
+                    1, 2, 7, 2, 6,
+                    3, 1, 7, 2, 5 });
+    op.open();
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+    op.rewind();
+    int groups = 0;
+    while (op.hasNext()) {
+      op.next();
+      groups++;
+    }
+    assertEquals(3, groups);
+    op.close();
+  }
+
   /**
    * JUnit suite target
    */
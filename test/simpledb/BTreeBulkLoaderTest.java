@@ -0,0 +1,160 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeBulkLoaderTest extends SimpleDbTestBase {
+	private TransactionId tid;
+
+	@Before
+	public void setUp() {
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+		BufferPool.resetPageSize();
+	}
+
+	private BTreeFile emptyFile() throws Exception {
+		File f = File.createTempFile("bulk", ".dat");
+		f.deleteOnExit();
+		return BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+	}
+
+	// the tuples of the file in order, checking the structure of the tree
+	private List<List<Integer>> read(BTreeFile bf) throws Exception {
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		List<List<Integer>> tuples = new ArrayList<>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		while(it.hasNext())
+			tuples.add(BTreeUtility.tupleToList(it.next()));
+		it.close();
+		return tuples;
+	}
+
+	/**
+	 * Tuples in any order are sorted in runs spilled to disk and loaded into
+	 * a valid tree, with leaves filled to the fill factor.
+	 */
+	@Test
+	public void sortAndLoad() throws Exception {
+		List<List<Integer>> tuples = new ArrayList<>();
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 30000, 1000, null, tuples);
+		tuples.sort(Comparator.comparing((List<Integer> t) -> t.get(0)));
+
+		BTreeFile full = emptyFile();
+		new BTreeBulkLoader(full, 1.0).sortAndLoad(hf.iterator(tid), 1000);
+		List<List<Integer>> loaded = read(full);
+		assertEquals(tuples.size(), loaded.size());
+		for(int i = 0; i < tuples.size(); i++)
+			assertEquals(tuples.get(i).get(0), loaded.get(i).get(0));
+
+		BTreeFile half = emptyFile();
+		new BTreeBulkLoader(half, 0.5).sortAndLoad(hf.iterator(tid));
+		assertEquals(tuples.size(), read(half).size());
+		int perLeaf = BTreeUtility.getNumTuplesPerPage(2);
+		int leaves = (tuples.size() + perLeaf - 1) / perLeaf;
+		assertTrue(full.numPages() < leaves + leaves / 10);
+		assertTrue(half.numPages() >= 2 * leaves - 1);
+	}
+
+	/**
+	 * With small pages, the internal pages take several levels.
+	 */
+	@Test
+	public void deepTree() throws Exception {
+		BufferPool.setPageSize(512);
+		List<List<Integer>> tuples = new ArrayList<>();
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 20000, null, tuples);
+		BTreeFile bf = emptyFile();
+		new BTreeBulkLoader(bf, 0.7).sortAndLoad(hf.iterator(tid), 3000);
+		assertEquals(3, bf.depth(tid));
+		assertEquals(tuples.size(), read(bf).size());
+	}
+
+	/**
+	 * A loaded tree takes inserts and deletes like any other.
+	 */
+	@Test
+	public void updateAfterLoad() throws Exception {
+		List<List<Integer>> tuples = new ArrayList<>();
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 5000, 1000, null, tuples);
+		BTreeFile bf = emptyFile();
+		new BTreeBulkLoader(bf).sortAndLoad(hf.iterator(tid));
+		for(int i = 0; i < 500; i++)
+			Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(new int[] { i % 1000, -1 }));
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+		assertEquals(5500, read(bf).size());
+
+		int deleted = 0;
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.LESS_THAN, new IntField(100)));
+		it.open();
+		List<Tuple> gone = new ArrayList<>();
+		while(it.hasNext())
+			gone.add(it.next());
+		it.close();
+		for(Tuple t : gone) {
+			Database.getBufferPool().deleteTuple(tid, t);
+			deleted++;
+		}
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+		assertEquals(5500 - deleted, read(bf).size());
+	}
+
+	/**
+	 * An empty stream leaves an empty tree, and an unsorted one is refused.
+	 */
+	@Test
+	public void emptyAndUnsorted() throws Exception {
+		BTreeFile bf = emptyFile();
+		HeapFile empty = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+		new BTreeBulkLoader(bf).load(empty.iterator(tid));
+		assertTrue(read(bf).isEmpty());
+		Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(new int[] { 1, 2 }));
+		assertEquals(1, read(bf).size());
+
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+		try {
+			new BTreeBulkLoader(emptyFile()).load(hf.iterator(tid));
+			fail("unsorted tuples loaded");
+		} catch(DbException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeBulkLoaderTest.class);
+	}
+}
@@ -8,7 +8,9 @@ import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.common.Utility;
+import simpledb.execution.Predicate.Op;
 import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -22,6 +24,7 @@ import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.transaction.TransactionId;
@@ -174,6 +177,36 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeInternalPage.reverseIterator() with empty slots
+	 * between the entries
+	 */
+	@Test public void testReverseIteratorWithEmptySlots() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		Iterator<BTreeEntry> it = page.iterator();
+		List<BTreeEntry> entries = new ArrayList<>();
+		while (it.hasNext())
+			entries.add(it.next());
+		for (int i = 1; i < entries.size(); i += 3)
+			page.deleteKeyAndRightChild(entries.get(i));
+
+		List<BTreeEntry> forward = new ArrayList<>();
+		it = page.iterator();
+		while (it.hasNext())
+			forward.add(it.next());
+		Collections.reverse(forward);
+		it = page.reverseIterator();
+		for (BTreeEntry e : forward) {
+			assertTrue(it.hasNext());
+			BTreeEntry r = it.next();
+			assertEquals(e.getKey(), r.getKey());
+			assertEquals(e.getLeftChild(), r.getLeftChild());
+			assertEquals(e.getRightChild(), r.getRightChild());
+			assertEquals(e.getRecordId(), r.getRecordId());
+		}
+		assertFalse(it.hasNext());
+	}
+
 	/**
 	 * Unit test for BTreeInternalPage.getNumEmptySlots()
 	 */
@@ -321,6 +354,46 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	// the child to descend to for f, found by comparing the keys in turn
+	private static BTreePageId linearChild(BTreeInternalPage page, Field f) {
+		Iterator<BTreeEntry> it = page.iterator();
+		BTreeEntry e = null;
+		while (it.hasNext()) {
+			e = it.next();
+			if (f == null || f.compare(Op.LESS_THAN_OR_EQ, e.getKey()))
+				return e.getLeftChild();
+		}
+		return e == null ? null : e.getRightChild();
+	}
+
+	/**
+	 * Unit test for BTreeInternalPage.findChild()
+	 */
+	@Test public void findChild() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		assertEquals(new BTreePageId(-1, 1, BTreePageId.LEAF), page.findChild(null));
+		assertEquals(new BTreePageId(-1, 1, BTreePageId.LEAF), page.findChild(new IntField(1468)));
+		assertEquals(new BTreePageId(-1, 2, BTreePageId.LEAF), page.findChild(new IntField(1469)));
+		assertEquals(new BTreePageId(-1, 21, BTreePageId.LEAF), page.findChild(new IntField(62779)));
+
+		// delete every third entry, leaving empty slots between the keys
+		Iterator<BTreeEntry> it = page.iterator();
+		List<BTreeEntry> entries = new ArrayList<>();
+		while (it.hasNext())
+			entries.add(it.next());
+		for (int i = 0; i < entries.size(); i += 3)
+			page.deleteKeyAndRightChild(entries.get(i));
+		for (int v = 0; v < 64000; v += 250) {
+			IntField f = new IntField(v);
+			assertEquals(linearChild(page, f), page.findChild(f));
+		}
+
+		for (BTreeEntry e : entries)
+			if (e.getRecordId() != null)
+				page.deleteKeyAndRightChild(e);
+		assertNull(page.findChild(new IntField(0)));
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -0,0 +1,132 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeLatchingTest extends SimpleDbTestBase {
+	private TransactionId tid;
+	private BTreeFile bf;
+	private BTreePageId rootPtrId;
+	private BTreePageId rootId;
+
+	@Before
+	public void setUp() throws Exception {
+		// a B+ tree with an internal root page over 100 leaf pages
+		bf = BTreeUtility.createRandomBTreeFile(2, 50200, null, null, 0);
+		tid = new TransactionId();
+		rootPtrId = BTreeRootPtrPage.getId(bf.getId());
+		TransactionId t = new TransactionId();
+		rootId = ((BTreeRootPtrPage) Database.getBufferPool().getPage(t, rootPtrId,
+				Permissions.READ_ONLY)).getRootId();
+		Database.getBufferPool().transactionComplete(t);
+		assertEquals(BTreePageId.INTERNAL, rootId.pgcateg());
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+		BTreeFile.resetLatchDescent();
+	}
+
+	// the pages of the tree the transaction holds locks on
+	private List<BTreePageId> locked(TransactionId tid) {
+		List<BTreePageId> pages = new ArrayList<>();
+		for(int i = 0; i <= bf.numPages(); i++) {
+			for(int categ : new int[] { BTreePageId.ROOT_PTR, BTreePageId.INTERNAL,
+					BTreePageId.LEAF, BTreePageId.HEADER }) {
+				BTreePageId pid = new BTreePageId(bf.getId(), i, categ);
+				if(Database.getBufferPool().holdsLock(tid, pid))
+					pages.add(pid);
+			}
+		}
+		return pages;
+	}
+
+	/**
+	 * A search keeps the leaf pages it read locked, but not the pages above.
+	 */
+	@Test
+	public void searchLatchesUpperLevels() throws Exception {
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(1000)));
+		it.open();
+		while(it.hasNext())
+			it.next();
+		it.close();
+		List<BTreePageId> pages = locked(tid);
+		assertFalse(pages.isEmpty());
+		for(BTreePageId pid : pages)
+			assertEquals(BTreePageId.LEAF, pid.pgcateg());
+	}
+
+	/**
+	 * An insert into a leaf page with room left locks that page only, so that
+	 * another transaction can split a page below the same root meanwhile.
+	 */
+	@Test
+	public void insertLatchesUpperLevels() throws Exception {
+		// the leaf pages are full, so split the one the key goes to first
+		TransactionId t = new TransactionId();
+		Database.getBufferPool().insertTuple(t, bf.getId(), BTreeUtility.getBTreeTuple(new int[] { 1000, 0 }));
+		Database.getBufferPool().transactionComplete(t);
+
+		Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(new int[] { 1000, 1 }));
+		List<BTreePageId> pages = locked(tid);
+		assertEquals(1, pages.size());
+		assertEquals(BTreePageId.LEAF, pages.get(0).pgcateg());
+
+		// an insert far from the first splits its leaf and updates the root page
+		TransactionId tid2 = new TransactionId();
+		Database.getBufferPool().insertTuple(tid2, bf.getId(),
+				BTreeUtility.getBTreeTuple(new int[] { BTreeUtility.MAX_RAND_VALUE - 1, 2 }));
+		assertTrue(Database.getBufferPool().holdsLock(tid2, rootId));
+		Database.getBufferPool().transactionComplete(tid2);
+
+		Tuple found = null;
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS,
+				new IntField(BTreeUtility.MAX_RAND_VALUE - 1)));
+		it.open();
+		while(it.hasNext()) {
+			Tuple e = it.next();
+			if(((IntField) e.getField(1)).getValue() == 2)
+				found = e;
+		}
+		it.close();
+		assertNotNull(found);
+	}
+
+	/**
+	 * Without latching, the pages on the way to the leaf stay locked.
+	 */
+	@Test
+	public void locksWithoutLatching() throws Exception {
+		BTreeFile.setLatchDescent(false);
+		Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(new int[] { 1000, 1 }));
+		assertTrue(Database.getBufferPool().holdsLock(tid, rootPtrId));
+		assertTrue(Database.getBufferPool().holdsLock(tid, rootId));
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeLatchingTest.class);
+	}
+}
@@ -7,6 +7,7 @@ import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.common.Utility;
+import simpledb.execution.Predicate.Op;
 import simpledb.index.BTreeLeafPage;
 import simpledb.index.BTreePageId;
 import simpledb.index.BTreeUtility;
@@ -347,6 +348,41 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeLeafPage.lowerBound() and iterator(Field)
+	 */
+	@Test public void lowerBound() throws Exception {
+		BTreeLeafPage page = new BTreeLeafPage(pid, EXAMPLE_DATA, 0);
+		assertEquals(page.getMaxTuples(), page.lowerBound(new IntField(62779)));
+
+		// delete every third tuple, leaving empty slots between the keys
+		Iterator<Tuple> it = page.iterator();
+		List<Tuple> tuples = new ArrayList<>();
+		while (it.hasNext())
+			tuples.add(it.next());
+		for (int i = 0; i < tuples.size(); i += 3)
+			page.deleteTuple(tuples.get(i));
+		page.insertTuple(tuples.get(3));
+
+		for (int v = 0; v < 64000; v += 250) {
+			IntField f = new IntField(v);
+			List<Tuple> expected = new ArrayList<>();
+			it = page.iterator();
+			while (it.hasNext()) {
+				Tuple t = it.next();
+				if (t.getField(0).compare(Op.GREATER_THAN_OR_EQ, f))
+					expected.add(t);
+			}
+			List<Tuple> actual = new ArrayList<>();
+			it = page.iterator(f);
+			while (it.hasNext())
+				actual.add(it.next());
+			assertEquals(expected, actual);
+			if (!expected.isEmpty())
+				assertEquals(expected.get(0).getRecordId().getTupleNumber(), page.lowerBound(f));
+		}
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -0,0 +1,150 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.index.*;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreePageAllocationTest extends SimpleDbTestBase {
+	private TransactionId tid;
+	private File f;
+
+	@Before
+	public void setUp() throws Exception {
+		tid = new TransactionId();
+		f = File.createTempFile("alloc", ".dat");
+		f.deleteOnExit();
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+		BTreeFile.resetExtendPages();
+	}
+
+	private void commit() {
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+	}
+
+	// the number of pages of the file on disk
+	private int filePages() {
+		return (int) ((f.length() - BTreeRootPtrPage.getPageSize()) / BufferPool.getPageSize());
+	}
+
+	// free a page of the file and commit
+	private void free(BTreeFile bf, int pgNo) throws Exception {
+		Map<PageId, Page> dirtypages = new HashMap<>();
+		bf.setEmptyPage(tid, dirtypages, pgNo);
+		for(Page p : dirtypages.values())
+			p.markDirty(true, tid);
+		commit();
+	}
+
+	/**
+	 * The file grows by the extend pages at a time as leaf pages split, and
+	 * the pages not handed out yet are not counted.
+	 */
+	@Test
+	public void extendsInBatches() throws Exception {
+		BTreeFile bf = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+		for(int i = 0; i < 5000; i++) {
+			Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(i, 2));
+			if(i % 500 == 499)
+				commit();
+		}
+		commit();
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+
+		// the root page was written with the root pointer, the rest in batches
+		assertTrue(bf.numPages() > 10);
+		assertTrue(filePages() >= bf.numPages());
+		assertTrue(filePages() < bf.numPages() + BTreeFile.getExtendPages());
+		assertEquals(0, (filePages() - 1) % BTreeFile.getExtendPages());
+	}
+
+	/**
+	 * A freed page is handed out again, and a new page is handed out without
+	 * locking the root pointer or the header pages when none is free.
+	 */
+	@Test
+	public void reusesFreePages() throws Exception {
+		BTreeFile bf = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0, 3);
+		free(bf, 2);
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(bf.getId());
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+				rootPtrId, Permissions.READ_ONLY);
+		BTreePageId headerId = rootPtr.getHeaderId();
+		assertNotNull(headerId);
+		commit();
+
+		assertEquals(2, bf.getEmptyPageNo(tid, new HashMap<>()));
+		assertTrue(Database.getBufferPool().holdsLock(tid, headerId));
+		commit();
+
+		int pages = bf.numPages();
+		assertEquals(pages + 1, bf.getEmptyPageNo(tid, new HashMap<>()));
+		assertFalse(Database.getBufferPool().holdsLock(tid, rootPtrId));
+		assertFalse(Database.getBufferPool().holdsLock(tid, headerId));
+		assertEquals(pages + 1, bf.numPages());
+	}
+
+	/**
+	 * A page freed by a transaction that aborts is not handed out.
+	 */
+	@Test
+	public void abortedFreeIsNotReused() throws Exception {
+		BTreeFile bf = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0, 3);
+		free(bf, 2);
+		assertEquals(2, bf.getEmptyPageNo(tid, new HashMap<>()));
+		commit();
+
+		Map<PageId, Page> dirtypages = new HashMap<>();
+		bf.setEmptyPage(tid, dirtypages, 3);
+		for(Page p : dirtypages.values())
+			p.markDirty(true, tid);
+		Database.getBufferPool().transactionComplete(tid, false);
+		tid = new TransactionId();
+
+		int pages = bf.numPages();
+		assertEquals(pages + 1, bf.getEmptyPageNo(tid, new HashMap<>()));
+	}
+
+	/**
+	 * A file opened again finds the pages freed before from its header pages,
+	 * and counts the pages preallocated before as used.
+	 */
+	@Test
+	public void reopen() throws Exception {
+		BTreeFile bf = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0, 3);
+		free(bf, 2);
+		assertTrue(filePages() > bf.numPages());
+
+		bf = BTreeUtility.openBTreeFile(2, f, 0);
+		assertEquals(filePages(), bf.numPages());
+		assertEquals(2, bf.getEmptyPageNo(tid, new HashMap<>()));
+		assertEquals(filePages() + 1, bf.getEmptyPageNo(tid, new HashMap<>()));
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreePageAllocationTest.class);
+	}
+}
@@ -0,0 +1,160 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeRangeIteratorTest extends SimpleDbTestBase {
+	private TransactionId tid;
+	private BTreeFile bf;
+	private final List<Integer> keys = new ArrayList<>(); // sorted
+
+	@Before
+	public void setUp() throws Exception {
+		tid = new TransactionId();
+		// about 20 tuples per key, so that keys span leaf pages
+		List<List<Integer>> tuples = new ArrayList<>();
+		bf = BTreeUtility.createRandomBTreeFile(2, 20000, 1000, null, tuples, 0);
+		for(List<Integer> t : tuples)
+			keys.add(t.get(0));
+		Collections.sort(keys);
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+		BTreeFile.resetBinarySearch();
+	}
+
+	private static IndexPredicate bound(Op op, int key) {
+		return new IndexPredicate(op, new IntField(key));
+	}
+
+	// the keys of the tuples an open iterator returns
+	private static List<Integer> read(DbFileIterator it) throws Exception {
+		List<Integer> found = new ArrayList<>();
+		while(it.hasNext())
+			found.add(((IntField) it.next().getField(0)).getValue());
+		return found;
+	}
+
+	private List<Integer> range(IndexPredicate lower, IndexPredicate upper, boolean reverse) throws Exception {
+		DbFileIterator it = bf.rangeIterator(tid, lower, upper, reverse);
+		it.open();
+		List<Integer> found = read(it);
+		it.close();
+		return found;
+	}
+
+	// the keys lo <= k < hi, or lo < k <= hi if open is set, in order
+	private List<Integer> expected(int lo, int hi, boolean open, boolean reverse) {
+		List<Integer> expected = new ArrayList<>();
+		for(int k : keys)
+			if(open ? lo < k && k <= hi : lo <= k && k < hi)
+				expected.add(k);
+		if(reverse)
+			Collections.reverse(expected);
+		return expected;
+	}
+
+	private void checkRanges(boolean reverse) throws Exception {
+		assertEquals(expected(100, 200, false, reverse),
+				range(bound(Op.GREATER_THAN_OR_EQ, 100), bound(Op.LESS_THAN, 200), reverse));
+		assertEquals(expected(100, 200, true, reverse),
+				range(bound(Op.GREATER_THAN, 100), bound(Op.LESS_THAN_OR_EQ, 200), reverse));
+		assertEquals(expected(Integer.MIN_VALUE, 300, false, reverse),
+				range(null, bound(Op.LESS_THAN, 300), reverse));
+		assertEquals(expected(700, Integer.MAX_VALUE, false, reverse),
+				range(bound(Op.GREATER_THAN_OR_EQ, 700), null, reverse));
+		assertEquals(expected(Integer.MIN_VALUE, Integer.MAX_VALUE, false, reverse),
+				range(null, null, reverse));
+		assertEquals(expected(499, 500, true, reverse),
+				range(bound(Op.EQUALS, 500), bound(Op.EQUALS, 500), reverse));
+		assertTrue(range(bound(Op.GREATER_THAN, 600), bound(Op.LESS_THAN, 400), reverse).isEmpty());
+		assertTrue(range(bound(Op.GREATER_THAN, 2000), null, reverse).isEmpty());
+	}
+
+	/**
+	 * The tuples within a range come in ascending order of their keys, the
+	 * range bounded on either end or both.
+	 */
+	@Test
+	public void ascending() throws Exception {
+		checkRanges(false);
+		BTreeFile.setBinarySearch(false);
+		checkRanges(false);
+	}
+
+	/**
+	 * In reverse, the tuples within a range come in descending order of their
+	 * keys, following the left sibling pointers of the leaf pages.
+	 */
+	@Test
+	public void descending() throws Exception {
+		checkRanges(true);
+		BTreeFile.setBinarySearch(false);
+		checkRanges(true);
+	}
+
+	/**
+	 * An iterator seeks forwards and backwards within its range, and to the
+	 * start of the range for a key before it.
+	 */
+	@Test
+	public void seek() throws Exception {
+		BTreeRangeIterator it = bf.rangeIterator(tid, bound(Op.GREATER_THAN_OR_EQ, 100),
+				bound(Op.LESS_THAN, 900), false);
+		it.open();
+		assertTrue(it.hasNext());
+		it.seek(new IntField(500));
+		assertEquals(expected(500, 900, false, false), read(it));
+		it.seek(new IntField(300));
+		assertEquals(expected(300, 900, false, false), read(it));
+		it.seek(new IntField(0));
+		assertEquals(expected(100, 900, false, false), read(it));
+		it.seek(new IntField(950));
+		assertFalse(it.hasNext());
+		it.close();
+
+		it = bf.rangeIterator(tid, bound(Op.GREATER_THAN_OR_EQ, 100), bound(Op.LESS_THAN, 900), true);
+		it.open();
+		it.seek(new IntField(500));
+		assertEquals(expected(99, 500, true, true), read(it));
+		it.seek(new IntField(2000));
+		assertEquals(expected(100, 900, false, true), read(it));
+		it.rewind();
+		assertEquals(expected(100, 900, false, true), read(it));
+		it.close();
+	}
+
+	/**
+	 * A bound must be on the side of the range it is given for.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void wrongBound() {
+		bf.rangeIterator(tid, bound(Op.LESS_THAN, 100), null, false);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeRangeIteratorTest.class);
+	}
+}
@@ -0,0 +1,286 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.AbstractDbFileIterator;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeStringKeyTest extends SimpleDbTestBase {
+	private static final TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+
+	private final Random r = new Random(7);
+	private TransactionId tid;
+
+	@Before
+	public void setUp() {
+		// room for the pages an internal page split updates the parent pointers of
+		Database.resetBufferPool(500);
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+		BufferPool.resetPageSize();
+	}
+
+	private BTreeFile emptyFile() throws Exception {
+		File f = File.createTempFile("strings", ".dat");
+		f.deleteOnExit();
+		BTreeFile bf = new BTreeFile(f, 0, td);
+		Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
+		return bf;
+	}
+
+	// a key with a common prefix, a random middle and a long common tail
+	private String randomKey() {
+		StringBuilder sb = new StringBuilder("customer-");
+		for(int i = 0; i < 6; i++)
+			sb.append((char) ('a' + r.nextInt(26)));
+		while(sb.length() < 100)
+			sb.append('x');
+		return sb.toString();
+	}
+
+	private Tuple tuple(String key, int v) {
+		Tuple t = new Tuple(td);
+		t.setField(0, new StringField(key, Type.STRING_LEN));
+		t.setField(1, new IntField(v));
+		return t;
+	}
+
+	private void commit() {
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+	}
+
+	// the keys of the file in order, checking the structure of the tree
+	private List<String> read(BTreeFile bf) throws Exception {
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		List<String> keys = new ArrayList<>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		while(it.hasNext())
+			keys.add(((StringField) it.next().getField(0)).getValue());
+		it.close();
+		return keys;
+	}
+
+	// the internal pages of the tree below the given page
+	private void internalPages(BTreeFile bf, BTreePageId pid, List<BTreeInternalPage> pages) throws Exception {
+		if(pid.pgcateg() != BTreePageId.INTERNAL)
+			return;
+		BTreeInternalPage p = (BTreeInternalPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+		pages.add(p);
+		Iterator<BTreeEntry> it = p.iterator();
+		BTreeEntry e = null;
+		while(it.hasNext()) {
+			e = it.next();
+			internalPages(bf, e.getLeftChild(), pages);
+		}
+		if(e != null)
+			internalPages(bf, e.getRightChild(), pages);
+	}
+
+	private List<BTreeInternalPage> internalPages(BTreeFile bf) throws Exception {
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+				BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+		List<BTreeInternalPage> pages = new ArrayList<>();
+		internalPages(bf, rootPtr.getRootId(), pages);
+		return pages;
+	}
+
+	/**
+	 * A page of string keys holds many more entries than fit at their full
+	 * size, and reads back as it was written.
+	 */
+	@Test
+	public void pageFormat() throws Exception {
+		BTreeFile bf = emptyFile();
+		List<BTreeEntry> entries = new ArrayList<>();
+		int full = (BufferPool.getPageSize() - 9) / (Type.STRING_TYPE.getLen() + 4);
+		for(int i = 0; i < full * 4; i++) {
+			entries.add(new BTreeEntry(new StringField(String.format("customer-%06d", i * 3), Type.STRING_LEN),
+					new BTreePageId(bf.getId(), i + 1, BTreePageId.LEAF),
+					new BTreePageId(bf.getId(), i + 2, BTreePageId.LEAF)));
+		}
+		byte[] data = BTreeFileEncoder.convertToInternalPage(new ArrayList<>(entries), BufferPool.getPageSize(),
+				Type.STRING_TYPE, BTreePageId.LEAF);
+		BTreeInternalPage page = new BTreeInternalPage(new BTreePageId(bf.getId(), 1, BTreePageId.INTERNAL), data, 0);
+		assertEquals(entries.size(), page.getNumEntries());
+		Iterator<BTreeEntry> it = page.iterator();
+		for(BTreeEntry e : entries) {
+			BTreeEntry read = it.next();
+			assertEquals(e.getKey(), read.getKey());
+			assertEquals(e.getLeftChild(), read.getLeftChild());
+			assertEquals(e.getRightChild(), read.getRightChild());
+		}
+		assertArrayEquals(data, page.getPageData());
+
+		// the shared prefix is stored once, so there is room for more
+		assertTrue(page.hasRoomFor(new StringField("customer-999999", Type.STRING_LEN)));
+		page.insertEntry(new BTreeEntry(new StringField("customer-999999", Type.STRING_LEN),
+				new BTreePageId(bf.getId(), full * 4 + 1, BTreePageId.LEAF),
+				new BTreePageId(bf.getId(), 5000, BTreePageId.LEAF)));
+		page = new BTreeInternalPage(page.getId(), page.getPageData(), 0);
+		assertEquals(entries.size() + 1, page.getNumEntries());
+	}
+
+	/**
+	 * The keys copied up when leaves split are shortened to what separates
+	 * the leaves, and the tree stays valid as pages split, merge and
+	 * redistribute their entries.
+	 */
+	@Test
+	public void insertAndDelete() throws Exception {
+		BufferPool.setPageSize(1024);
+		BTreeFile bf = emptyFile();
+		List<Tuple> inserted = new ArrayList<>();
+		for(int i = 0; i < 6000; i++) {
+			Tuple t = tuple(randomKey(), i);
+			Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+			inserted.add(t);
+			if(i % 50 == 49)
+				commit();
+		}
+		commit();
+		List<String> keys = read(bf);
+		assertEquals(inserted.size(), keys.size());
+		for(int i = 1; i < keys.size(); i++)
+			assertTrue(keys.get(i - 1).compareTo(keys.get(i)) <= 0);
+
+		List<BTreeInternalPage> pages = internalPages(bf);
+		assertEquals(3, bf.depth(tid));
+		for(BTreeInternalPage p : pages) {
+			Iterator<BTreeEntry> it = p.iterator();
+			while(it.hasNext())
+				assertTrue(((StringField) it.next().getKey()).getValue().length() < 20);
+		}
+
+		// a lookup finds each key
+		for(int i = 0; i < inserted.size(); i += 97) {
+			DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, inserted.get(i).getField(0)));
+			it.open();
+			boolean found = false;
+			while(it.hasNext())
+				found |= ((IntField) it.next().getField(1)).getValue() == i;
+			it.close();
+			assertTrue(found);
+		}
+		commit();
+
+		// delete most of the tuples, a few found through an index scan at a time
+		IndexPredicate ipred = new IndexPredicate(Op.LESS_THAN, new StringField("customer-t", Type.STRING_LEN));
+		int deleted = 0;
+		while(true) {
+			List<Tuple> gone = new ArrayList<>();
+			DbFileIterator it = bf.indexIterator(tid, ipred);
+			it.open();
+			while(it.hasNext() && gone.size() < 50)
+				gone.add(it.next());
+			it.close();
+			if(gone.isEmpty())
+				break;
+			for(Tuple t : gone)
+				Database.getBufferPool().deleteTuple(tid, t);
+			deleted += gone.size();
+			commit();
+		}
+		assertTrue(deleted > inserted.size() / 2);
+		assertEquals(inserted.size() - deleted, read(bf).size());
+	}
+
+	/**
+	 * Keys that differ only near their ends are separated by long keys, which
+	 * prefix compression still packs onto a page.
+	 */
+	@Test
+	public void longSeparators() throws Exception {
+		BufferPool.setPageSize(2048);
+		BTreeFile bf = emptyFile();
+		StringBuilder sb = new StringBuilder();
+		while(sb.length() < 110)
+			sb.append('p');
+		String prefix = sb.toString();
+		for(int i = 0; i < 3000; i++) {
+			Database.getBufferPool().insertTuple(tid, bf.getId(),
+					tuple(prefix + String.format("%06d", r.nextInt(1000000)), i));
+			if(i % 50 == 49)
+				commit();
+		}
+		commit();
+		assertEquals(3000, read(bf).size());
+		// the pages below the root hold more entries than fit at full size
+		List<BTreeInternalPage> pages = internalPages(bf);
+		assertTrue(pages.size() > 1);
+		for(BTreeInternalPage p : pages.subList(1, pages.size()))
+			assertTrue(p.getNumEntries() > (2048 - 9) / (Type.STRING_TYPE.getLen() + 4));
+	}
+
+	/**
+	 * The bulk loader packs pages of string keys by bytes.
+	 */
+	@Test
+	public void bulkLoad() throws Exception {
+		BufferPool.setPageSize(1024);
+		List<Tuple> tuples = new ArrayList<>();
+		for(int i = 0; i < 5000; i++)
+			tuples.add(tuple(randomKey(), i));
+		tuples.sort(new BTreeFileEncoder.TupleComparator(0));
+		BTreeFile bf = emptyFile();
+		new BTreeBulkLoader(bf, 1.0).load(new AbstractDbFileIterator() {
+			private Iterator<Tuple> it;
+
+			public void open() {
+				it = tuples.iterator();
+			}
+
+			public void rewind() {
+				open();
+			}
+
+			protected Tuple readNext() {
+				return it.hasNext() ? it.next() : null;
+			}
+		});
+		List<String> keys = read(bf);
+		assertEquals(tuples.size(), keys.size());
+		assertEquals(3, bf.depth(tid));
+		Database.getBufferPool().insertTuple(tid, bf.getId(), tuple(randomKey(), -1));
+		commit();
+		assertEquals(tuples.size() + 1, read(bf).size());
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeStringKeyTest.class);
+	}
+}
@@ -0,0 +1,178 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.execution.Predicate.Op;
+import simpledb.optimizer.ColumnStats;
+import simpledb.optimizer.HyperLogLog;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ColumnStatsTest extends SimpleDbTestBase {
+
+  // a Zipf-like column: value i appears about n / (i + 1) times
+  private static ColumnStats<Integer> skewed(int values, int rows, int reservoir) {
+    ColumnStats<Integer> c = new ColumnStats<>(100, reservoir);
+    double h = 0;
+    for (int i = 1; i <= values; i++)
+      h += 1.0 / i;
+    Random r = new Random(1);
+    for (int n = 0; n < rows; n++) {
+      double u = r.nextDouble() * h, sum = 0;
+      int i = 0;
+      while (sum + 1.0 / (i + 1) < u && i < values - 1)
+        sum += 1.0 / (++i);
+      c.addValue(i);
+    }
+    c.build(rows);
+    return c;
+  }
+
+  /**
+   * The frequencies of the most common values of a skewed column are close,
+   * where an equi-width histogram would smear them over their buckets.
+   */
+  @Test public void mostCommonValues() {
+    ColumnStats<Integer> c = skewed(1000, 100000, 100000);
+    double h = 0;
+    for (int i = 1; i <= 1000; i++)
+      h += 1.0 / i;
+    assertEquals(1 / h, c.estimateSelectivity(Op.EQUALS, 0), 0.01);
+    assertEquals(0.5 / h, c.estimateSelectivity(Op.EQUALS, 1), 0.01);
+    assertEquals(1 - 1 / h, c.estimateSelectivity(Op.NOT_EQUALS, 0), 0.01);
+    // the tail: each value about 1 / (h * 500)
+    assertEquals(1 / (h * 500), c.estimateSelectivity(Op.EQUALS, 499), 0.001);
+    assertEquals(0, c.estimateSelectivity(Op.EQUALS, 5000), 0.0001);
+  }
+
+  /**
+   * Range selectivities come from the MCVs and equi-depth buckets.
+   */
+  @Test public void ranges() {
+    ColumnStats<Integer> c = new ColumnStats<>(100, 100000);
+    // 90% zeroes, the rest spread over 1..9999
+    for (int i = 0; i < 100000; i++)
+      c.addValue(i % 10 == 0 ? 1 + (i / 10) % 9999 : 0);
+    c.build(100000);
+    assertEquals(0.9, c.estimateSelectivity(Op.EQUALS, 0), 0.001);
+    assertEquals(0.9, c.estimateSelectivity(Op.LESS_THAN_OR_EQ, 0), 0.001);
+    assertEquals(0.1, c.estimateSelectivity(Op.GREATER_THAN, 0), 0.001);
+    assertEquals(0.95, c.estimateSelectivity(Op.LESS_THAN, 5000), 0.005);
+    assertEquals(0.0, c.estimateSelectivity(Op.GREATER_THAN, 10000), 0.0001);
+    assertEquals(1.0, c.estimateSelectivity(Op.GREATER_THAN_OR_EQ, -1), 0.0001);
+  }
+
+  /**
+   * Strings are compared whole, not by their first four characters.
+   */
+  @Test public void longStrings() {
+    ColumnStats<String> c = new ColumnStats<>(100, 100000);
+    for (int i = 0; i < 1000; i++)
+      c.addValue(String.format("customer%05d", i));
+    c.build(1000);
+    assertEquals(0.5, c.estimateSelectivity(Op.LESS_THAN, "customer00500"), 0.02);
+    assertEquals(0.001, c.estimateSelectivity(Op.EQUALS, "customer00123"), 0.001);
+    assertEquals(0.0, c.estimateSelectivity(Op.EQUALS, "customer99999"), 0.0001);
+    assertEquals(1000, c.distinct(), 20);
+  }
+
+  /**
+   * Distinct counts are close whether the whole column or a sample of it
+   * was read, and grow as new values are inserted.
+   */
+  @Test public void distinct() {
+    ColumnStats<Integer> all = new ColumnStats<>(100, 1000);
+    for (int i = 0; i < 200000; i++)
+      all.addValue(i % 50000);
+    all.build(200000);
+    assertEquals(50000, all.distinct(), 50000 * 0.05);
+
+    // a sample of a tenth of a unique column
+    ColumnStats<Integer> sample = new ColumnStats<>(100, 100000);
+    for (int i = 0; i < 10000; i++)
+      sample.addValue(i * 10);
+    sample.build(100000);
+    assertEquals(100000, sample.distinct(), 100000 * 0.05);
+
+    // a sample of a column of few values
+    ColumnStats<Integer> few = new ColumnStats<>(100, 100000);
+    for (int i = 0; i < 10000; i++)
+      few.addValue(i % 20);
+    few.build(100000);
+    assertEquals(20, few.distinct(), 0.001);
+
+    for (int i = 0; i < 1000; i++)
+      few.addDistinct(100 + i);
+    assertEquals(1020, few.distinct(), 1020 * 0.05);
+  }
+
+  /**
+   * Inserted and deleted values update the frequencies in place.
+   */
+  @Test public void updates() {
+    ColumnStats<Integer> c = new ColumnStats<>(100, 100000);
+    for (int i = 0; i < 1000; i++)
+      c.addValue(i % 100);
+    c.build(1000);
+    for (int i = 0; i < 1000; i++)
+      c.addValue(500);
+    assertEquals(0.5, c.estimateSelectivity(Op.EQUALS, 500), 0.001);
+    assertEquals(0.5, c.estimateSelectivity(Op.GREATER_THAN, 99), 0.001);
+    for (int i = 0; i < 1000; i++)
+      c.removeValue(500);
+    assertEquals(0.0, c.estimateSelectivity(Op.EQUALS, 500), 0.001);
+    assertEquals(0.01, c.estimateSelectivity(Op.EQUALS, 50), 0.001);
+  }
+
+  /**
+   * Equi-join selectivities match the most common values of both sides.
+   */
+  @Test public void joinSelectivity() {
+    // uniform columns: 1 / max(distinct)
+    ColumnStats<Integer> a = new ColumnStats<>(100, 100000);
+    ColumnStats<Integer> b = new ColumnStats<>(100, 100000);
+    for (int i = 0; i < 10000; i++) {
+      a.addValue(i % 100);
+      b.addValue(i % 1000);
+    }
+    a.build(10000);
+    b.build(10000);
+    assertEquals(1.0 / 1000, ColumnStats.equiJoinSelectivity(a, b), 0.0001);
+
+    // two skewed columns join far more rows than their distinct counts say
+    ColumnStats<Integer> s1 = skewed(1000, 20000, 20000);
+    ColumnStats<Integer> s2 = skewed(1000, 20000, 20000);
+    double exact = 0, h = 0;
+    for (int i = 1; i <= 1000; i++)
+      h += 1.0 / i;
+    for (int i = 1; i <= 1000; i++)
+      exact += 1.0 / (i * h) / (i * h);
+    double sel = ColumnStats.equiJoinSelectivity(s1, s2);
+    assertEquals(exact, sel, exact * 0.2);
+    assertTrue(sel > 10.0 / Math.max(s1.distinct(), s2.distinct()));
+  }
+
+  /**
+   * The sketch estimates large distinct counts within a few percent.
+   */
+  @Test public void hyperLogLog() {
+    HyperLogLog h = new HyperLogLog();
+    for (int i = 0; i < 1000000; i++)
+      h.add(HyperLogLog.hash(i));
+    assertEquals(1000000, h.estimate(), 1000000 * 0.05);
+    for (int i = 0; i < 1000000; i++)
+      h.add(HyperLogLog.hash(i));
+    assertEquals(1000000, h.estimate(), 1000000 * 0.05);
+  }
+
+  /** Make test compatible with older version of ant. */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ColumnStatsTest.class);
+  }
+}
@@ -0,0 +1,184 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Filter;
+import simpledb.execution.Gather;
+import simpledb.execution.Morsels;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class GatherTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 5000;
+  private static final int WORKERS = 4;
+
+  private HeapFile table;
+  private List<List<Integer>> tuples;
+  private TransactionId tid;
+
+  @Before public void setUp() throws Exception {
+    tuples = new ArrayList<>();
+    table = SystemTestUtil.createRandomHeapFile(2, ROWS, 1000, null, tuples);
+    tid = new TransactionId();
+  }
+
+  @After public void tearDown() {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private Gather gatherScans(Morsels morsels) {
+    OpIterator[] pipelines = new OpIterator[WORKERS];
+    for (int i = 0; i < WORKERS; i++)
+      pipelines[i] = new SeqScan(tid, table.getId(), "", morsels);
+    return new Gather(pipelines, morsels);
+  }
+
+  /**
+   * Morsels hand out every page exactly once until reset
+   */
+  @Test public void morsels() {
+    Morsels morsels = new Morsels(10, 4);
+    assertEquals(0, morsels.next()[0]);
+    assertEquals(8, morsels.next()[1]);
+    int[] last = morsels.next();
+    assertEquals(8, last[0]);
+    assertEquals(10, last[1]);
+    assertEquals(null, morsels.next());
+    morsels.reset();
+    assertEquals(0, morsels.next()[0]);
+  }
+
+  /**
+   * Scans sharing a Morsels return every tuple of the table exactly once,
+   * again after a rewind
+   */
+  @Test public void gatherScans() throws Exception {
+    assertTrue(table.numPages() > WORKERS);
+    Morsels morsels = new Morsels(table.numPages(), 1);
+    Gather gather = gatherScans(morsels);
+    SystemTestUtil.matchTuples(gather, tuples);
+
+    gather.open();
+    while (gather.hasNext())
+      gather.next();
+    gather.rewind();
+    int count = 0;
+    while (gather.hasNext()) {
+      gather.next();
+      count++;
+    }
+    assertEquals(ROWS, count);
+    gather.close();
+  }
+
+  /**
+   * A single scan over morsels returns every tuple again after a rewind
+   */
+  @Test public void rewindMorselScan() throws Exception {
+    SeqScan scan = new SeqScan(tid, table.getId(), "", new Morsels(table.numPages(), 1));
+    SystemTestUtil.matchTuples(scan, tuples);
+    scan.open();
+    while (scan.hasNext())
+      scan.next();
+    scan.rewind();
+    int count = 0;
+    while (scan.hasNext()) {
+      scan.next();
+      count++;
+    }
+    assertEquals(ROWS, count);
+    scan.close();
+  }
+
+  /**
+   * Filters in the pipelines are applied by the workers
+   */
+  @Test public void gatherFilters() throws Exception {
+    Morsels morsels = Morsels.forTable(table.numPages(), WORKERS);
+    Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100));
+    OpIterator[] pipelines = new OpIterator[WORKERS];
+    for (int i = 0; i < WORKERS; i++)
+      pipelines[i] = new Filter(p, new SeqScan(tid, table.getId(), "", morsels));
+    List<List<Integer>> expected = new ArrayList<>();
+    for (List<Integer> t : tuples) {
+      if (t.get(0) < 100)
+        expected.add(t);
+    }
+    SystemTestUtil.matchTuples(new Gather(pipelines, morsels), expected);
+  }
+
+  /**
+   * Closing a gather before all tuples were read stops its workers, and
+   * runPipelines hands each pipeline to its own task
+   */
+  @Test public void closeEarlyAndRunPipelines() throws Exception {
+    Morsels morsels = new Morsels(table.numPages(), 1);
+    Gather gather = gatherScans(morsels);
+    gather.open();
+    gather.next();
+    gather.close();
+
+    List<Integer> counts = gather.runPipelines(pipeline -> {
+      int n = 0;
+      while (pipeline.hasNext()) {
+        pipeline.next();
+        n++;
+      }
+      return n;
+    });
+    assertEquals(WORKERS, counts.size());
+    int total = 0;
+    for (int n : counts)
+      total += n;
+    assertEquals(ROWS, total);
+  }
+
+  /**
+   * An exception in a pipeline is thrown by the gather
+   */
+  @Test public void pipelineFailure() throws Exception {
+    Gather gather = new Gather(new OpIterator[] {
+        new SeqScan(tid, table.getId(), "", new Morsels(table.numPages(), 1)),
+        new TupleIterator(table.getTupleDesc(), new ArrayList<>()) {
+          public void open() {
+            throw new IllegalStateException("broken pipeline");
+          }
+        } });
+    gather.open();
+    try {
+      while (gather.hasNext())
+        gather.next();
+      fail("expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      assertEquals("broken pipeline", e.getMessage());
+    }
+    gather.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(GatherTest.class);
+  }
+}
@@ -0,0 +1,236 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.AbstractDbFileIterator;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HashFileTest extends SimpleDbTestBase {
+	private static final TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE });
+
+	private final Random r = new Random(11);
+	private TransactionId tid;
+	private int bucketPages; // the pages of the buckets read by read()
+
+	@Before
+	public void setUp() {
+		tid = new TransactionId();
+	}
+
+	@After
+	public void tearDown() {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private HashFile emptyFile() throws Exception {
+		File f = File.createTempFile("hash", ".dat");
+		f.deleteOnExit();
+		HashFile hf = new HashFile(f, 0, td);
+		Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+		return hf;
+	}
+
+	private Tuple tuple(int key, int v) {
+		Tuple t = new Tuple(td);
+		t.setField(0, new IntField(key));
+		t.setField(1, new IntField(v));
+		return t;
+	}
+
+	private void commit() {
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+	}
+
+	private List<Tuple> lookup(HashFile hf, int key) throws Exception {
+		List<Tuple> found = new ArrayList<>();
+		DbFileIterator it = hf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key)));
+		it.open();
+		while(it.hasNext())
+			found.add(it.next());
+		it.close();
+		return found;
+	}
+
+	// the number of tuples with each key, checking that every tuple is in
+	// the bucket of its key
+	private Map<Integer, Integer> read(HashFile hf) throws Exception {
+		HashMetaPage meta = (HashMetaPage) Database.getBufferPool().getPage(tid,
+				HashMetaPage.getId(hf.getId()), Permissions.READ_ONLY);
+		Map<Integer, Integer> counts = new HashMap<>();
+		bucketPages = 0;
+		for(int b = 0; b <= meta.getMaxBucket(); b++) {
+			int pgNo = meta.getBucketPageNo(b);
+			while(pgNo != 0) {
+				HashPage page = (HashPage) Database.getBufferPool().getPage(tid,
+						new HashPageId(hf.getId(), pgNo), Permissions.READ_ONLY);
+				Iterator<Tuple> it = page.iterator();
+				while(it.hasNext()) {
+					Tuple t = it.next();
+					int key = ((IntField) t.getField(0)).getValue();
+					assertEquals(b, meta.getBucket(hashOf(key)));
+					counts.merge(key, 1, Integer::sum);
+				}
+				pgNo = page.getNextPageNo();
+				bucketPages++;
+			}
+		}
+		return counts;
+	}
+
+	// the hash value of a key, as the file computes it
+	private static int hashOf(int key) {
+		int h = key;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	/**
+	 * Buckets split as tuples are inserted, and a lookup finds every tuple of
+	 * its key, locking the first page of its bucket but not the meta page.
+	 */
+	@Test
+	public void insertAndLookup() throws Exception {
+		HashFile hf = emptyFile();
+		Map<Integer, Integer> expected = new HashMap<>();
+		for(int i = 0; i < 20000; i++) {
+			int key = r.nextInt(5000);
+			Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(key, i));
+			expected.merge(key, 1, Integer::sum);
+			if(i % 100 == 99)
+				commit();
+		}
+		commit();
+
+		for(int key = 0; key < 5000; key += 37)
+			assertEquals((int) expected.getOrDefault(key, 0), lookup(hf, key).size());
+		assertFalse(Database.getBufferPool().holdsLock(tid, HashMetaPage.getId(hf.getId())));
+		commit();
+
+		assertEquals(expected, read(hf));
+		HashMetaPage meta = (HashMetaPage) Database.getBufferPool().getPage(tid,
+				HashMetaPage.getId(hf.getId()), Permissions.READ_ONLY);
+		int buckets = meta.getMaxBucket() + 1;
+		int perPage = HashPage.getMaxTuples(td);
+		assertTrue(buckets >= 20000 / perPage);
+		// most buckets fit on their first page
+		assertTrue(bucketPages < 2 * buckets);
+	}
+
+	/**
+	 * Tuples are deleted from their pages, and an aborted insert leaves no
+	 * trace, even if it split a bucket.
+	 */
+	@Test
+	public void deleteAndAbort() throws Exception {
+		HashFile hf = emptyFile();
+		for(int i = 0; i < 3000; i++) {
+			Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(i % 300, i));
+			if(i % 100 == 99)
+				commit();
+		}
+		commit();
+
+		for(Tuple t : lookup(hf, 7))
+			Database.getBufferPool().deleteTuple(tid, t);
+		commit();
+		assertTrue(lookup(hf, 7).isEmpty());
+		assertEquals(10, lookup(hf, 8).size());
+		commit();
+
+		int pages = hf.numPages();
+		TransactionId t1 = new TransactionId();
+		for(int i = 0; i < 200; i++)
+			Database.getBufferPool().insertTuple(t1, hf.getId(), tuple(1000 + i, i));
+		Database.getBufferPool().transactionComplete(t1, false);
+		Map<Integer, Integer> counts = read(hf);
+		assertEquals(299, counts.size());
+		assertFalse(counts.containsKey(1000));
+		assertEquals(pages, hf.numPages());
+
+		// the file takes inserts again after the abort
+		for(int i = 0; i < 200; i++)
+			Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(1000 + i, i));
+		commit();
+		assertEquals(499, read(hf).size());
+	}
+
+	/**
+	 * A loaded file has buckets filled to the load fill factor, and takes
+	 * inserts like any other.
+	 */
+	@Test
+	public void load() throws Exception {
+		List<Tuple> tuples = new ArrayList<>();
+		for(int i = 0; i < 30000; i++)
+			tuples.add(tuple(r.nextInt(), i));
+		HashFile hf = emptyFile();
+		hf.load(new AbstractDbFileIterator() {
+			private Iterator<Tuple> it;
+
+			public void open() {
+				it = tuples.iterator();
+			}
+
+			public void rewind() {
+				open();
+			}
+
+			protected Tuple readNext() {
+				return it.hasNext() ? it.next() : null;
+			}
+		});
+		Map<Integer, Integer> counts = read(hf);
+		int total = 0;
+		for(int c : counts.values())
+			total += c;
+		assertEquals(tuples.size(), total);
+		for(int i = 0; i < tuples.size(); i += 101) {
+			int key = ((IntField) tuples.get(i).getField(0)).getValue();
+			assertEquals((int) counts.get(key), lookup(hf, key).size());
+		}
+		int pages = (int) Math.ceil(tuples.size() / (HashFile.LOAD_FILL_FACTOR * HashPage.getMaxTuples(td)));
+		assertTrue(bucketPages < 2 * pages);
+		commit();
+
+		Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(5, -1));
+		commit();
+		assertEquals(1, lookup(hf, 5).size() - (counts.containsKey(5) ? counts.get(5) : 0));
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(HashFileTest.class);
+	}
+}
@@ -0,0 +1,131 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.HeapFileExporter;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class HeapFileExporterTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 1000;
+  private static final Type[] TYPES = { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+
+  private HeapFile table;
+  private String expectedText;
+  private TransactionId tid;
+
+  // encode a text file of ROWS lines into a table
+  private HeapFile encode(String text) throws Exception {
+    File in = File.createTempFile("export", ".txt");
+    in.deleteOnExit();
+    try (FileWriter w = new FileWriter(in)) {
+      w.write(text);
+    }
+    File out = File.createTempFile("export", ".dat");
+    out.deleteOnExit();
+    HeapFileEncoder.convert(in, out, BufferPool.getPageSize(), TYPES.length, TYPES);
+    HeapFile f = new HeapFile(out, new TupleDesc(TYPES));
+    Database.getCatalog().addTable(f, out.getName());
+    return f;
+  }
+
+  @Before public void setUp() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < ROWS; i++)
+      sb.append(i - ROWS / 2).append(',').append("name").append(i % 97).append(',')
+          .append(Integer.MAX_VALUE - i).append('\n');
+    expectedText = sb.toString();
+    table = encode(expectedText);
+    tid = new TransactionId();
+  }
+
+  @After public void tearDown() {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private List<Tuple> scan(HeapFile f) throws Exception {
+    List<Tuple> result = new ArrayList<>();
+    simpledb.storage.DbFileIterator it = f.iterator(tid);
+    it.open();
+    while (it.hasNext())
+      result.add(it.next());
+    it.close();
+    return result;
+  }
+
+  /**
+   * Text output is what HeapFileEncoder reads, in page order.
+   */
+  @Test public void text() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    long n = HeapFileExporter.exportText(tid, table, Channels.newChannel(bytes));
+    assertEquals(ROWS, n);
+    assertEquals(expectedText, bytes.toString("US-ASCII"));
+
+    // and can be loaded again
+    HeapFile copy = encode(bytes.toString("US-ASCII"));
+    assertEquals(scan(table).toString(), scan(copy).toString());
+  }
+
+  /**
+   * Binary output is the tuples in their on-disk format, skipping empty
+   * slots.
+   */
+  @Test public void binary() throws Exception {
+    // make some holes
+    List<Tuple> all = scan(table);
+    for (int i = 0; i < all.size(); i += 3)
+      Database.getBufferPool().deleteTuple(tid, all.get(i));
+    List<Tuple> remaining = scan(table);
+
+    File out = File.createTempFile("export", ".bin");
+    out.deleteOnExit();
+    long n;
+    try (FileChannel ch = new FileOutputStream(out).getChannel()) {
+      n = HeapFileExporter.exportBinary(tid, table, ch);
+    }
+    assertEquals(remaining.size(), n);
+    TupleDesc td = table.getTupleDesc();
+    assertEquals(n * td.getSize(), out.length());
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+        java.nio.file.Files.readAllBytes(out.toPath())));
+    Iterator<Tuple> expected = remaining.iterator();
+    for (int i = 0; i < n; i++) {
+      Tuple t = expected.next();
+      for (int j = 0; j < td.numFields(); j++)
+        assertEquals(t.getField(j), td.getFieldType(j).parse(in));
+    }
+  }
+
+  /** Make test compatible with older version of ant. */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HeapFileExporterTest.class);
+  }
+}
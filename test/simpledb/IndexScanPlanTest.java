@@ -0,0 +1,218 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.execution.TopN;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeFileEncoder;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.IntField;
+import simpledb.storage.BufferPool;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class IndexScanPlanTest extends SimpleDbTestBase {
+
+  private List<List<Integer>> tuples;
+  private TransactionId tid;
+
+  @Before public void setUp() throws Exception {
+    // a table organized as a B+ tree on c0, declared in a catalog file
+    File dir = Files.createTempDirectory("catalog").toFile();
+    dir.deleteOnExit();
+    tuples = new ArrayList<>();
+    BTreeUtility.generateRandomTuples(2, 20000, 1000, null, tuples);
+    File hFile = File.createTempFile("table", ".dat");
+    hFile.deleteOnExit();
+    File bFile = new File(dir, "bt.dat");
+    bFile.deleteOnExit();
+    BTreeFileEncoder.convert(tuples, hFile, bFile, BufferPool.getPageSize(),
+        2, new Type[] { Type.INT_TYPE, Type.INT_TYPE }, ',', 0);
+    File catalog = new File(dir, "catalog.txt");
+    catalog.deleteOnExit();
+    try (FileWriter w = new FileWriter(catalog)) {
+      w.write("bt (c0 int, c1 int) btree (c0)\n");
+    }
+    Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+    int id = Database.getCatalog().getTableId("bt");
+    assertTrue(Database.getCatalog().getDatabaseFile(id) instanceof BTreeFile);
+    TableStats.setTableStats("bt", new TableStats(id, 1000));
+    tid = new TransactionId();
+  }
+
+  @After public void tearDown() {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  // the leaf of a plan over a single table
+  private static OpIterator leaf(OpIterator plan) {
+    while (plan instanceof Operator)
+      plan = ((Operator) plan).getChildren()[0];
+    return plan;
+  }
+
+  private static int count(OpIterator plan) throws Exception {
+    int cnt = 0;
+    plan.open();
+    while (plan.hasNext()) {
+      plan.next();
+      cnt++;
+    }
+    plan.close();
+    return cnt;
+  }
+
+  private OpIterator plan(String query) throws ParsingException, IOException {
+    Parser p = new Parser();
+    return p.generateLogicalPlan(tid, query).physicalPlan(tid,
+        TableStats.getStatsMap(), false);
+  }
+
+  /**
+   * A selective filter on the key reads the matching leaves only, and the
+   * other filters of the table are applied above the index scan.
+   */
+  @Test public void selectiveKeyFilter() throws Exception {
+    int expected = 0, both = 0;
+    for (List<Integer> t : tuples) {
+      if (t.get(0) < 10) {
+        expected++;
+        if (t.get(1) < 500)
+          both++;
+      }
+    }
+
+    OpIterator plan = plan("SELECT * FROM bt WHERE bt.c0 < 10;");
+    assertTrue(leaf(plan) instanceof BTreeScan);
+    assertEquals(expected, count(plan));
+
+    plan = plan("SELECT * FROM bt WHERE bt.c1 < 500 AND bt.c0 < 10;");
+    assertTrue(leaf(plan) instanceof BTreeScan);
+    assertEquals(both, count(plan));
+  }
+
+  /**
+   * Filters the index does not help with leave the table to a scan.
+   */
+  @Test public void scanOtherwise() throws Exception {
+    int expected = 0;
+    for (List<Integer> t : tuples)
+      if (t.get(1) < 10)
+        expected++;
+    OpIterator plan = plan("SELECT * FROM bt WHERE bt.c1 < 10;");
+    assertTrue(leaf(plan) instanceof SeqScan);
+    assertEquals(expected, count(plan));
+
+    // every tuple matches, so the descent only adds to the cost of a scan
+    plan = plan("SELECT * FROM bt WHERE bt.c0 >= 0;");
+    assertTrue(leaf(plan) instanceof SeqScan);
+    assertEquals(tuples.size(), count(plan));
+
+    plan = plan("SELECT * FROM bt WHERE bt.c0 <> 10;");
+    assertTrue(leaf(plan) instanceof SeqScan);
+  }
+
+  // the keys of the tuples a plan returns, in order
+  private static List<Integer> keys(OpIterator plan) throws Exception {
+    List<Integer> keys = new ArrayList<>();
+    plan.open();
+    while (plan.hasNext())
+      keys.add(((IntField) plan.next().getField(0)).getValue());
+    plan.close();
+    return keys;
+  }
+
+  // true if a plan over a single table sorts its tuples
+  private static boolean sorts(OpIterator plan) {
+    for (; plan instanceof Operator; plan = ((Operator) plan).getChildren()[0])
+      if (plan instanceof OrderBy || plan instanceof TopN)
+        return true;
+    return false;
+  }
+
+  /**
+   * Filters on both sides of the key bound the index scan on both ends.
+   */
+  @Test public void keyRange() throws Exception {
+    int expected = 0;
+    for (List<Integer> t : tuples)
+      if (t.get(0) > 100 && t.get(0) <= 110)
+        expected++;
+    OpIterator plan = plan("SELECT * FROM bt WHERE bt.c0 > 100 AND bt.c0 <= 110;");
+    BTreeScan scan = (BTreeScan) leaf(plan);
+    assertEquals(Predicate.Op.GREATER_THAN, scan.getLowerBound().getOp());
+    assertEquals(Predicate.Op.LESS_THAN_OR_EQ, scan.getUpperBound().getOp());
+    assertFalse(scan.isReverse());
+    assertEquals(expected, count(plan));
+  }
+
+  /**
+   * A query ordered by the key reads the B+ tree in that order, backwards
+   * for a descending order, and its LIMIT stops the scan without a sort.
+   */
+  @Test public void orderedByKey() throws Exception {
+    List<Integer> sorted = new ArrayList<>();
+    for (List<Integer> t : tuples)
+      sorted.add(t.get(0));
+    Collections.sort(sorted, Collections.reverseOrder());
+
+    OpIterator plan = plan("SELECT * FROM bt ORDER BY bt.c0 DESC LIMIT 10;");
+    assertTrue(((BTreeScan) leaf(plan)).isReverse());
+    assertFalse(sorts(plan));
+    assertEquals(sorted.subList(0, 10), keys(plan));
+
+    List<Integer> expected = new ArrayList<>();
+    for (List<Integer> t : tuples)
+      if (t.get(0) >= 100 && t.get(0) < 200 && t.get(1) < 500)
+        expected.add(t.get(0));
+    Collections.sort(expected, Collections.reverseOrder());
+    plan = plan("SELECT * FROM bt WHERE bt.c0 >= 100 AND bt.c0 < 200 AND bt.c1 < 500 ORDER BY bt.c0 DESC;");
+    BTreeScan scan = (BTreeScan) leaf(plan);
+    assertTrue(scan.isReverse());
+    assertNotNull(scan.getLowerBound());
+    assertNotNull(scan.getUpperBound());
+    assertFalse(sorts(plan));
+    assertEquals(expected, keys(plan));
+
+    Collections.reverse(sorted);
+    plan = plan("SELECT * FROM bt ORDER BY bt.c0 LIMIT 10;");
+    assertFalse(((BTreeScan) leaf(plan)).isReverse());
+    assertFalse(sorts(plan));
+    assertEquals(sorted.subList(0, 10), keys(plan));
+
+    // an order on another field still needs a sort
+    plan = plan("SELECT * FROM bt ORDER BY bt.c1 DESC LIMIT 10;");
+    assertTrue(sorts(plan));
+  }
+
+  /** Make test compatible with older version of ant. */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexScanPlanTest.class);
+  }
+}
@@ -0,0 +1,256 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.BlockNestedLoopJoin;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.execution.SortMergeJoin;
+import simpledb.index.IndexFetch;
+import simpledb.index.SecondaryIndex;
+import simpledb.optimizer.JoinAlgorithm;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class JoinAlgorithmTest extends SimpleDbTestBase {
+
+  final int width1 = 2;
+  final int width2 = 3;
+  int[] data1;
+  int[] data2;
+
+  /**
+   * Initialize each unit test with two relations of small, repeated join
+   * values
+   */
+  @Before public void createTupleLists() {
+    Random r = new Random(7);
+    data1 = new int[width1 * 50];
+    for (int i = 0; i < data1.length; i++)
+      data1[i] = r.nextInt(20);
+    data2 = new int[width2 * 70];
+    for (int i = 0; i < data2.length; i++)
+      data2[i] = r.nextInt(20);
+  }
+
+  private OpIterator scan1() {
+    return TestUtil.createTupleList(width1, data1);
+  }
+
+  private OpIterator scan2() {
+    return TestUtil.createTupleList(width2, data2);
+  }
+
+  // the tuples of op, sorted so that joins producing them in different
+  // orders compare equal
+  private static List<String> run(OpIterator op) throws Exception {
+    List<String> result = new ArrayList<>();
+    op.open();
+    while (op.hasNext())
+      result.add(op.next().toString());
+    op.close();
+    Collections.sort(result);
+    return result;
+  }
+
+  /**
+   * Block nested loops joins produce the same tuples as Join, whatever the
+   * block size.
+   */
+  @Test public void blockNestedLoops() throws Exception {
+    for (Predicate.Op op : Predicate.Op.values()) {
+      JoinPredicate pred = new JoinPredicate(0, op, 1);
+      List<String> expected = run(new Join(pred, scan1(), scan2()));
+      assertEquals(expected, run(new BlockNestedLoopJoin(pred, scan1(), scan2())));
+      for (int blockSize : new int[] { 1, 3, 50, 51 })
+        assertEquals(expected, run(new BlockNestedLoopJoin(pred, scan1(), scan2(), blockSize)));
+    }
+  }
+
+  /**
+   * Sort-merge joins produce the same tuples as Join for every predicate but
+   * NOT_EQUALS and LIKE, which they reject.
+   */
+  @Test public void sortMerge() throws Exception {
+    for (Predicate.Op op : Predicate.Op.values()) {
+      JoinPredicate pred = new JoinPredicate(1, op, 2);
+      if (!JoinAlgorithm.SORT_MERGE.supports(op)) {
+        try {
+          new SortMergeJoin(pred, scan1(), scan2());
+          throw new AssertionError("merge join on " + op);
+        } catch (IllegalArgumentException e) {
+          // expected
+        }
+        continue;
+      }
+      assertEquals(run(new Join(pred, scan1(), scan2())),
+          run(new SortMergeJoin(pred, scan1(), scan2())));
+    }
+  }
+
+  /**
+   * Rewinding either join starts its output over.
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN_OR_EQ, 0);
+    for (Join j : new Join[] { new BlockNestedLoopJoin(pred, scan1(), scan2(), 4),
+        new SortMergeJoin(pred, scan1(), scan2()) }) {
+      j.open();
+      List<String> first = new ArrayList<>();
+      while (j.hasNext())
+        first.add(j.next().toString());
+      assertTrue(TestUtil.checkExhausted(j));
+      j.rewind();
+      List<String> second = new ArrayList<>();
+      while (j.hasNext())
+        second.add(j.next().toString());
+      assertFalse(first.isEmpty());
+      assertEquals(first, second);
+      j.close();
+    }
+  }
+
+  /**
+   * Index nested loops joins probing a B+ tree or a hash index on the inner
+   * table, with a filter over the fetch, produce the same tuples as Join,
+   * also after a rewind. A hash index is only probed for equality, and
+   * neither for NOT_EQUALS or LIKE.
+   */
+  @Test public void indexNestedLoops() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(width2, 70, 20, null,
+        new ArrayList<>(), "c");
+    Database.getCatalog().addTable(table, "inl");
+    File btree = File.createTempFile("index", ".idx");
+    btree.deleteOnExit();
+    File hash = File.createTempFile("index", ".hash");
+    hash.deleteOnExit();
+    SecondaryIndex[] indexes = {
+        Database.getCatalog().addIndex(table.getId(), "c1", btree),
+        Database.getCatalog().addIndex(table.getId(), "c1", hash, true) };
+    TransactionId tid = new TransactionId();
+    Predicate filter = new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(5));
+    for (SecondaryIndex index : indexes) {
+      for (Predicate.Op op : Predicate.Op.values()) {
+        JoinPredicate pred = new JoinPredicate(0, op, 1);
+        IndexFetch fetch = new IndexFetch(tid, index, "inl", null);
+        if (!JoinAlgorithm.INDEX_NESTED_LOOPS.supports(op)
+            || (index.isHash() && op != Predicate.Op.EQUALS)) {
+          try {
+            new IndexNestedLoopJoin(pred, scan1(), fetch, fetch);
+            throw new AssertionError("index join on " + op);
+          } catch (IllegalArgumentException e) {
+            // expected
+          }
+          continue;
+        }
+        List<String> expected = run(new Join(pred, scan1(),
+            new Filter(filter, new SeqScan(tid, table.getId(), "inl"))));
+        IndexNestedLoopJoin j = new IndexNestedLoopJoin(pred, scan1(),
+            new Filter(filter, fetch), fetch);
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, run(j));
+
+        j.open();
+        while (j.hasNext())
+          j.next();
+        j.rewind();
+        List<String> rewound = new ArrayList<>();
+        while (j.hasNext())
+          rewound.add(j.next().toString());
+        j.close();
+        Collections.sort(rewound);
+        assertEquals(expected, rewound);
+      }
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * A hash join whose outer relation outgrows its estimate hashes the inner
+   * relation instead when that is smaller, and returns the same tuples.
+   */
+  @Test public void adaptiveHashJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+    List<String> expected = run(new Join(pred, scan2(), scan1()));
+
+    // 70 outer tuples, estimated at 30; the 50 inner ones are fewer
+    HashEquiJoin swapped = new HashEquiJoin(pred, scan2(), scan1());
+    swapped.setInputEstimates(30, 10);
+    assertEquals(expected, run(swapped));
+    assertTrue(swapped.isSwapped());
+    assertEquals(expected.size(), swapped.getActualCardinality());
+
+    swapped.open();
+    List<String> first = new ArrayList<>();
+    while (swapped.hasNext())
+      first.add(swapped.next().toString());
+    swapped.rewind();
+    List<String> second = new ArrayList<>();
+    while (swapped.hasNext())
+      second.add(swapped.next().toString());
+    swapped.close();
+    Collections.sort(first);
+    Collections.sort(second);
+    assertEquals(expected, first);
+    assertEquals(expected, second);
+
+    // an inner relation larger than the outer one read is not hashed
+    pred = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+    expected = run(new Join(pred, scan1(), scan2()));
+    HashEquiJoin larger = new HashEquiJoin(pred, scan1(), scan2());
+    larger.setInputEstimates(10, 10);
+    assertEquals(expected, run(larger));
+    assertFalse(larger.isSwapped());
+
+    // nor is anything swapped when the estimates hold
+    HashEquiJoin estimated = new HashEquiJoin(pred, scan1(), scan2());
+    estimated.setInputEstimates(50, 70);
+    assertEquals(expected, run(estimated));
+    assertFalse(estimated.isSwapped());
+  }
+
+  /**
+   * Only algorithms able to evaluate a predicate support it, and equality is
+   * hashed by default.
+   */
+  @Test public void supports() {
+    for (JoinAlgorithm a : JoinAlgorithm.values())
+      assertTrue(a.supports(Predicate.Op.EQUALS));
+    assertFalse(JoinAlgorithm.HASH.supports(Predicate.Op.LESS_THAN));
+    assertFalse(JoinAlgorithm.SORT_MERGE.supports(Predicate.Op.NOT_EQUALS));
+    assertTrue(JoinAlgorithm.BLOCK_NESTED_LOOPS.supports(Predicate.Op.LIKE));
+    assertFalse(JoinAlgorithm.INDEX_NESTED_LOOPS.supports(Predicate.Op.NOT_EQUALS));
+    assertEquals(JoinAlgorithm.HASH, JoinAlgorithm.getDefault(Predicate.Op.EQUALS));
+    assertEquals(JoinAlgorithm.NESTED_LOOPS, JoinAlgorithm.getDefault(Predicate.Op.GREATER_THAN));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(JoinAlgorithmTest.class);
+  }
+}
@@ -6,8 +6,10 @@ import org.junit.Test;
 import simpledb.common.Database;
 import simpledb.common.Utility;
 import simpledb.execution.Predicate;
+import simpledb.optimizer.JoinAlgorithm;
 import simpledb.optimizer.JoinOptimizer;
 import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
 import simpledb.optimizer.TableStats;
 import simpledb.storage.BufferPool;
 import simpledb.storage.HeapFile;
@@ -271,6 +273,25 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(cardinality == 800 || cardinality == 2000);
     }
 
+    /**
+     * Without primary keys, equi-join cardinalities come from the distinct
+     * values of the joined columns: every value from 0 to 19 here.
+     */
+    @Test
+    public void statsJoinCardinalityTest() throws ParsingException, IOException {
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        JoinOptimizer j = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM " + tableName1 + " t1, " + tableName2
+                        + " t2 WHERE t1.c3 = t2.c4;"),
+                new ArrayList<>());
+        Assert.assertEquals(20, stats1.estimateDistinct(3), 0.001);
+        int cardinality = j.estimateJoinCardinality(new LogicalJoinNode("t1", "t2",
+                "c3", "c4", Predicate.Op.EQUALS), 800, 2000, false, false,
+                TableStats.getStatsMap());
+        Assert.assertEquals(800 * 2000 / 20, cardinality, 800 * 2000 / 20 * 0.01);
+    }
+
     /**
      * Determine whether the orderJoins implementation is doing a reasonable job
      * of ordering joins, and not taking an unreasonable amount of time to do so
@@ -627,4 +648,149 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(result.get(result.size() - 1).t2Alias.equals("a")
                 || result.get(result.size() - 1).t1Alias.equals("a"));
     }
+
+    /**
+     * Check that the joins can be run in the order given, each joining the
+     * two subplans holding its tables, and that they join all the tables.
+     */
+    private void checkJoinOrder(List<LogicalJoinNode> nodes,
+            List<LogicalJoinNode> result, int tables) {
+        Assert.assertEquals(nodes.size(), result.size());
+        Map<String, Set<String>> subplans = new HashMap<>();
+        for (LogicalJoinNode j : result) {
+            Assert.assertTrue(nodes.contains(j));
+            Set<String> s1 = subplans.computeIfAbsent(j.t1Alias,
+                    a -> new HashSet<>(Collections.singleton(a)));
+            Set<String> s2 = subplans.computeIfAbsent(j.t2Alias,
+                    a -> new HashSet<>(Collections.singleton(a)));
+            if (s1 != s2) {
+                s1.addAll(s2);
+                for (String a : s2)
+                    subplans.put(a, s1);
+            }
+        }
+        Assert.assertEquals(tables, subplans.get(result.get(0).t1Alias).size());
+    }
+
+    /**
+     * Create tables named prefix + i of 100 to 100 * n tuples, with
+     * statistics, and a plan scanning them.
+     */
+    private LogicalPlan createTables(String prefix, int n,
+            Map<String, TableStats> stats,
+            Map<String, Double> filterSelectivities) throws IOException {
+        LogicalPlan plan = new LogicalPlan();
+        for (int i = 0; i < n; i++) {
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2, 100 * (i + 1),
+                    1000, null, new ArrayList<>(), "c");
+            String name = prefix + i;
+            Database.getCatalog().addTable(f, name);
+            plan.addScan(f.getId(), name);
+            stats.put(name, new TableStats(f.getId(), 101));
+            filterSelectivities.put(name, 1.0);
+        }
+        return plan;
+    }
+
+    /**
+     * A wide star join is planned quickly, and every join in the result
+     * joins two existing subplans.
+     */
+    @Test(timeout = 20000)
+    public void starOrderJoinsTest() throws Exception {
+        Map<String, TableStats> stats = new HashMap<>();
+        Map<String, Double> filterSelectivities = new HashMap<>();
+        LogicalPlan plan = createTables("star", 13, stats, filterSelectivities);
+        List<LogicalJoinNode> nodes = new ArrayList<>();
+        for (int i = 1; i < 13; i++)
+            nodes.add(new LogicalJoinNode("star0", "star" + i, "c" + (i % 2),
+                    "c0", Predicate.Op.EQUALS));
+        Collections.shuffle(nodes);
+
+        List<LogicalJoinNode> result = new JoinOptimizer(plan, nodes)
+                .orderJoins(stats, filterSelectivities, false);
+        checkJoinOrder(nodes, result, 13);
+    }
+
+    /**
+     * The predicate closing a cycle is kept, after the join of the subplans
+     * it connects.
+     */
+    @Test
+    public void cycleOrderJoinsTest() throws Exception {
+        Map<String, TableStats> stats = new HashMap<>();
+        Map<String, Double> filterSelectivities = new HashMap<>();
+        LogicalPlan plan = createTables("cyc", 4, stats, filterSelectivities);
+        List<LogicalJoinNode> nodes = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+            nodes.add(new LogicalJoinNode("cyc" + i, "cyc" + ((i + 1) % 4),
+                    "c1", "c0", Predicate.Op.EQUALS));
+
+        for (int threshold : new int[] { JoinOptimizer.DEFAULT_GREEDY_THRESHOLD, 0 }) {
+            JoinOptimizer.setGreedyThreshold(threshold);
+            try {
+                List<LogicalJoinNode> result = new JoinOptimizer(plan, nodes)
+                        .orderJoins(stats, filterSelectivities, false);
+                checkJoinOrder(nodes, result, 4);
+            } finally {
+                JoinOptimizer.resetGreedyThreshold();
+            }
+        }
+    }
+
+    /**
+     * Above the threshold joins are ordered greedily, smallest results first.
+     */
+    @Test
+    public void greedyOrderJoinsTest() throws Exception {
+        Map<String, TableStats> stats = new HashMap<>();
+        Map<String, Double> filterSelectivities = new HashMap<>();
+        LogicalPlan plan = createTables("goo", 6, stats, filterSelectivities);
+        List<LogicalJoinNode> nodes = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+            nodes.add(new LogicalJoinNode("goo" + i, "goo" + (i + 1), "c1",
+                    "c1", Predicate.Op.EQUALS));
+        Collections.shuffle(nodes);
+
+        JoinOptimizer.setGreedyThreshold(nodes.size() - 1);
+        try {
+            List<LogicalJoinNode> result = new JoinOptimizer(plan, nodes)
+                    .orderJoins(stats, filterSelectivities, false);
+            checkJoinOrder(nodes, result, 6);
+            // the two smallest tables are joined first, the largest last
+            LogicalJoinNode first = result.get(0), last = result.get(4);
+            Assert.assertEquals(new HashSet<>(Arrays.asList("goo0", "goo1")),
+                    new HashSet<>(Arrays.asList(first.t1Alias, first.t2Alias)));
+            Assert.assertTrue(last.t1Alias.equals("goo5") || last.t2Alias.equals("goo5"));
+        } finally {
+            JoinOptimizer.resetGreedyThreshold();
+        }
+    }
+
+    /**
+     * Each join is given the cheapest algorithm able to evaluate its
+     * predicate, unless it already has one.
+     */
+    @Test
+    public void algorithmOrderJoinsTest() throws Exception {
+        Map<String, TableStats> stats = new HashMap<>();
+        Map<String, Double> filterSelectivities = new HashMap<>();
+        LogicalPlan plan = createTables("alg", 2, stats, filterSelectivities);
+        Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                Predicate.Op.NOT_EQUALS };
+        JoinAlgorithm[] expected = { JoinAlgorithm.HASH, JoinAlgorithm.SORT_MERGE,
+                JoinAlgorithm.BLOCK_NESTED_LOOPS };
+        for (int i = 0; i < ops.length; i++) {
+            LogicalJoinNode j = new LogicalJoinNode("alg0", "alg1", "c0", "c1", ops[i]);
+            List<LogicalJoinNode> result = new JoinOptimizer(plan,
+                    Collections.singletonList(j)).orderJoins(stats, filterSelectivities, false);
+            Assert.assertEquals(expected[i], result.get(0).algorithm);
+        }
+
+        LogicalJoinNode j = new LogicalJoinNode("alg0", "alg1", "c0", "c1",
+                Predicate.Op.EQUALS).withAlgorithm(JoinAlgorithm.NESTED_LOOPS);
+        List<LogicalJoinNode> result = new JoinOptimizer(plan,
+                Collections.singletonList(j)).orderJoins(stats, filterSelectivities, false);
+        Assert.assertEquals(JoinAlgorithm.NESTED_LOOPS, result.get(0).algorithm);
+    }
 }
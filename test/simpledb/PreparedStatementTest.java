@@ -0,0 +1,170 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Query;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.Field;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+
+public class PreparedStatementTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 1000;
+  private static final int MAX = 50;
+
+  private List<List<Integer>> aTuples, bTuples;
+  private Parser parser;
+  private Transaction txn;
+
+  @Before public void setUp() throws Exception {
+    aTuples = new ArrayList<>();
+    bTuples = new ArrayList<>();
+    HeapFile a = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX, null, aTuples, "c");
+    Database.getCatalog().addTable(a, "pa");
+    HeapFile b = SystemTestUtil.createRandomHeapFile(2, ROWS / 10, MAX, null, bTuples, "c");
+    Database.getCatalog().addTable(b, "pb");
+    TableStats.computeStatistics();
+    Parser.planCache.clear();
+    parser = new Parser();
+    parser.setPrintPlans(false);
+    txn = new Transaction();
+    txn.start();
+  }
+
+  @After public void tearDown() throws Exception {
+    txn.commit();
+  }
+
+  private List<Tuple> run(String sql, Field... params) throws Exception {
+    Query q = parser.parseQuery(sql, Arrays.asList(params), txn.getId());
+    List<Tuple> result = new ArrayList<>();
+    q.start();
+    while (q.hasNext())
+      result.add(q.next());
+    q.close();
+    return result;
+  }
+
+  /**
+   * A filter parameter is given a new value on every run of the cached plan.
+   */
+  @Test public void filterParameters() throws Exception {
+    String sql = "select * from pa where pa.c0 = ? and pa.c1 < ?;";
+    for (int v = 0; v < 10; v++) {
+      int expected = 0;
+      for (List<Integer> t : aTuples) {
+        if (t.get(0) == v && t.get(1) < 2 * v)
+          expected++;
+      }
+      assertEquals(expected, run(sql, new IntField(v), new IntField(2 * v)).size());
+    }
+    assertEquals(1, Parser.planCache.getMisses());
+    assertEquals(9, Parser.planCache.getHits());
+    assertEquals(1, Parser.planCache.size());
+  }
+
+  /**
+   * The join order of a cached query is chosen once and reused.
+   */
+  @Test public void joinOrderIsReused() throws Exception {
+    String sql = "select pa.c0, pb.c1 from pa, pb where pa.c0 = pb.c0 and pb.c1 > ?;";
+    for (int v = 0; v < MAX; v += 10) {
+      int expected = 0;
+      for (List<Integer> ta : aTuples) {
+        for (List<Integer> tb : bTuples) {
+          if (ta.get(0).equals(tb.get(0)) && tb.get(1) > v)
+            expected++;
+        }
+      }
+      assertEquals(expected, run(sql, new IntField(v)).size());
+    }
+    Parser.Template t = Parser.planCache.get(
+        simpledb.optimizer.StatementCache.normalize(sql));
+    List<LogicalJoinNode> joins = t.plan.getJoins();
+    assertEquals(1, joins.size());
+
+    // white space differences share the plan
+    run("select pa.c0,  pb.c1 from pa, pb\n where pa.c0 = pb.c0 and pb.c1 > ?", new IntField(0));
+    assertEquals(1, Parser.planCache.size());
+  }
+
+  /**
+   * Inserted values may be parameters.
+   */
+  @Test public void insertParameters() throws Exception {
+    for (int i = 0; i < 5; i++)
+      assertEquals(1, run("insert into pa values (?, ?);",
+          new IntField(MAX + i), new IntField(i)).size());
+    assertEquals(5, run("select * from pa where pa.c0 >= ?;", new IntField(MAX)).size());
+    assertEquals(ROWS + 5, run("select * from pa;").size());
+  }
+
+  /**
+   * Missing, extra and mistyped parameters are rejected.
+   */
+  @Test public void badParameters() throws Exception {
+    String sql = "select * from pa where pa.c0 = ?;";
+    try {
+      run(sql);
+      fail("expected ParsingException");
+    } catch (ParsingException expected) {
+    }
+    try {
+      run(sql, new IntField(1), new IntField(2));
+      fail("expected ParsingException");
+    } catch (ParsingException expected) {
+    }
+    try {
+      run(sql, new StringField("x", 10));
+      fail("expected ParsingException");
+    } catch (ParsingException expected) {
+    }
+    try {
+      run("select * from pa where ? = ?;", new IntField(1), new IntField(1));
+      fail("expected ParsingException");
+    } catch (ParsingException expected) {
+    }
+  }
+
+  /**
+   * New statistics or a new table make the cached plans stale.
+   */
+  @Test public void invalidatedByStats() throws Exception {
+    String sql = "select * from pa where pa.c0 < ?;";
+    run(sql, new IntField(5));
+    run(sql, new IntField(6));
+    assertEquals(1, Parser.planCache.getHits());
+    TableStats.computeStatistics();
+    run(sql, new IntField(7));
+    assertEquals(1, Parser.planCache.getHits());
+    assertEquals(2, Parser.planCache.getMisses());
+    assertTrue(run(sql, new IntField(MAX)).size() == ROWS);
+    assertEquals(Collections.emptyList(), run(sql, new IntField(0)));
+  }
+
+  /** Make test compatible with older version of ant. */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PreparedStatementTest.class);
+  }
+}
@@ -0,0 +1,122 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Filter;
+import simpledb.execution.Predicate;
+import simpledb.execution.Profiler;
+import simpledb.execution.Query;
+import simpledb.execution.ResultSet;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class ProfilerTest extends SimpleDbTestBase {
+
+  private HeapFile table;
+  private List<List<Integer>> tuples;
+  private TransactionId tid;
+  private int matching;
+
+  @Before public void setUp() throws Exception {
+    tuples = new ArrayList<>();
+    table = SystemTestUtil.createRandomHeapFile(2, 1000, 100, null, tuples, "c");
+    Database.getCatalog().addTable(table, "prof");
+    tid = new TransactionId();
+    for (List<Integer> t : tuples)
+      if (t.get(0) < 50)
+        matching++;
+  }
+
+  @After public void tearDown() {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private static int run(Profiler p, TransactionId tid) throws Exception {
+    int cnt = 0;
+    try (ResultSet rs = new ResultSet(new Query(p.getRoot(), tid))) {
+      while (rs.next())
+        cnt++;
+    } finally {
+      p.detach();
+    }
+    return cnt;
+  }
+
+  /**
+   * Each operator is credited with the tuples it returned and the pages it
+   * requested, and the plan is left as it was.
+   */
+  @Test public void rowsAndPages() throws Exception {
+    SeqScan scan = new SeqScan(tid, table.getId(), "prof");
+    Filter filter = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50)), scan);
+
+    Profiler cold = new Profiler(filter);
+    assertTrue(Profiler.isActive());
+    assertEquals(matching, run(cold, tid));
+    assertFalse(Profiler.isActive());
+    assertSame(scan, filter.getChildren()[0]);
+
+    Profiler.Stats f = cold.getStats(filter), s = cold.getStats(scan);
+    assertEquals(matching, f.getRows());
+    assertEquals(1000, s.getRows());
+    assertEquals(table.numPages(), s.getHits() + s.getMisses());
+    assertEquals(table.numPages(), s.getMisses());
+    assertEquals(0, f.getHits() + f.getMisses());
+    assertTrue(f.getInclusiveNanos() >= s.getInclusiveNanos());
+    assertTrue(f.getExclusiveNanos() <= f.getInclusiveNanos());
+
+    // the pages are cached now
+    Profiler warm = new Profiler(filter);
+    assertEquals(matching, run(warm, tid));
+    assertEquals(table.numPages(), warm.getStats(scan).getHits());
+    assertEquals(0, warm.getStats(scan).getMisses());
+  }
+
+  /**
+   * EXPLAIN ANALYZE runs a statement and prints the actual number of tuples
+   * of each operator next to its estimate.
+   */
+  @Test public void explainAnalyze() throws Exception {
+    TableStats.setTableStats("prof", new TableStats(table.getId(), 1000));
+    Parser p = new Parser();
+    p.setPrintPlans(false);
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    PrintStream out = System.out;
+    System.setOut(new PrintStream(buf, true, StandardCharsets.UTF_8));
+    try {
+      p.processNextStatement("EXPLAIN ANALYZE SELECT * FROM prof WHERE prof.c0 < 50;");
+    } finally {
+      System.setOut(out);
+    }
+    String printed = buf.toString(StandardCharsets.UTF_8);
+    assertTrue(printed, printed.contains("rows:1000,"));
+    assertTrue(printed, printed.contains("rows:" + matching + ","));
+    assertTrue(printed, printed.contains(" " + matching + " rows in "));
+  }
+
+  /** Make test compatible with older version of ant. */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ProfilerTest.class);
+  }
+}
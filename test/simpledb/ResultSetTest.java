@@ -0,0 +1,145 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Gather;
+import simpledb.execution.Morsels;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Query;
+import simpledb.execution.ResultSet;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class ResultSetTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 3000;
+
+  private HeapFile table;
+  private List<List<Integer>> tuples;
+  private TransactionId tid;
+
+  @Before public void setUp() throws Exception {
+    tuples = new ArrayList<>();
+    table = SystemTestUtil.createRandomHeapFile(2, ROWS, 1000, null, tuples, "c");
+    Database.getCatalog().addTable(table, "rs");
+    tid = new TransactionId();
+  }
+
+  @After public void tearDown() {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Every tuple is returned once, whatever the fetch size.
+   */
+  @Test public void allTuples() throws Exception {
+    for (int fetchSize : new int[] { 1, 7, ROWS, 2 * ROWS }) {
+      Query q = new Query(new SeqScan(tid, table.getId(), "rs"), tid);
+      List<List<Integer>> result = new ArrayList<>();
+      try (ResultSet rs = new ResultSet(q)) {
+        rs.setFetchSize(fetchSize);
+        while (rs.next()) {
+          List<Integer> t = new ArrayList<>();
+          t.add(rs.getInt(0));
+          t.add(rs.getInt("rs.c1"));
+          result.add(t);
+        }
+        assertFalse(rs.isOpen());
+        assertEquals(ROWS, rs.getRowCount());
+        assertFalse(rs.next());
+      }
+      assertEquals(tuples.size(), result.size());
+      assertTrue(result.containsAll(tuples));
+    }
+  }
+
+  /**
+   * Getters check the current tuple and the field types.
+   */
+  @Test public void getters() throws Exception {
+    Query q = new Query(new SeqScan(tid, table.getId(), "rs"), tid);
+    try (ResultSet rs = new ResultSet(q)) {
+      try {
+        rs.getInt(0);
+        fail("expected NoSuchElementException");
+      } catch (NoSuchElementException expected) {
+      }
+      assertTrue(rs.next());
+      assertEquals(rs.getInt(1), rs.getInt(rs.findColumn("rs.c1")));
+      try {
+        rs.getString(0);
+        fail("expected IllegalArgumentException");
+      } catch (IllegalArgumentException expected) {
+      }
+      try {
+        rs.findColumn("nosuchfield");
+        fail("expected NoSuchElementException");
+      } catch (NoSuchElementException expected) {
+      }
+    }
+  }
+
+  /**
+   * Closing early stops the operators, including parallel ones.
+   */
+  @Test public void closeEarly() throws Exception {
+    Morsels morsels = new Morsels(table.numPages(), 1);
+    OpIterator[] pipelines = new OpIterator[4];
+    for (int i = 0; i < pipelines.length; i++)
+      pipelines[i] = new SeqScan(tid, table.getId(), "rs", morsels);
+    ResultSet rs = new ResultSet(new Query(new Gather(pipelines, morsels), tid));
+    rs.setFetchSize(10);
+    for (int i = 0; i < 25; i++)
+      assertTrue(rs.next());
+    assertTrue(rs.isOpen());
+    rs.close();
+    assertFalse(rs.isOpen());
+    assertFalse(rs.next());
+    assertEquals(25, rs.getRowCount());
+  }
+
+  /**
+   * The parser starts statements as result sets.
+   */
+  @Test public void fromParser() throws Exception {
+    TableStats.computeStatistics();
+    Parser p = new Parser();
+    p.setPrintPlans(false);
+    int expected = 0;
+    for (List<Integer> t : tuples) {
+      if (t.get(0) < 100)
+        expected++;
+    }
+    try (ResultSet rs = p.executeQuery("select rs.c0 from rs where rs.c0 < 100;", tid)) {
+      int n = 0;
+      while (rs.next()) {
+        assertTrue(rs.getInt(0) < 100);
+        n++;
+      }
+      assertEquals(expected, n);
+    }
+  }
+
+  /** Make test compatible with older version of ant. */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ResultSetTest.class);
+  }
+}
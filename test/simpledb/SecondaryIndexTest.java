@@ -0,0 +1,330 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Join;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.IndexFetch;
+import simpledb.index.IndexOnlyScan;
+import simpledb.index.SecondaryIndex;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class SecondaryIndexTest extends SimpleDbTestBase {
+
+  private HeapFile table;
+  private List<List<Integer>> tuples;
+  private SecondaryIndex index;
+  private TransactionId tid;
+
+  @Before public void setUp() throws Exception {
+    tuples = new ArrayList<>();
+    table = SystemTestUtil.createRandomHeapFile(2, 5000, 200, null, tuples, "c");
+    Database.getCatalog().addTable(table, "st");
+    File f = File.createTempFile("index", ".idx");
+    f.deleteOnExit();
+    index = Database.getCatalog().addIndex(table.getId(), "c0", f);
+    tid = new TransactionId();
+  }
+
+  @After public void tearDown() {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private int count(OpIterator it) throws Exception {
+    int cnt = 0;
+    it.open();
+    while (it.hasNext()) {
+      it.next();
+      cnt++;
+    }
+    it.close();
+    return cnt;
+  }
+
+  private int fetch(TransactionId tid, Predicate.Op op, int v) throws Exception {
+    return count(new IndexFetch(tid, index, "st", new IndexPredicate(op, new IntField(v))));
+  }
+
+  private Tuple tuple(int c0, int c1) {
+    Tuple t = new Tuple(table.getTupleDesc());
+    t.setField(0, new IntField(c0));
+    t.setField(1, new IntField(c1));
+    return t;
+  }
+
+  /**
+   * An index added to a table with tuples is built from them, and the fetch
+   * returns the matching tuples.
+   */
+  @Test public void buildAndFetch() throws Exception {
+    assertEquals(1, Database.getCatalog().getIndexes(table.getId()).size());
+    int eq = 0, lt = 0;
+    for (List<Integer> t : tuples) {
+      if (t.get(0) == 7)
+        eq++;
+      if (t.get(0) < 20)
+        lt++;
+    }
+    assertEquals(eq, fetch(tid, Predicate.Op.EQUALS, 7));
+    assertEquals(lt, fetch(tid, Predicate.Op.LESS_THAN, 20));
+    assertEquals(tuples.size(), fetch(tid, Predicate.Op.GREATER_THAN_OR_EQ, 0));
+    assertEquals(0, fetch(tid, Predicate.Op.GREATER_THAN, 200));
+  }
+
+  /**
+   * Tuples inserted and deleted through the buffer pool are added to and
+   * removed from the index, unless their transaction aborts.
+   */
+  @Test public void maintained() throws Exception {
+    TransactionId t1 = new TransactionId();
+    Tuple t = tuple(1000, 1);
+    Database.getBufferPool().insertTuple(t1, table.getId(), t);
+    Database.getBufferPool().insertTuple(t1, table.getId(), tuple(1000, 2));
+    assertEquals(2, fetch(t1, Predicate.Op.EQUALS, 1000));
+    Database.getBufferPool().transactionComplete(t1);
+
+    TransactionId t2 = new TransactionId();
+    Database.getBufferPool().deleteTuple(t2, t);
+    assertEquals(1, fetch(t2, Predicate.Op.EQUALS, 1000));
+    Database.getBufferPool().insertTuple(t2, table.getId(), tuple(1001, 3));
+    Database.getBufferPool().transactionComplete(t2, false);
+
+    TransactionId t3 = new TransactionId();
+    assertEquals(2, fetch(t3, Predicate.Op.EQUALS, 1000));
+    assertEquals(0, fetch(t3, Predicate.Op.EQUALS, 1001));
+    Database.getBufferPool().transactionComplete(t3);
+  }
+
+  // the leaf of a plan over a single table
+  private static OpIterator leaf(OpIterator plan) {
+    while (plan instanceof Operator)
+      plan = ((Operator) plan).getChildren()[0];
+    return plan;
+  }
+
+  private OpIterator plan(String query) throws ParsingException, IOException {
+    Parser p = new Parser();
+    return p.generateLogicalPlan(tid, query).physicalPlan(tid,
+        TableStats.getStatsMap(), false);
+  }
+
+  /**
+   * An index declared in a catalog file is built when the catalog is
+   * loaded, and used for a selective filter on its field.
+   */
+  @Test public void planned() throws Exception {
+    File dir = Files.createTempDirectory("catalog").toFile();
+    dir.deleteOnExit();
+    File data = new File(dir, "ht.dat");
+    data.deleteOnExit();
+    new File(dir, "ht.c0.idx").deleteOnExit();
+    Files.move(SystemTestUtil.createRandomHeapFileUnopened(2, 20000, 1000,
+        null, tuples).toPath(), data.toPath());
+    File catalog = new File(dir, "catalog.txt");
+    catalog.deleteOnExit();
+    try (FileWriter w = new FileWriter(catalog)) {
+      w.write("ht (c0 int, c1 int) index (c0)\n");
+    }
+    Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+    int id = Database.getCatalog().getTableId("ht");
+    assertEquals(1, Database.getCatalog().getIndexes(id).size());
+    TableStats.setTableStats("ht", new TableStats(id, 1000));
+
+    int expected = 0;
+    for (List<Integer> t : tuples)
+      if (t.get(0) == 5 && t.get(1) < 500)
+        expected++;
+    OpIterator plan = plan("SELECT * FROM ht WHERE ht.c1 < 500 AND ht.c0 = 5;");
+    assertTrue(leaf(plan) instanceof IndexFetch);
+    assertEquals(expected, count(plan));
+
+    plan = plan("SELECT * FROM ht WHERE ht.c0 >= 0;");
+    assertTrue(leaf(plan) instanceof SeqScan);
+    assertEquals(tuples.size(), count(plan));
+  }
+
+  /**
+   * A hash index declared in a catalog file is built when the catalog is
+   * loaded, kept up to date, and used for an equality filter on its field
+   * but not for a range.
+   */
+  @Test public void hashPlanned() throws Exception {
+    File dir = Files.createTempDirectory("catalog").toFile();
+    dir.deleteOnExit();
+    File data = new File(dir, "hh.dat");
+    data.deleteOnExit();
+    new File(dir, "hh.c0.hash").deleteOnExit();
+    Files.move(SystemTestUtil.createRandomHeapFileUnopened(2, 20000, 1000,
+        null, tuples).toPath(), data.toPath());
+    File catalog = new File(dir, "catalog.txt");
+    catalog.deleteOnExit();
+    try (FileWriter w = new FileWriter(catalog)) {
+      w.write("hh (c0 int, c1 int) hash (c0)\n");
+    }
+    Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+    int id = Database.getCatalog().getTableId("hh");
+    assertEquals(1, Database.getCatalog().getIndexes(id).size());
+    assertTrue(Database.getCatalog().getIndexes(id).get(0).isHash());
+
+    Tuple t = new Tuple(Database.getCatalog().getTupleDesc(id));
+    t.setField(0, new IntField(5));
+    t.setField(1, new IntField(-1));
+    Database.getBufferPool().insertTuple(tid, id, t);
+    Database.getBufferPool().transactionComplete(tid);
+    tid = new TransactionId();
+    TableStats.setTableStats("hh", new TableStats(id, 1000));
+
+    int expected = 1;
+    for (List<Integer> e : tuples)
+      if (e.get(0) == 5)
+        expected++;
+    OpIterator plan = plan("SELECT * FROM hh WHERE hh.c0 = 5;");
+    assertTrue(leaf(plan) instanceof IndexFetch);
+    assertTrue(((IndexFetch) leaf(plan)).getIndex().isHash());
+    assertEquals(expected, count(plan));
+
+    plan = plan("SELECT * FROM hh WHERE hh.c0 < 2;");
+    assertTrue(leaf(plan) instanceof SeqScan);
+  }
+
+  /**
+   * An index including other fields answers the queries reading only those
+   * and the indexed field on its own, for a filter on its field or scanned
+   * in full instead of the wider table, and the included fields are kept up
+   * to date.
+   */
+  @Test public void coveringPlanned() throws Exception {
+    File dir = Files.createTempDirectory("catalog").toFile();
+    dir.deleteOnExit();
+    File data = new File(dir, "ct.dat");
+    data.deleteOnExit();
+    new File(dir, "ct.c0.c1.idx").deleteOnExit();
+    Files.move(SystemTestUtil.createRandomHeapFileUnopened(6, 20000, 1000,
+        null, tuples).toPath(), data.toPath());
+    File catalog = new File(dir, "catalog.txt");
+    catalog.deleteOnExit();
+    try (FileWriter w = new FileWriter(catalog)) {
+      w.write("ct (c0 int, c1 int, c2 int, c3 int, c4 int, c5 int) index (c0, c1)\n");
+    }
+    Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+    int id = Database.getCatalog().getTableId("ct");
+    SecondaryIndex covering = Database.getCatalog().getIndexes(id).get(0);
+    assertEquals(0, covering.getField());
+    assertEquals(1, covering.getIncluded().length);
+
+    Tuple t = new Tuple(Database.getCatalog().getTupleDesc(id));
+    for (int i = 0; i < 6; i++)
+      t.setField(i, new IntField(i == 0 ? 5 : -1));
+    Database.getBufferPool().insertTuple(tid, id, t);
+    Database.getBufferPool().transactionComplete(tid);
+    tid = new TransactionId();
+    TableStats.setTableStats("ct", new TableStats(id, 1000));
+
+    int expected = 1, groups = 0, sum = -1;
+    boolean[] seen = new boolean[1000];
+    for (List<Integer> e : tuples) {
+      if (e.get(0) == 5) {
+        expected++;
+        sum += e.get(1);
+      }
+      if (e.get(0) >= 10 && e.get(0) < 20 && !seen[e.get(0)]) {
+        seen[e.get(0)] = true;
+        groups++;
+      }
+    }
+    OpIterator plan = plan("SELECT ct.c1 FROM ct WHERE ct.c0 = 5;");
+    assertTrue(leaf(plan) instanceof IndexOnlyScan);
+    assertEquals(expected, count(plan));
+    plan = plan("SELECT SUM(ct.c1) FROM ct WHERE ct.c0 = 5;");
+    plan.open();
+    assertEquals(sum, ((IntField) plan.next().getField(0)).getValue());
+    plan.close();
+
+    plan = plan("SELECT ct.c0, COUNT(*) FROM ct WHERE ct.c0 >= 10 AND ct.c0 < 20 GROUP BY ct.c0;");
+    assertTrue(leaf(plan) instanceof IndexOnlyScan);
+    assertEquals(groups, count(plan));
+
+    // a field not included needs the tuples of the table
+    plan = plan("SELECT ct.c2 FROM ct WHERE ct.c0 = 5;");
+    assertTrue(leaf(plan) instanceof IndexFetch);
+    assertEquals(expected, count(plan));
+
+    plan = plan("SELECT ct.c1, COUNT(*) FROM ct GROUP BY ct.c1;");
+    assertTrue(leaf(plan) instanceof IndexOnlyScan);
+    assertNull(((IndexOnlyScan) leaf(plan)).getIndexPredicate());
+    plan = plan("SELECT * FROM ct WHERE ct.c1 = 5;");
+    assertTrue(leaf(plan) instanceof SeqScan);
+  }
+
+  /**
+   * A join of a few outer tuples with a table indexed on its join field
+   * probes the index for each of them instead of reading the whole table.
+   */
+  @Test public void joinPlanned() throws Exception {
+    File dir = Files.createTempDirectory("catalog").toFile();
+    dir.deleteOnExit();
+    File data = new File(dir, "jt.dat");
+    data.deleteOnExit();
+    new File(dir, "jt.c0.idx").deleteOnExit();
+    Files.move(SystemTestUtil.createRandomHeapFileUnopened(2, 20000, 5000,
+        null, tuples).toPath(), data.toPath());
+    List<List<Integer>> outer = new ArrayList<>();
+    File outerData = new File(dir, "ot.dat");
+    outerData.deleteOnExit();
+    Files.move(SystemTestUtil.createRandomHeapFileUnopened(2, 5, 5000,
+        null, outer).toPath(), outerData.toPath());
+    File catalog = new File(dir, "catalog.txt");
+    catalog.deleteOnExit();
+    try (FileWriter w = new FileWriter(catalog)) {
+      w.write("jt (c0 int, c1 int) index (c0)\n");
+      w.write("ot (c0 int, c1 int)\n");
+    }
+    Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+    TableStats.setTableStats("jt", new TableStats(Database.getCatalog().getTableId("jt"), 1000));
+    TableStats.setTableStats("ot", new TableStats(Database.getCatalog().getTableId("ot"), 1000));
+
+    int expected = 0;
+    for (List<Integer> o : outer)
+      for (List<Integer> t : tuples)
+        if (o.get(1).equals(t.get(0)))
+          expected++;
+    OpIterator plan = plan("SELECT * FROM ot, jt WHERE ot.c1 = jt.c0;");
+    OpIterator join = plan;
+    while (!(join instanceof Join))
+      join = ((Operator) join).getChildren()[0];
+    assertTrue(join instanceof IndexNestedLoopJoin);
+    assertEquals(expected, count(plan));
+  }
+
+  /** Make test compatible with older version of ant. */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SecondaryIndexTest.class);
+  }
+}
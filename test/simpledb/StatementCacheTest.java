@@ -0,0 +1,80 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.optimizer.StatementCache;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class StatementCacheTest extends SimpleDbTestBase {
+
+  /**
+   * Statements differing in white space or a trailing semicolon share a key,
+   * but quoted strings are kept as they are.
+   */
+  @Test public void normalize() {
+    assertEquals("select * from t where t.a = 1",
+        StatementCache.normalize("  select *\n\tfrom t   where t.a = 1 ; "));
+    assertEquals("select * from t where t.s = 'a  b'",
+        StatementCache.normalize("select * from t where t.s = 'a  b';"));
+    assertEquals(StatementCache.normalize("select * from t;"),
+        StatementCache.normalize("select  *  from  t"));
+  }
+
+  /**
+   * The least recently used plan is evicted when the cache is full.
+   */
+  @Test public void evictsLeastRecentlyUsed() {
+    StatementCache<String> cache = new StatementCache<>(2);
+    cache.put("a", "A");
+    cache.put("b", "B");
+    assertEquals("A", cache.get("a"));
+    cache.put("c", "C");
+    assertEquals(2, cache.size());
+    assertNull(cache.get("b"));
+    assertEquals("A", cache.get("a"));
+    assertEquals("C", cache.get("c"));
+    assertEquals(3, cache.getHits());
+    assertEquals(1, cache.getMisses());
+  }
+
+  /**
+   * Plans are dropped when tables are added to the catalog, when the
+   * statistics of a table change, and when the catalog is replaced.
+   */
+  @Test public void invalidation() throws Exception {
+    StatementCache<String> cache = new StatementCache<>();
+    cache.put("a", "A");
+    assertEquals("A", cache.get("a"));
+
+    File temp = File.createTempFile("cache", ".dat");
+    temp.deleteOnExit();
+    HeapFile f = Utility.createEmptyHeapFile(temp.getAbsolutePath(), 2);
+    Database.getCatalog().addTable(f, "cached");
+    assertNull(cache.get("a"));
+
+    cache.put("a", "A");
+    TableStats.setTableStats("cached", new TableStats(f.getId(), 1));
+    assertNull(cache.get("a"));
+
+    cache.put("a", "A");
+    Database.reset();
+    assertNull(cache.get("a"));
+    assertEquals(0, cache.size());
+  }
+
+  /** Make test compatible with older version of ant. */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(StatementCacheTest.class);
+  }
+}
@@ -1,7 +1,11 @@
 package simpledb;
 
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.Before;
@@ -10,14 +14,23 @@ import org.junit.Assert;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.execution.Delete;
+import simpledb.execution.Filter;
+import simpledb.execution.Insert;
 import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.SecondaryIndex;
 import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
 import simpledb.storage.Field;
 import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
 import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
 
 public class TableStatsTest extends SimpleDbTestBase {
 	public static final int IO_COST = 71;
@@ -160,4 +173,160 @@ public class TableStatsTest extends SimpleDbTestBase {
 			Assert.assertEquals(0.0, s.estimateSelectivity(col, Predicate.Op.LESS_THAN_OR_EQ, belowMin), 0.001);
 		}
 	}
+
+	/**
+	 * Verify that statistics computed from a sample of the pages of a table
+	 * estimate its cardinality and selectivities closely.
+	 */
+	@Test public void sampledStatsTest() {
+		TableStats.setSampleSize(1000);
+		try {
+			TableStats s = new TableStats(this.tableId, IO_COST);
+			Assert.assertEquals(f.numPages() * IO_COST, s.estimateScanCost(), 0.001);
+			Assert.assertEquals(10200, s.totalTuples(), 500);
+			for (int col = 0; col < 10; col++) {
+				Assert.assertEquals(1.0/32.0, s.estimateSelectivity(col, Predicate.Op.EQUALS, new IntField(16)), 0.02);
+				Assert.assertEquals(0.5, s.estimateSelectivity(col, Predicate.Op.LESS_THAN, new IntField(16)), 0.1);
+				Assert.assertEquals(0.0, s.estimateSelectivity(col, Predicate.Op.GREATER_THAN, new IntField(42)), 0.001);
+			}
+		} finally {
+			TableStats.resetSampleSize();
+		}
+	}
+
+	/**
+	 * Verify that inserts and deletes update the statistics of a table
+	 * without scanning it again.
+	 */
+	@Test public void incrementalStatsTest() throws Exception {
+		TableStats s = new TableStats(this.tableId, IO_COST);
+		TableStats.setTableStats(tableName, s);
+		final Field outside = new IntField(100);
+		Assert.assertEquals(0.0, s.estimateSelectivity(0, Predicate.Op.EQUALS, outside), 0.001);
+
+		int[] values = new int[10 * 500];
+		Arrays.fill(values, 100);
+		TransactionId tid = new TransactionId();
+		Insert insert = new Insert(tid, TestUtil.createTupleList(10, values), tableId);
+		insert.open();
+		insert.next();
+		insert.close();
+		Assert.assertEquals(10700, s.totalTuples());
+		Assert.assertEquals(f.numPages() * IO_COST, s.estimateScanCost(), 0.001);
+		Assert.assertEquals(500.0 / 10700, s.estimateSelectivity(0, Predicate.Op.GREATER_THAN, new IntField(50)), 0.001);
+
+		Delete delete = new Delete(tid, new Filter(new Predicate(0, Predicate.Op.EQUALS, outside),
+				new SeqScan(tid, tableId)));
+		delete.open();
+		delete.next();
+		delete.close();
+		Database.getBufferPool().transactionComplete(tid);
+		Assert.assertEquals(10200, s.totalTuples());
+		Assert.assertEquals(0.0, s.estimateSelectivity(0, Predicate.Op.EQUALS, outside), 0.001);
+	}
+
+	/**
+	 * Verify that equality predicates on a declared group of correlated
+	 * columns are estimated together, not as if they were independent.
+	 */
+	@Test public void columnGroupStatsTest() throws Exception {
+		File dir = Files.createTempDirectory("stats").toFile();
+		File schema = new File(dir, "catalog.txt");
+		File data = new File(dir, "addr.dat");
+		try (FileWriter w = new FileWriter(schema)) {
+			w.write("addr (city int, zip int, n int) stats (city, zip)\n");
+		}
+		// each city has a single zip code
+		List<List<Integer>> rows = new ArrayList<>();
+		for (int i = 0; i < 10000; i++)
+			rows.add(Arrays.asList(i % 100, (i % 100) * 7 + 3, i));
+		HeapFileEncoder.convert(rows, data, BufferPool.getPageSize(), 3);
+		try {
+			Database.getCatalog().loadSchema(schema.getPath());
+			int id = Database.getCatalog().getTableId("addr");
+			Assert.assertEquals(1, Database.getCatalog().getColumnGroups(id).size());
+			Assert.assertArrayEquals(new int[] { 0, 1 }, Database.getCatalog().getColumnGroups(id).get(0));
+
+			TableStats s = new TableStats(id, IO_COST);
+			List<Predicate> both = Arrays.asList(
+					new Predicate(0, Predicate.Op.EQUALS, new IntField(42)),
+					new Predicate(1, Predicate.Op.EQUALS, new IntField(42 * 7 + 3)));
+			Assert.assertEquals(0.01, s.estimateSelectivity(both), 0.002);
+
+			// other predicates are still multiplied in
+			List<Predicate> more = new ArrayList<>(both);
+			more.add(new Predicate(2, Predicate.Op.LESS_THAN, new IntField(5000)));
+			Assert.assertEquals(0.005, s.estimateSelectivity(more), 0.001);
+
+			// without the group, the columns are assumed independent
+			Database.getCatalog().addTable(Database.getCatalog().getDatabaseFile(id), "addr2");
+			TableStats independent = new TableStats(Database.getCatalog().getTableId("addr2"), IO_COST);
+			Assert.assertEquals(0.0001, independent.estimateSelectivity(both), 0.00005);
+		} finally {
+			for (File file : dir.listFiles())
+				file.delete();
+			dir.delete();
+		}
+	}
+
+	/**
+	 * Verify that statistics are saved next to the catalog, and only
+	 * computed again for tables whose files changed.
+	 */
+	@Test public void savedStatsTest() throws Exception {
+		File dir = Files.createTempDirectory("stats").toFile();
+		File schema = new File(dir, "catalog.txt");
+		File data = new File(dir, "t.dat");
+		try (FileWriter w = new FileWriter(schema)) {
+			w.write("t (a int, b int) index (b)\n");
+		}
+		List<List<Integer>> rows = new ArrayList<>();
+		for (int i = 0; i < 100; i++)
+			rows.add(Arrays.asList(i, i % 7));
+		HeapFileEncoder.convert(rows, data, BufferPool.getPageSize(), 2);
+		try {
+			Database.getCatalog().loadSchema(schema.getPath());
+			int id = Database.getCatalog().getTableId("t");
+			TableStats.computeStatistics();
+			File saved = Database.getCatalog().getStatisticsFile();
+			Assert.assertTrue(saved.exists());
+			Assert.assertFalse(new File(saved.getPath() + ".tmp").exists());
+			Assert.assertEquals(100, TableStats.getTableStats("t").totalTuples());
+
+			// an insert the file does not show yet, so that loaded statistics
+			// can be told from computed ones
+			Tuple t = new Tuple(Database.getCatalog().getTupleDesc(id));
+			t.setField(0, new IntField(1));
+			t.setField(1, new IntField(1));
+			TableStats.recordInsert(id, t);
+			TableStats.saveStatistics();
+			TableStats.getStatsMap().clear();
+			TableStats.computeStatistics();
+			Assert.assertEquals(101, TableStats.getTableStats("t").totalTuples());
+
+			// the statistics of the index are found again in a catalog
+			// loaded again, whose index objects are new
+			Database.getCatalog().clear();
+			Database.getCatalog().loadSchema(schema.getPath());
+			TableStats.getStatsMap().clear();
+			TableStats.computeStatistics();
+			Assert.assertEquals(101, TableStats.getTableStats("t").totalTuples());
+			SecondaryIndex index = Database.getCatalog().getIndexes(id).get(0);
+			Assert.assertTrue(TableStats.getTableStats("t").estimateIndexOnlyCost(index, 1.0)
+					< Double.POSITIVE_INFINITY);
+
+			// a changed file is scanned again
+			for (int i = 0; i < 2000; i++)
+				rows.add(Arrays.asList(i, i % 7));
+			HeapFileEncoder.convert(rows, data, BufferPool.getPageSize(), 2);
+			Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+			TableStats.getStatsMap().clear();
+			TableStats.computeStatistics();
+			Assert.assertEquals(2100, TableStats.getTableStats("t").totalTuples());
+		} finally {
+			for (File file : dir.listFiles())
+				file.delete();
+			dir.delete();
+		}
+	}
 }
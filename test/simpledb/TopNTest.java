@@ -0,0 +1,121 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.execution.Limit;
+import simpledb.execution.OpIterator;
+import simpledb.execution.TopN;
+import simpledb.storage.IntField;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TopNTest extends SimpleDbTestBase {
+
+  final int width = 2;
+  OpIterator scan;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void setUp() {
+    this.scan = TestUtil.createTupleList(width,
+        new int[] { 5, 1,
+                    3, 2,
+                    9, 3,
+                    1, 4,
+                    7, 5,
+                    3, 6 });
+  }
+
+  private OpIterator expected(int... tupdata) throws Exception {
+    TupleIterator it = TestUtil.createTupleList(width, tupdata);
+    it.open();
+    return it;
+  }
+
+  /**
+   * Unit test for TopN with ascending order
+   */
+  @Test public void topAscending() throws Exception {
+    TopN op = new TopN(3, 0, true, scan);
+    OpIterator expected = TestUtil.createTupleList(width,
+        new int[] { 1, 4,
+                    3, 2,
+                    3, 6 });
+    expected.open();
+    op.open();
+    assertEquals(new IntField(1), op.next().getField(0));
+    assertEquals(new IntField(3), op.next().getField(0));
+    assertEquals(new IntField(3), op.next().getField(0));
+    assertTrue(TestUtil.checkExhausted(op));
+    TestUtil.matchAllTuples(expected, op);
+    op.close();
+  }
+
+  /**
+   * Unit test for TopN with descending order
+   */
+  @Test public void topDescending() throws Exception {
+    TopN op = new TopN(2, 0, false, scan);
+    op.open();
+    TestUtil.compareDbIterators(expected(9, 3, 7, 5), op);
+    op.close();
+  }
+
+  /**
+   * A limit larger than the input returns everything, sorted; a limit of
+   * zero returns nothing
+   */
+  @Test public void limitBounds() throws Exception {
+    TopN op = new TopN(100, 1, false, scan);
+    op.open();
+    TestUtil.compareDbIterators(
+        expected(3, 6, 7, 5, 1, 4, 9, 3, 3, 2, 5, 1), op);
+    op.close();
+
+    op = new TopN(0, 0, true, scan);
+    op.open();
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for Limit without an ordering
+   */
+  @Test public void limit() throws Exception {
+    Limit op = new Limit(4, scan);
+    op.open();
+    TestUtil.compareDbIterators(expected(5, 1, 3, 2, 9, 3, 1, 4), op);
+    op.rewind();
+    TestUtil.compareDbIterators(expected(5, 1, 3, 2, 9, 3, 1, 4), op);
+    op.close();
+  }
+
+  /**
+   * Unit test for stripping a trailing LIMIT clause off a statement
+   */
+  @Test public void stripLimit() throws Exception {
+    int[] limit = new int[1];
+    assertEquals("select * from t order by t.a desc;", Parser.stripLimit(
+        "select * from t order by t.a desc limit 50;", limit));
+    assertEquals(50, limit[0]);
+    assertEquals("SELECT * FROM t", Parser.stripLimit(
+        "SELECT * FROM t\nLIMIT 0", limit));
+    assertEquals(0, limit[0]);
+    assertEquals("select * from t where t.a = 'limit 5';", Parser.stripLimit(
+        "select * from t where t.a = 'limit 5';", limit));
+    assertEquals(-1, limit[0]);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopNTest.class);
+  }
+}
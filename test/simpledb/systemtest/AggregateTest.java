@@ -2,6 +2,7 @@ package simpledb.systemtest;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -10,6 +11,8 @@ import org.junit.Test;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.execution.Aggregate;
+import simpledb.execution.AggregateHashTable;
+import simpledb.execution.AggregateSpec;
 import simpledb.execution.Aggregator;
 import simpledb.execution.SeqScan;
 import simpledb.storage.DbFile;
@@ -121,6 +124,43 @@ public class AggregateTest extends SimpleDbTestBase {
         doAggregate(Aggregator.Op.AVG, Aggregator.NO_GROUPING);
     }
 
+    /**
+     * A parallel aggregation over many pages, with partial aggregates that
+     * spill, returns the same groups as the serial one.
+     */
+    @Test public void testParallel() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> createdTuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 20 * ROWS, MAX_VALUE, null, createdTuples);
+        Aggregator.Op[] ops = { Aggregator.Op.MIN, Aggregator.Op.MAX,
+                Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT };
+        List<AggregateSpec> specs = new ArrayList<>();
+        List<List<List<Integer>>> perOp = new ArrayList<>();
+        for (Aggregator.Op op : ops) {
+            specs.add(new AggregateSpec(op, 1));
+            perOp.add(aggregate(createdTuples, op, 0));
+        }
+        // one row per group: the key, then each aggregate in turn
+        Map<Integer, List<Integer>> rows = new HashMap<>();
+        for (List<List<Integer>> results : perOp) {
+            for (List<Integer> r : results)
+                rows.computeIfAbsent(r.get(0), k -> new ArrayList<>(Arrays.asList(k))).add(r.get(1));
+        }
+        List<List<Integer>> expected = new ArrayList<>(rows.values());
+
+        AggregateHashTable.setMaxGroups(8);
+        try {
+            TransactionId tid = new TransactionId();
+            Aggregate ag = new Aggregate(new SeqScan(tid, table.getId(), ""),
+                    Arrays.asList(0), specs);
+            ag.setParallelism(4);
+            SystemTestUtil.matchTuples(ag, expected);
+            Database.getBufferPool().transactionComplete(tid);
+        } finally {
+            AggregateHashTable.resetMaxGroups();
+        }
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(AggregateTest.class);
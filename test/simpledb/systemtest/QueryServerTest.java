@@ -0,0 +1,183 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.optimizer.TableStats;
+import simpledb.server.QueryClient;
+import simpledb.server.QueryServer;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+
+public class QueryServerTest extends SimpleDbTestBase {
+  private static final int ROWS = 3000;
+
+  private QueryServer server;
+  private List<List<Integer>> tuples;
+
+  @Before public void startServer() throws Exception {
+    tuples = new ArrayList<>();
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, ROWS, 1000, null, tuples, "c");
+    Database.getCatalog().addTable(f, "srv");
+    TableStats.computeStatistics();
+    server = new QueryServer(0, 4);
+    server.start();
+  }
+
+  @After public void stopServer() {
+    server.close();
+  }
+
+  private QueryClient connect() throws IOException {
+    return new QueryClient("localhost", server.getPort());
+  }
+
+  private static int count(QueryClient c) throws IOException, DbException {
+    List<Tuple> r = c.query("select count(*) from srv;");
+    return ((IntField) r.get(0).getField(0)).getValue();
+  }
+
+  /**
+   * A result larger than one batch is streamed in several fetches.
+   */
+  @Test public void fetchInBatches() throws Exception {
+    try (QueryClient c = connect()) {
+      int id = c.prepare("select * from srv;");
+      TupleDesc td = c.execute(id);
+      assertEquals(2, td.numFields());
+      List<Tuple> result = new ArrayList<>();
+      int batches = 0;
+      QueryClient.Batch b;
+      do {
+        b = c.fetch(500);
+        assertTrue(b.tuples.size() <= 500);
+        result.addAll(b.tuples);
+        batches++;
+      } while (!b.done);
+      c.commit();
+      assertTrue(batches >= ROWS / 500);
+      SystemTestUtil.matchTuples(new TupleIterator(td, result), tuples);
+    }
+  }
+
+  /**
+   * Several clients run queries at the same time.
+   */
+  @Test public void concurrentClients() throws Exception {
+    final int CLIENTS = 6;
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < CLIENTS; i++) {
+      Thread t = new Thread(() -> {
+        try (QueryClient c = connect()) {
+          for (int j = 0; j < 5; j++) {
+            assertEquals(ROWS, count(c));
+            assertEquals(ROWS, c.query("select * from srv;").size());
+          }
+        } catch (Throwable e) {
+          failure.compareAndSet(null, e);
+        }
+      });
+      threads.add(t);
+      t.start();
+    }
+    for (Thread t : threads)
+      t.join();
+    if (failure.get() != null)
+      throw new AssertionError(failure.get());
+  }
+
+  /**
+   * A prepared statement is run with different parameter values.
+   */
+  @Test public void parameters() throws Exception {
+    try (QueryClient c = connect()) {
+      String sql = "select * from srv where srv.c0 < ?;";
+      assertEquals(c.prepare(sql), c.prepare(sql));
+      for (int v = 0; v <= 1000; v += 250) {
+        int expected = 0;
+        for (List<Integer> t : tuples) {
+          if (t.get(0) < v)
+            expected++;
+        }
+        assertEquals(expected, c.query(sql, new IntField(v)).size());
+      }
+      try {
+        c.query(sql);
+        fail("expected DbException");
+      } catch (DbException expected) {
+      }
+    }
+  }
+
+  /**
+   * A bad statement is reported to the client, which can go on using its
+   * session.
+   */
+  @Test public void errorKeepsSession() throws Exception {
+    try (QueryClient c = connect()) {
+      try {
+        c.query("select * from nosuchtable;");
+        fail("expected DbException");
+      } catch (DbException expected) {
+      }
+      try {
+        c.fetch(10);
+        fail("expected DbException");
+      } catch (DbException expected) {
+      }
+      assertEquals(ROWS, count(c));
+    }
+  }
+
+  /**
+   * Inserts are only visible to other sessions once they are committed, and
+   * are undone by an abort.
+   */
+  @Test public void commitAndAbort() throws Exception {
+    try (QueryClient writer = connect(); QueryClient reader = connect()) {
+      writer.execute(writer.prepare("insert into srv values (1, 2);"));
+      assertEquals(1, writer.fetch(10).tuples.size());
+      writer.abort();
+      assertEquals(ROWS, count(reader));
+
+      writer.execute(writer.prepare("insert into srv values (1, 2);"));
+      writer.fetch(10);
+      writer.commit();
+      assertEquals(ROWS + 1, count(reader));
+    }
+  }
+
+  /**
+   * Closing a connection aborts its open transaction.
+   */
+  @Test public void disconnectAborts() throws Exception {
+    try (QueryClient writer = connect()) {
+      writer.execute(writer.prepare("insert into srv values (1, 2);"));
+      writer.fetch(10);
+    }
+    try (QueryClient reader = connect()) {
+      assertEquals(ROWS, count(reader));
+    }
+  }
+
+  /** Make test compatible with older version of ant. */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(QueryServerTest.class);
+  }
+}